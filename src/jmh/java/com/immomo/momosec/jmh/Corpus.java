@@ -0,0 +1,303 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.jmh;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmark 语料
+ *
+ * (1) testData 中的 mapper XML / Java 测试用例里的 SQL
+ * (2) corpus/regex.txt 中从开源项目收集的正则
+ * (3) 固定 seed 生成的随机字面量，保证多次运行语料一致
+ */
+public final class Corpus {
+    public static final long SEED = 104729L;
+
+    private static final String[] MAPPER_XML = {
+            "/lang/xml/rule/momosecurity/MybatisXmlSQLi/Vuln.xml"
+    };
+    private static final String[] SQL_JAVA = {
+            "/lang/java/rule/momosecurity/PolyadicExpressionSQLi/Vuln.java",
+            "/lang/java/rule/momosecurity/PolyadicExpressionSQLi/LiteralStrNotVul.java",
+            "/lang/java/rule/momosecurity/PlaceholderStringSQLi/Vuln.java",
+            "/lang/java/rule/momosecurity/MybatisAnnotationSQLi/Vuln.java"
+    };
+    private static final String REGEX_TXT = "/corpus/regex.txt";
+
+    private static final Pattern xmlTagPattern = Pattern.compile("<[^>]*>");
+    private static final Pattern dollarVarPattern = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final Pattern javaStringPattern = Pattern.compile("\"((?:[^\"\\\\\\n]|\\\\.)*)\"");
+
+    private static final String[] SQL_WORDS = {
+            "select", "*", "id,", "name", "from", "table", "where", "id", "=", "and", "or", "in", "(",
+            ")", "order", "by", "group", "limit", "like", "update", "set", "insert", "into", "values",
+            "delete", "join", "on", "having", "count(1)", ">", "<", "'", "desc", "\n", "\t"
+    };
+    private static final String[] LOG_WORDS = {
+            "user", "cache", "from", "set", "into", "offset", "loaded", "config", "value", "to", "  ", "retry",
+            "request", "failed", "id=42", "took", "12ms", "settings", "reset", "from:", "\t"
+    };
+    private static final String REGEX_ATOMS = "ab.\\d\\w\\s[a-z][^0-9]";
+    private static final String[] REGEX_QUANTIFIERS = { "", "", "*", "+", "?", "{2,5}", "*?", "+" };
+
+    private Corpus() {}
+
+    /**
+     * SQL 拼接点 (prefix, var, suffix)
+     * @param source mapper | annotation | random
+     * @return List
+     */
+    public static List<String[]> sqlJoins(String source) {
+        List<String> texts;
+        switch (source) {
+            case "mapper":
+                texts = mapperTexts();
+                break;
+            case "annotation":
+                texts = javaStrings(SQL_JAVA[3]);
+                break;
+            case "random":
+                texts = randomSql(200, true);
+                break;
+            default:
+                throw new IllegalArgumentException(source);
+        }
+
+        List<String[]> joins = new ArrayList<>();
+        for (String text : texts) {
+            Matcher m = dollarVarPattern.matcher(text);
+            while (m.find()) {
+                joins.add(new String[]{ text.substring(0, m.start()), m.group(1), text.substring(m.end()) });
+            }
+        }
+        return requireNonEmpty(joins, source);
+    }
+
+    /**
+     * SQL 语句候选
+     * @param source testData | random | log | multiKB
+     * @return List
+     */
+    public static List<String> sqlStatements(String source) {
+        List<String> statements = new ArrayList<>();
+        switch (source) {
+            case "testData":
+                statements.addAll(mapperTexts());
+                for (String path : SQL_JAVA) {
+                    statements.addAll(javaStrings(path));
+                }
+                break;
+            case "random":
+                statements.addAll(randomSql(500, false));
+                break;
+            case "log":
+                statements.addAll(logMessages(500, 80, 300));
+                break;
+            case "multiKB":
+                statements.addAll(logMessages(50, 2048, 8192));
+                break;
+            default:
+                throw new IllegalArgumentException(source);
+        }
+        return requireNonEmpty(statements, source);
+    }
+
+    /**
+     * 正则语料
+     * @param source harvested | random
+     * @return List
+     */
+    public static List<String> regexes(String source) {
+        switch (source) {
+            case "harvested":
+                return requireNonEmpty(readLines(REGEX_TXT).stream()
+                        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                        .collect(Collectors.toList()), source);
+            case "random":
+                return randomRegexes(500);
+            default:
+                throw new IllegalArgumentException(source);
+        }
+    }
+
+    /**
+     * 随机字面量
+     * @param source ip | token | word
+     * @return List
+     */
+    public static List<String> literals(String source) {
+        Random random = new Random(SEED);
+        List<String> literals = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            switch (source) {
+                case "ip":
+                    // 一半合法 IPv4，一半为版本号、越界等近似串
+                    literals.add(random.nextBoolean()
+                            ? String.format("%d.%d.%d.%d", random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256))
+                            : String.format("%d.%d.%d", random.nextInt(20), random.nextInt(300), random.nextInt(1000)));
+                    break;
+                case "token":
+                    literals.add(randomString(random, 8 + random.nextInt(57),
+                            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/_-"));
+                    break;
+                case "word":
+                    literals.add(randomString(random, 4 + random.nextInt(12), "abcdefghijklmnopqrstuvwxyz"));
+                    break;
+                default:
+                    throw new IllegalArgumentException(source);
+            }
+        }
+        return literals;
+    }
+
+    private static List<String> mapperTexts() {
+        List<String> texts = new ArrayList<>();
+        for (String path : MAPPER_XML) {
+            for (String text : xmlTagPattern.split(read(path))) {
+                if (!text.trim().isEmpty()) {
+                    texts.add(text);
+                }
+            }
+        }
+        return texts;
+    }
+
+    private static List<String> javaStrings(String path) {
+        List<String> strings = new ArrayList<>();
+        Matcher m = javaStringPattern.matcher(read(path));
+        while (m.find()) {
+            String s = m.group(1)
+                    .replace("\\\"", "\"")
+                    .replace("\\n", "\n")
+                    .replace("\\t", "\t")
+                    .replace("\\\\", "\\");
+            if (!s.isEmpty()) {
+                strings.add(s);
+            }
+        }
+        return strings;
+    }
+
+    private static List<String> randomSql(int count, boolean withVar) {
+        Random random = new Random(SEED);
+        List<String> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            int words = 4 + random.nextInt(28);
+            for (int j = 0; j < words; j++) {
+                if (withVar && random.nextInt(6) == 0) {
+                    sb.append("${var").append(j).append('}');
+                } else {
+                    sb.append(SQL_WORDS[random.nextInt(SQL_WORDS.length)]);
+                }
+                sb.append(' ');
+            }
+            statements.add(sb.toString());
+        }
+        return statements;
+    }
+
+    /**
+     * 日志、提示信息一类的长文本，半数以 DML 动词开头，夹杂大量空白与 from / set / into，但很少出现 where
+     */
+    private static List<String> logMessages(int count, int minLength, int maxLength) {
+        Random random = new Random(SEED);
+        List<String> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(random.nextBoolean() ? "update " : "select ");
+            int length = minLength + random.nextInt(maxLength - minLength);
+            while (sb.length() < length) {
+                sb.append(LOG_WORDS[random.nextInt(LOG_WORDS.length)]).append(' ');
+            }
+            if (random.nextInt(10) == 0) {
+                sb.append("where");
+            }
+            messages.add(sb.toString());
+        }
+        return messages;
+    }
+
+    private static List<String> randomRegexes(int count) {
+        Random random = new Random(SEED);
+        List<String> regexes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder("^");
+            int atoms = 2 + random.nextInt(10);
+            int depth = 0;
+            for (int j = 0; j < atoms; j++) {
+                if (random.nextInt(4) == 0) {
+                    sb.append('(');
+                    depth++;
+                }
+                int start = random.nextInt(REGEX_ATOMS.length() - 1);
+                sb.append(REGEX_ATOMS, start, start + 1 + random.nextInt(Math.min(5, REGEX_ATOMS.length() - start)));
+                if (depth > 0 && random.nextInt(3) == 0) {
+                    sb.append(')');
+                    depth--;
+                }
+                sb.append(REGEX_QUANTIFIERS[random.nextInt(REGEX_QUANTIFIERS.length)]);
+            }
+            while (depth-- > 0) {
+                sb.append(")+");
+            }
+            regexes.add(sb.append('$').toString());
+        }
+        return regexes;
+    }
+
+    private static String randomString(Random random, int length, String alphabet) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+
+    private static <T> List<T> requireNonEmpty(List<T> list, String source) {
+        if (list.isEmpty()) {
+            throw new IllegalStateException("empty corpus: " + source);
+        }
+        return list;
+    }
+
+    private static String read(String path) {
+        return String.join("\n", readLines(path));
+    }
+
+    private static List<String> readLines(String path) {
+        InputStream in = Corpus.class.getResourceAsStream(path);
+        if (in == null) {
+            throw new IllegalStateException("corpus not found: " + path);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.rule.momosecurity;
+
+import com.immomo.momosec.jmh.Corpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * BaseSQLi#isSql
+ * 每次调用取语料中的下一条，ops/s 与 gc.alloc.rate.norm 均为单次调用的开销
+ *
+ * legacyRegex 为改为单次扫描之前的正则实现，用于对照
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BaseSQLiBenchmark {
+
+    private static final Pattern legacySqlPattern =
+            Pattern.compile("^\\s*(select|delete|update|insert)\\s+.*?(from|into|set)\\s+.*?where.*", Pattern.CASE_INSENSITIVE);
+
+    @Param({"testData", "random", "log", "multiKB"})
+    public String corpus;
+
+    private String[] inputs;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        inputs = Corpus.sqlStatements(corpus).toArray(new String[0]);
+    }
+
+    @Benchmark
+    public boolean isSql() {
+        String input = inputs[index];
+        if (++index == inputs.length) {
+            index = 0;
+        }
+        return BaseSQLi.isSql(input);
+    }
+
+    @Benchmark
+    public boolean legacyRegex() {
+        String input = inputs[index];
+        if (++index == inputs.length) {
+            index = 0;
+        }
+        return legacySqlPattern.matcher(input).find();
+    }
+}
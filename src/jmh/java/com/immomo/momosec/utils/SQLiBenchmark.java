@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils;
+
+import com.immomo.momosec.jmh.Corpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLi#hasVulOnSQLJoinStr
+ * 每次调用取语料中的下一条，ops/s 与 gc.alloc.rate.norm 均为单次调用的开销
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SQLiBenchmark {
+
+    @Param({"mapper", "annotation", "random"})
+    public String corpus;
+
+    private String[][] inputs;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        inputs = Corpus.sqlJoins(corpus).toArray(new String[0][]);
+    }
+
+    @Benchmark
+    public boolean hasVulOnSQLJoinStr() {
+        String[] input = inputs[index];
+        if (++index == inputs.length) {
+            index = 0;
+        }
+        return SQLi.hasVulOnSQLJoinStr(input[0], input[1], input[2]);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import com.immomo.momosec.jmh.Corpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RegexAnalyzer#analyze(String, int, MatchMode)，即 RegexDos 未命中 RegexVerdictCache 时的完整分析：
+ * 解析、指数级歧义判断，以及 FIND 时补上隐式 [\s\S]*? 前缀后的多项式 (三元乘积) 判断。不经过缓存。
+ * 每次调用取语料中的下一条，ops/s 与 gc.alloc.rate.norm 均为单次调用的开销
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RegexAnalyzerBenchmark {
+
+    @Param({"harvested", "random"})
+    public String corpus;
+
+    @Param({"FIND", "FULL"})
+    public RegexAnalyzer.MatchMode mode;
+
+    private String[] inputs;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        inputs = Corpus.regexes(corpus).toArray(new String[0]);
+    }
+
+    @Benchmark
+    public RegexAnalyzer.Result analyze() {
+        String input = inputs[index];
+        if (++index == inputs.length) {
+            index = 0;
+        }
+        return RegexAnalyzer.analyze(input, 0, mode);
+    }
+}
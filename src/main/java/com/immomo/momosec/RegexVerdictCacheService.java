@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec;
+
+import com.immomo.momosec.utils.regex.RegexVerdictCache;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 应用级的正则分析结论缓存 (见 RegexVerdictCache)，所有项目共享
+ *
+ * 默认持久化到 {idea config dir}/options/momosec-regex-cache.xml，IDE 重启后无需重新分析与验证；
+ * -Dmomosec.regex.cache.persist=false 关闭持久化，-Dmomosec.regex.cache.size 指定容量，默认 4096。
+ */
+@State(name = "MomoSecRegexVerdictCache", storages = @Storage(value = "momosec-regex-cache.xml", roamingType = RoamingType.DISABLED))
+public class RegexVerdictCacheService implements PersistentStateComponent<RegexVerdictCacheService.CacheState> {
+    public static final String PERSIST_PROPERTY = "momosec.regex.cache.persist";
+    public static final String SIZE_PROPERTY = "momosec.regex.cache.size";
+
+    private static final boolean persist = Boolean.parseBoolean(System.getProperty(PERSIST_PROPERTY, "true"));
+
+    // 不在 IDE 中运行时 (如 benchmark) 使用
+    private static final RegexVerdictCache standalone = new RegexVerdictCache(Integer.getInteger(SIZE_PROPERTY, RegexVerdictCache.DEFAULT_CAPACITY));
+
+    private final RegexVerdictCache cache = new RegexVerdictCache(Integer.getInteger(SIZE_PROPERTY, RegexVerdictCache.DEFAULT_CAPACITY));
+
+    public static class CacheState {
+        public List<String> entries = new ArrayList<>();
+    }
+
+    @NotNull
+    public static RegexVerdictCache getCache() {
+        if (ApplicationManager.getApplication() == null) {
+            return standalone;
+        }
+        return ServiceManager.getService(RegexVerdictCacheService.class).cache;
+    }
+
+    @Nullable
+    @Override
+    public CacheState getState() {
+        if (!persist) {
+            return null;
+        }
+        CacheState state = new CacheState();
+        state.entries = cache.export();
+        return state;
+    }
+
+    @Override
+    public void loadState(@NotNull CacheState state) {
+        if (persist) {
+            cache.importEntries(state.entries);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec;
+
+import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
+import com.immomo.momosec.utils.VulnSignBaseline;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.PsiElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 漏洞签名白名单(基线)
+ *
+ * 项目根目录下的 .momosec-baseline 保存已接受漏洞的签名 (见 VulnSignBaseline)，
+ * 可由 momosec-scan --write-baseline 生成。项目打开时加载，文件变化后自动重新加载并刷新高亮。
+ *
+ * 规则上报问题前，以问题元素的 getVulnSign 在基线中二分查找，命中则不再上报。
+ */
+public class VulnSignWhiteListService implements StartupActivity {
+    private static final Logger LOG = Logger.getInstance(VulnSignWhiteListService.class);
+
+    public static final String BASELINE_FILE_NAME = ".momosec-baseline";
+
+    private static final Key<VulnSignBaseline> BASELINE_KEY = Key.create("MomoSec.VulnSignBaseline");
+
+    @Override
+    public void runActivity(@NotNull Project project) {
+        reload(project);
+        Path baselinePath = getBaselinePath(project);
+        if (baselinePath == null) {
+            return ;
+        }
+        String baselineFile = FileUtil.toSystemIndependentName(baselinePath.toString());
+        project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    // 只响应本项目的基线文件，其他项目或子目录中的同名文件不触发
+                    if (isBaselineEvent(event, baselineFile)) {
+                        reload(project);
+                        DaemonCodeAnalyzer.getInstance(project).restart();
+                        return ;
+                    }
+                }
+            }
+        });
+    }
+
+    private static boolean isBaselineEvent(@NotNull VFileEvent event, @NotNull String baselineFile) {
+        if (FileUtil.pathsEqual(event.getPath(), baselineFile)) {
+            return true;
+        }
+        // 改名或移动时，原路径是基线文件也需要重新加载
+        if (event instanceof VFilePropertyChangeEvent &&
+            VirtualFile.PROP_NAME.equals(((VFilePropertyChangeEvent) event).getPropertyName())
+        ) {
+            return FileUtil.pathsEqual(((VFilePropertyChangeEvent) event).getOldPath(), baselineFile);
+        }
+        if (event instanceof VFileMoveEvent) {
+            return FileUtil.pathsEqual(((VFileMoveEvent) event).getOldPath(), baselineFile);
+        }
+        return false;
+    }
+
+    @Nullable
+    public static Path getBaselinePath(@NotNull Project project) {
+        String basePath = project.getBasePath();
+        return basePath != null ? Paths.get(basePath, BASELINE_FILE_NAME) : null;
+    }
+
+    /**
+     * 重新加载项目的基线文件
+     * @param project Project
+     */
+    public static void reload(@NotNull Project project) {
+        VulnSignBaseline baseline = VulnSignBaseline.EMPTY;
+        Path path = getBaselinePath(project);
+        if (path != null) {
+            try {
+                baseline = VulnSignBaseline.load(path);
+            } catch (IOException e) {
+                LOG.warn("Failed to load MomoSec baseline " + path, e);
+            }
+        }
+        project.putUserData(BASELINE_KEY, baseline);
+    }
+
+    @NotNull
+    public static VulnSignBaseline getBaseline(@NotNull Project project) {
+        VulnSignBaseline baseline = project.getUserData(BASELINE_KEY);
+        return baseline != null ? baseline : VulnSignBaseline.EMPTY;
+    }
+
+    /**
+     * 基线非空时，返回按基线过滤的 ProblemsHolder
+     * @param holder ProblemsHolder
+     * @return ProblemsHolder
+     */
+    @NotNull
+    public static ProblemsHolder wrap(@NotNull ProblemsHolder holder) {
+        return wrap(holder, getBaseline(holder.getProject()));
+    }
+
+    /**
+     * baseline 非空时，返回按 baseline 过滤的 ProblemsHolder
+     * @param holder ProblemsHolder
+     * @param baseline VulnSignBaseline
+     * @return ProblemsHolder
+     */
+    @NotNull
+    public static ProblemsHolder wrap(@NotNull ProblemsHolder holder, @NotNull VulnSignBaseline baseline) {
+        return baseline.isEmpty() ? holder : new BaselineProblemsHolder(holder, baseline);
+    }
+
+    /**
+     * 过滤基线内问题的 ProblemsHolder，其余问题写入原 holder
+     */
+    private static class BaselineProblemsHolder extends ProblemsHolder {
+        private final ProblemsHolder delegate;
+        private final VulnSignBaseline baseline;
+
+        BaselineProblemsHolder(@NotNull ProblemsHolder delegate, @NotNull VulnSignBaseline baseline) {
+            super(delegate.getManager(), delegate.getFile(), delegate.isOnTheFly());
+            this.delegate = delegate;
+            this.baseline = baseline;
+        }
+
+        @Override
+        public void registerProblem(@NotNull ProblemDescriptor problemDescriptor) {
+            PsiElement element = problemDescriptor.getPsiElement();
+            if (element != null && baseline.contains(MomoBaseLocalInspectionTool.getVulnSign(element))) {
+                return ;
+            }
+            delegate.registerProblem(problemDescriptor);
+        }
+
+        @NotNull
+        @Override
+        public List<ProblemDescriptor> getResults() {
+            return delegate.getResults();
+        }
+
+        @NotNull
+        @Override
+        public ProblemDescriptor[] getResultsArray() {
+            return delegate.getResultsArray();
+        }
+
+        @Override
+        public int getResultCount() {
+            return delegate.getResultCount();
+        }
+
+        @Override
+        public boolean hasResults() {
+            return delegate.hasResults();
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.batch;
+
+import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
+import com.immomo.momosec.lang.java.engine.MomoSecEngine;
+import com.immomo.momosec.lang.java.utils.MoFileDependencies;
+import com.immomo.momosec.lang.xml.rule.momosecurity.MybatisXmlSQLi;
+import com.immomo.momosec.utils.VulnSignBaseline;
+import com.intellij.codeHighlighting.HighlightDisplayLevel;
+import com.intellij.codeInsight.daemon.HighlightDisplayKey;
+import com.intellij.codeInspection.*;
+import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.InspectionToolWrapper;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.WriteExternalException;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.*;
+import com.intellij.psi.xml.XmlFile;
+import org.jdom.Element;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量扫描项目内全部 Java / XML 文件
+ *
+ * (1) 每个文件在独立的读锁中检查，多个 worker 并行持有读锁，文件之间没有共享状态
+ * (2) Java 文件通过 MomoSecEngine 单次遍历执行全部 Java 规则，每条规则写入各自的 ProblemsHolder
+ * (3) worker 只产出不持有 PSI 的 MomoSecFinding，由调用线程按完成顺序逐个写出
+ * (4) 设置了 MomoSecScanCache 时，内容与规则均未变化的文件直接回放缓存结果，结果依赖其他源文件的文件不缓存
+ * (5) 签名在 VulnSignBaseline 中的结果不输出。基线在缓存之后过滤，缓存与 --write-baseline 均基于过滤前的全部结果
+ * (6) 与 IDE 一致，@SuppressWarnings / //noinspection 抑制的问题不输出，级别以问题自身的 ProblemHighlightType 为准
+ *
+ * 规则是否启用、规则选项以项目当前 Inspection Profile 为准。
+ */
+public class MomoSecBatchScanner {
+    private static final Logger LOG = Logger.getInstance(MomoSecBatchScanner.class);
+
+    private final Project project;
+    private final int threads;
+    private final List<ScanRule> javaRules = new ArrayList<>();
+    private final List<ScanRule> xmlRules = new ArrayList<>();
+
+    private int scannedFileCount = 0;
+    @Nullable
+    private MomoSecScanCache cache = null;
+    private VulnSignBaseline baseline = VulnSignBaseline.EMPTY;
+    private int suppressedCount = 0;
+    // 分析时抛出异常的文件，相对路径
+    private final List<String> failedFiles = new ArrayList<>();
+    // 全部结果(含基线内结果)的签名，用于生成基线
+    private int[] vulnSigns = new int[64];
+    private int vulnSignCount = 0;
+
+    private static final class ScanRule {
+        private final String id;
+        private final String displayName;
+        private final String level;
+        private final MomoBaseLocalInspectionTool tool;
+
+        private ScanRule(String id, String displayName, String level, MomoBaseLocalInspectionTool tool) {
+            this.id = id;
+            this.displayName = displayName;
+            this.level = level;
+            this.tool = tool;
+        }
+    }
+
+    public MomoSecBatchScanner(@NotNull Project project, int threads) {
+        this.project = project;
+        this.threads = threads;
+
+        InspectionProfileImpl profile = InspectionProjectProfileManager.getInstance(project).getCurrentProfile();
+        for (MomoBaseLocalInspectionTool rule : MomoSecEngine.createRules()) {
+            addRule(profile, rule, javaRules);
+        }
+        addRule(profile, new MybatisXmlSQLi(), xmlRules);
+    }
+
+    private void addRule(InspectionProfileImpl profile, MomoBaseLocalInspectionTool rule, List<ScanRule> rules) {
+        String shortName = rule.getShortName();
+        HighlightDisplayKey key = HighlightDisplayKey.find(shortName);
+        if (key == null || !profile.isToolEnabled(key)) {
+            return ;
+        }
+
+        MomoBaseLocalInspectionTool tool = rule;
+        String displayName = shortName;
+        InspectionToolWrapper wrapper = profile.getInspectionTool(shortName, project);
+        if (wrapper != null) {
+            displayName = wrapper.getDisplayName();
+            if (wrapper.getTool() instanceof MomoBaseLocalInspectionTool) {
+                tool = (MomoBaseLocalInspectionTool)wrapper.getTool();
+            }
+        }
+        rules.add(new ScanRule(shortName, displayName, toSarifLevel(profile.getErrorLevel(key, (PsiElement)null)), tool));
+    }
+
+    /**
+     * 参与扫描的规则 short name 到展示名的映射
+     * @return Map
+     */
+    @NotNull
+    public Map<String, String> getRules() {
+        Map<String, String> rules = new LinkedHashMap<>();
+        for (ScanRule rule : javaRules) {
+            rules.put(rule.id, rule.displayName);
+        }
+        for (ScanRule rule : xmlRules) {
+            rules.put(rule.id, rule.displayName);
+        }
+        return rules;
+    }
+
+    public int getScannedFileCount() {
+        return scannedFileCount;
+    }
+
+    public int getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * 分析时抛出异常的文件，这些文件的结果缺失
+     * @return 相对路径
+     */
+    @NotNull
+    public List<String> getFailedFiles() {
+        return Collections.unmodifiableList(failedFiles);
+    }
+
+    /**
+     * 本次扫描全部结果的签名，包括被基线过滤的结果
+     * @return int[]
+     */
+    @NotNull
+    public int[] getVulnSigns() {
+        return Arrays.copyOf(vulnSigns, vulnSignCount);
+    }
+
+    /**
+     * 设置漏洞签名基线，基线内的结果不再输出
+     * @param baseline VulnSignBaseline
+     */
+    public void setBaseline(@NotNull VulnSignBaseline baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * 设置单文件结果缓存，命中缓存的文件不再解析 PSI
+     * @param cache MomoSecScanCache
+     */
+    public void setCache(@Nullable MomoSecScanCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 参与扫描的规则摘要，由插件版本、规则及其级别与选项计算得到，作为缓存 key 的一部分
+     * @param pluginVersion 插件版本
+     * @return SHA-256
+     */
+    @NotNull
+    public byte[] computeRulesDigest(@NotNull String pluginVersion) {
+        StringBuilder sb = new StringBuilder(pluginVersion);
+        for (List<ScanRule> rules : Arrays.asList(javaRules, xmlRules)) {
+            for (ScanRule rule : rules) {
+                sb.append('\n').append(rule.id).append('|').append(rule.level).append('|');
+                Element settings = new Element("settings");
+                try {
+                    rule.tool.writeSettings(settings);
+                    sb.append(JDOMUtil.writeElement(settings));
+                } catch (WriteExternalException ignored) {
+                }
+            }
+        }
+        return MomoSecScanCache.sha256().digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 扫描项目并把结果写入 out，结果按文件完成的先后顺序写出
+     * @param out SarifWriter
+     * @return 结果条数
+     */
+    public int scan(@NotNull SarifWriter out) throws IOException, InterruptedException {
+        DumbService.getInstance(project).waitForSmartMode();
+
+        List<VirtualFile> files = ReadAction.compute(this::collectFiles);
+        scannedFileCount = files.size();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ScanThreadFactory());
+        CompletionService<List<MomoSecFinding>> completionService = new ExecutorCompletionService<>(pool);
+        Map<Future<List<MomoSecFinding>>, VirtualFile> submitted = new HashMap<>();
+        try {
+            for (VirtualFile file : files) {
+                submitted.put(completionService.submit(() -> scanFileWithCache(file)), file);
+            }
+
+            int count = 0;
+            for (int i = 0, l = files.size(); i < l; i++) {
+                Future<List<MomoSecFinding>> future = completionService.take();
+                List<MomoSecFinding> findings;
+                try {
+                    findings = future.get();
+                } catch (ExecutionException e) {
+                    // 结果缺失，由调用方以失败结束
+                    String path = getRelativePath(submitted.get(future));
+                    failedFiles.add(path);
+                    LOG.warn("MomoSec scan failed: " + path, e.getCause());
+                    continue;
+                }
+                for (MomoSecFinding finding : findings) {
+                    addVulnSign(finding.getVulnSign());
+                    if (baseline.contains(finding.getVulnSign())) {
+                        suppressedCount++;
+                        continue;
+                    }
+                    out.write(finding);
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void addVulnSign(int sign) {
+        if (vulnSignCount == vulnSigns.length) {
+            vulnSigns = Arrays.copyOf(vulnSigns, vulnSignCount * 2);
+        }
+        vulnSigns[vulnSignCount++] = sign;
+    }
+
+    @NotNull
+    private List<VirtualFile> collectFiles() {
+        List<VirtualFile> files = new ArrayList<>();
+        ProjectRootManager.getInstance(project).getFileIndex().iterateContent(file -> {
+            if (!file.isDirectory()) {
+                FileType fileType = file.getFileType();
+                if ((fileType == StdFileTypes.JAVA && !javaRules.isEmpty()) ||
+                    (fileType == StdFileTypes.XML && !xmlRules.isEmpty())
+                ) {
+                    files.add(file);
+                }
+            }
+            return true;
+        });
+        return files;
+    }
+
+    @NotNull
+    private List<MomoSecFinding> scanFileWithCache(@NotNull VirtualFile file) throws IOException {
+        MomoSecScanCache cache = this.cache;
+        if (cache == null) {
+            return ReadAction.compute(() -> scanFile(file, null));
+        }
+
+        MomoSecScanCache.Key key = cache.key(file.contentsToByteArray());
+        List<MomoSecFinding> findings = cache.get(key, getRelativePath(file));
+        if (findings == null) {
+            boolean[] dependsOnOtherFiles = new boolean[1];
+            findings = ReadAction.compute(() -> scanFile(file, dependsOnOtherFiles));
+            if (!dependsOnOtherFiles[0]) {
+                // key 只包含本文件内容，结果依赖其他文件 (如跨文件常量折叠) 时不缓存
+                cache.put(key, findings);
+            }
+        }
+        return findings;
+    }
+
+    /**
+     * @param dependsOnOtherFiles 非 null 时记录结果是否依赖其他源文件
+     */
+    @NotNull
+    private List<MomoSecFinding> scanFile(@NotNull VirtualFile file, @Nullable boolean[] dependsOnOtherFiles) {
+        PsiFile psiFile = file.isValid() ? PsiManager.getInstance(project).findFile(file) : null;
+        if (psiFile == null) {
+            return Collections.emptyList();
+        }
+        if (dependsOnOtherFiles == null) {
+            return scanFile(psiFile, file);
+        }
+        try (MoFileDependencies.Recorder recorder = MoFileDependencies.start(psiFile)) {
+            List<MomoSecFinding> findings = scanFile(psiFile, file);
+            dependsOnOtherFiles[0] = recorder.dependsOnOtherFiles();
+            return findings;
+        }
+    }
+
+    @NotNull
+    private List<MomoSecFinding> scanFile(@NotNull PsiFile psiFile, @NotNull VirtualFile file) {
+        InspectionManager manager = InspectionManager.getInstance(project);
+        Map<ScanRule, ProblemsHolder> holders = new LinkedHashMap<>();
+        if (psiFile instanceof PsiJavaFile) {
+            Map<MomoBaseLocalInspectionTool, ProblemsHolder> dispatched = new LinkedHashMap<>();
+            for (ScanRule rule : javaRules) {
+                ProblemsHolder holder = new ProblemsHolder(manager, psiFile, false);
+                holders.put(rule, holder);
+                dispatched.put(rule.tool, holder);
+            }
+            walk(psiFile, MomoSecEngine.buildDispatchVisitor(dispatched, false, VulnSignBaseline.EMPTY, null));
+        } else if (psiFile instanceof XmlFile) {
+            for (ScanRule rule : xmlRules) {
+                ProblemsHolder holder = new ProblemsHolder(manager, psiFile, false);
+                holders.put(rule, holder);
+                walk(psiFile, rule.tool.buildWrappedVisitor(holder, false, VulnSignBaseline.EMPTY, null));
+            }
+        }
+
+        List<MomoSecFinding> findings = new ArrayList<>();
+        Document document = PsiDocumentManager.getInstance(project).getDocument(psiFile);
+        String path = getRelativePath(file);
+        for (Map.Entry<ScanRule, ProblemsHolder> entry : holders.entrySet()) {
+            for (ProblemDescriptor descriptor : entry.getValue().getResults()) {
+                PsiElement element = descriptor.getPsiElement();
+                if (element == null || entry.getKey().tool.isSuppressedFor(element)) {
+                    // @SuppressWarnings 或 //noinspection 抑制的问题，与 IDE 中一致不输出
+                    continue;
+                }
+                MomoSecFinding finding = toFinding(entry.getKey(), descriptor, document, path);
+                if (finding != null) {
+                    findings.add(finding);
+                }
+            }
+        }
+        return findings;
+    }
+
+    private static void walk(@NotNull PsiFile psiFile, @NotNull PsiElementVisitor visitor) {
+        if (visitor == PsiElementVisitor.EMPTY_VISITOR) {
+            return ;
+        }
+        psiFile.accept(new PsiRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitElement(PsiElement element) {
+                element.accept(visitor);
+                super.visitElement(element);
+            }
+        });
+    }
+
+    @Nullable
+    private static MomoSecFinding toFinding(@NotNull ScanRule rule, @NotNull ProblemDescriptor descriptor,
+                                            @Nullable Document document, @NotNull String path) {
+        PsiElement element = descriptor.getPsiElement();
+        if (element == null) {
+            return null;
+        }
+
+        TextRange range = descriptor instanceof ProblemDescriptorBase ? ((ProblemDescriptorBase)descriptor).getTextRange() : null;
+        if (range == null) {
+            range = element.getTextRange();
+        }
+
+        int startLine, startColumn, endLine, endColumn;
+        if (document != null && range != null && range.getEndOffset() <= document.getTextLength()) {
+            startLine = document.getLineNumber(range.getStartOffset());
+            startColumn = range.getStartOffset() - document.getLineStartOffset(startLine);
+            endLine = document.getLineNumber(range.getEndOffset());
+            endColumn = range.getEndOffset() - document.getLineStartOffset(endLine);
+        } else {
+            startLine = endLine = Math.max(descriptor.getLineNumber(), 0);
+            startColumn = endColumn = 0;
+        }
+
+        return new MomoSecFinding(
+                rule.id,
+                toSarifLevel(descriptor.getHighlightType(), rule.level),
+                ProblemDescriptorUtil.renderDescriptionMessage(descriptor, element),
+                path,
+                startLine + 1, startColumn + 1, endLine + 1, endColumn + 1,
+                MomoBaseLocalInspectionTool.getVulnSign(element)
+        );
+    }
+
+    /**
+     * 规则按单个问题指定了级别时 (如 RegexDos 的 WEAK_WARNING / ERROR) 以问题的级别为准，否则为规则在 profile 中的级别
+     */
+    @NotNull
+    private static String toSarifLevel(@NotNull ProblemHighlightType type, @NotNull String ruleLevel) {
+        switch (type) {
+            case ERROR:
+            case GENERIC_ERROR:
+                return "error";
+            case WEAK_WARNING:
+            case INFORMATION:
+            case INFO:
+                return "note";
+            default:
+                return ruleLevel;
+        }
+    }
+
+    @NotNull
+    private String getRelativePath(@NotNull VirtualFile file) {
+        VirtualFile baseDir = project.getBaseDir();
+        String path = baseDir != null ? VfsUtilCore.getRelativePath(file, baseDir, '/') : null;
+        return path != null ? path : file.getPath();
+    }
+
+    @NotNull
+    private static String toSarifLevel(@NotNull HighlightDisplayLevel level) {
+        HighlightSeverity severity = level.getSeverity();
+        if (severity.compareTo(HighlightSeverity.ERROR) >= 0) {
+            return "error";
+        } else if (severity.compareTo(HighlightSeverity.WEAK_WARNING) >= 0) {
+            return "warning";
+        }
+        return "note";
+    }
+
+    private static class ScanThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable r) {
+            Thread thread = new Thread(r, "MomoSec Scan " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.batch;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 批量扫描的一条结果
+ *
+ * 只保存纯数据，不持有 PSI，可在读锁外写出
+ */
+public final class MomoSecFinding {
+    private final String ruleId;
+    private final String level;
+    private final String message;
+    private final String path;
+    private final int startLine;
+    private final int startColumn;
+    private final int endLine;
+    private final int endColumn;
+    private final int vulnSign;
+
+    /**
+     * @param ruleId 规则 short name
+     * @param level SARIF level (error / warning / note)
+     * @param message 问题描述
+     * @param path 相对项目根目录的路径，以 '/' 分隔；不在项目目录内时为绝对路径
+     * @param startLine 起始行，从 1 开始
+     * @param startColumn 起始列，从 1 开始
+     * @param endLine 结束行，从 1 开始
+     * @param endColumn 结束列(不含)，从 1 开始
+     * @param vulnSign MomoBaseLocalInspectionTool#getVulnSign
+     */
+    public MomoSecFinding(@NotNull String ruleId, @NotNull String level, @NotNull String message, @NotNull String path,
+                          int startLine, int startColumn, int endLine, int endColumn, int vulnSign) {
+        this.ruleId = ruleId;
+        this.level = level;
+        this.message = message;
+        this.path = path;
+        this.startLine = startLine;
+        this.startColumn = startColumn;
+        this.endLine = endLine;
+        this.endColumn = endColumn;
+        this.vulnSign = vulnSign;
+    }
+
+    @NotNull
+    public String getRuleId() {
+        return ruleId;
+    }
+
+    @NotNull
+    public String getLevel() {
+        return level;
+    }
+
+    @NotNull
+    public String getMessage() {
+        return message;
+    }
+
+    @NotNull
+    public String getPath() {
+        return path;
+    }
+
+    public int getStartLine() {
+        return startLine;
+    }
+
+    public int getStartColumn() {
+        return startColumn;
+    }
+
+    public int getEndLine() {
+        return endLine;
+    }
+
+    public int getEndColumn() {
+        return endColumn;
+    }
+
+    public int getVulnSign() {
+        return vulnSign;
+    }
+}
@@ -0,0 +1,637 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.batch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 批量扫描的单文件结果缓存
+ *
+ * key = SHA-256(规则摘要 + 文件内容)，规则摘要由插件版本、启用的规则及其选项计算得到，
+ * 规则或版本变化后旧结果自然失效。key 只包含单个文件的内容，结果依赖其他文件 (如跨文件的常量折叠) 的文件不写入缓存，
+ * 由调用方判断 (见 MoFileDependencies)。
+ *
+ * 磁盘结构，N 为代数 (generation)，每次成功扫描加一:
+ * (1) results-N.dat  追加写的结果记录，每条记录为 [int magic][int 长度][int CRC32][结果]
+ * (2) index-N.dat    头部记录自身代数、所引用的 results 文件代数与条目的 CRC32，
+ *                    其后为按 key 排序的定长条目 [32 字节 key][long 记录偏移][int 最近使用的代数]，
+ *                    扫描期间以只读方式内存映射，二分查找
+ *
+ * 只有 commit (扫描成功结束) 才写出新一代索引: 本次访问过的条目与未访问但未过期的旧条目合并，
+ * 连续 MAX_IDLE_GENERATIONS 次成功扫描未访问的条目视为过期；扫描中断或失败时旧索引保持不变。
+ * 失效数据超过一半时把存活记录复制到新一代 results 文件。新索引先写入临时文件再改名为新文件名，
+ * 打开时取头部校验通过的最新一代索引及其引用的 results 文件，因此任意时刻崩溃都不会出现索引与数据不匹配。
+ * 内存映射无法在 Java 8 中主动释放，被映射的索引文件从不被覆盖或改名，旧代文件在关闭及下次打开时删除。
+ *
+ * 记录的 magic、长度与 CRC32 在读取时校验，损坏的记录按未命中处理，并从下一代索引中移除。
+ */
+public class MomoSecScanCache implements Closeable {
+    static final int MAX_IDLE_GENERATIONS = 8;
+
+    private static final Pattern INDEX_FILE = Pattern.compile("index-(\\d+)\\.dat");
+    private static final Pattern DATA_FILE = Pattern.compile("results-(\\d+)\\.dat");
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int LATEST = -1;
+    private static final int NONE = -2;
+
+    private static final int INDEX_MAGIC = 0x4d534349;  // MSCI
+    private static final int DATA_MAGIC = 0x4d534344;   // MSCD
+    private static final int RECORD_MAGIC = 0x4d534352; // MSCR
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int KEY_SIZE = 32;
+    private static final int ENTRY_SIZE = KEY_SIZE + 8 + 4;
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final int DATA_HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private final Path dir;
+    private final byte[] rulesDigest;
+    private final int generation;
+    private final int dataGeneration;
+    private final FileChannel data;
+    private long dataSize;
+
+    @Nullable
+    private final MappedByteBuffer index;
+    private final int indexCount;
+
+    // 本次扫描访问过的 key -> 记录偏移
+    private final Map<Key, Long> touched = new ConcurrentHashMap<>();
+    // 本次扫描发现损坏的 key
+    private final Set<Key> invalid = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private boolean committed = false;
+    private boolean closed = false;
+
+    public static final class Key implements Comparable<Key> {
+        private final byte[] bytes;
+
+        private Key(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Key && Arrays.equals(bytes, ((Key)o).bytes));
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int compareTo(@NotNull Key o) {
+            for (int i = 0; i < KEY_SIZE; i++) {
+                int c = (bytes[i] & 0xff) - (o.bytes[i] & 0xff);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private MomoSecScanCache(Path dir, byte[] rulesDigest, int generation, int dataGeneration,
+                             FileChannel data, long dataSize, @Nullable MappedByteBuffer index, int indexCount) {
+        this.dir = dir;
+        this.rulesDigest = rulesDigest;
+        this.generation = generation;
+        this.dataGeneration = dataGeneration;
+        this.data = data;
+        this.dataSize = dataSize;
+        this.index = index;
+        this.indexCount = indexCount;
+    }
+
+    /**
+     * 打开缓存目录，目录不存在时创建；没有校验通过的索引时从空缓存开始
+     * @param dir 缓存目录
+     * @param rulesDigest 规则摘要
+     * @return MomoSecScanCache
+     */
+    @NotNull
+    public static MomoSecScanCache open(@NotNull Path dir, @NotNull byte[] rulesDigest) throws IOException {
+        Files.createDirectories(dir);
+
+        TreeMap<Integer, Path> indexFiles = listFiles(dir, INDEX_FILE);
+        for (Map.Entry<Integer, Path> entry : indexFiles.descendingMap().entrySet()) {
+            MomoSecScanCache cache = tryOpen(dir, rulesDigest, entry.getKey(), entry.getValue());
+            if (cache != null) {
+                cache.sweep(entry.getKey(), cache.dataGeneration);
+                return cache;
+            }
+        }
+
+        int generation = indexFiles.isEmpty() ? 0 : indexFiles.lastKey();
+        Path dataPath = dir.resolve(dataFileName(generation));
+        FileChannel data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            data.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE).putInt(DATA_MAGIC).putInt(FORMAT_VERSION).putInt(generation);
+            header.flip();
+            writeFully(data, header, 0);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        MomoSecScanCache cache = new MomoSecScanCache(dir, rulesDigest.clone(), generation, generation, data, DATA_HEADER_SIZE, null, 0);
+        cache.sweep(NONE, generation);
+        return cache;
+    }
+
+    @Nullable
+    private static MomoSecScanCache tryOpen(@NotNull Path dir, @NotNull byte[] rulesDigest, int generation, @NotNull Path indexPath) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < INDEX_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        int count = mapped.getInt(16);
+        int dataGeneration = mapped.getInt(12);
+        if (mapped.getInt(0) != INDEX_MAGIC || mapped.getInt(4) != FORMAT_VERSION || mapped.getInt(8) != generation ||
+            count < 0 || INDEX_HEADER_SIZE + (long)count * ENTRY_SIZE != mapped.capacity() ||
+            dataGeneration > generation || mapped.getInt(20) != crc(mapped, INDEX_HEADER_SIZE, count * ENTRY_SIZE)
+        ) {
+            return null;
+        }
+
+        Path dataPath = dir.resolve(dataFileName(dataGeneration));
+        if (!Files.exists(dataPath)) {
+            return null;
+        }
+        FileChannel data = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE);
+        if (data.size() < DATA_HEADER_SIZE || !readFully(data, header, 0) ||
+            header.getInt(0) != DATA_MAGIC || header.getInt(4) != FORMAT_VERSION || header.getInt(8) != dataGeneration
+        ) {
+            data.close();
+            return null;
+        }
+        return new MomoSecScanCache(dir, rulesDigest.clone(), generation, dataGeneration, data, data.size(), mapped, count);
+    }
+
+    /**
+     * 计算文件内容对应的 key
+     * @param content 文件内容
+     * @return Key
+     */
+    @NotNull
+    public Key key(@NotNull byte[] content) {
+        MessageDigest digest = sha256();
+        digest.update(rulesDigest);
+        digest.update(content);
+        return new Key(digest.digest());
+    }
+
+    /**
+     * 取缓存的结果，记录损坏时按未命中处理
+     * @param key Key
+     * @param path 结果所属文件的相对路径
+     * @return 结果列表，未命中时为 null
+     */
+    @Nullable
+    public List<MomoSecFinding> get(@NotNull Key key, @NotNull String path) throws IOException {
+        Long offset = touched.get(key);
+        if (offset == null && !invalid.contains(key)) {
+            offset = lookupIndex(key);
+        }
+        List<MomoSecFinding> findings = offset != null ? readRecord(offset, path) : null;
+        if (findings == null) {
+            if (offset != null) {
+                invalid.add(key);
+                touched.remove(key, offset);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        touched.put(key, offset);
+        hits.incrementAndGet();
+        return findings;
+    }
+
+    /**
+     * 写入一个文件的结果
+     * @param key Key
+     * @param findings 结果列表
+     */
+    public void put(@NotNull Key key, @NotNull List<MomoSecFinding> findings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(RECORD_MAGIC);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(findings.size());
+            for (MomoSecFinding finding : findings) {
+                out.writeUTF(finding.getRuleId());
+                out.writeUTF(finding.getLevel());
+                out.writeUTF(finding.getMessage());
+                out.writeInt(finding.getStartLine());
+                out.writeInt(finding.getStartColumn());
+                out.writeInt(finding.getEndLine());
+                out.writeInt(finding.getEndColumn());
+                out.writeInt(finding.getVulnSign());
+            }
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.limit() - RECORD_HEADER_SIZE;
+        record.putInt(4, length);
+        record.putInt(8, crc(record, RECORD_HEADER_SIZE, length));
+
+        long offset;
+        synchronized (data) {
+            offset = dataSize;
+            writeFully(data, record, offset);
+            dataSize += record.limit();
+        }
+        touched.put(key, offset);
+        invalid.remove(key);
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    @Nullable
+    private Long lookupIndex(@NotNull Key key) {
+        if (index == null) {
+            return null;
+        }
+        int position = findIndexEntry(key);
+        return position >= 0 ? index.getLong(position + KEY_SIZE) : null;
+    }
+
+    private int findIndexEntry(@NotNull Key key) {
+        assert index != null;
+        int low = 0;
+        int high = indexCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int base = INDEX_HEADER_SIZE + mid * ENTRY_SIZE;
+            int c = 0;
+            for (int i = 0; i < KEY_SIZE && c == 0; i++) {
+                c = (index.get(base + i) & 0xff) - (key.bytes[i] & 0xff);
+            }
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return base;
+            }
+        }
+        return -1;
+    }
+
+    private long getDataSize() {
+        synchronized (data) {
+            return dataSize;
+        }
+    }
+
+    /**
+     * 读取并校验记录头部
+     * @return 头部，越界、magic 或长度不符时为 null
+     */
+    @Nullable
+    private ByteBuffer readRecordHeader(long offset) throws IOException {
+        long size = getDataSize();
+        if (offset < DATA_HEADER_SIZE || offset > size - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (!readFully(data, header, offset) || header.getInt(0) != RECORD_MAGIC) {
+            return null;
+        }
+        int length = header.getInt(4);
+        return length >= 0 && length <= size - offset - RECORD_HEADER_SIZE ? header : null;
+    }
+
+    private int readRecordLength(long offset) throws IOException {
+        ByteBuffer header = readRecordHeader(offset);
+        return header != null ? header.getInt(4) : -1;
+    }
+
+    /**
+     * 读取并校验记录
+     * @return 记录内容 (不含头部)，头部或 CRC32 不符时为 null
+     */
+    @Nullable
+    private ByteBuffer readRecordBytes(long offset) throws IOException {
+        ByteBuffer header = readRecordHeader(offset);
+        if (header == null) {
+            return null;
+        }
+        int length = header.getInt(4);
+        ByteBuffer record = ByteBuffer.allocate(length);
+        if (!readFully(data, record, offset + RECORD_HEADER_SIZE) || crc(record, 0, length) != header.getInt(8)) {
+            return null;
+        }
+        return record;
+    }
+
+    @Nullable
+    private List<MomoSecFinding> readRecord(long offset, @NotNull String path) throws IOException {
+        ByteBuffer record = readRecordBytes(offset);
+        if (record == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array()));
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+            List<MomoSecFinding> findings = new ArrayList<>(Math.min(count, 64));
+            for (int i = 0; i < count; i++) {
+                findings.add(new MomoSecFinding(in.readUTF(), in.readUTF(), in.readUTF(), path,
+                        in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+            return findings;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 扫描成功结束后调用: 合并本次访问过的条目与未过期的旧条目，写出新一代索引，必要时压缩数据文件。
+     * 未调用 commit 时 close 不修改索引，本次写入的记录不会被引用
+     */
+    public void commit() throws IOException {
+        if (committed || closed) {
+            return ;
+        }
+        // 比已有的任何一代都新，不覆盖 (可能仍被映射的) 已有文件
+        int newGeneration = generation + 1;
+        TreeMap<Integer, Path> indexFiles = listFiles(dir, INDEX_FILE);
+        if (!indexFiles.isEmpty()) {
+            newGeneration = Math.max(newGeneration, indexFiles.lastKey() + 1);
+        }
+
+        TreeMap<Key, long[]> entries = new TreeMap<>();
+        if (index != null) {
+            for (int i = 0; i < indexCount; i++) {
+                int base = INDEX_HEADER_SIZE + i * ENTRY_SIZE;
+                byte[] bytes = new byte[KEY_SIZE];
+                for (int j = 0; j < KEY_SIZE; j++) {
+                    bytes[j] = index.get(base + j);
+                }
+                int lastUsed = index.getInt(base + KEY_SIZE + 8);
+                Key key = new Key(bytes);
+                if (newGeneration - lastUsed < MAX_IDLE_GENERATIONS && !invalid.contains(key)) {
+                    entries.put(key, new long[]{index.getLong(base + KEY_SIZE), lastUsed});
+                }
+            }
+        }
+        for (Map.Entry<Key, Long> entry : touched.entrySet()) {
+            entries.put(entry.getKey(), new long[]{entry.getValue(), newGeneration});
+        }
+
+        // 只读取记录头部，记录内容在下次读取时校验
+        long liveBytes = 0;
+        for (Iterator<long[]> it = entries.values().iterator(); it.hasNext(); ) {
+            int length = readRecordLength(it.next()[0]);
+            if (length < 0) {
+                it.remove();
+            } else {
+                liveBytes += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        int newDataGeneration = dataGeneration;
+        if (getDataSize() - DATA_HEADER_SIZE > liveBytes * 2) {
+            compact(entries.values(), newGeneration);
+            newDataGeneration = newGeneration;
+        }
+        writeIndex(entries, newGeneration, newDataGeneration);
+        committed = true;
+    }
+
+    /**
+     * 关闭数据文件；已 commit 时删除上一代文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return ;
+        }
+        closed = true;
+        data.close();
+        if (committed) {
+            sweep(LATEST, LATEST);
+        }
+    }
+
+    private void compact(@NotNull Collection<long[]> entries, int newGeneration) throws IOException {
+        Path path = dir.resolve(dataFileName(newGeneration));
+        Path tmp = dir.resolve(dataFileName(newGeneration) + TMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_SIZE).putInt(DATA_MAGIC).putInt(FORMAT_VERSION).putInt(newGeneration);
+            header.flip();
+            writeFully(out, header, 0);
+            long position = DATA_HEADER_SIZE;
+            for (Iterator<long[]> it = entries.iterator(); it.hasNext(); ) {
+                long[] entry = it.next();
+                ByteBuffer record = readRecordBytes(entry[0]);
+                if (record == null) {
+                    it.remove();
+                    continue;
+                }
+                ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE)
+                        .putInt(RECORD_MAGIC).putInt(record.capacity()).putInt(crc(record, 0, record.capacity()));
+                recordHeader.flip();
+                writeFully(out, recordHeader, position);
+                record.clear();
+                writeFully(out, record, position + RECORD_HEADER_SIZE);
+                entry[0] = position;
+                position += RECORD_HEADER_SIZE + record.capacity();
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeIndex(@NotNull SortedMap<Key, long[]> entries, int newGeneration, int newDataGeneration) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + entries.size() * ENTRY_SIZE);
+        buffer.putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).putInt(newGeneration).putInt(newDataGeneration).putInt(entries.size()).putInt(0);
+        for (Map.Entry<Key, long[]> entry : entries.entrySet()) {
+            buffer.put(entry.getKey().bytes).putLong(entry.getValue()[0]).putInt((int)entry.getValue()[1]);
+        }
+        buffer.putInt(20, crc(buffer, INDEX_HEADER_SIZE, entries.size() * ENTRY_SIZE));
+        buffer.flip();
+
+        if (newDataGeneration == dataGeneration) {
+            // 本次追加的记录先落盘，再写出引用它们的索引
+            data.force(true);
+        }
+        Path tmp = dir.resolve(indexFileName(newGeneration) + TMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, buffer, 0);
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve(indexFileName(newGeneration)), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 删除临时文件、旧版本格式的文件以及 keepIndex / keepData 之外各代的文件。
+     * 参数为 LATEST 时保留最新一代索引及其引用的数据文件，为 NONE 时全部删除；删除失败 (如 Windows 上仍被映射) 时留待下次打开
+     */
+    private void sweep(int keepIndex, int keepData) {
+        TreeMap<Integer, Path> indexFiles;
+        TreeMap<Integer, Path> dataFiles;
+        try {
+            indexFiles = listFiles(dir, INDEX_FILE);
+            dataFiles = listFiles(dir, DATA_FILE);
+        } catch (IOException e) {
+            return ;
+        }
+        if (keepIndex == LATEST) {
+            keepIndex = indexFiles.isEmpty() ? NONE : indexFiles.lastKey();
+        }
+        if (keepData == LATEST) {
+            Integer generation = readDataGeneration(indexFiles.get(keepIndex));
+            if (generation == null) {
+                // 无法确定最新索引引用的数据文件时不删除数据文件
+                dataFiles.clear();
+            } else {
+                keepData = generation;
+            }
+        }
+        for (Map.Entry<Integer, Path> entry : indexFiles.entrySet()) {
+            if (entry.getKey() != keepIndex) {
+                deleteQuietly(entry.getValue());
+            }
+        }
+        for (Map.Entry<Integer, Path> entry : dataFiles.entrySet()) {
+            if (entry.getKey() != keepData) {
+                deleteQuietly(entry.getValue());
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX) || name.equals("index.dat") || name.equals("results.dat")) {
+                    deleteQuietly(path);
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Nullable
+    private static Integer readDataGeneration(@Nullable Path indexPath) {
+        if (indexPath == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            return readFully(channel, header, 0) ? header.getInt(12) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(@NotNull Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+
+    @NotNull
+    private static TreeMap<Integer, Path> listFiles(@NotNull Path dir, @NotNull Pattern pattern) throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                Matcher matcher = pattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    try {
+                        files.put(Integer.parseInt(matcher.group(1)), path);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    @NotNull
+    private static String indexFileName(int generation) {
+        return "index-" + generation + ".dat";
+    }
+
+    @NotNull
+    private static String dataFileName(int generation) {
+        return "results-" + generation + ".dat";
+    }
+
+    private static int crc(@NotNull ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        crc.update(slice);
+        return (int)crc.getValue();
+    }
+
+    private static boolean readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - start);
+        }
+    }
+
+    @NotNull
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
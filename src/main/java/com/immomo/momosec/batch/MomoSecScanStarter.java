@@ -0,0 +1,252 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.batch;
+
+import com.immomo.momosec.VulnSignWhiteListService;
+import com.immomo.momosec.metrics.MomoSecMetrics;
+import com.immomo.momosec.utils.VulnSignBaseline;
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarterEx;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 无界面批量扫描入口，供 CI 使用
+ *
+ * usage: idea.sh momosec-scan &lt;project-path&gt; [--output file] [--threads n] [--cache-dir dir]
+ *                             [--baseline file] [--write-baseline] [--metrics file] [--fail-on-findings]
+ *
+ * 退出码:
+ * 0 扫描完成 (未指定 --fail-on-findings，或没有发现问题)
+ * 1 指定了 --fail-on-findings 且存在问题
+ * 2 参数错误或扫描失败，包括任一文件分析失败 (此时不写出缓存索引与基线)
+ */
+public class MomoSecScanStarter extends ApplicationStarterEx {
+    public static final String COMMAND_NAME = "momosec-scan";
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FINDINGS = 1;
+    private static final int EXIT_ERROR = 2;
+
+    private String projectPath = null;
+    private String outputPath = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String cacheDir = null;
+    private String baselinePath = null;
+    private boolean writeBaseline = false;
+    private String metricsPath = null;
+    private boolean failOnFindings = false;
+
+    @Override
+    public String getCommandName() {
+        return COMMAND_NAME;
+    }
+
+    @Override
+    public boolean isHeadless() {
+        return true;
+    }
+
+    @Override
+    public void premain(String[] args) {
+        if (!parseArgs(args)) {
+            printUsage();
+            System.exit(EXIT_ERROR);
+        }
+    }
+
+    @Override
+    public void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run();
+        } catch (Throwable e) {
+            e.printStackTrace(System.err);
+            exitCode = EXIT_ERROR;
+        }
+        System.exit(exitCode);
+    }
+
+    private boolean parseArgs(String[] args) {
+        // args[0] 为 command name
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if ("--output".equals(arg) || "-o".equals(arg)) {
+                if (++i >= args.length) { return false; }
+                outputPath = args[i];
+            } else if ("--threads".equals(arg) || "-t".equals(arg)) {
+                if (++i >= args.length) { return false; }
+                try {
+                    threads = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (threads <= 0) { return false; }
+            } else if ("--cache-dir".equals(arg)) {
+                if (++i >= args.length) { return false; }
+                cacheDir = args[i];
+            } else if ("--baseline".equals(arg)) {
+                if (++i >= args.length) { return false; }
+                baselinePath = args[i];
+            } else if ("--write-baseline".equals(arg)) {
+                writeBaseline = true;
+            } else if ("--metrics".equals(arg)) {
+                if (++i >= args.length) { return false; }
+                metricsPath = args[i];
+            } else if ("--fail-on-findings".equals(arg)) {
+                failOnFindings = true;
+            } else if (arg.startsWith("-") || projectPath != null) {
+                return false;
+            } else {
+                projectPath = arg;
+            }
+        }
+        return projectPath != null;
+    }
+
+    private static void printUsage() {
+        System.err.println("usage: " + COMMAND_NAME + " <project-path> [--output <file>] [--threads <n>] [--cache-dir <dir>]");
+        System.err.println("       [--baseline <file>] [--write-baseline] [--metrics <file>] [--fail-on-findings]");
+        System.err.println("  --output, -o        SARIF output file, default stdout");
+        System.err.println("  --threads, -t       worker threads, default available processors");
+        System.err.println("  --cache-dir         per-file result cache, unchanged files replay cached findings");
+        System.err.println("  --baseline          vuln sign baseline, default <project-path>/" + VulnSignWhiteListService.BASELINE_FILE_NAME);
+        System.err.println("  --write-baseline    write signs of all findings to the baseline file");
+        System.err.println("  --metrics           write per-rule metrics as JSON to the file");
+        System.err.println("  --fail-on-findings  exit with code 1 when any finding is reported");
+    }
+
+    private int run() throws Exception {
+        File projectDir = new File(projectPath).getCanonicalFile();
+        Project project = ProjectUtil.openOrImport(projectDir.getPath(), null, false);
+        if (project == null) {
+            System.err.println("MomoSec: unable to open project " + projectDir);
+            return EXIT_ERROR;
+        }
+
+        Application application = ApplicationManager.getApplication();
+        try {
+            MomoSecBatchScanner scanner = new MomoSecBatchScanner(project, threads);
+            String pluginVersion = getPluginVersion();
+            MomoSecScanCache cache = cacheDir == null ? null : MomoSecScanCache.open(Paths.get(cacheDir), scanner.computeRulesDigest(pluginVersion));
+            scanner.setCache(cache);
+
+            Path baselineFile = baselinePath != null ? Paths.get(baselinePath) : projectDir.toPath().resolve(VulnSignWhiteListService.BASELINE_FILE_NAME);
+            if (!writeBaseline) {
+                scanner.setBaseline(VulnSignBaseline.load(baselineFile));
+            }
+
+            if (metricsPath != null) {
+                MomoSecMetrics.reset();
+                MomoSecMetrics.setEnabled(true);
+            }
+
+            long start = System.currentTimeMillis();
+            int count;
+            try (Writer out = openOutput();
+                 SarifWriter sarif = new SarifWriter(out, pluginVersion, scanner.getRules(), projectDir.toURI().toString())) {
+                Future<Integer> future = application.executeOnPooledThread(() -> scanner.scan(sarif));
+                count = waitFor(application, future);
+                if (cache != null && scanner.getFailedFiles().isEmpty()) {
+                    // 只有完整结束的扫描才写出新索引，中断或失败时保留旧索引
+                    cache.commit();
+                }
+            } finally {
+                if (cache != null) {
+                    cache.close();
+                }
+            }
+
+            System.err.println(String.format("MomoSec: %d finding(s) in %d file(s), %d ms, %d thread(s)",
+                    count, scanner.getScannedFileCount(), System.currentTimeMillis() - start, threads));
+            if (metricsPath != null) {
+                try (Writer out = new OutputStreamWriter(new FileOutputStream(metricsPath), StandardCharsets.UTF_8)) {
+                    MomoSecMetrics.writeJson(out);
+                }
+                System.err.println(String.format("MomoSec: metrics written to %s", metricsPath));
+            }
+            if (cache != null) {
+                System.err.println(String.format("MomoSec: cache %d hit(s), %d miss(es)", cache.getHits(), cache.getMisses()));
+            }
+            if (!scanner.getFailedFiles().isEmpty()) {
+                for (String path : scanner.getFailedFiles()) {
+                    System.err.println(String.format("MomoSec: failed to scan %s", path));
+                }
+                System.err.println(String.format("MomoSec: %d file(s) failed, findings are incomplete", scanner.getFailedFiles().size()));
+                return EXIT_ERROR;
+            }
+            if (writeBaseline) {
+                VulnSignBaseline.write(baselineFile, scanner.getVulnSigns());
+                System.err.println(String.format("MomoSec: baseline written to %s", baselineFile));
+                return EXIT_OK;
+            } else if (scanner.getSuppressedCount() > 0) {
+                System.err.println(String.format("MomoSec: %d finding(s) suppressed by baseline", scanner.getSuppressedCount()));
+            }
+            return failOnFindings && count > 0 ? EXIT_FINDINGS : EXIT_OK;
+        } finally {
+            application.invokeAndWait(() -> ProjectUtil.closeAndDispose(project));
+        }
+    }
+
+    @NotNull
+    private Writer openOutput() throws IOException {
+        OutputStream stream = outputPath == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(outputPath);
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 扫描线程等待索引完成时，索引任务需要 EDT，若当前处于 EDT 则在等待期间持续派发事件
+     */
+    private static <T> T waitFor(@NotNull Application application, @NotNull Future<T> future) throws Exception {
+        while (true) {
+            try {
+                return future.get(50, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (application.isDispatchThread()) {
+                    UIUtil.dispatchAllInvocationEvents();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception)cause : e;
+            }
+        }
+    }
+
+    @NotNull
+    private static String getPluginVersion() {
+        Properties properties = new Properties();
+        try (InputStream in = MomoSecScanStarter.class.getResourceAsStream("/properties/app.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException ignored) {
+        }
+        return properties.getProperty("plugin_version", "unknown");
+    }
+}
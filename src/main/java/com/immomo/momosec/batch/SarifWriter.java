@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.batch;
+
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * SARIF 2.1.0 流式输出
+ *
+ * 先写出 tool 信息，随后逐条写出 result，结果不在内存中堆积。
+ * 每条 result 的 partialFingerprints 中带有 getVulnSign 签名，便于 CI 侧去重与基线比对。
+ *
+ * 非线程安全，由扫描的协调线程单线程写入。
+ */
+public class SarifWriter implements Closeable {
+    public static final String VULN_SIGN_FINGERPRINT = "momosecVulnSign/v1";
+
+    private static final String SARIF_VERSION = "2.1.0";
+    private static final String SARIF_SCHEMA = "https://json.schemastore.org/sarif-2.1.0.json";
+    private static final String SRC_ROOT = "%SRCROOT%";
+
+    private final JsonWriter writer;
+    private boolean closed = false;
+
+    /**
+     * @param out 输出
+     * @param toolVersion 插件版本
+     * @param rules 规则 short name 到展示名的映射，按此顺序写入 tool.driver.rules
+     * @param srcRoot 项目根目录 URI
+     */
+    public SarifWriter(@NotNull Writer out, @NotNull String toolVersion, @NotNull Map<String, String> rules, @NotNull String srcRoot) throws IOException {
+        this.writer = new JsonWriter(out);
+        this.writer.setIndent("  ");
+
+        writer.beginObject();
+        writer.name("version").value(SARIF_VERSION);
+        writer.name("$schema").value(SARIF_SCHEMA);
+        writer.name("runs").beginArray();
+        writer.beginObject();
+
+        writer.name("tool").beginObject();
+        writer.name("driver").beginObject();
+        writer.name("name").value("MomoSec");
+        writer.name("version").value(toolVersion);
+        writer.name("informationUri").value("https://github.com/momosecurity/momo-code-sec-inspector-java");
+        writer.name("rules").beginArray();
+        for (Map.Entry<String, String> rule : rules.entrySet()) {
+            writer.beginObject();
+            writer.name("id").value(rule.getKey());
+            writer.name("shortDescription").beginObject().name("text").value(rule.getValue()).endObject();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.endObject();
+
+        writer.name("originalUriBaseIds").beginObject();
+        writer.name(SRC_ROOT).beginObject().name("uri").value(srcRoot).endObject();
+        writer.endObject();
+
+        writer.name("results").beginArray();
+    }
+
+    public void write(@NotNull MomoSecFinding finding) throws IOException {
+        writer.beginObject();
+        writer.name("ruleId").value(finding.getRuleId());
+        writer.name("level").value(finding.getLevel());
+        writer.name("message").beginObject().name("text").value(finding.getMessage()).endObject();
+
+        writer.name("locations").beginArray();
+        writer.beginObject();
+        writer.name("physicalLocation").beginObject();
+        writer.name("artifactLocation").beginObject();
+        File file = new File(finding.getPath());
+        if (file.isAbsolute()) {
+            // 项目目录之外的文件，uri 为绝对 URI，不能再相对于 %SRCROOT%
+            writer.name("uri").value(file.toURI().toASCIIString());
+        } else {
+            writer.name("uri").value(encodePath(finding.getPath()));
+            writer.name("uriBaseId").value(SRC_ROOT);
+        }
+        writer.endObject();
+        writer.name("region").beginObject();
+        writer.name("startLine").value(finding.getStartLine());
+        writer.name("startColumn").value(finding.getStartColumn());
+        writer.name("endLine").value(finding.getEndLine());
+        writer.name("endColumn").value(finding.getEndColumn());
+        writer.endObject();
+        writer.endObject();
+        writer.endObject();
+        writer.endArray();
+
+        writer.name("partialFingerprints").beginObject();
+        writer.name(VULN_SIGN_FINGERPRINT).value(String.valueOf(finding.getVulnSign()));
+        writer.endObject();
+        writer.endObject();
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return ;
+        }
+        closed = true;
+        writer.endArray();
+        writer.endObject();
+        writer.endArray();
+        writer.endObject();
+        writer.close();
+    }
+
+    /**
+     * 相对路径转为 URI 引用：以 / 分隔各段，段内除 RFC 3986 unreserved 字符外均按 UTF-8 百分号编码，
+     * 空格、#、%、非 ASCII 字符等不会产生非法的 URI
+     * @param path 相对路径
+     * @return String
+     */
+    @NotNull
+    static String encodePath(@NotNull String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        for (byte b : path.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xff;
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '-' || c == '.' || c == '_' || c == '~' || c == '/') {
+                sb.append((char) c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -15,13 +15,25 @@
  */
 package com.immomo.momosec.lang;
 
+import com.immomo.momosec.VulnSignWhiteListService;
+import com.immomo.momosec.lang.java.engine.MomoSecEngine;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
+import com.immomo.momosec.metrics.MomoSecMetrics;
+import com.immomo.momosec.metrics.MomoSecWatchdog;
+import com.immomo.momosec.utils.Murmur3Hasher;
+import com.immomo.momosec.utils.VulnSignBaseline;
 import com.intellij.codeInspection.AbstractBaseJavaLocalInspectionTool;
+import com.intellij.codeInspection.LocalInspectionToolSession;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.lang.ASTNode;
 import com.intellij.psi.*;
-import org.apache.commons.codec.digest.MurmurHash3;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Set;
+
 public abstract class MomoBaseLocalInspectionTool extends AbstractBaseJavaLocalInspectionTool {
 
     public enum VulnElemType {
@@ -30,6 +42,79 @@ public abstract class MomoBaseLocalInspectionTool extends AbstractBaseJavaLocalI
         CLASS_FIELD
     }
 
+    @NotNull
+    @Override
+    public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly, @NotNull LocalInspectionToolSession session) {
+        if (MomoSecEngine.isDispatchedByEngine(this, holder.getFile())) {
+            // 已由 MomoSecEngine 在单次遍历中分发，问题在 inspectionFinished 中上报
+            return MomoSecEngine.REPORTING_VISITOR;
+        }
+        PsiElementVisitor visitor = buildWrappedVisitor(holder, isOnTheFly, VulnSignWhiteListService.getBaseline(holder.getProject()), MomoSecWatchdog.getRecord(session));
+        if (visitor == PsiElementVisitor.EMPTY_VISITOR) {
+            // 空 visitor 不会再收到 inspectionFinished
+            MomoSecWatchdog.inspectionSkipped(session);
+        }
+        return visitor;
+    }
+
+    /**
+     * 构建规则 visitor：问题按 baseline 过滤后写入 holder，回调按 MomoSecMetrics 计数。
+     * IDE 高亮、MomoSecEngine 分发与 momosec-scan 都以此构建规则 visitor
+     * @param holder ProblemsHolder
+     * @param isOnTheFly boolean
+     * @param baseline 不再上报的漏洞签名
+     * @param record 当前文件的 watchdog 记录，null 表示不记录
+     * @return PsiElementVisitor
+     */
+    @NotNull
+    public PsiElementVisitor buildWrappedVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly,
+                                                @NotNull VulnSignBaseline baseline, @Nullable MomoSecWatchdog.FileRecord record) {
+        ProblemsHolder wrapped = VulnSignWhiteListService.wrap(holder, baseline);
+        return MomoSecMetrics.wrap(getShortName(), buildVisitor(wrapped, isOnTheFly), wrapped, record);
+    }
+
+    @Override
+    public void inspectionFinished(@NotNull LocalInspectionToolSession session, @NotNull ProblemsHolder problemsHolder) {
+        if (MomoSecEngine.isDispatchedByEngine(this, problemsHolder.getFile())) {
+            for (ProblemDescriptor descriptor : MomoSecEngine.getDispatchedProblems(session, this, problemsHolder.isOnTheFly())) {
+                problemsHolder.registerProblem(descriptor);
+            }
+        }
+        MomoSecWatchdog.inspectionFinished(session);
+    }
+
+    /**
+     * 规则关心的方法名、类名或注解名 (short name)，默认取自本规则在 MoSinkCatalog 中登记的 sink
+     * MomoSecEngine 只把名字命中的方法调用、new表达式、注解分发给本规则，其余类型的节点不受影响
+     * @return 名字集合，null 表示不按名字过滤
+     */
+    @Nullable
+    public Set<String> getDispatchNames() {
+        return MomoSecEngine.getSinkCatalog().getNames(getShortName());
+    }
+
+    /**
+     * 向 MoSinkCatalog 登记本规则关心的方法调用、构造类及注解
+     * @param registrar MoSinkCatalog.Registrar
+     */
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+    }
+
+    @Nullable
+    protected MoSinkCatalog.Sink matchSink(@NotNull PsiMethodCallExpression methodCall) {
+        return MomoSecEngine.getSinkCatalog().match(methodCall, getShortName());
+    }
+
+    @Nullable
+    protected MoSinkCatalog.Sink matchSink(@NotNull PsiNewExpression newExpression) {
+        return MomoSecEngine.getSinkCatalog().match(newExpression, getShortName());
+    }
+
+    @Nullable
+    protected MoSinkCatalog.Sink matchSink(@NotNull PsiAnnotation annotation) {
+        return MomoSecEngine.getSinkCatalog().match(annotation, getShortName());
+    }
+
     /**
      * 本方法针对可利用安全设置修复的漏洞，例如：
      * DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -105,15 +190,42 @@ public abstract class MomoBaseLocalInspectionTool extends AbstractBaseJavaLocalI
         return false;
     }
 
+    /**
+     * 漏洞签名: MurmurHash3("<element fqname>|<element text>")
+     * 元素文本按 AST 叶子节点逐段计算，不生成中间字符串
+     * @param element PsiElement
+     * @return int
+     */
     public static int getVulnSign(@NotNull PsiElement element) {
-        return getVulnSign(
-                MoExpressionUtils.getElementFQName(element),
-                element.getText()
-        );
+        Murmur3Hasher hasher = new Murmur3Hasher()
+                .update(MoExpressionUtils.getElementFQName(element))
+                .update('|');
+        ASTNode root = element.getNode();
+        if (root == null) {
+            return hasher.update(element.getText()).finish();
+        }
+
+        ASTNode node = root;
+        while (true) {
+            ASTNode child = node.getFirstChildNode();
+            if (child != null) {
+                node = child;
+                continue;
+            }
+            hasher.update(node.getChars());
+            while (node != root && node.getTreeNext() == null) {
+                node = node.getTreeParent();
+            }
+            if (node == root) {
+                break;
+            }
+            node = node.getTreeNext();
+        }
+        return hasher.finish();
     }
 
     public static int getVulnSign(@NotNull String fqname, @NotNull String elementText) {
-        return MurmurHash3.hash32(String.format("%s|%s", fqname, elementText));
+        return new Murmur3Hasher().update(fqname).update('|').update(elementText).finish();
     }
 
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.engine;
+
+import com.immomo.momosec.metrics.MomoSecMetrics;
+import com.intellij.psi.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单次遍历的分发 visitor
+ *
+ * 规则 visitor 按其覆写的 visitXxx 方法归入对应的节点类型；
+ * 方法调用、new表达式、注解再按 short name 建索引，名字不命中的规则不会被调用。
+ * 覆写了其它 visit 方法的规则 visitor 归入 OTHER，接收全部节点。
+ */
+class MomoSecDispatchVisitor extends JavaElementVisitor {
+
+    enum NodeKind {
+        METHOD_CALL("visitMethodCallExpression", true),
+        NEW_EXPRESSION("visitNewExpression", true),
+        ANNOTATION("visitAnnotation", true),
+        POLYADIC_EXPRESSION("visitPolyadicExpression", false),
+        LITERAL_EXPRESSION("visitLiteralExpression", false),
+        ASSIGNMENT_EXPRESSION("visitAssignmentExpression", false),
+        LOCAL_VARIABLE("visitLocalVariable", false),
+        FIELD("visitField", false),
+        OTHER(null, false);
+
+        private final String visitMethodName;
+        private final boolean dispatchedByName;
+
+        NodeKind(String visitMethodName, boolean dispatchedByName) {
+            this.visitMethodName = visitMethodName;
+            this.dispatchedByName = dispatchedByName;
+        }
+    }
+
+    private static final Map<Class<?>, Set<NodeKind>> kindCache = new ConcurrentHashMap<>();
+
+    private final Map<NodeKind, KindTable> tables = new EnumMap<>(NodeKind.class);
+    private final List<PsiElementVisitor> others = new ArrayList<>();
+
+    void register(@NotNull PsiElementVisitor visitor, @Nullable Set<String> names) {
+        if (visitor == PsiElementVisitor.EMPTY_VISITOR) {
+            return ;
+        }
+        // 计数开启时 visitor 被 MomoSecMetrics 包装，按原 visitor 的类型归类
+        Set<NodeKind> kinds = getNodeKinds(MomoSecMetrics.unwrap(visitor).getClass());
+        if (kinds.contains(NodeKind.OTHER)) {
+            // 接收全部节点，不再按类型重复分发
+            others.add(visitor);
+            return ;
+        }
+        for (NodeKind kind : kinds) {
+            tables.computeIfAbsent(kind, k -> new KindTable()).add(visitor, kind.dispatchedByName ? names : null);
+        }
+    }
+
+    boolean isEmpty() {
+        return tables.isEmpty() && others.isEmpty();
+    }
+
+    @Override
+    public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+        dispatch(NodeKind.METHOD_CALL, expression, expression.getMethodExpression().getReferenceName());
+    }
+
+    @Override
+    public void visitNewExpression(PsiNewExpression expression) {
+        PsiJavaCodeReferenceElement reference = expression.getClassOrAnonymousClassReference();
+        dispatch(NodeKind.NEW_EXPRESSION, expression, reference != null ? reference.getReferenceName() : null);
+    }
+
+    @Override
+    public void visitAnnotation(PsiAnnotation annotation) {
+        PsiJavaCodeReferenceElement reference = annotation.getNameReferenceElement();
+        dispatch(NodeKind.ANNOTATION, annotation, reference != null ? reference.getReferenceName() : null);
+    }
+
+    @Override
+    public void visitPolyadicExpression(PsiPolyadicExpression expression) {
+        dispatch(NodeKind.POLYADIC_EXPRESSION, expression, null);
+    }
+
+    @Override
+    public void visitLiteralExpression(PsiLiteralExpression expression) {
+        dispatch(NodeKind.LITERAL_EXPRESSION, expression, null);
+    }
+
+    @Override
+    public void visitAssignmentExpression(PsiAssignmentExpression expression) {
+        dispatch(NodeKind.ASSIGNMENT_EXPRESSION, expression, null);
+    }
+
+    @Override
+    public void visitLocalVariable(PsiLocalVariable variable) {
+        dispatch(NodeKind.LOCAL_VARIABLE, variable, null);
+    }
+
+    @Override
+    public void visitField(PsiField field) {
+        dispatch(NodeKind.FIELD, field, null);
+    }
+
+    @Override
+    public void visitReferenceExpression(PsiReferenceExpression expression) {
+        // JavaElementVisitor 默认不会把 PsiReferenceExpression 传递到 visitElement
+        dispatchOthers(expression);
+    }
+
+    @Override
+    public void visitElement(PsiElement element) {
+        dispatchOthers(element);
+    }
+
+    private void dispatch(@NotNull NodeKind kind, @NotNull PsiElement element, @Nullable String name) {
+        KindTable table = tables.get(kind);
+        if (table != null) {
+            table.dispatch(element, name);
+        }
+        dispatchOthers(element);
+    }
+
+    private void dispatchOthers(@NotNull PsiElement element) {
+        for (int i = 0, l = others.size(); i < l; i++) {
+            element.accept(others.get(i));
+        }
+    }
+
+    @NotNull
+    private static Set<NodeKind> getNodeKinds(@NotNull Class<?> visitorClass) {
+        return kindCache.computeIfAbsent(visitorClass, MomoSecDispatchVisitor::computeNodeKinds);
+    }
+
+    @NotNull
+    private static Set<NodeKind> computeNodeKinds(@NotNull Class<?> visitorClass) {
+        Set<NodeKind> kinds = EnumSet.noneOf(NodeKind.class);
+        for (Class<?> c = visitorClass;
+             c != null && c != JavaElementVisitor.class && c != PsiElementVisitor.class;
+             c = c.getSuperclass()
+        ) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (!method.getName().startsWith("visit") || method.getParameterCount() != 1 || method.isSynthetic()) {
+                    continue;
+                }
+                NodeKind matched = NodeKind.OTHER;
+                for (NodeKind kind : NodeKind.values()) {
+                    if (method.getName().equals(kind.visitMethodName)) {
+                        matched = kind;
+                        break;
+                    }
+                }
+                kinds.add(matched);
+            }
+        }
+        return kinds;
+    }
+
+    private static class KindTable {
+        private final Map<String, List<PsiElementVisitor>> byName = new HashMap<>();
+        private final List<PsiElementVisitor> anyName = new ArrayList<>();
+
+        void add(@NotNull PsiElementVisitor visitor, @Nullable Set<String> names) {
+            if (names == null) {
+                anyName.add(visitor);
+                return ;
+            }
+            for (String name : names) {
+                byName.computeIfAbsent(name, k -> new ArrayList<>()).add(visitor);
+            }
+        }
+
+        void dispatch(@NotNull PsiElement element, @Nullable String name) {
+            for (int i = 0, l = anyName.size(); i < l; i++) {
+                element.accept(anyName.get(i));
+            }
+            if (name != null) {
+                List<PsiElementVisitor> visitors = byName.get(name);
+                if (visitors != null) {
+                    for (int i = 0, l = visitors.size(); i < l; i++) {
+                        element.accept(visitors.get(i));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.engine;
+
+import com.immomo.momosec.VulnSignWhiteListService;
+import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
+import com.immomo.momosec.lang.java.rule.momosecurity.*;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
+import com.immomo.momosec.metrics.MomoSecWatchdog;
+import com.immomo.momosec.utils.VulnSignBaseline;
+import com.intellij.codeInsight.daemon.HighlightDisplayKey;
+import com.intellij.codeInspection.*;
+import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.ToolsImpl;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.profile.ProfileChangeAdapter;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * MomoSec Engine
+ *
+ * 将全部 Java 规则合并为一次遍历：每个文件只构建一个 MomoSecDispatchVisitor，
+ * 按节点类型以及方法名/类名/注解名把节点分发给关心它的规则。
+ * 规则通过 registerSinks 登记的名字汇总为 MoSinkCatalog，同时作为分发索引。
+ *
+ * 本 inspection 开启后，被接管规则自身的 visitor 不再检查节点(见 MomoBaseLocalInspectionTool#buildVisitor)，
+ * 同一次分析中首个结束的规则触发一次分发遍历，每条规则写入各自的 ProblemsHolder，
+ * 再由各规则在 inspectionFinished 中以自身的 short name 上报，级别、抑制与 quick fix 仍按规则区分。
+ * 每条规则是否启用、规则的选项仍以当前 Inspection Profile 中该规则的配置为准，
+ * 启用的规则集合按 profile 缓存，profile 修改或切换后重新计算。
+ *
+ * 代价：IDE 框架仍为每条被接管的规则遍历一次文件 (REPORTING_VISITOR 不检查节点，每个节点只多一次空回调)，
+ * 规则的实际检查全部在 inspectionFinished 中的那次分发遍历里串行完成，期间其他规则的线程等待其结束；
+ * 问题在整个文件遍历完之后才上报，不再先高亮可见区域。
+ * 该遍历的耗时与其他规则的等待时间记录在 MomoSecWatchdog 中 (engine=walk ... wait ...)，
+ * 对比引擎关闭时的规则耗时即可判断是否值得开启。
+ */
+public class MomoSecEngine extends MomoBaseLocalInspectionTool {
+
+    public static final String SHORT_NAME = "MomoSecEngine";
+
+    private static final List<Supplier<MomoBaseLocalInspectionTool>> RULE_FACTORIES = Arrays.asList(
+            PolyadicExpressionSQLi::new,
+            PlaceholderStringSQLi::new,
+            MybatisAnnotationSQLi::new,
+            RegexDos::new,
+            JacksonDatabindDefaultTyping::new,
+            FastjsonAutoType::new,
+            NettyResponseSplitting::new,
+            PredictableSeed::new,
+            XxeInspector::new,
+            XStreamUnserialize::new,
+            WeakHashInspector::new,
+            OutdatedEncryptionInspector::new,
+            XMLDecoderUnserialize::new,
+            LDAPUnserialize::new,
+            BroadCORSAllowOrigin::new,
+            SpringSecurityDebugEnabled::new,
+            HardcodedCredentials::new,
+            PublicControllerOnSpring::new,
+            SpringSessionFixProtection::new,
+            ReplacePseudorandomGenerator::new,
+            OpenSAML2IgnoreComment::new,
+            HardcodedIp::new
+    );
+
+    private static final Key<DispatchPass> PASS_KEY = Key.create("MomoSec.EngineDispatchPass");
+    private static final Key<DispatchSetCache> DISPATCH_SET_KEY = Key.create("MomoSec.EngineDispatchSet");
+
+    /**
+     * 被接管的规则在高亮中使用的 visitor，不检查任何节点，仅保证规则的 inspectionFinished 被调用
+     */
+    public static final PsiElementVisitor REPORTING_VISITOR = new PsiElementVisitor() {};
+
+    private static final List<MomoBaseLocalInspectionTool> DEFAULT_RULES = Collections.unmodifiableList(createRules());
+    private static final Set<String> RULE_SHORT_NAMES = new HashSet<>();
+    private static final MoSinkCatalog SINK_CATALOG;
+    static {
+        MoSinkCatalog.Builder builder = MoSinkCatalog.builder();
+        for (MomoBaseLocalInspectionTool rule : DEFAULT_RULES) {
+            RULE_SHORT_NAMES.add(rule.getShortName());
+            rule.registerSinks(builder.forRule(rule.getShortName()));
+        }
+        SINK_CATALOG = builder.build();
+    }
+
+    /**
+     * 新建一组默认配置的 Java 规则实例
+     * @return List
+     */
+    @NotNull
+    public static List<MomoBaseLocalInspectionTool> createRules() {
+        List<MomoBaseLocalInspectionTool> rules = new ArrayList<>(RULE_FACTORIES.size());
+        for (Supplier<MomoBaseLocalInspectionTool> factory : RULE_FACTORIES) {
+            rules.add(factory.get());
+        }
+        return rules;
+    }
+
+    /**
+     * 全部 Java 规则登记的 sink 目录
+     * @return MoSinkCatalog
+     */
+    @NotNull
+    public static MoSinkCatalog getSinkCatalog() {
+        return SINK_CATALOG;
+    }
+
+    /**
+     * 判断 tool 在 file 上是否已由 MomoSecEngine 接管
+     * @param tool MomoBaseLocalInspectionTool
+     * @param file PsiElement
+     * @return boolean
+     */
+    public static boolean isDispatchedByEngine(@NotNull MomoBaseLocalInspectionTool tool, @NotNull PsiElement file) {
+        if (tool instanceof MomoSecEngine || !RULE_SHORT_NAMES.contains(tool.getShortName())) {
+            return false;
+        }
+        return getDispatchSet(file.getProject()).isEngineEnabled(file);
+    }
+
+    /**
+     * 取 rule 在本次分析中的问题。同一 session 内首次调用时对整个文件执行一次分发遍历，
+     * 参与分发的每条规则写入各自的 ProblemsHolder，之后的调用直接返回结果
+     * @param session LocalInspectionToolSession
+     * @param rule 被接管的规则
+     * @param isOnTheFly boolean
+     * @return List
+     */
+    @NotNull
+    public static List<ProblemDescriptor> getDispatchedProblems(@NotNull LocalInspectionToolSession session,
+                                                                @NotNull MomoBaseLocalInspectionTool rule,
+                                                                boolean isOnTheFly) {
+        DispatchPass pass = session.getUserData(PASS_KEY);
+        if (pass == null) {
+            pass = session.putUserDataIfAbsent(PASS_KEY, new DispatchPass());
+        }
+        return pass.getProblems(session, rule.getShortName(), isOnTheFly);
+    }
+
+    /**
+     * 以给定规则构建单次遍历的分发 visitor，每条规则的问题写入各自的 ProblemsHolder
+     * 规则 visitor 由 MomoBaseLocalInspectionTool#buildWrappedVisitor 构建，与 IDE 中单独运行规则时一致
+     * @param holders 参与分发的规则及其 ProblemsHolder
+     * @param isOnTheFly boolean
+     * @param baseline 不再上报的漏洞签名
+     * @param record 当前文件的 watchdog 记录，null 表示不记录
+     * @return PsiElementVisitor
+     */
+    @NotNull
+    public static PsiElementVisitor buildDispatchVisitor(@NotNull Map<? extends MomoBaseLocalInspectionTool, ProblemsHolder> holders,
+                                                         boolean isOnTheFly,
+                                                         @NotNull VulnSignBaseline baseline,
+                                                         @Nullable MomoSecWatchdog.FileRecord record) {
+        MomoSecDispatchVisitor visitor = new MomoSecDispatchVisitor();
+        for (Map.Entry<? extends MomoBaseLocalInspectionTool, ProblemsHolder> entry : holders.entrySet()) {
+            MomoBaseLocalInspectionTool rule = entry.getKey();
+            visitor.register(rule.buildWrappedVisitor(entry.getValue(), isOnTheFly, baseline, record), rule.getDispatchNames());
+        }
+        return visitor.isEmpty() ? PsiElementVisitor.EMPTY_VISITOR : visitor;
+    }
+
+    /**
+     * 本 inspection 自身不上报问题，问题由被接管的规则在 inspectionFinished 中以规则自身的 short name 上报，
+     * 以保留每条规则的级别、@SuppressWarnings id 与 quick fix 分组
+     */
+    @NotNull
+    @Override
+    public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly, @NotNull LocalInspectionToolSession session) {
+        MomoSecWatchdog.inspectionSkipped(session);
+        return PsiElementVisitor.EMPTY_VISITOR;
+    }
+
+    @NotNull
+    @Override
+    public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
+        return PsiElementVisitor.EMPTY_VISITOR;
+    }
+
+    @NotNull
+    private static DispatchSet getDispatchSet(@NotNull Project project) {
+        DispatchSetCache cache = project.getUserData(DISPATCH_SET_KEY);
+        if (cache == null) {
+            synchronized (DISPATCH_SET_KEY) {
+                cache = project.getUserData(DISPATCH_SET_KEY);
+                if (cache == null) {
+                    cache = new DispatchSetCache();
+                    project.getMessageBus().connect(project).subscribe(ProfileChangeAdapter.TOPIC, cache);
+                    project.putUserData(DISPATCH_SET_KEY, cache);
+                }
+            }
+        }
+        return cache.get(project);
+    }
+
+    /**
+     * 一次分析 (同一 LocalInspectionToolSession) 中的分发遍历，各规则共享
+     */
+    private static final class DispatchPass {
+        private Map<String, List<ProblemDescriptor>> problems = null;
+
+        @NotNull
+        List<ProblemDescriptor> getProblems(@NotNull LocalInspectionToolSession session, @NotNull String ruleId, boolean isOnTheFly) {
+            MomoSecWatchdog.FileRecord record = MomoSecWatchdog.getRecord(session);
+            long start = record != null ? System.nanoTime() : 0L;
+            long walkNanos = 0L;
+            List<ProblemDescriptor> result;
+            synchronized (this) {
+                if (problems == null) {
+                    // 遍历被取消时不保存结果，由下一个调用者重新执行
+                    long walkStart = record != null ? System.nanoTime() : 0L;
+                    problems = run(session, isOnTheFly);
+                    if (record != null) {
+                        walkNanos = System.nanoTime() - walkStart;
+                        record.addEngineWalkNanos(walkNanos);
+                    }
+                }
+                result = problems.get(ruleId);
+            }
+            if (record != null) {
+                // 等待其他规则线程执行分发遍历的时间，不含本线程自己执行的遍历
+                record.addEngineWaitNanos(System.nanoTime() - start - walkNanos);
+            }
+            return result != null ? result : Collections.emptyList();
+        }
+
+        @NotNull
+        private static Map<String, List<ProblemDescriptor>> run(@NotNull LocalInspectionToolSession session, boolean isOnTheFly) {
+            PsiFile file = session.getFile();
+            InspectionManager manager = InspectionManager.getInstance(file.getProject());
+            Map<MomoBaseLocalInspectionTool, ProblemsHolder> holders = new LinkedHashMap<>();
+            for (MomoBaseLocalInspectionTool rule : getDispatchSet(file.getProject()).getRules(file)) {
+                holders.put(rule, new ProblemsHolder(manager, file, isOnTheFly));
+            }
+
+            VulnSignBaseline baseline = VulnSignWhiteListService.getBaseline(file.getProject());
+            PsiElementVisitor visitor = buildDispatchVisitor(holders, isOnTheFly, baseline, MomoSecWatchdog.getRecord(session));
+            if (visitor != PsiElementVisitor.EMPTY_VISITOR) {
+                file.accept(new PsiRecursiveElementWalkingVisitor() {
+                    @Override
+                    public void visitElement(PsiElement element) {
+                        ProgressManager.checkCanceled();
+                        element.accept(visitor);
+                        super.visitElement(element);
+                    }
+                });
+            }
+
+            Map<String, List<ProblemDescriptor>> problems = new HashMap<>();
+            for (Map.Entry<MomoBaseLocalInspectionTool, ProblemsHolder> entry : holders.entrySet()) {
+                problems.put(entry.getKey().getShortName(), entry.getValue().getResults());
+            }
+            return problems;
+        }
+    }
+
+    /**
+     * 项目当前 Inspection Profile 下的分发设置，profile 修改或切换时失效
+     */
+    private static final class DispatchSetCache implements ProfileChangeAdapter {
+        private final AtomicLong modificationCount = new AtomicLong();
+        private volatile DispatchSet value = null;
+
+        @Override
+        public void profileChanged(@Nullable InspectionProfile profile) {
+            modificationCount.incrementAndGet();
+        }
+
+        @Override
+        public void profileActivated(@Nullable InspectionProfile oldProfile, @Nullable InspectionProfile profile) {
+            modificationCount.incrementAndGet();
+        }
+
+        @NotNull
+        DispatchSet get(@NotNull Project project) {
+            InspectionProfileImpl profile = InspectionProjectProfileManager.getInstance(project).getCurrentProfile();
+            long count = modificationCount.get();
+            DispatchSet set = value;
+            if (set == null || set.profile != profile || set.modificationCount != count) {
+                set = new DispatchSet(profile, count, project);
+                value = set;
+            }
+            return set;
+        }
+    }
+
+    /**
+     * 引擎是否启用以及参与分发的规则 (使用 Profile 中的规则实例以保留其选项)。
+     * profile 对引擎或规则按 scope 设置了不同状态时，结果依赖文件所在 scope，此时逐文件查询 profile
+     */
+    private static final class DispatchSet {
+        private final InspectionProfileImpl profile;
+        private final long modificationCount;
+        private final boolean scoped;
+        private final boolean engineEnabled;
+        private final List<MomoBaseLocalInspectionTool> rules;
+
+        DispatchSet(@NotNull InspectionProfileImpl profile, long modificationCount, @NotNull Project project) {
+            this.profile = profile;
+            this.modificationCount = modificationCount;
+
+            boolean scoped = isScoped(profile, SHORT_NAME, project);
+            for (MomoBaseLocalInspectionTool rule : DEFAULT_RULES) {
+                scoped |= isScoped(profile, rule.getShortName(), project);
+            }
+            this.scoped = scoped;
+            this.engineEnabled = !scoped && isEnabled(profile, SHORT_NAME, null);
+            this.rules = scoped ? Collections.emptyList() : Collections.unmodifiableList(computeRules(profile, null));
+        }
+
+        boolean isEngineEnabled(@NotNull PsiElement file) {
+            return scoped ? isEnabled(profile, SHORT_NAME, file) : engineEnabled;
+        }
+
+        @NotNull
+        List<MomoBaseLocalInspectionTool> getRules(@NotNull PsiElement file) {
+            return scoped ? computeRules(profile, file) : rules;
+        }
+
+        private static boolean isScoped(@NotNull InspectionProfileImpl profile, @NotNull String shortName, @NotNull Project project) {
+            ToolsImpl tools = profile.getToolsOrNull(shortName, project);
+            return tools != null && tools.getTools().size() > 1;
+        }
+
+        private static boolean isEnabled(@NotNull InspectionProfileImpl profile, @NotNull String shortName, @Nullable PsiElement file) {
+            HighlightDisplayKey key = HighlightDisplayKey.find(shortName);
+            return key != null && profile.isToolEnabled(key, file);
+        }
+
+        @NotNull
+        private static List<MomoBaseLocalInspectionTool> computeRules(@NotNull InspectionProfileImpl profile, @Nullable PsiElement file) {
+            List<MomoBaseLocalInspectionTool> rules = new ArrayList<>();
+            for (MomoBaseLocalInspectionTool rule : DEFAULT_RULES) {
+                if (!isEnabled(profile, rule.getShortName(), file)) {
+                    continue;
+                }
+                InspectionProfileEntry configured = profile.getUnwrappedTool(rule.getShortName(), file);
+                rules.add(configured instanceof MomoBaseLocalInspectionTool ? (MomoBaseLocalInspectionTool)configured : rule);
+            }
+            return rules;
+        }
+    }
+}
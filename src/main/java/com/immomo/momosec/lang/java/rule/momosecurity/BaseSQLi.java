@@ -23,49 +23,14 @@ import com.intellij.psi.PsiMethodCallExpression;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.siyeh.ig.psiutils.MethodCallUtils;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public abstract class BaseSQLi extends MomoBaseLocalInspectionTool {
-    private static final Pattern sqlPattern =
-            Pattern.compile("^\\s*(select|delete|update|insert)\\s+.*?(from|into|set)\\s+.*?where.*", Pattern.CASE_INSENSITIVE);
-
     /**
      * 判断指定字符串是否为SQL语句
      * @param str String
      * @return boolean
      */
-    protected boolean isSql(String str) {
-        return sqlPattern.matcher(str).find();
-    }
-
-    /**
-     * 按 needle 拆分字符串后，判断拆分数组是否有拼接SQL注入风险
-     * @param content String
-     * @param pattern Pattern
-     * @return boolean
-     */
-    protected boolean hasEvalAdditive(String content, Pattern pattern) {
-        Matcher m = pattern.matcher(content);
-        int offset = 0;
-        List<String> prefixes = new ArrayList<>();
-        while(m.find(offset)) {
-            prefixes.add(content.substring(0, m.start()));
-            offset = m.end();
-        }
-        return hasEvalAdditive(prefixes);
-    }
-
-    /**
-     * 判断数组是否有拼接SQL注入风险
-     * @param prefixes List<String>
-     * @return boolean
-     */
-    protected boolean hasEvalAdditive(List<String> prefixes) {
-        return prefixes.stream()
-                .anyMatch(prefix -> SQLi.hasVulOnSQLJoinStr(prefix, null, null));
+    protected static boolean isSql(String str) {
+        return SQLi.isSqlStatement(str);
     }
 
     protected boolean ignoreMethodName(PsiExpression expression) {
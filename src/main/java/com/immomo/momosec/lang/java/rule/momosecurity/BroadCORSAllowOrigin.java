@@ -18,6 +18,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
@@ -31,6 +32,22 @@ import org.jetbrains.annotations.NotNull;
 public class BroadCORSAllowOrigin extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("board.cors.allow.origin.msg");
 
+    private static final String TAG_SERVLET_HEADER = "servletHeader";
+    private static final String TAG_ADD_ALLOWED_ORIGIN = "addAllowedOrigin";
+    private static final String TAG_PERMIT_DEFAULT_VALUES = "applyPermitDefaultValues";
+    private static final String TAG_ADD_MAPPING = "addMapping";
+
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .annotation("org.springframework.web.bind.annotation.CrossOrigin")
+                .method("javax.servlet.http.HttpServletResponse", "setHeader", TAG_SERVLET_HEADER)
+                .method("javax.servlet.http.HttpServletResponse", "addHeader", TAG_SERVLET_HEADER)
+                .method("org.springframework.web.cors.CorsConfiguration", "addAllowedOrigin", TAG_ADD_ALLOWED_ORIGIN)
+                .method("org.springframework.web.cors.CorsConfiguration", "applyPermitDefaultValues", TAG_PERMIT_DEFAULT_VALUES)
+                .method("org.springframework.web.servlet.config.annotation.CorsRegistry", "addMapping", TAG_ADD_MAPPING);
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
@@ -38,7 +55,7 @@ public class BroadCORSAllowOrigin extends MomoBaseLocalInspectionTool {
             public void visitAnnotation(PsiAnnotation annotation) {
 
                 // Spring MVC framework #CorssOrigin
-                if ("org.springframework.web.bind.annotation.CrossOrigin".equals(annotation.getQualifiedName())) {
+                if (matchSink(annotation) != null) {
                     PsiAnnotationParameterList psiAnnotationParameterList = annotation.getParameterList();
                     PsiNameValuePair[] nameValuePairs = psiAnnotationParameterList.getAttributes();
                     if  (nameValuePairs.length == 0) {
@@ -59,11 +76,12 @@ public class BroadCORSAllowOrigin extends MomoBaseLocalInspectionTool {
 
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+                MoSinkCatalog.Sink sink = matchSink(expression);
+                if (sink == null) { return ; }
+                String tag = sink.getTag();
 
                 // Java servlet framework
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.servlet.http.HttpServletResponse", "setHeader") ||
-                    MoExpressionUtils.hasFullQualifiedName(expression, "javax.servlet.http.HttpServletResponse", "addHeader")
-                ) {
+                if (TAG_SERVLET_HEADER.equals(tag)) {
                     PsiExpressionList expressionList = expression.getArgumentList();
                     PsiExpression[] args = expressionList.getExpressions();
                     if (args.length == 2 &&
@@ -81,7 +99,7 @@ public class BroadCORSAllowOrigin extends MomoBaseLocalInspectionTool {
                 }
 
                 // Spring MVC framework #cors.CorsConfiguration
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "org.springframework.web.cors.CorsConfiguration", "addAllowedOrigin")) {
+                if (TAG_ADD_ALLOWED_ORIGIN.equals(tag)) {
                     PsiExpressionList expressionList = expression.getArgumentList();
                     PsiExpression[] args = expressionList.getExpressions();
                     if (args.length == 1) {
@@ -97,13 +115,13 @@ public class BroadCORSAllowOrigin extends MomoBaseLocalInspectionTool {
                         }
                     }
                 }
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "org.springframework.web.cors.CorsConfiguration", "applyPermitDefaultValues")) {
+                if (TAG_PERMIT_DEFAULT_VALUES.equals(tag)) {
                     holder.registerProblem(expression, MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING);
                 }
 
 
                 // Spring MVC framework #web.servlet.config.annotation.CorsRegistration
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "org.springframework.web.servlet.config.annotation.CorsRegistry", "addMapping")) {
+                if (TAG_ADD_MAPPING.equals(tag)) {
                     PsiElement parent = expression;
                     boolean foundAllowedOriginsSetup = false;
                     do {
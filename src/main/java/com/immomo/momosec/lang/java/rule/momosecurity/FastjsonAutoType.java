@@ -18,7 +18,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.fix.DeleteElementQuickFix;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
@@ -39,13 +39,19 @@ public class FastjsonAutoType extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("fastjson.auto.type.msg");
     private static final String QUICK_FIX_NAME = InspectionBundle.message("fastjson.auto.type.fix");
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("com.alibaba.fastjson.parser.ParserConfig", "setAutoTypeSupport");
+    }
+
     @Override
     @NotNull
     public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "com.alibaba.fastjson.parser.ParserConfig", "setAutoTypeSupport")) {
+                if (matchSink(expression) != null) {
                     PsiExpression[] args = expression.getArgumentList().getExpressions();
                     if (args.length == 1 &&
                         args[0] instanceof PsiLiteralExpression &&
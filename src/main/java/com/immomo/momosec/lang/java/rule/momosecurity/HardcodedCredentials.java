@@ -18,6 +18,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
@@ -41,6 +42,13 @@ public class HardcodedCredentials extends MomoBaseLocalInspectionTool {
     private static final int truncate = 16;
 
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("java.util.Hashtable", "put")
+                .method("java.sql.DriverManager", "getConnection");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
@@ -91,7 +99,10 @@ public class HardcodedCredentials extends MomoBaseLocalInspectionTool {
 
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "java.util.Hashtable", "put")) {
+                MoSinkCatalog.Sink sink = matchSink(expression);
+                if (sink == null) { return ; }
+
+                if ("put".equals(sink.getName())) {
                     PsiExpression qualifierExp = expression.getMethodExpression().getQualifierExpression();
                     if (qualifierExp != null &&
                         qualifierExp.getType() != null &&
@@ -108,7 +119,7 @@ public class HardcodedCredentials extends MomoBaseLocalInspectionTool {
                             }
                         }
                     }
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "java.sql.DriverManager", "getConnection")) {
+                } else if ("getConnection".equals(sink.getName())) {
                     // 检查0位参的连接串，或3位参的password字段
                     PsiExpression[] args = expression.getArgumentList().getExpressions();
                     if (args.length == 1) {
@@ -127,7 +138,7 @@ public class HardcodedCredentials extends MomoBaseLocalInspectionTool {
         };
     }
 
-    private static boolean isHighEntropyString(String v) {
+    static boolean isHighEntropyString(String v) {
         if (truncate < v.length()) {
             v = v.substring(0, truncate);
         }
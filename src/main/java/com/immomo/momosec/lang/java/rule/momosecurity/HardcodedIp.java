@@ -48,7 +48,7 @@ public class HardcodedIp extends MomoBaseLocalInspectionTool {
         };
     }
 
-    private static boolean isSensitiveIp(String ip) {
+    static boolean isSensitiveIp(String ip) {
         //判断是否是7-15位之间（0.0.0.0-255.255.255.255.255）
         if (ip.length()<7||ip.length()>15) {
             return false;
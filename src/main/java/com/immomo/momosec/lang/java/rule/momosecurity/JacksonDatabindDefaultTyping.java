@@ -20,6 +20,8 @@ import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseFixElementWalkingVisitor;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoResolveCache;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -47,16 +49,23 @@ public class JacksonDatabindDefaultTyping extends MomoBaseLocalInspectionTool {
 
     private final AnnotationQuickFix annotationQuickFix = new AnnotationQuickFix();
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("com.fasterxml.jackson.databind.ObjectMapper", "enableDefaultTyping")
+                .annotation("com.fasterxml.jackson.annotation.JsonTypeInfo");
+    }
+
     @Override
     @NotNull
     public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "com.fasterxml.jackson.databind.ObjectMapper", "enableDefaultTyping")) {
+                if (matchSink(expression) != null) {
                     PsiExpression varExp = expression.getMethodExpression().getQualifierExpression();
                     if (varExp != null &&  varExp.getReference() != null) {
-                        PsiElement var = varExp.getReference().resolve();
+                        PsiElement var = MoResolveCache.resolve(varExp.getReference());
                         if (var != null) {
                             UseToJackson2JsonRedisSerializerVisitor visitor = new UseToJackson2JsonRedisSerializerVisitor(var);
                             if (checkVariableUseFix(var, null, visitor)) {
@@ -76,7 +85,7 @@ public class JacksonDatabindDefaultTyping extends MomoBaseLocalInspectionTool {
 
             @Override
             public void visitAnnotation(PsiAnnotation annotation) {
-                if ("com.fasterxml.jackson.annotation.JsonTypeInfo".equals(annotation.getQualifiedName())) {
+                if (matchSink(annotation) != null) {
                     PsiAnnotationParameterList psiAnnotationParameterList = annotation.getParameterList();
                     PsiNameValuePair[] nameValuePairs = psiAnnotationParameterList.getAttributes();
                     for (PsiNameValuePair nameValuePair : nameValuePairs) {
@@ -113,7 +122,7 @@ public class JacksonDatabindDefaultTyping extends MomoBaseLocalInspectionTool {
                     if (args.getExpressionCount() != 1) { return ; }
                     if (args.getExpressions()[0] instanceof PsiReferenceExpression) {
                         PsiReference refElem = args.getExpressions()[0].getReference();
-                        if (refElem != null && refVar.isEquivalentTo(refElem.resolve())) {
+                        if (refElem != null && refVar.isEquivalentTo(MoResolveCache.resolve(refElem))) {
                             this.setFix(true);
                             this.stopWalking();
                             return  ;
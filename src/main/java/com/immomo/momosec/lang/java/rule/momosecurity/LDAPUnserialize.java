@@ -18,7 +18,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.fix.SetBoolArgQuickFix;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
@@ -33,12 +33,19 @@ public class LDAPUnserialize extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("ldap.unserialize.msg");
     private static final String QUICK_FIX_NAME = InspectionBundle.message("ldap.unserialize.fix");
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .constructor("javax.naming.directory.SearchControls")
+                .method("javax.naming.directory.SearchControls", "setReturningObjFlag");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitNewExpression(PsiNewExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.naming.directory.SearchControls")) {
+                if (matchSink(expression) != null) {
                     PsiExpressionList expressionList = expression.getArgumentList();
                     if (expressionList != null && expressionList.getExpressionCount() == 6) {
                         PsiExpression[] args = expressionList.getExpressions();
@@ -58,7 +65,7 @@ public class LDAPUnserialize extends MomoBaseLocalInspectionTool {
 
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.naming.directory.SearchControls", "setReturningObjFlag")) {
+                if (matchSink(expression) != null) {
                     PsiExpressionList expressionList = expression.getArgumentList();
                     PsiExpression[] args = expressionList.getExpressions();
                     if (args.length == 1 &&
@@ -18,8 +18,8 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
-import com.immomo.momosec.utils.SQLi;
-import com.immomo.momosec.utils.Str;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
+import com.immomo.momosec.utils.SQLLexer;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -27,16 +27,13 @@ import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.source.tree.java.PsiArrayInitializerMemberValueImpl;
-import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.*;
-import java.util.regex.Matcher;
+import java.util.Arrays;
 import java.util.stream.Collectors;
 
 import static com.immomo.momosec.Constants.SQL_INJECTION_HELP_COMMENT;
-import static com.immomo.momosec.utils.SQLi.*;
 
 /**
  * 1003: Mybatis注解SQL注入漏洞
@@ -57,22 +54,25 @@ public class MybatisAnnotationSQLi extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("mybatis.annotation.sqli.msg");
     private static final String QUICK_FIX_NAME = InspectionBundle.message("mybatis.annotation.sqli.fix");
 
-    // 待检查的注解
-    private static final Set<String> checkedAnnotations = new HashSet<>(Arrays.asList(
-            "org.apache.ibatis.annotations.Select",
-            "org.apache.ibatis.annotations.Delete",
-            "org.apache.ibatis.annotations.Update",
-            "org.apache.ibatis.annotations.Insert"
-    ));
     private final MybatisAnnotationSQLiQuickFix mybatisAnnotationSQLiQuickFix = new MybatisAnnotationSQLiQuickFix();
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        // 待检查的注解
+        registrar
+                .annotation("org.apache.ibatis.annotations.Select")
+                .annotation("org.apache.ibatis.annotations.Delete")
+                .annotation("org.apache.ibatis.annotations.Update")
+                .annotation("org.apache.ibatis.annotations.Insert");
+    }
+
     @NotNull
     @Override
     public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitAnnotation(PsiAnnotation annotation) {
-                if (Boolean.FALSE.equals(checkedAnnotations.contains(annotation.getQualifiedName()))) {
+                if (matchSink(annotation) == null) {
                     return ;
                 }
                 PsiAnnotationParameterList psiAnnotationParameterList = annotation.getParameterList();
@@ -109,26 +109,16 @@ public class MybatisAnnotationSQLi extends MomoBaseLocalInspectionTool {
             content = content.substring(8, content.length() - 9);
         }
 
-        Matcher m = dollarVarPattern.matcher(content);
-        int offset = 0;
-        List<List<String>> fragments = new ArrayList<>();
-        while(m.find(offset)) {
-            String prefix = content.substring(0, m.start());
-            String var    = m.group(1);
-            String suffix = content.substring(m.end());
-            if (ignorePosition(prefix, var, suffix)) {
-                continue;
+        for (SQLLexer.Hole hole : SQLLexer.lexDollarVars(content)) {
+            if (!ignorePosition(hole) && hole.isVulnerable()) {
+                return true;
             }
-            fragments.add(new ArrayList<String>(){{ add(prefix); add(var); add(suffix); }});
-
-            offset = m.end();
         }
-
-        return SQLi.hasVulOnSQLJoinStrList(fragments);
+        return false;
     }
 
-    private static boolean ignorePosition(String prefix, String var, String suffix) {
-        return var.startsWith("ew.");
+    private static boolean ignorePosition(SQLLexer.Hole hole) {
+        return hole.getVar() != null && hole.getVar().startsWith("ew.");
     }
 
     public static class MybatisAnnotationSQLiQuickFix implements LocalQuickFix {
@@ -148,7 +138,7 @@ public class MybatisAnnotationSQLi extends MomoBaseLocalInspectionTool {
             if (problemElem instanceof PsiLiteralExpression) {
                 String content = MoExpressionUtils.getLiteralInnerText((PsiLiteralExpression)problemElem);
                 if (content != null) {
-                    String newContent = replaceDollarWithHashtagOnString(content, 0);
+                    String newContent = replaceDollarWithHashtagOnString(content);
                     PsiElementFactory factory = JavaPsiFacade.getElementFactory(project);
                     problemElem = problemElem.replace(factory.createExpressionFromText("\"" + newContent + "\"", problemElem));
                     isFix = !newContent.contains("$");
@@ -170,34 +160,43 @@ public class MybatisAnnotationSQLi extends MomoBaseLocalInspectionTool {
             }
         }
 
-        private String replaceDollarWithHashtagOnString(@NotNull String content, int offset) {
-            Matcher m = dollarVarPattern.matcher(content);
-            if(m.find(offset)) {
-                String prefix = content.substring(0, m.start());
-                String suffix = content.substring(m.end());
-                String var = m.group(1);
-                String inner = m.group();
-                if (!ignorePosition(prefix, var, suffix) && SQLi.hasVulOnSQLJoinStr(prefix, var, suffix)) {
-                    String lowerPrefix = prefix.toLowerCase();
-                    if (whereInEndPattern.matcher(lowerPrefix).find()) {
+        private String replaceDollarWithHashtagOnString(@NotNull String content) {
+            StringBuilder sb = new StringBuilder(content.length());
+            int offset = 0;
+            for (SQLLexer.Hole hole : SQLLexer.lexDollarVars(content)) {
+                if (hole.getStart() < offset || ignorePosition(hole) || !hole.isVulnerable()) {
+                    continue;
+                }
+                String hashtag = "#{" + hole.getVar() + "}";
+                switch (hole.getContext()) {
+                    case IN_LIST:
                         // where in 不处理
-                        content = replaceDollarWithHashtagOnString(content, m.end());
-                    } else if (likeEndPatterh.matcher(lowerPrefix).find()) {
+                        break;
+                    case LIKE_PATTERN:
                         // like '%${var} 或 like "%${var} 情况
-                        String concat = " CONCAT('%', " + inner.replace('$', '#') + ", '%') ";
-                        prefix = StringUtils.stripEnd(prefix, "'\"% ");
-                        suffix = StringUtils.stripStart(suffix, "'\"% ");
-                        content = replaceDollarWithHashtagOnString(prefix + concat + suffix, prefix.length() + concat.length() - 1);
-                    } else {
-                        if (Str.rtrim(prefix).endsWith("'") || Str.rtrim(prefix).endsWith("\"")) {
-                            prefix = Str.rtrim(prefix).substring(0, prefix.length()-1);
-                            suffix = Str.ltrim(suffix).substring(1);
+                        sb.append(content, offset, hole.getStart());
+                        while (sb.length() > 0 && "'\"% ".indexOf(sb.charAt(sb.length() - 1)) != -1) {
+                            sb.setLength(sb.length() - 1);
                         }
-                        content = replaceDollarWithHashtagOnString(prefix + inner.replace('$', '#') + suffix, prefix.length() + inner.length());
-                    }
+                        sb.append(" CONCAT('%', ").append(hashtag).append(", '%') ");
+                        offset = hole.getEnd();
+                        while (offset < content.length() && "'\"% ".indexOf(content.charAt(offset)) != -1) {
+                            offset++;
+                        }
+                        break;
+                    default:
+                        if (hole.getQuoteStart() != -1) {
+                            // '${var}' 去掉引号
+                            sb.append(content, offset, hole.getQuoteStart()).append(hashtag);
+                            offset = hole.getQuoteEnd();
+                        } else {
+                            sb.append(content, offset, hole.getStart()).append(hashtag);
+                            offset = hole.getEnd();
+                        }
+                        break;
                 }
             }
-            return content;
+            return sb.append(content, offset, content.length()).toString();
         }
     }
 
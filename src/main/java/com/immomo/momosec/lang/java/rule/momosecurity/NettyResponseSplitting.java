@@ -17,7 +17,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -38,12 +38,22 @@ public class NettyResponseSplitting extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("netty.response.splitting.msg");
     private static final String QUICK_FIX_NAME = InspectionBundle.message("netty.response.splitting.fix");
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .constructor("io.netty.handler.codec.http.DefaultHttpHeaders")
+                .constructor("io.netty.handler.codec.http.DefaultHttpResponse");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitNewExpression(PsiNewExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "io.netty.handler.codec.http.DefaultHttpHeaders")) {
+                MoSinkCatalog.Sink sink = matchSink(expression);
+                if (sink == null) { return ; }
+
+                if ("DefaultHttpHeaders".equals(sink.getName())) {
                     if (expression.getArgumentList() != null) {
                         PsiExpression[] args = expression.getArgumentList().getExpressions();
                         if (args.length > 0 && args[0] instanceof PsiLiteralExpression &&
@@ -58,7 +68,7 @@ public class NettyResponseSplitting extends MomoBaseLocalInspectionTool {
                         }
                     }
                 }
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "io.netty.handler.codec.http.DefaultHttpResponse")) {
+                if ("DefaultHttpResponse".equals(sink.getName())) {
                     if (expression.getArgumentList() != null) {
                         PsiExpression[] args = expression.getArgumentList().getExpressions();
 
@@ -18,7 +18,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.fix.SetBoolArgQuickFix;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
@@ -38,13 +38,19 @@ public class OpenSAML2IgnoreComment extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("open.saml2.ignore.comment.msg");
     public static final String QUICK_FIX_NAME = InspectionBundle.message("open.saml2.ignore.comment.fix");
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("org.opensaml.xml.parse.StaticBasicParserPool", "setIgnoreComments")
+                .method("org.opensaml.xml.parse.BasicParserPool", "setIgnoreComments");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "org.opensaml.xml.parse.StaticBasicParserPool", "setIgnoreComments") ||
-                    MoExpressionUtils.hasFullQualifiedName(expression, "org.opensaml.xml.parse.BasicParserPool", "setIgnoreComments")
+                if (matchSink(expression) != null
                 ) {
                     PsiExpression[] args = expression.getArgumentList().getExpressions();
                     if (args.length > 0) {
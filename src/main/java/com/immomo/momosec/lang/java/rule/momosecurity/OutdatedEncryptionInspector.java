@@ -18,6 +18,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
@@ -43,12 +44,18 @@ import org.jetbrains.annotations.NotNull;
 public class OutdatedEncryptionInspector extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("outdated.encryption.inspector.msg");
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("javax.crypto.Cipher", "getInstance");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.crypto.Cipher", "getInstance")) {
+                if (matchSink(expression) != null) {
                     PsiExpressionList argList = expression.getArgumentList();
                     PsiExpression[] args = argList.getExpressions();
                     if (args.length > 0 && args[0] instanceof PsiLiteralExpression) {
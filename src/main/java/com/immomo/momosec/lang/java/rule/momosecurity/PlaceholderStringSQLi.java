@@ -18,6 +18,8 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.fix.ShowHelpCommentQuickFix;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
+import com.immomo.momosec.utils.SQLLexer;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
@@ -25,9 +27,7 @@ import com.siyeh.ig.psiutils.ExpressionUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.regex.Matcher;
 
 import static com.immomo.momosec.Constants.SQL_INJECTION_HELP_COMMENT;
 import static com.immomo.momosec.lang.java.utils.MoExpressionUtils.isSqliCareExpression;
@@ -47,6 +47,12 @@ public class PlaceholderStringSQLi extends BaseSQLi {
 
     private final ShowHelpCommentQuickFix showHelpCommentQuickFix = new ShowHelpCommentQuickFix(QUICK_FIX_NAME, SQL_INJECTION_HELP_COMMENT);
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("java.lang.String", "format");
+    }
+
     @NotNull
     @Override
     public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
@@ -54,7 +60,7 @@ public class PlaceholderStringSQLi extends BaseSQLi {
 
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (!MoExpressionUtils.hasFullQualifiedName(expression, "java.lang.String", "format")) {
+                if (matchSink(expression) == null) {
                     return ;
                 }
                 PsiExpression[] args = expression.getArgumentList().getExpressions();
@@ -76,27 +82,26 @@ public class PlaceholderStringSQLi extends BaseSQLi {
                     placeholderPattern.matcher(content).find() &&
                     isSql(content)
                 ) {
-                    List<String> split_cont_by_placeholder = new ArrayList<>(Arrays.asList(placeholderPattern.split(content)));
-                    if (content.endsWith(split_cont_by_placeholder.get(split_cont_by_placeholder.size() - 1))) {
-                        split_cont_by_placeholder.remove(split_cont_by_placeholder.size() - 1);
-                    }
-
-                    List<String> concat_cont = new ArrayList<>();
-                    StringBuilder sb = new StringBuilder();
+                    // 各占位符在模板中以 " ? " 代替，对应参数非常量时作为拼接点
+                    SQLLexer.Template template = new SQLLexer.Template();
+                    Matcher m = placeholderPattern.matcher(content);
+                    int offset = 0;
                     idx += 1;
-                    for(String seg : split_cont_by_placeholder) {
-                        sb.append(seg);
+                    while (m.find()) {
+                        template.append(content, offset, m.start());
                         if (idx < args.length &&
                             isSqliCareExpression(args[idx]) &&
                             getLiteralOrVariableLiteral(args[idx]) == null
                         ) {
-                            concat_cont.add(sb.toString());
+                            template.appendHole(" ? ");
+                        } else {
+                            template.append(" ? ");
                         }
-                        sb.append(" ? ");
+                        offset = m.end();
                         idx += 1;
                     }
 
-                    if (hasEvalAdditive(concat_cont)) {
+                    if (SQLLexer.hasVulnerableHole(SQLLexer.lex(template))) {
                         holder.registerProblem(
                                 expression,
                                 MESSAGE,
@@ -18,14 +18,21 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.fix.ShowHelpCommentQuickFix;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoMethodSummary;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
+import com.immomo.momosec.lang.java.utils.StringConcatPart;
+import com.immomo.momosec.utils.SQLLexer;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.codeInspection.ui.SingleCheckboxOptionsPanel;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiUtil;
+import com.siyeh.ig.psiutils.ExpressionUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
+import javax.swing.*;
+import java.util.*;
 
 import static com.immomo.momosec.Constants.SQL_INJECTION_HELP_COMMENT;
 import static com.immomo.momosec.lang.java.utils.MoExpressionUtils.isSqliCareExpression;
@@ -37,6 +44,10 @@ import static com.immomo.momosec.utils.SQLi.placeholderPattern;
  * eg.
  * (1) "select *" + " from table" + " where id =" + id;
  * (2) "select * from table" + " where id = " + getUserId();
+ *
+ * sinkDrivenMode 开启时，不再逐个分析字符串拼接，而是从 JDBC / JPA / Hibernate / JdbcTemplate
+ * 的 SQL 执行接口出发，沿局部数据流回溯到构造 SQL 的拼接，分析量随 sink 数量增长。
+ * 拼接与执行分处不同语句时也能关联起来，"+=" 与局部 StringBuilder 的 append 累积出的 SQL 也作为整体分析。
  */
 public class PolyadicExpressionSQLi extends BaseSQLi {
     public static final String MESSAGE = InspectionBundle.message("polyadic.expression.sqli.msg");
@@ -44,63 +55,415 @@ public class PolyadicExpressionSQLi extends BaseSQLi {
 
     private final ShowHelpCommentQuickFix showHelpCommentQuickFix = new ShowHelpCommentQuickFix(QUICK_FIX_NAME, SQL_INJECTION_HELP_COMMENT);
 
+    /**
+     * 只分析流入 SQL 执行接口的字符串
+     */
+    public boolean sinkDrivenMode = false;
+
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        for (String method : new String[]{"execute", "executeQuery", "executeUpdate", "executeLargeUpdate", "addBatch"}) {
+            registrar.method("java.sql.Statement", method);
+        }
+        for (String method : new String[]{"prepareStatement", "prepareCall", "nativeSQL"}) {
+            registrar.method("java.sql.Connection", method);
+        }
+        for (String method : new String[]{"query", "queryForObject", "queryForList", "queryForMap", "queryForRowSet",
+                                          "update", "batchUpdate", "execute"}) {
+            registrar.method("org.springframework.jdbc.core.JdbcTemplate", method);
+            registrar.method("org.springframework.jdbc.core.JdbcOperations", method);
+        }
+        for (String method : new String[]{"createNativeQuery", "createQuery"}) {
+            registrar.method("javax.persistence.EntityManager", method);
+        }
+        for (String owner : new String[]{"org.hibernate.Session", "org.hibernate.SharedSessionContract", "org.hibernate.query.QueryProducer"}) {
+            registrar.method(owner, "createSQLQuery");
+            registrar.method(owner, "createNativeQuery");
+            registrar.method(owner, "createQuery");
+        }
+    }
+
+    @Nullable
+    @Override
+    public JComponent createOptionsPanel() {
+        return new SingleCheckboxOptionsPanel(InspectionBundle.message("polyadic.expression.sqli.option.sink.driven"), this, "sinkDrivenMode");
+    }
+
     @NotNull
     @Override
     public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+        if (sinkDrivenMode) {
+            return new JavaElementVisitor() {
+                // 同一拼接可能经由多个变量 / 多个 sink 到达，只分析一次
+                private final ConcatChecker checker = new ConcatChecker(holder);
+                // 已分析过的 "+=" / append 累积片段，以上报位置标识
+                private final Set<PsiElement> assembled = new HashSet<>();
+
+                @Override
+                public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+                    if (matchSink(expression) == null) {
+                        return ;
+                    }
+                    PsiExpression[] args = expression.getArgumentList().getExpressions();
+                    if (args.length > 0) {
+                        traceSqlArgument(args[0], expression.getTextOffset(), new HashSet<>());
+                    }
+                }
+
+                /**
+                 * 从 sink 参数沿局部数据流向前回溯，找到构造 SQL 的字符串拼接
+                 * (1) 括号 / 三元表达式的各分支
+                 * (2) 局部变量在 sink 之前的定义 (取自 MoMethodSummary)：初始值、"=" 与 "+=" 赋值的右侧
+                 * (3) 局部 StringBuilder / StringBuffer 的 toString()：构造参数与 append 的参数
+                 * "+=" 与 append 累积出的 SQL 再作为一个整体分析
+                 */
+                private void traceSqlArgument(@Nullable PsiExpression expression, int sinkOffset, @NotNull Set<PsiLocalVariable> visited) {
+                    expression = PsiUtil.skipParenthesizedExprDown(expression);
+                    if (expression == null) {
+                        return ;
+                    }
+                    if (expression instanceof PsiConditionalExpression) {
+                        traceSqlArgument(((PsiConditionalExpression) expression).getThenExpression(), sinkOffset, visited);
+                        traceSqlArgument(((PsiConditionalExpression) expression).getElseExpression(), sinkOffset, visited);
+                        return ;
+                    }
+                    if (isStringConcat(expression)) {
+                        checker.check((PsiPolyadicExpression) expression);
+                        return ;
+                    }
+
+                    PsiLocalVariable variable = ExpressionUtils.resolveLocalVariable(expression);
+                    if (variable == null) {
+                        variable = resolveBuilder(expression);
+                    }
+                    if (variable == null || !visited.add(variable)) {
+                        return ;
+                    }
+                    traceDefinitions(variable, sinkOffset, visited);
+                }
+
+                /**
+                 * 按文本顺序处理变量的定义："=" 开始新的片段，"+=" / append 把右侧追加到当前片段
+                 */
+                private void traceDefinitions(@NotNull PsiLocalVariable variable, int sinkOffset, @NotNull Set<PsiLocalVariable> visited) {
+                    Segment segment = null;
+                    for (PsiElement definition : MoMethodSummary.getDefinitions(variable, sinkOffset)) {
+                        PsiExpression value = null;
+                        boolean accumulating = false;
+                        if (definition instanceof PsiLocalVariable) {
+                            value = getInitialValue(((PsiLocalVariable) definition).getInitializer());
+                        } else if (definition instanceof PsiAssignmentExpression) {
+                            PsiAssignmentExpression assignment = (PsiAssignmentExpression) definition;
+                            if (JavaTokenType.PLUSEQ.equals(assignment.getOperationTokenType())) {
+                                accumulating = true;
+                            } else if (!JavaTokenType.EQ.equals(assignment.getOperationTokenType())) {
+                                continue;
+                            }
+                            value = assignment.getRExpression();
+                        } else if (definition instanceof PsiMethodCallExpression) {
+                            PsiMethodCallExpression call = (PsiMethodCallExpression) definition;
+                            PsiExpression[] args = call.getArgumentList().getExpressions();
+                            if (!"append".equals(call.getMethodExpression().getReferenceName()) || args.length == 0) {
+                                // insert 的位置无法确定，之后的累积不再组合
+                                finish(segment);
+                                segment = null;
+                                continue;
+                            }
+                            accumulating = true;
+                            value = args[0];
+                        }
+
+                        traceSqlArgument(value, sinkOffset, visited);
+                        if (!accumulating) {
+                            finish(segment);
+                            segment = new Segment(value);
+                        } else if (segment != null && value != null) {
+                            segment.append(definition, value);
+                        }
+                    }
+                    finish(segment);
+                }
+
+                /**
+                 * 累积片段整体分析；片段中的拼接已单独上报过时不再重复上报
+                 */
+                private void finish(@Nullable Segment segment) {
+                    if (segment == null || segment.anchor == null || !assembled.add(segment.anchor)) {
+                        return ;
+                    }
+                    for (PsiExpression value : segment.values) {
+                        if (isStringConcat(value) && checker.check((PsiPolyadicExpression) value)) {
+                            return ;
+                        }
+                    }
+                    checker.check(segment.anchor, segment.parts);
+                }
+            };
+        }
+
         return new JavaElementVisitor() {
+            private final ConcatChecker checker = new ConcatChecker(holder);
 
             @Override
             public void visitPolyadicExpression(PsiPolyadicExpression expression) {
-                List<PsiExpression> exps = MoExpressionUtils.deconPolyadicExpression(expression);
-                if (exps.isEmpty() || ignoreMethodName(expression)) { return ; }
-
-                String expStr = exps.stream()
-                        .map(item -> MoExpressionUtils.getText(item, true))
-                        .collect(Collectors.joining());
-                if (isSql(expStr)) {
-                    List<String> sql_segments = new ArrayList<>();
-                    StringBuilder sb = new StringBuilder();
-
-                    boolean hasVar = false;
-                    for (PsiExpression exp : exps) {
-                        if (isSqliCareExpression(exp)) {
-                            String s = MoExpressionUtils.getLiteralInnerText(exp);
-                            if ( s == null ) {
-                                if ( !sb.toString().isEmpty() ) {
-                                    sql_segments.add(sb.toString());
-                                }
-
-                                if (!MoExpressionUtils.isText(exp)) {
-                                    hasVar = true;
-                                }
-
-                                sb.append(" ? ");
-                            } else {
-                                sb.append(s);
-                            }
+                // 嵌套在其他字符串拼接中的子拼接，由最外层拼接统一分析
+                if (!isStringConcat(expression) ||
+                    isStringConcat(PsiUtil.skipParenthesizedExprUp(expression.getParent())) ||
+                    ignoreMethodName(expression)
+                ) {
+                    return ;
+                }
+                checker.check(expression);
+            }
+        };
+    }
+
+    /**
+     * 一次分析 (一个 visitor) 内各字符串拼接的分析结果
+     *
+     * 括号内嵌套的子拼接先于父拼接分析且只分析一次，父拼接的文本由子拼接的文本组成，不再重新解构子拼接。
+     * 子拼接与最外层拼接之间只有括号与拼接，ignoreMethodName 的结果相同，无需重复判断
+     */
+    private class ConcatChecker {
+        private final ProblemsHolder holder;
+        private final Map<PsiPolyadicExpression, Result> results = new HashMap<>();
+
+        ConcatChecker(@NotNull ProblemsHolder holder) {
+            this.holder = holder;
+        }
+
+        /**
+         * @return 拼接或其嵌套的子拼接是否上报了问题
+         */
+        boolean check(@NotNull PsiPolyadicExpression expression) {
+            return analyze(expression).reported;
+        }
+
+        /**
+         * 分析由 parts 依次拼接得到的字符串，问题上报在 anchor 上
+         * @return 是否上报了问题
+         */
+        boolean check(@NotNull PsiElement anchor, @NotNull List<StringConcatPart> parts) {
+            return checkParts(holder, anchor, parts, getText(parts));
+        }
+
+        @NotNull
+        private Result analyze(@NotNull PsiPolyadicExpression expression) {
+            Result result = results.get(expression);
+            if (result != null) {
+                return result;
+            }
+            List<StringConcatPart> parts = MoExpressionUtils.deconStringConcat(expression);
+            String text = getText(parts);
+            boolean reported = checkParts(holder, expression, parts, text);
+            for (StringConcatPart part : parts) {
+                PsiPolyadicExpression inner = getNestedConcat(part);
+                if (inner != null) {
+                    reported |= results.get(inner).reported;
+                }
+            }
+            result = new Result(text, reported);
+            results.put(expression, result);
+            return result;
+        }
+
+        @NotNull
+        private String getText(@NotNull List<StringConcatPart> parts) {
+            StringBuilder sb = new StringBuilder();
+            for (StringConcatPart part : parts) {
+                PsiPolyadicExpression inner = getNestedConcat(part);
+                if (part.isConstant()) {
+                    sb.append(part.getConstantText());
+                } else if (inner != null) {
+                    sb.append('(').append(analyze(inner).text).append(')');
+                } else {
+                    sb.append(MoExpressionUtils.getText(part.getExpression(), true));
+                }
+            }
+            return sb.toString();
+        }
+
+        @Nullable
+        private PsiPolyadicExpression getNestedConcat(@NotNull StringConcatPart part) {
+            if (part.isConstant()) {
+                return null;
+            }
+            PsiExpression inner = PsiUtil.skipParenthesizedExprDown(part.getExpression());
+            return isStringConcat(inner) ? (PsiPolyadicExpression) inner : null;
+        }
+    }
+
+    private static class Result {
+        final String text;
+        final boolean reported;
+
+        Result(@NotNull String text, boolean reported) {
+            this.text = text;
+            this.reported = reported;
+        }
+    }
+
+    /**
+     * @param anchor 上报问题的位置
+     * @param parts 依次拼接的各部分
+     * @param expStr 拼接得到的文本
+     * @return 是否上报了问题
+     */
+    private boolean checkParts(@NotNull ProblemsHolder holder, @NotNull PsiElement anchor,
+                               @NotNull List<StringConcatPart> parts, @NotNull String expStr) {
+        if (parts.isEmpty()) { return false; }
+
+        if (isSql(expStr)) {
+            SQLLexer.Template template = new SQLLexer.Template();
+
+            boolean hasVar = false;
+            for (StringConcatPart part : parts) {
+                if (part.isConstant()) {
+                    template.append(part.getConstantText());
+                    continue;
+                }
+                PsiExpression exp = part.getExpression();
+                if (isSqliCareExpression(exp)) {
+                    String s = MoExpressionUtils.getLiteralInnerText(exp);
+                    if ( s == null ) {
+                        if (template.length() > 0) {
+                            template.appendHole(" ? ");
                         } else {
-                            sb.append(" ? ");
+                            template.append(" ? ");
                         }
-                    }
-                    // 末段要 drop 掉，不用查
 
-                    if (sql_segments.isEmpty() || Boolean.FALSE.equals(hasVar) || !hasEvalAdditive(sql_segments)) {
-                        // 对于 "select * from " + getTable() + " where id = %s" 的情况
-                        // getTable() 被忽略了，要考虑后面 %s 的问题
-                        if (hasPlaceholderProblem(expStr)) {
-                            holder.registerProblem(expression, PlaceholderStringSQLi.MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, showHelpCommentQuickFix);
+                        if (!MoExpressionUtils.isText(exp)) {
+                            hasVar = true;
                         }
-                        return ;
+                    } else {
+                        template.append(s);
                     }
-                    holder.registerProblem(expression, MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, showHelpCommentQuickFix);
+                } else {
+                    template.append(" ? ");
                 }
             }
 
-            private boolean hasPlaceholderProblem(String content) {
-                return placeholderPattern.matcher(content).find() &&
-                        isSql(content) &&
-                        hasEvalAdditive(content, placeholderPattern);
+            if (template.getHoleCount() == 0 || Boolean.FALSE.equals(hasVar) || !SQLLexer.hasVulnerableHole(SQLLexer.lex(template))) {
+                // 对于 "select * from " + getTable() + " where id = %s" 的情况
+                // getTable() 被忽略了，要考虑后面 %s 的问题
+                if (hasPlaceholderProblem(expStr)) {
+                    holder.registerProblem(anchor, PlaceholderStringSQLi.MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, showHelpCommentQuickFix);
+                    return true;
+                }
+                return false;
             }
-        };
+            holder.registerProblem(anchor, MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, showHelpCommentQuickFix);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * "+" 拼接且类型为 String (类型无法解析时也视为字符串拼接)
+     */
+    private static boolean isStringConcat(@Nullable PsiElement element) {
+        if (!(element instanceof PsiPolyadicExpression) ||
+            !JavaTokenType.PLUS.equals(((PsiPolyadicExpression) element).getOperationTokenType())) {
+            return false;
+        }
+        PsiType type = ((PsiPolyadicExpression) element).getType();
+        return type == null || "java.lang.String".equals(type.getCanonicalText());
+    }
+
+    /**
+     * 局部 StringBuilder / StringBuffer 的 toString()
+     * @return 被调用 toString() 的局部变量
+     */
+    @Nullable
+    private static PsiLocalVariable resolveBuilder(@NotNull PsiExpression expression) {
+        if (!(expression instanceof PsiMethodCallExpression)) {
+            return null;
+        }
+        PsiMethodCallExpression call = (PsiMethodCallExpression) expression;
+        if (!"toString".equals(call.getMethodExpression().getReferenceName()) ||
+            call.getArgumentList().getExpressions().length != 0) {
+            return null;
+        }
+        PsiExpression qualifier = call.getMethodExpression().getQualifierExpression();
+        PsiLocalVariable variable = qualifier != null ? ExpressionUtils.resolveLocalVariable(qualifier) : null;
+        return variable != null && isBuilder(variable.getType()) ? variable : null;
+    }
+
+    private static boolean isBuilder(@Nullable PsiType type) {
+        return type != null && (
+                "java.lang.StringBuilder".equals(type.getCanonicalText()) ||
+                "java.lang.StringBuffer".equals(type.getCanonicalText()));
+    }
+
+    /**
+     * 变量初始值代表的字符串：new StringBuilder(sql) 取其 String 参数
+     */
+    @Nullable
+    private static PsiExpression getInitialValue(@Nullable PsiExpression initializer) {
+        initializer = PsiUtil.skipParenthesizedExprDown(initializer);
+        if (!(initializer instanceof PsiNewExpression) || !isBuilder(initializer.getType())) {
+            return initializer;
+        }
+        PsiExpressionList argumentList = ((PsiNewExpression) initializer).getArgumentList();
+        PsiExpression[] args = argumentList != null ? argumentList.getExpressions() : PsiExpression.EMPTY_ARRAY;
+        if (args.length == 1 && args[0].getType() != null && "java.lang.String".equals(args[0].getType().getCanonicalText())) {
+            return args[0];
+        }
+        // new StringBuilder() / new StringBuilder(capacity) 以空串开始
+        return null;
+    }
+
+    /**
+     * 以 "=" 或初始值开始、由 "+=" / append 累积的 SQL
+     * anchor 为首个追加变量的定义，没有追加变量时为最后一次追加
+     */
+    private static class Segment {
+        final List<PsiExpression> values = new ArrayList<>();
+        final List<StringConcatPart> parts = new ArrayList<>();
+        PsiElement anchor;
+        boolean anchoredOnVariable = false;
+
+        /**
+         * @param value 初始值，null 表示以空串开始
+         */
+        Segment(@Nullable PsiExpression value) {
+            if (value != null) {
+                add(value);
+            }
+        }
+
+        void append(@NotNull PsiElement definition, @NotNull PsiExpression value) {
+            int size = parts.size();
+            add(value);
+            if (anchoredOnVariable) {
+                return ;
+            }
+            anchor = definition;
+            for (int i = size; i < parts.size(); i++) {
+                if (!parts.get(i).isConstant() && !(parts.get(i).getExpression() instanceof PsiLiteralExpression)) {
+                    anchoredOnVariable = true;
+                    break;
+                }
+            }
+        }
+
+        private void add(@NotNull PsiExpression value) {
+            value = Objects.requireNonNull(PsiUtil.skipParenthesizedExprDown(value));
+            values.add(value);
+            if (isStringConcat(value)) {
+                parts.addAll(MoExpressionUtils.deconStringConcat((PsiPolyadicExpression) value));
+            } else if (!(value instanceof PsiLiteralExpression) && MoMethodSummary.isConstant(value)) {
+                // 与 deconStringConcat 一致，常量以其文本代替
+                parts.add(StringConcatPart.constant(value, value.getText()));
+            } else {
+                parts.add(StringConcatPart.expression(value));
+            }
+        }
+    }
+
+    private static boolean hasPlaceholderProblem(String content) {
+        return placeholderPattern.matcher(content).find() &&
+                isSql(content) &&
+                SQLLexer.hasVulnerableHole(SQLLexer.lexPlaceholders(content));
     }
 }
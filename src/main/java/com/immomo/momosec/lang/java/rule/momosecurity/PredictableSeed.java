@@ -18,7 +18,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.fix.DeleteElementQuickFix;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -39,12 +39,19 @@ public class PredictableSeed extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("predictable.seed.msg");
     private static final String QUICK_FIX_NAME = InspectionBundle.message("predictable.seed.fix");
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("java.security.SecureRandom", "setSeed")
+                .constructor("java.security.SecureRandom");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "java.security.SecureRandom", "setSeed")) {
+                if (matchSink(expression) != null) {
                     PsiExpression[] args = expression.getArgumentList().getExpressions();
                     if (args.length != 1) { return ; }
                     PsiExpression arg0 = args[0];
@@ -61,7 +68,7 @@ public class PredictableSeed extends MomoBaseLocalInspectionTool {
 
             @Override
             public void visitNewExpression(PsiNewExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "java.security.SecureRandom")) {
+                if (matchSink(expression) != null) {
                     PsiExpressionList expressionList = expression.getArgumentList();
                     if (expressionList != null && expressionList.getExpressions().length != 0) {
                         holder.registerProblem(
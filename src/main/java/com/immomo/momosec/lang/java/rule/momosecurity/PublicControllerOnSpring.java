@@ -17,7 +17,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -28,9 +28,6 @@ import com.intellij.util.ObjectUtils;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * 1021: "@RequestMapping" 方法应当为 "public"
  *
@@ -51,23 +48,25 @@ public class PublicControllerOnSpring extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("public.controller.on.spring.msg");
     private static final String QUICK_FIX_NAME = InspectionBundle.message("public.controller.on.spring.fix");
 
-    private static final Set<String> requestMappingAnnotations = new HashSet<String>() {{
-        add("org.springframework.web.bind.annotation.RequestMapping");
-        add("org.springframework.web.bind.annotation.GetMapping");
-        add("org.springframework.web.bind.annotation.PostMapping");
-        add("org.springframework.web.bind.annotation.PutMapping");
-        add("org.springframework.web.bind.annotation.DeleteMapping");
-        add("org.springframework.web.bind.annotation.PatchMapping");
-    }};
-
     private final PublicControllerOnSpringQuickFix publicControllerOnSpringQuickFix = new PublicControllerOnSpringQuickFix();
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .annotation("org.springframework.web.bind.annotation.RequestMapping")
+                .annotation("org.springframework.web.bind.annotation.GetMapping")
+                .annotation("org.springframework.web.bind.annotation.PostMapping")
+                .annotation("org.springframework.web.bind.annotation.PutMapping")
+                .annotation("org.springframework.web.bind.annotation.DeleteMapping")
+                .annotation("org.springframework.web.bind.annotation.PatchMapping");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitAnnotation(PsiAnnotation annotation) {
-                if (Boolean.FALSE.equals(requestMappingAnnotations.contains(annotation.getQualifiedName()))) {
+                if (matchSink(annotation) == null) {
                     return ;
                 }
 
@@ -15,20 +15,28 @@
  */
 package com.immomo.momosec.lang.java.rule.momosecurity;
 
+import com.immomo.momosec.RegexVerdictCacheService;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
+import com.immomo.momosec.metrics.MomoSecMetrics;
+import com.immomo.momosec.utils.regex.RegexAnalyzer;
+import com.immomo.momosec.utils.regex.RegexConfirmer;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.codeInspection.ui.MultipleCheckboxOptionsPanel;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
-import com.siyeh.ig.psiutils.MethodCallUtils;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.swing.*;
+import java.util.*;
 import java.util.regex.Pattern;
 
 /**
@@ -40,15 +48,33 @@ import java.util.regex.Pattern;
  * ref: https://cloud.tencent.com/developer/article/1041326
  *
  * check:
- * java.util.regex.Pattern#compile args:0
- * java.util.regex.Pattern#matchers args:0
+ * java.util.regex.Pattern#compile args:0 (flags args:1)
+ * java.util.regex.Pattern#matches args:0
+ * java.lang.String#matches / replaceAll / replaceFirst / split args:0
+ * com.google.common.base.Splitter#onPattern args:0
+ * com.google.common.base.Predicates#containsPattern args:0
+ * org.apache.commons.lang3.RegExUtils#removeAll / removeFirst / replaceAll / replaceFirst args:1
+ * org.apache.commons.lang3.RegExUtils#removePattern / replacePattern args:1 (DOTALL)
+ * org.apache.commons.lang3.StringUtils#removePattern / replacePattern args:1 (DOTALL)
+ * {@literal @}javax.validation.constraints.Pattern(regexp, flags)
+ * {@literal @}RequestMapping / GetMapping / PostMapping / PutMapping / DeleteMapping / PatchMapping 路径中的 {name:regex}
+ *
+ * 正则参数经 MoExpressionUtils.getConstantString 折叠，支持常量拼接与其他类中的 static final 字段。
+ *
+ * 指数级回溯 (EDA) 总是报告；多项式级回溯 (IDA) 按选项报告，默认只报告 O(n^3) 及以上并以 WEAK_WARNING 显示。
+ * 按 find 分析时 [a-z]+@[a-z]+、\s*,\s* 等常见写法都是 O(n^2)，平方级默认不报告。
+ * Pattern.compile 得到的 Pattern 通常用于 find，按在每个位置尝试匹配分析；matches 按整体匹配分析。
+ * 开启动态验证后，由 RegexConfirmer 以生成的攻击输入实际运行并统计匹配步数，
+ * 实测超线性增长的以 ERROR 报告并给出测量结果，未能复现的降为 WEAK_WARNING。
+ * 分析与验证结论按正则缓存在应用级的 RegexVerdictCacheService 中，并在 IDE 重启之间持久化。
  *
  * fix:
  * (1) optimize Regular Expressions
  * (2) use com.google.re2j
  *
  * notes:
- * `isExponentialRegex` method copy from CodeQL
+ * 正则经 RegexParser 解析为语法树后构造位置自动机，由 RegexAnalyzer 在自乘积上判断指数级歧义、
+ * 在三元乘积上计算多项式级歧义的次数，取代原先基于五条元正则的文本匹配
  */
 public class RegexDos extends MomoBaseLocalInspectionTool {
     public static final String MESSAGE = InspectionBundle.message("regex.dos.msg");
@@ -56,18 +82,136 @@ public class RegexDos extends MomoBaseLocalInspectionTool {
 
     private final RegexDosWithRe2jQuickFix regexDosWithRe2jQuickFix = new RegexDosWithRe2jQuickFix();
 
-    public static boolean isExponentialRegex(String s) {
-        return
-        // Example: ([a-z]+)+
-        Pattern.matches(".*\\([^()*+\\]]+\\]?(\\*|\\+)\\)(\\*|\\+).*", s) ||
-        // Example: (([a-z])?([a-z]+))+
-        Pattern.matches(".*\\((\\([^()]+\\)\\?)?\\([^()*+\\]]+\\]?(\\*|\\+)\\)\\)(\\*|\\+).*", s) ||
-        // Example: (([a-z])+)+
-        Pattern.matches(".*\\(\\([^()*+\\]]+\\]?\\)(\\*|\\+)\\)(\\*|\\+).*", s) ||
-        // Example: (a|aa)+
-        Pattern.matches(".*\\(([^()*+\\]]+\\]?)\\|\\1+\\??\\)(\\*|\\+).*", s) ||
-        // Example: (.*[a-z]){n} n >= 10
-        Pattern.matches(".*\\(\\.\\*[^()*+\\]]+\\]?\\)\\{[1-9][0-9]+,?[0-9]*\\}.*", s);
+    private static final String PATTERN_CLASS = "java.util.regex.Pattern";
+    private static final Set<String> VALIDATION_PATTERN_CLASSES = new HashSet<>(Arrays.asList(
+            "javax.validation.constraints.Pattern",
+            "jakarta.validation.constraints.Pattern"
+    ));
+    private static final String[] MAPPING_ANNOTATIONS = {
+            "org.springframework.web.bind.annotation.RequestMapping",
+            "org.springframework.web.bind.annotation.GetMapping",
+            "org.springframework.web.bind.annotation.PostMapping",
+            "org.springframework.web.bind.annotation.PutMapping",
+            "org.springframework.web.bind.annotation.DeleteMapping",
+            "org.springframework.web.bind.annotation.PatchMapping",
+    };
+    private static final String[] MAPPING_PATH_ATTRIBUTES = { "value", "path" };
+
+    // javax.validation.constraints.Pattern.Flag -> java.util.regex.Pattern flag
+    private static final Map<String, Integer> VALIDATION_FLAGS = new HashMap<String, Integer>() {{
+        put("UNIX_LINES", Pattern.UNIX_LINES);
+        put("CASE_INSENSITIVE", Pattern.CASE_INSENSITIVE);
+        put("COMMENTS", Pattern.COMMENTS);
+        put("MULTILINE", Pattern.MULTILINE);
+        put("DOTALL", Pattern.DOTALL);
+        put("UNICODE_CASE", Pattern.UNICODE_CASE);
+        put("CANON_EQ", Pattern.CANON_EQ);
+    }};
+
+    /**
+     * 方法调用中正则参数的位置、匹配方式与方法隐含的 flag
+     */
+    private enum RegexArg {
+        PATTERN_COMPILE(0, RegexAnalyzer.MatchMode.FIND, 0),
+        FULL_MATCH(0, RegexAnalyzer.MatchMode.FULL, 0),
+        FIND(0, RegexAnalyzer.MatchMode.FIND, 0),
+        SECOND_FIND(1, RegexAnalyzer.MatchMode.FIND, 0),
+        SECOND_FIND_DOTALL(1, RegexAnalyzer.MatchMode.FIND, Pattern.DOTALL);
+
+        final int index;
+        final RegexAnalyzer.MatchMode mode;
+        final int flags;
+
+        RegexArg(int index, RegexAnalyzer.MatchMode mode, int flags) {
+            this.index = index;
+            this.mode = mode;
+            this.flags = flags;
+        }
+    }
+
+    /**
+     * 报告多项式级回溯
+     */
+    public boolean reportPolynomial = true;
+
+    /**
+     * 多项式级回溯包含平方级 O(n^2)，默认只报告三次及以上
+     */
+    public boolean reportQuadratic = false;
+
+    /**
+     * 多项式级回溯以 WEAK_WARNING 显示
+     */
+    public boolean polynomialAsWeakWarning = true;
+
+    /**
+     * 以生成的攻击输入动态验证，匹配在 inspection 的后台线程上执行，步数受 RegexConfirmer.DEFAULT_BUDGET 限制
+     */
+    public boolean confirmDynamically = false;
+
+    /**
+     * 结论按正则缓存于 RegexVerdictCacheService，相同的正则只分析一次
+     */
+    @NotNull
+    public static RegexAnalyzer.Result analyze(@NotNull String regex, int flags, @NotNull RegexAnalyzer.MatchMode mode) {
+        long start = MomoSecMetrics.startOperation();
+        try {
+            return RegexVerdictCacheService.getCache().analyze(regex, flags, mode).getResult();
+        } finally {
+            MomoSecMetrics.endOperation(MomoSecMetrics.Operation.REGEX, start);
+        }
+    }
+
+    /**
+     * 验证结果同样缓存，相同的正则只验证一次
+     */
+    @NotNull
+    public static RegexConfirmer.Confirmation confirm(@NotNull String regex, int flags, @NotNull RegexAnalyzer.MatchMode mode) {
+        long start = MomoSecMetrics.startOperation();
+        try {
+            return RegexVerdictCacheService.getCache()
+                    .confirm(regex, flags, mode, RegexConfirmer.DEFAULT_BUDGET, ProgressManager::checkCanceled);
+        } finally {
+            MomoSecMetrics.endOperation(MomoSecMetrics.Operation.REGEX, start);
+        }
+    }
+
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method(PATTERN_CLASS, "compile", RegexArg.PATTERN_COMPILE.name())
+                .method(PATTERN_CLASS, "matches", RegexArg.FULL_MATCH.name())
+                .method("java.lang.String", "matches", RegexArg.FULL_MATCH.name())
+                .method("java.lang.String", "replaceAll", RegexArg.FIND.name())
+                .method("java.lang.String", "replaceFirst", RegexArg.FIND.name())
+                .method("java.lang.String", "split", RegexArg.FIND.name())
+                .method("com.google.common.base.Splitter", "onPattern", RegexArg.FIND.name())
+                .method("com.google.common.base.Predicates", "containsPattern", RegexArg.FIND.name())
+                .method("org.apache.commons.lang3.RegExUtils", "removeAll", RegexArg.SECOND_FIND.name())
+                .method("org.apache.commons.lang3.RegExUtils", "removeFirst", RegexArg.SECOND_FIND.name())
+                .method("org.apache.commons.lang3.RegExUtils", "replaceAll", RegexArg.SECOND_FIND.name())
+                .method("org.apache.commons.lang3.RegExUtils", "replaceFirst", RegexArg.SECOND_FIND.name())
+                .method("org.apache.commons.lang3.RegExUtils", "removePattern", RegexArg.SECOND_FIND_DOTALL.name())
+                .method("org.apache.commons.lang3.RegExUtils", "replacePattern", RegexArg.SECOND_FIND_DOTALL.name())
+                .method("org.apache.commons.lang3.StringUtils", "removePattern", RegexArg.SECOND_FIND_DOTALL.name())
+                .method("org.apache.commons.lang3.StringUtils", "replacePattern", RegexArg.SECOND_FIND_DOTALL.name());
+        for (String annotation : VALIDATION_PATTERN_CLASSES) {
+            registrar.annotation(annotation);
+        }
+        for (String annotation : MAPPING_ANNOTATIONS) {
+            registrar.annotation(annotation);
+        }
+    }
+
+    @Nullable
+    @Override
+    public JComponent createOptionsPanel() {
+        MultipleCheckboxOptionsPanel panel = new MultipleCheckboxOptionsPanel(this);
+        panel.addCheckbox(InspectionBundle.message("regex.dos.option.polynomial"), "reportPolynomial");
+        panel.addCheckbox(InspectionBundle.message("regex.dos.option.quadratic"), "reportQuadratic");
+        panel.addCheckbox(InspectionBundle.message("regex.dos.option.weak.warning"), "polynomialAsWeakWarning");
+        panel.addCheckbox(InspectionBundle.message("regex.dos.option.confirm"), "confirmDynamically");
+        return panel;
     }
 
     @NotNull
@@ -76,14 +220,54 @@ public class RegexDos extends MomoBaseLocalInspectionTool {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MethodCallUtils.isCallToRegexMethod(expression)) { // `isCallToRegexMethod` judges include java.util.regex.Pattern
-                    String methodName = MethodCallUtils.getMethodName(expression);
-                    if (methodName != null && ( methodName.equals("compile") || methodName.equals("matches") )) {
-                        PsiExpression[] expressions = expression.getArgumentList().getExpressions();
-                        if (expressions.length > 0) {
-                            PsiLiteralExpression literal = getLiteralExpression(expressions[0]);
-                            if (literal != null && isExponentialRegex(MoExpressionUtils.getLiteralInnerText(literal))) {
-                                holder.registerProblem(expressions[0], MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, regexDosWithRe2jQuickFix);
+                MoSinkCatalog.Sink sink = matchSink(expression);
+                if (sink == null) {
+                    return ;
+                }
+                RegexArg regexArg = RegexArg.valueOf(sink.getTag());
+                PsiExpression[] expressions = expression.getArgumentList().getExpressions();
+                if (expressions.length <= regexArg.index) {
+                    return ;
+                }
+                String regex = MoExpressionUtils.getConstantString(expressions[regexArg.index]);
+                if (regex == null) {
+                    return ;
+                }
+                int flags = regexArg.flags;
+                if (regexArg == RegexArg.PATTERN_COMPILE && expressions.length > 1) {
+                    flags |= getFlags(expressions[1]);
+                }
+                // RE2/J 的替换只适用于 Pattern 的静态方法
+                LocalQuickFix[] fixes = PATTERN_CLASS.equals(sink.getOwnerQualifiedName())
+                        ? new LocalQuickFix[]{ regexDosWithRe2jQuickFix }
+                        : LocalQuickFix.EMPTY_ARRAY;
+                checkRegex(holder, expressions[regexArg.index], regex, flags, regexArg.mode, fixes);
+            }
+
+            @Override
+            public void visitAnnotation(PsiAnnotation annotation) {
+                MoSinkCatalog.Sink sink = matchSink(annotation);
+                if (sink == null) {
+                    return ;
+                }
+                if (VALIDATION_PATTERN_CLASSES.contains(sink.getOwnerQualifiedName())) {
+                    PsiAnnotationMemberValue regexp = annotation.findDeclaredAttributeValue("regexp");
+                    String regex = regexp instanceof PsiExpression ? MoExpressionUtils.getConstantString((PsiExpression) regexp) : null;
+                    if (regex != null) {
+                        checkRegex(holder, regexp, regex, getValidationFlags(annotation), RegexAnalyzer.MatchMode.FULL, LocalQuickFix.EMPTY_ARRAY);
+                    }
+                    return ;
+                }
+                for (String attribute : MAPPING_PATH_ATTRIBUTES) {
+                    for (PsiExpression path : getMemberExpressions(annotation.findDeclaredAttributeValue(attribute))) {
+                        String text = MoExpressionUtils.getConstantString(path);
+                        if (text == null) {
+                            continue;
+                        }
+                        // 路径变量的正则按整个路径片段匹配
+                        for (String regex : getPathVariableRegexes(text)) {
+                            if (checkRegex(holder, path, regex, 0, RegexAnalyzer.MatchMode.FULL, LocalQuickFix.EMPTY_ARRAY)) {
+                                break;
                             }
                         }
                     }
@@ -92,20 +276,118 @@ public class RegexDos extends MomoBaseLocalInspectionTool {
         };
     }
 
-    @Nullable
-    private PsiLiteralExpression getLiteralExpression(PsiExpression expression) {
-        if (expression instanceof PsiReferenceExpression) {
-            PsiElement elem = ((PsiReferenceExpression) expression).resolve();
-            if (elem instanceof PsiVariable) {
-                PsiExpression initializer = ((PsiVariable) elem).getInitializer();
-                if (initializer instanceof PsiLiteralExpression) {
-                    return (PsiLiteralExpression)initializer;
+    /**
+     * @return 是否报告了问题
+     */
+    private boolean checkRegex(@NotNull ProblemsHolder holder, @NotNull PsiElement element, @NotNull String regex, int flags,
+                               @NotNull RegexAnalyzer.MatchMode mode, @NotNull LocalQuickFix[] fixes) {
+        RegexAnalyzer.Result result = analyze(regex, flags, mode);
+        String message;
+        ProblemHighlightType highlightType;
+        switch (result.getComplexity()) {
+            case EXPONENTIAL:
+                message = MESSAGE;
+                highlightType = ProblemHighlightType.GENERIC_ERROR_OR_WARNING;
+                break;
+            case POLYNOMIAL:
+                if (!reportPolynomial || result.getDegree() < (reportQuadratic ? 2 : 3)) {
+                    return false;
+                }
+                message = InspectionBundle.message("regex.dos.polynomial.msg", result.getDegree());
+                highlightType = polynomialAsWeakWarning ? ProblemHighlightType.WEAK_WARNING : ProblemHighlightType.GENERIC_ERROR_OR_WARNING;
+                break;
+            default:
+                return false;
+        }
+        if (confirmDynamically) {
+            RegexConfirmer.Confirmation confirmation = confirm(regex, flags, mode);
+            if (confirmation.isConfirmed()) {
+                message = getConfirmedMessage(confirmation);
+                highlightType = ProblemHighlightType.ERROR;
+            } else {
+                highlightType = ProblemHighlightType.WEAK_WARNING;
+            }
+        }
+        holder.registerProblem(element, message, highlightType, fixes);
+        return true;
+    }
+
+    private static String getConfirmedMessage(RegexConfirmer.Confirmation confirmation) {
+        String steps = confirmation.isExceeded()
+                ? String.format(Locale.ROOT, ">%,d", RegexConfirmer.DEFAULT_BUDGET)
+                : String.format(Locale.ROOT, "%,d", confirmation.getSteps());
+        return InspectionBundle.message("regex.dos.confirmed.msg",
+                String.valueOf(confirmation.getInputLength()), steps,
+                String.format(Locale.ROOT, "%.1f", confirmation.getExponent()));
+    }
+
+    private static int getFlags(PsiExpression expression) {
+        Object value = JavaPsiFacade.getInstance(expression.getProject()).getConstantEvaluationHelper()
+                .computeConstantExpression(expression);
+        return value instanceof Integer ? (Integer) value : 0;
+    }
+
+    /**
+     * {@literal @}Pattern(flags = {Pattern.Flag.CASE_INSENSITIVE, ...}) 对应的 flag
+     */
+    private static int getValidationFlags(PsiAnnotation annotation) {
+        int flags = 0;
+        for (PsiExpression flag : getMemberExpressions(annotation.findDeclaredAttributeValue("flags"))) {
+            if (flag instanceof PsiReferenceExpression) {
+                Integer value = VALIDATION_FLAGS.get(((PsiReferenceExpression) flag).getReferenceName());
+                if (value != null) {
+                    flags |= value;
+                }
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * 注解属性值中的表达式，数组形式时展开
+     */
+    @NotNull
+    private static List<PsiExpression> getMemberExpressions(@Nullable PsiAnnotationMemberValue value) {
+        List<PsiExpression> expressions = new ArrayList<>();
+        if (value instanceof PsiArrayInitializerMemberValue) {
+            for (PsiAnnotationMemberValue initializer : ((PsiArrayInitializerMemberValue) value).getInitializers()) {
+                if (initializer instanceof PsiExpression) {
+                    expressions.add((PsiExpression) initializer);
+                }
+            }
+        } else if (value instanceof PsiExpression) {
+            expressions.add((PsiExpression) value);
+        }
+        return expressions;
+    }
+
+    /**
+     * 取 Spring 路径模板中 {name:regex} 的正则，正则内可包含成对的花括号 (如 \d{4})
+     * @param path 路径模板
+     * @return 正则列表
+     */
+    @NotNull
+    static List<String> getPathVariableRegexes(@NotNull String path) {
+        List<String> regexes = new ArrayList<>();
+        int depth = 0;
+        int start = -1;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '{') {
+                if (depth++ == 0) {
+                    start = i + 1;
+                }
+            } else if (c == '}' && depth > 0 && --depth == 0) {
+                String variable = path.substring(start, i);
+                int colon = variable.indexOf(':');
+                if (colon >= 0) {
+                    regexes.add(variable.substring(colon + 1));
                 }
             }
-        } else if (expression instanceof PsiLiteralExpression) {
-            return (PsiLiteralExpression)expression;
         }
-        return null;
+        return regexes;
     }
 
     public static class RegexDosWithRe2jQuickFix implements LocalQuickFix {
@@ -17,7 +17,8 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoResolveCache;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInsight.FileModificationService;
 import com.intellij.codeInsight.daemon.impl.actions.AddImportAction;
 import com.intellij.codeInspection.LocalQuickFix;
@@ -50,12 +51,18 @@ public class ReplacePseudorandomGenerator extends MomoBaseLocalInspectionTool {
     private final ReplacePseudorandomGeneratorQuickFix replacePseudorandomGeneratorQuickFix =
             new ReplacePseudorandomGeneratorQuickFix();
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .constructor("java.util.Random");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitNewExpression(PsiNewExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "java.util.Random")) {
+                if (matchSink(expression) != null) {
                     holder.registerProblem(
                             expression,
                             MESSAGE,
@@ -88,7 +95,7 @@ public class ReplacePseudorandomGenerator extends MomoBaseLocalInspectionTool {
                 if (assignmentExpression != null) {
                     PsiReference lRef = assignmentExpression.getLExpression().getReference();
                     if (lRef != null) {
-                        parent = lRef.resolve();
+                        parent = MoResolveCache.resolve(lRef);
                     }
                 }
             }
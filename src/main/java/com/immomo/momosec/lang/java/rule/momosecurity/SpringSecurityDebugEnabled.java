@@ -17,6 +17,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -36,12 +37,18 @@ public class SpringSecurityDebugEnabled extends MomoBaseLocalInspectionTool {
     private static final String QUICK_FIX_NAME = InspectionBundle.message("spring.security.debug.enabled.fix");
     private final SpringSecurityDebugDisable springSecurityDebugDisable = new SpringSecurityDebugDisable();
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .annotation("org.springframework.security.config.annotation.web.configuration.EnableWebSecurity");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitAnnotation(PsiAnnotation annotation) {
-                if ("org.springframework.security.config.annotation.web.configuration.EnableWebSecurity".equals(annotation.getQualifiedName())) {
+                if (matchSink(annotation) != null) {
                     PsiAnnotationParameterList annotationParameterList = annotation.getParameterList();
                     PsiNameValuePair[] nameValuePairs = annotationParameterList.getAttributes();
                     for(PsiNameValuePair nameValuePair : nameValuePairs) {
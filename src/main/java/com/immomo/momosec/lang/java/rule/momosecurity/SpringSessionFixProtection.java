@@ -17,7 +17,7 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -41,16 +41,18 @@ public class SpringSessionFixProtection extends MomoBaseLocalInspectionTool {
 
     private final SpringSessionFixProtectionQuickFix springSessionFixProtectionQuickFix = new SpringSessionFixProtectionQuickFix();
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("org.springframework.security.config.annotation.web.configurers.SessionManagementConfigurer.SessionFixationConfigurer", "none");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(
-                        expression,
-                        "org.springframework.security.config.annotation.web.configurers.SessionManagementConfigurer.SessionFixationConfigurer",
-                        "none")
-                ) {
+                if (matchSink(expression) != null) {
                     holder.registerProblem(expression, MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, springSessionFixProtectionQuickFix);
                 }
             }
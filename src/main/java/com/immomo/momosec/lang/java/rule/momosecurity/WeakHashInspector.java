@@ -18,10 +18,10 @@ package com.immomo.momosec.lang.java.rule.momosecurity;
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.psi.*;
-import com.siyeh.ig.psiutils.MethodCallUtils;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.HashSet;
@@ -44,42 +44,40 @@ public class WeakHashInspector extends MomoBaseLocalInspectionTool {
         add("MD5");
     }};
 
+    private static final String TAG_CHECK_ARGS = "checkArgs";
+
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("java.security.MessageDigest", "getInstance", TAG_CHECK_ARGS)
+                .method("org.apache.commons.codec.digest.DigestUtils", "getDigest", TAG_CHECK_ARGS)
+                .method("org.apache.commons.codec.digest.DigestUtils", "getMd5Digest")
+                .method("org.apache.commons.codec.digest.DigestUtils", "getMd2Digest")
+                .method("org.apache.commons.codec.digest.DigestUtils", "md2")
+                .method("org.apache.commons.codec.digest.DigestUtils", "md2Hex")
+                .method("org.apache.commons.codec.digest.DigestUtils", "md5")
+                .method("org.apache.commons.codec.digest.DigestUtils", "md5Hex")
+                .constructor("org.apache.commons.codec.digest.DigestUtils");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                String methodCallName = MethodCallUtils.getMethodName(expression);
-
-                PsiMethod method = expression.resolveMethod();
-                if (method == null) { return ; }
+                MoSinkCatalog.Sink sink = matchSink(expression);
+                if (sink == null) { return ; }
 
-                PsiClass containingClass = method.getContainingClass();
-                if (containingClass == null) { return ; }
-
-                String methodQualifiedName = containingClass.getQualifiedName();
-
-                if ("java.security.MessageDigest".equals(methodQualifiedName) && "getInstance".equals(methodCallName)) {
+                if (TAG_CHECK_ARGS.equals(sink.getTag())) {
                     checkZeroArgs(expression);
-                } else if ("org.apache.commons.codec.digest.DigestUtils".equals(methodQualifiedName)) {
-                    if ("getDigest".equals(methodCallName)) {
-                        checkZeroArgs(expression);
-                    } else if (
-                            "getMd5Digest".equals(methodCallName) ||
-                            "getMd2Digest".equals(methodCallName) ||
-                            "md2".equals(methodCallName) ||
-                            "md2Hex".equals(methodCallName) ||
-                            "md5".equals(methodCallName) ||
-                            "md5Hex".equals(methodCallName)
-                    ) {
-                        registerProblem(expression);
-                    }
+                } else {
+                    registerProblem(expression);
                 }
             }
 
             @Override
             public void visitNewExpression(PsiNewExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "org.apache.commons.codec.digest.DigestUtils")) {
+                if (matchSink(expression) != null) {
                     checkZeroArgs(expression);
                 }
             }
@@ -20,6 +20,8 @@ import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseFixElementWalkingVisitor;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoResolveCache;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInspection.LocalQuickFix;
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.codeInspection.ProblemHighlightType;
@@ -45,12 +47,18 @@ public class XStreamUnserialize extends MomoBaseLocalInspectionTool {
 
     private final XStreamUnserializeQuickFix xStreamUnserializeQuickFix = new XStreamUnserializeQuickFix();
 
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .constructor("com.thoughtworks.xstream.XStream");
+    }
+
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
         return new JavaElementVisitor() {
             @Override
             public void visitNewExpression(PsiNewExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "com.thoughtworks.xstream.XStream")) {
+                if (matchSink(expression) != null) {
                     if (expression.getParent() instanceof PsiLocalVariable) {
                         PsiLocalVariable localVariable = (PsiLocalVariable)expression.getParent();
                         SetupDefaultSecurityElementVisitor visitor = new SetupDefaultSecurityElementVisitor(localVariable);
@@ -59,7 +67,7 @@ public class XStreamUnserialize extends MomoBaseLocalInspectionTool {
                         }
                     } else if (expression.getParent() instanceof PsiAssignmentExpression) {
                         PsiAssignmentExpression assignmentExpression = (PsiAssignmentExpression)expression.getParent();
-                        PsiElement resolvedElem = ((PsiReferenceExpression) assignmentExpression.getLExpression()).resolve();
+                        PsiElement resolvedElem = MoResolveCache.resolve((PsiReferenceExpression) assignmentExpression.getLExpression());
                         SetupDefaultSecurityElementVisitor visitor = new SetupDefaultSecurityElementVisitor(resolvedElem);
                         if (checkVariableUseFix(assignmentExpression, resolvedElem, visitor)) {
                             return ;
@@ -94,7 +102,7 @@ public class XStreamUnserialize extends MomoBaseLocalInspectionTool {
                     if (args.getExpressionCount() != 1) { return ; }
                     if (args.getExpressions()[0] instanceof PsiReferenceExpression) {
                         PsiReference refElem = args.getExpressions()[0].getReference();
-                        if (refElem != null && refVar.isEquivalentTo(refElem.resolve())) {
+                        if (refElem != null && refVar.isEquivalentTo(MoResolveCache.resolve(refElem))) {
                             this.setFix(true);
                             this.stopWalking();
                             return  ;
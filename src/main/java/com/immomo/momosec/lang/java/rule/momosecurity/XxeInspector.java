@@ -19,6 +19,8 @@ import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseFixElementWalkingVisitor;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
 import com.immomo.momosec.lang.java.utils.MoExpressionUtils;
+import com.immomo.momosec.lang.java.utils.MoResolveCache;
+import com.immomo.momosec.lang.java.utils.MoSinkCatalog;
 import com.intellij.codeInsight.daemon.impl.quickfix.ImportClassFix;
 import com.intellij.codeInsight.intention.QuickFixFactory;
 import com.intellij.codeInspection.LocalQuickFix;
@@ -64,16 +66,40 @@ public class XxeInspector extends MomoBaseLocalInspectionTool {
     private static final String QUICK_FIX_NAME = InspectionBundle.message("xxe.inspector.fix");
 
     public enum XmlFactory {
-        DOCUMENT_BUILDER_FACTORY,
-        SAX_PARSER_FACTORY,
-        SAX_TRANSFORMER_FACTORY,
-        SAX_BUILDER,
-        SAX_READER,
-        XML_READER_FACTORY,
-        SCHEMA_FACTORY,
-        XML_INPUT_FACTORY,
-        TRANSFORMER_FACTORY,
-        VALIDATOR_OF_SCHEMA
+        DOCUMENT_BUILDER_FACTORY("setFeature", false),
+        SAX_PARSER_FACTORY("setFeature", false),
+        SAX_TRANSFORMER_FACTORY("setAttribute", true),
+        SAX_BUILDER("setFeature", false),
+        SAX_READER("setFeature", false),
+        XML_READER_FACTORY("setFeature", false),
+        SCHEMA_FACTORY("setProperty", false),
+        XML_INPUT_FACTORY("setProperty", false),
+        TRANSFORMER_FACTORY("setAttribute", true),
+        VALIDATOR_OF_SCHEMA("setProperty", false);
+
+        // 安全配置所用的 setter 方法名
+        private final String setterName;
+        private final boolean withTypeCast;
+
+        XmlFactory(String setterName, boolean withTypeCast) {
+            this.setterName = setterName;
+            this.withTypeCast = withTypeCast;
+        }
+    }
+
+    @Override
+    public void registerSinks(@NotNull MoSinkCatalog.Registrar registrar) {
+        registrar
+                .method("javax.xml.parsers.DocumentBuilderFactory", "newInstance", XmlFactory.DOCUMENT_BUILDER_FACTORY.name())
+                .method("javax.xml.parsers.SAXParserFactory", "newInstance", XmlFactory.SAX_PARSER_FACTORY.name())
+                .method("javax.xml.transform.sax.SAXTransformerFactory", "newInstance", XmlFactory.SAX_TRANSFORMER_FACTORY.name())
+                .method("org.xml.sax.helpers.XMLReaderFactory", "createXMLReader", XmlFactory.XML_READER_FACTORY.name())
+                .method("javax.xml.validation.SchemaFactory", "newInstance", XmlFactory.SCHEMA_FACTORY.name())
+                .method("javax.xml.stream.XMLInputFactory", "newFactory", XmlFactory.XML_INPUT_FACTORY.name())
+                .method("javax.xml.transform.TransformerFactory", "newInstance", XmlFactory.TRANSFORMER_FACTORY.name())
+                .method("javax.xml.validation.Schema", "newValidator", XmlFactory.VALIDATOR_OF_SCHEMA.name())
+                .constructor("org.jdom.input.SAXBuilder", XmlFactory.SAX_BUILDER.name())
+                .constructor("org.dom4j.io.SAXReader", XmlFactory.SAX_READER.name());
     }
 
     @Override
@@ -81,31 +107,19 @@ public class XxeInspector extends MomoBaseLocalInspectionTool {
         return new JavaElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.xml.parsers.DocumentBuilderFactory", "newInstance")) {
-                    commonExpressionCheck(expression, "setFeature", XmlFactory.DOCUMENT_BUILDER_FACTORY, false);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.xml.parsers.SAXParserFactory", "newInstance")) {
-                    commonExpressionCheck(expression, "setFeature", XmlFactory.SAX_PARSER_FACTORY, false);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.xml.transform.sax.SAXTransformerFactory", "newInstance")) {
-                    commonExpressionCheck(expression, "setAttribute", XmlFactory.SAX_TRANSFORMER_FACTORY, true);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "org.xml.sax.helpers.XMLReaderFactory", "createXMLReader")) {
-                    commonExpressionCheck(expression, "setFeature", XmlFactory.XML_READER_FACTORY, false);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.xml.validation.SchemaFactory", "newInstance")) {
-                    commonExpressionCheck(expression, "setProperty", XmlFactory.SCHEMA_FACTORY, false);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.xml.stream.XMLInputFactory", "newFactory")) {
-                    commonExpressionCheck(expression, "setProperty", XmlFactory.XML_INPUT_FACTORY, false);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.xml.transform.TransformerFactory", "newInstance")) {
-                    commonExpressionCheck(expression, "setAttribute", XmlFactory.TRANSFORMER_FACTORY, true);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "javax.xml.validation.Schema", "newValidator")) {
-                    commonExpressionCheck(expression, "setProperty", XmlFactory.VALIDATOR_OF_SCHEMA, false);
+                MoSinkCatalog.Sink sink = matchSink(expression);
+                if (sink != null) {
+                    XmlFactory xmlFactory = XmlFactory.valueOf(sink.getTag());
+                    commonExpressionCheck(expression, xmlFactory.setterName, xmlFactory, xmlFactory.withTypeCast);
                 }
             }
 
             @Override
             public void visitNewExpression(PsiNewExpression expression) {
-                if (MoExpressionUtils.hasFullQualifiedName(expression, "org.jdom.input.SAXBuilder")) {
-                    commonExpressionCheck(expression, "setFeature", XmlFactory.SAX_BUILDER, false);
-                } else if (MoExpressionUtils.hasFullQualifiedName(expression, "org.dom4j.io.SAXReader")) {
-                    commonExpressionCheck(expression, "setFeature", XmlFactory.SAX_READER, false);
+                MoSinkCatalog.Sink sink = matchSink(expression);
+                if (sink != null) {
+                    XmlFactory xmlFactory = XmlFactory.valueOf(sink.getTag());
+                    commonExpressionCheck(expression, xmlFactory.setterName, xmlFactory, xmlFactory.withTypeCast);
                 }
             }
 
@@ -140,7 +154,7 @@ public class XxeInspector extends MomoBaseLocalInspectionTool {
         }
 
         PsiAssignmentExpression assignmentExpression = (PsiAssignmentExpression)parent;
-        PsiElement resolvedElem = ((PsiReferenceExpression) assignmentExpression.getLExpression()).resolve();
+        PsiElement resolvedElem = MoResolveCache.resolve((PsiReferenceExpression) assignmentExpression.getLExpression());
         DisableEntityElementVisitor visitor = new DisableEntityElementVisitor(shouldUsedMethodName, xmlFactory, resolvedElem);
 
         if (checkVariableUseFix(assignmentExpression, resolvedElem, visitor)) {
@@ -273,7 +287,7 @@ public class XxeInspector extends MomoBaseLocalInspectionTool {
                     PsiExpression refQualifier = methodCallExpression.getMethodExpression().getQualifierExpression();
                     if (refQualifier != null &&
                         refQualifier.getReference() != null &&
-                        refVar.isEquivalentTo(refQualifier.getReference().resolve()) &&
+                        refVar.isEquivalentTo(MoResolveCache.resolve(refQualifier.getReference())) &&
                         this.needSatisfiedRules.values().stream().allMatch(Boolean::booleanValue)
                     ) {
                         this.setFix(true);
@@ -15,24 +15,32 @@
  */
 package com.immomo.momosec.lang.java.utils;
 
-import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.ModificationTracker;
 import com.intellij.psi.*;
-import com.intellij.psi.search.LocalSearchScope;
-import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.util.PsiUtil;
 import com.intellij.psi.util.TypeConversionUtil;
 import com.intellij.util.ObjectUtils;
 import com.siyeh.ig.psiutils.ExpressionUtils;
 import com.siyeh.ig.psiutils.MethodCallUtils;
+import com.siyeh.ig.psiutils.TypeUtils;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 public class MoExpressionUtils {
 
+    private static final Key<CachedValue<FoldedField>> FIELD_TEXT_KEY = Key.create("MomoSec.FieldText");
+    private static final Key<CachedValue<FoldedField>> FIELD_CONSTANT_KEY = Key.create("MomoSec.FieldConstant");
+    private static final ThreadLocal<FoldingState> foldingState = ThreadLocal.withInitial(FoldingState::new);
+
     private static final Set<String> SQLiCareTypeStr = new HashSet<String>() {{
         add("java.lang.String");
         add("java.lang.StringBuilder");
@@ -48,7 +56,7 @@ public class MoExpressionUtils {
     public static PsiField resolveField(@Nullable PsiExpression expression) {
         expression = PsiUtil.skipParenthesizedExprDown(expression);
         PsiReferenceExpression referenceExpression = ObjectUtils.tryCast(expression, PsiReferenceExpression.class);
-        return referenceExpression == null ? null : ObjectUtils.tryCast(referenceExpression.resolve(), PsiField.class);
+        return referenceExpression == null ? null : ObjectUtils.tryCast(MoResolveCache.resolve(referenceExpression), PsiField.class);
     }
 
     /**
@@ -107,13 +115,10 @@ public class MoExpressionUtils {
         }
 
         if (value == null && expression instanceof PsiReferenceExpression) {
-            PsiElement resolve = ((PsiReferenceExpression) expression).resolve();
+            PsiElement resolve = MoResolveCache.resolve((PsiReferenceExpression) expression);
             if (resolve instanceof PsiField) {
                 // 对于 field 可不区分force，field值不是Text时，直接用field变量名
-                PsiExpression initializer = ((PsiField) resolve).getInitializer();
-                if (initializer != null) {
-                    value = getText(initializer, false);
-                }
+                value = getFieldInitializerText((PsiField) resolve);
                 if (value == null) {
                     value = ((PsiField) resolve).getName();
                 }
@@ -141,6 +146,143 @@ public class MoExpressionUtils {
         return value;
     }
 
+    /**
+     * 将表达式折叠为常量字符串
+     * 与 getText 不同，无法确定值时返回 null，不会退回到 field 名或表达式原文:
+     * (1) 字面量
+     * (2) 字符串拼接，所有操作数均可折叠
+     * (3) final field 的初始值，结果缓存在 field 上；编译后的 field 取其常量值
+     * (4) 局部变量的初始值
+     * (5) 其他编译期常量表达式 (如数值运算)
+     * @param expression PsiExpression
+     * @return String | null
+     */
+    @Nullable
+    public static String getConstantString(@Nullable PsiExpression expression) {
+        expression = PsiUtil.skipParenthesizedExprDown(expression);
+        if (expression == null) {
+            return null;
+        }
+
+        if (expression instanceof PsiLiteralExpression) {
+            Object value = ((PsiLiteralExpression) expression).getValue();
+            return value != null ? value.toString() : null;
+        }
+
+        if (expression instanceof PsiReferenceExpression) {
+            PsiElement resolve = MoResolveCache.resolve((PsiReferenceExpression) expression);
+            if (resolve instanceof PsiField) {
+                PsiField field = (PsiField) resolve;
+                return field.hasModifierProperty(PsiModifier.FINAL) ? getFieldConstantString(field) : null;
+            }
+            if (resolve instanceof PsiLocalVariable) {
+                return getConstantString(((PsiLocalVariable) resolve).getInitializer());
+            }
+            return null;
+        }
+
+        if (expression instanceof PsiPolyadicExpression) {
+            PsiPolyadicExpression polyadic = (PsiPolyadicExpression) expression;
+            PsiExpression[] operands = polyadic.getOperands();
+            // 1 + 2 + "a" 前两个操作数按数值相加，交给常量求值
+            if (JavaTokenType.PLUS.equals(polyadic.getOperationTokenType()) &&
+                (TypeUtils.isJavaLangString(operands[0].getType()) || TypeUtils.isJavaLangString(operands[1].getType()))
+            ) {
+                StringBuilder sb = new StringBuilder();
+                for (PsiExpression operand : operands) {
+                    String text = getConstantString(operand);
+                    if (text == null) {
+                        return null;
+                    }
+                    sb.append(text);
+                }
+                return sb.toString();
+            }
+        }
+
+        Object value = JavaPsiFacade.getInstance(expression.getProject()).getConstantEvaluationHelper()
+                .computeConstantExpression(expression);
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * field 初始值折叠后的文本
+     * 结果缓存在 field 上，随 PSI 修改失效，折叠时读取的文件一起缓存，命中时计入 MoFileDependencies；
+     * 互相引用的 field 形成环时，环上再次遇到的 field 视为无法折叠 (null)，
+     * 此时的结果与求值起点有关，不做缓存
+     * @param field PsiField
+     * @return String | null
+     */
+    @Nullable
+    private static String getFieldInitializerText(@NotNull PsiField field) {
+        return foldField(field, FIELD_TEXT_KEY, initializer -> getText(initializer, false));
+    }
+
+    /**
+     * final field 初始值折叠后的常量字符串，缓存与循环处理同 getFieldInitializerText
+     * @param field PsiField
+     * @return String | null
+     */
+    @Nullable
+    private static String getFieldConstantString(@NotNull PsiField field) {
+        if (field instanceof PsiCompiledElement) {
+            Object value = field.computeConstantValue();
+            return value != null ? value.toString() : null;
+        }
+        return foldField(field, FIELD_CONSTANT_KEY, MoExpressionUtils::getConstantString);
+    }
+
+    @Nullable
+    private static String foldField(@NotNull PsiField field, @NotNull Key<CachedValue<FoldedField>> key,
+                                    @NotNull Function<PsiExpression, String> folder) {
+        MoFileDependencies.visit(field);
+        FoldingState state = foldingState.get();
+        if (!state.fields.add(field)) {
+            state.cycles++;
+            return null;
+        }
+        try {
+            FoldedField folded = CachedValuesManager.getCachedValue(field, key, () -> {
+                int cycles = state.cycles;
+                PsiExpression initializer = field.getInitializer();
+                MoFileDependencies.Capture capture = MoFileDependencies.capture();
+                String text;
+                try {
+                    text = initializer != null ? folder.apply(initializer) : null;
+                } finally {
+                    capture.close();
+                }
+                return CachedValueProvider.Result.create(new FoldedField(text, capture.getFiles()), state.cycles == cycles ?
+                        PsiModificationTracker.MODIFICATION_COUNT : ModificationTracker.EVER_CHANGED);
+            });
+            MoFileDependencies.replay(folded.files);
+            return folded.text;
+        } finally {
+            state.fields.remove(field);
+        }
+    }
+
+    /**
+     * field 折叠的结果及折叠时读取的文件
+     */
+    private static final class FoldedField {
+        final String text;
+        final Set<PsiFile> files;
+
+        FoldedField(@Nullable String text, @NotNull Set<PsiFile> files) {
+            this.text = text;
+            this.files = files;
+        }
+    }
+
+    /**
+     * 当前线程正在折叠 / 解构的 field 及遇到的循环引用次数
+     */
+    private static class FoldingState {
+        final Set<PsiField> fields = new HashSet<>();
+        int cycles = 0;
+    }
+
     public static Boolean isText(@NotNull PsiExpression expression) {
         return getText(expression) != null;
     }
@@ -225,24 +367,6 @@ public class MoExpressionUtils {
         return (PsiClassInitializer)element;
     }
 
-    /**
-     * 生成一个"?"文本节点
-     * @param project Project
-     * @return PsiLiteralExpression
-     */
-    private static PsiLiteralExpression getPlaceholder(Project project) {
-        return (PsiLiteralExpression)JavaPsiFacade.getElementFactory(project).createExpressionFromText("\"?\"", null);
-    }
-
-    /**
-     * 生成一个自定义文本节点
-     * @param project Project
-     * @return PsiLiteralExpression
-     */
-    private static PsiLiteralExpression getCustomLiteral(String s, Project project) {
-        return (PsiLiteralExpression)JavaPsiFacade.getElementFactory(project).createExpressionFromText("\""+s.replace("\"", "\\\"")+"\"", null);
-    }
-
     public static boolean isSqliCareExpression(PsiExpression psiExpression) {
         PsiType type = psiExpression.getType();
         if (type != null && !SQLiCareTypeStr.contains(type.getCanonicalText())) {
@@ -267,7 +391,7 @@ public class MoExpressionUtils {
             } else {
                 PsiExpression qualifierExp = ((PsiMethodCallExpression) psiExpression).getMethodExpression().getQualifierExpression();
                 if (qualifierExp != null && qualifierExp.getReference() != null) {
-                    PsiElement targetElem = qualifierExp.getReference().resolve();
+                    PsiElement targetElem = MoResolveCache.resolve(qualifierExp.getReference());
                     return !(targetElem instanceof PsiClass) || !((PsiClass) targetElem).isEnum();
                 }
             }
@@ -276,194 +400,76 @@ public class MoExpressionUtils {
     }
 
     /**
-     * 解构PsiPolyadicExpression
+     * 解构字符串拼接表达式
      * 对于拼接的每一部分
      * (1) 判断为常量则输出为常量
      * (2) 判断为 field 则输出为常量
      * (-) 原样输出
+     * 常量部分只记录文本，不会调用 Java parser 合成新的表达式
      * @param expression PsiPolyadicExpression
-     * @return List<PsiExpression>
+     * @return List<StringConcatPart>
      */
-    public static List<PsiExpression> deconPolyadicExpression(PsiPolyadicExpression expression) {
-        List<PsiExpression> expressions = new ArrayList<>();
-
-        if (expression.getOperationTokenType().equals(JavaTokenType.PLUS)) {
-            for (PsiExpression operand: expression.getOperands()) {
-                PsiLocalVariable localVariable = ExpressionUtils.resolveLocalVariable(operand);
-                if (localVariable != null) {
-                    PsiType localVariableType = operand.getType();
-                    PsiReferenceExpression refOperand = ObjectUtils.tryCast(operand, PsiReferenceExpression.class);
-                    if (localVariableType != null && refOperand != null &&
-                        "java.lang.String".equals(localVariableType.getCanonicalText()) &&
-                        isConstStringConcatToReference(refOperand)
-                    ) {
-                        expressions.add(getCustomLiteral(operand.getText(), expression.getProject()));
-                        continue;
-                    }
-                    if (localVariableType != null && refOperand != null && (
-                        "java.lang.StringBuilder".equals(localVariableType.getCanonicalText()) ||
-                        "java.lang.StringBuffer".equals(localVariableType.getCanonicalText())
-                        ) &&
-                        isConstStringBuilderToReference(refOperand)
-                    ) {
-                        expressions.add(getCustomLiteral(operand.getText(), expression.getProject()));
-                        continue;
-                    }
-
-                    expressions.add(operand);
-                    continue;
-                }
-
-                PsiField field = MoExpressionUtils.resolveField(operand);
-                if (field != null) {
-                    PsiExpression fieldInitializer = field.getInitializer();
-                    if (fieldInitializer instanceof PsiPolyadicExpression) {
-                        expressions.addAll(deconPolyadicExpression((PsiPolyadicExpression)fieldInitializer));
-                    } else if (fieldInitializer != null && isText(fieldInitializer)) {
-                        expressions.add(fieldInitializer);
-                    } else {
-                        // field 作为文本对待
-                        expressions.add(getCustomLiteral(operand.getText(), expression.getProject()));
-                    }
-                    continue;
-                }
-
-                expressions.add(operand);
-            }
-        }
-
-        return expressions;
+    @NotNull
+    public static List<StringConcatPart> deconStringConcat(@NotNull PsiPolyadicExpression expression) {
+        List<StringConcatPart> parts = new ArrayList<>();
+        deconStringConcat(expression, parts);
+        return parts;
     }
 
-    private static boolean isConstStringBuilderToReference(PsiReferenceExpression ref) {
-        List<PsiReference> refPoints = getReferenceOnMethodScope(ref, ref.getTextOffset()-1);
+    private static void deconStringConcat(@NotNull PsiPolyadicExpression expression, @NotNull List<StringConcatPart> parts) {
+        if (!expression.getOperationTokenType().equals(JavaTokenType.PLUS)) {
+            return ;
+        }
 
-        for(PsiReference refPoint : refPoints) {
-            PsiReferenceExpression refPointExp =
-                    ObjectUtils.tryCast(refPoint, PsiReferenceExpression.class);
-            if (refPointExp == null) {
-                continue;
-            }
-            PsiReferenceExpression refParentExp =
-                    ObjectUtils.tryCast(refPointExp.getParent(), PsiReferenceExpression.class);
-            if (refParentExp == null) {
-                continue;
-            }
-            if ("append".equals(refParentExp.getReferenceName()) || "insert".equals(refParentExp.getReferenceName())) {
-                PsiMethodCallExpression methodCall =
-                        ObjectUtils.tryCast(refParentExp.getParent(), PsiMethodCallExpression.class);
-                if (methodCall == null) {
+        for (PsiExpression operand: expression.getOperands()) {
+            PsiLocalVariable localVariable = ExpressionUtils.resolveLocalVariable(operand);
+            if (localVariable != null) {
+                PsiType localVariableType = operand.getType();
+                PsiReferenceExpression refOperand = ObjectUtils.tryCast(operand, PsiReferenceExpression.class);
+                if (localVariableType != null && refOperand != null &&
+                    "java.lang.String".equals(localVariableType.getCanonicalText()) &&
+                    MoMethodSummary.isConstant(refOperand)
+                ) {
+                    parts.add(StringConcatPart.constant(operand, operand.getText()));
                     continue;
                 }
-                PsiExpression[] args = methodCall.getArgumentList().getExpressions();
-                boolean isConst = true;
-                if ("append".equals(refParentExp.getReferenceName()) && args.length == 1) {
-                    isConst = isText(args[0]);
-                } else if ("insert".equals(refParentExp.getReferenceName()) && args.length >= 2) {
-                    isConst = isText(args[1]);
-                }
-                if (!isConst) {
-                    return false;
+                if (localVariableType != null && refOperand != null && (
+                    "java.lang.StringBuilder".equals(localVariableType.getCanonicalText()) ||
+                    "java.lang.StringBuffer".equals(localVariableType.getCanonicalText())
+                    ) &&
+                    MoMethodSummary.isConstant(refOperand)
+                ) {
+                    parts.add(StringConcatPart.constant(operand, operand.getText()));
+                    continue;
                 }
-            }
-        }
-
-        return true;
-    }
-
-    private static boolean isConstStringConcatToReference(PsiReferenceExpression ref) {
-        List<PsiReference> refPoints = getReferenceOnMethodScope(ref, ref.getTextOffset()-1);
-
-        // 1. 先检查拼接点
-        for(PsiReference refPoint : refPoints) {
-            PsiReferenceExpression refPointExp =
-                    ObjectUtils.tryCast(refPoint, PsiReferenceExpression.class);
-            if (refPointExp == null) {
-                continue;
-            }
-
-            PsiAssignmentExpression assignExp =
-                    ObjectUtils.tryCast(refPointExp.getParent(), PsiAssignmentExpression.class);
-            if (assignExp == null || !refPoint.equals(assignExp.getLExpression())) {
-                continue;
-            }
-
-            PsiReferenceExpression lExp =
-                    ObjectUtils.tryCast(assignExp.getLExpression(), PsiReferenceExpression.class);
-            if (lExp == null) {
-                continue;
-            }
-            String varName = lExp.getReferenceName();
-            if (varName == null) {
-                continue;
-            }
-
-            PsiExpression rExp = assignExp.getRExpression();
-            if (rExp == null) {
-                continue;
-            }
 
-            if (rExp instanceof PsiReferenceExpression &&
-                varName.equals(((PsiReferenceExpression) rExp).getReferenceName())) {
+                parts.add(StringConcatPart.expression(operand));
                 continue;
             }
 
-            if (rExp instanceof PsiPolyadicExpression) {
-                // 对于拼接，需要检查是否为  a = a + b 的场景
-                for (PsiExpression operand : ((PsiPolyadicExpression) rExp).getOperands()) {
-                    if (operand instanceof PsiReferenceExpression &&
-                        varName.equals(((PsiReferenceExpression) operand).getReferenceName())
-                    ) {
-                        continue;
-                    }
-                    if (!isText(operand)) {
-                        return false;
+            PsiField field = MoExpressionUtils.resolveField(operand);
+            if (field != null) {
+                MoFileDependencies.visit(field);
+                PsiExpression fieldInitializer = field.getInitializer();
+                Set<PsiField> decomposing = foldingState.get().fields;
+                if (fieldInitializer instanceof PsiPolyadicExpression && decomposing.add(field)) {
+                    // 环上再次遇到的 field 按 field 引用处理
+                    try {
+                        deconStringConcat((PsiPolyadicExpression)fieldInitializer, parts);
+                    } finally {
+                        decomposing.remove(field);
                     }
+                } else if (fieldInitializer != null && isText(fieldInitializer)) {
+                    parts.add(StringConcatPart.expression(fieldInitializer));
+                } else {
+                    // field 作为文本对待
+                    parts.add(StringConcatPart.fieldReference(operand, field, operand.getText()));
                 }
-            } else if (!isText(rExp)) {
-                return false;
-            }
-        }
-
-        // 2. 再检查定义点
-        PsiElement origin = ref.resolve();
-        if (origin instanceof PsiLocalVariable) {
-            PsiExpression initializer = ((PsiLocalVariable) origin).getInitializer();
-            if (initializer != null && !isText(initializer)) {
-                return false;
+                continue;
             }
-        }
-
-        return true;
-    }
-
-    /**
-     * 通过一个引用节点，获取当前方法内该节点对应变量的所有引用点
-     * @param reference PsiReference
-     * @param maxOffset int             用偏移代表行号
-     * @return List<PsiReference>
-     */
-    @NotNull
-    private static List<PsiReference> getReferenceOnMethodScope(PsiReference reference, int maxOffset) {
-        List<PsiReference> refResults = new ArrayList<>();
-        PsiElement element = reference.resolve();
-        if (element == null) {
-            return refResults;
-        }
 
-        PsiMethod method = MoExpressionUtils.getParentOfMethod(element);
-        if (method == null) {
-            return refResults;
-        }
-        refResults = new ArrayList<>(ReferencesSearch
-                .search(element, new LocalSearchScope(new PsiElement[]{method}, null, true))
-                .findAll());
-        if (maxOffset != -1) {
-            refResults = refResults.stream()
-                    .filter(item -> item.getElement().getTextOffset() <= maxOffset)
-                    .collect(Collectors.toList());
+            parts.add(StringConcatPart.expression(operand));
         }
-        return refResults;
     }
 
     public static boolean hasFullQualifiedName(PsiMethodCallExpression methodCall, String qualifiedName, String methodName) {
@@ -472,29 +478,26 @@ public class MoExpressionUtils {
             return false;
         }
 
-        PsiMethod method = methodCall.resolveMethod();
-        if (method == null) { return false; }
-
-        PsiClass containingClass = method.getContainingClass();
-        if (containingClass == null) { return false; }
-
-        return qualifiedName.equals(containingClass.getQualifiedName());
+        return qualifiedName.equals(MoResolveCache.getCallTarget(methodCall).getOwnerQualifiedName());
     }
 
     public static boolean hasFullQualifiedName(PsiNewExpression newExpression, String qualifiedName) {
-        if (newExpression.getClassReference() == null) {
-            return false;
-        }
-        return qualifiedName.equals(newExpression.getClassReference().getQualifiedName());
+        return qualifiedName.equals(MoResolveCache.getCallTarget(newExpression).getOwnerQualifiedName());
     }
 
     /**
      * get FQName of a PsiMethod
      * fqname construct with <class QualifiedName> <method return Type> <method name>(<param_type> <param_name>, ...)
+     * 结果按 PsiMethod 缓存，PSI 变化后失效
      * @param method PsiMethod
      * @return String
      */
     public static String getMethodFQName(PsiMethod method) {
+        return CachedValuesManager.getCachedValue(method, () ->
+                CachedValueProvider.Result.create(computeMethodFQName(method), PsiModificationTracker.MODIFICATION_COUNT));
+    }
+
+    private static String computeMethodFQName(PsiMethod method) {
         StringBuilder fqname = new StringBuilder();
         PsiClass aClass = method.getContainingClass();
         fqname.append(aClass != null ? aClass.getQualifiedName() : "null");
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.utils;
+
+import com.intellij.psi.PsiCompiledElement;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 记录分析一个文件时是否读取了其他源文件中的常量或方法摘要
+ *
+ * momosec-scan 的单文件结果缓存以文件内容为 key，结果依赖其他源文件时，那些文件变化后缓存的结果会过期，
+ * 此类文件不写入缓存。编译后的类 (库) 不计入。
+ *
+ * field 折叠与方法摘要会跨文件缓存，命中缓存时不再重新读取其依赖。因此计算这些缓存值时以 capture 收集
+ * 读取过的文件并与结果一起缓存，每次命中时以 replay 计入当前的记录，结果与各文件的分析顺序无关。
+ * 没有正在进行的记录或收集时 (如 IDE 高亮中未计算缓存值) visit 只读取一次计数，不访问 ThreadLocal。
+ */
+public final class MoFileDependencies {
+
+    private static final AtomicInteger active = new AtomicInteger();
+    private static final ThreadLocal<Frame> current = new ThreadLocal<>();
+
+    private MoFileDependencies() {}
+
+    private abstract static class Frame {
+        final Frame previous;
+
+        Frame(@Nullable Frame previous) {
+            this.previous = previous;
+        }
+
+        abstract void add(@NotNull PsiFile file);
+    }
+
+    public static final class Recorder extends Frame implements AutoCloseable {
+        private final PsiFile file;
+        private boolean dependsOnOtherFiles = false;
+
+        private Recorder(@NotNull PsiFile file, @Nullable Frame previous) {
+            super(previous);
+            this.file = file.getOriginalFile();
+        }
+
+        @Override
+        void add(@NotNull PsiFile file) {
+            if (file != this.file) {
+                dependsOnOtherFiles = true;
+            }
+        }
+
+        public boolean dependsOnOtherFiles() {
+            return dependsOnOtherFiles;
+        }
+
+        @Override
+        public void close() {
+            current.set(previous);
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * 计算缓存值期间读取的文件，结束时同时计入外层的记录或收集
+     */
+    public static final class Capture extends Frame {
+        private Set<PsiFile> files = Collections.emptySet();
+
+        private Capture(@Nullable Frame previous) {
+            super(previous);
+        }
+
+        @Override
+        void add(@NotNull PsiFile file) {
+            if (files.isEmpty()) {
+                files = new HashSet<>();
+            }
+            files.add(file);
+        }
+
+        /**
+         * 结束收集，收集到的文件计入外层的记录或收集
+         */
+        public void close() {
+            current.set(previous);
+            active.decrementAndGet();
+            replay(files);
+        }
+
+        /**
+         * @return 收集到的文件，与缓存值一起保存
+         */
+        @NotNull
+        public Set<PsiFile> getFiles() {
+            return files;
+        }
+    }
+
+    /**
+     * 在当前线程开始记录 file 的依赖，与 Recorder#close 成对使用
+     * @param file 被分析的文件
+     * @return Recorder
+     */
+    @NotNull
+    public static Recorder start(@NotNull PsiFile file) {
+        Recorder recorder = new Recorder(file, current.get());
+        current.set(recorder);
+        active.incrementAndGet();
+        return recorder;
+    }
+
+    /**
+     * 在当前线程开始收集计算缓存值时读取的文件，与 Capture#close 成对使用
+     * @return Capture
+     */
+    @NotNull
+    public static Capture capture() {
+        Capture capture = new Capture(current.get());
+        current.set(capture);
+        active.incrementAndGet();
+        return capture;
+    }
+
+    /**
+     * 分析读取了 target (如被折叠的 field、被摘要的方法)
+     * @param target PsiElement
+     */
+    public static void visit(@NotNull PsiElement target) {
+        if (active.get() == 0 || target instanceof PsiCompiledElement) {
+            return ;
+        }
+        Frame frame = current.get();
+        if (frame == null) {
+            return ;
+        }
+        PsiFile file = target.getContainingFile();
+        if (file != null) {
+            frame.add(file.getOriginalFile());
+        }
+    }
+
+    /**
+     * 命中缓存值时计入其计算期间读取的文件
+     * @param files Capture#getFiles 的结果
+     */
+    public static void replay(@NotNull Set<PsiFile> files) {
+        if (files.isEmpty() || active.get() == 0) {
+            return ;
+        }
+        Frame frame = current.get();
+        if (frame == null) {
+            return ;
+        }
+        for (PsiFile file : files) {
+            frame.add(file);
+        }
+    }
+}
@@ -0,0 +1,763 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.utils;
+
+import com.immomo.momosec.lang.java.engine.MomoSecEngine;
+import com.immomo.momosec.metrics.MomoSecMetrics;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.psi.util.TypeConversionUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 方法内的字符串污点摘要
+ *
+ * 污点以 long 位图表示：第 i 位表示值来自第 i 个参数，UNKNOWN 位表示值来自 field、方法调用、
+ * catch 参数等无法确定的来源；污点为 0 即为常量。数值等基础类型不携带污点。
+ * 只有枚举常量与初始值为编译期常量的 static final field 视为常量，其余 field 可能在别处被赋值，
+ * 读取它们的表达式 (包括返回 field 的 getter 调用) 为 UNKNOWN。
+ *
+ * 建立摘要时把方法内对变量的全部定义 (初始值、赋值、append / insert) 按结束位置排序后依次求值，
+ * 引用点处变量的污点为文本上位于其之前的全部定义的并集。
+ * 求值按文本顺序而非控制流图进行：if / switch 各分支的定义合并，循环的回边不参与求值，
+ * 因此循环体内先被使用、后被赋值的变量，在使用点看不到本轮之后的赋值。
+ *
+ * 调用同项目中的方法时，借助被调方法的摘要把实参的污点传递到返回值与 SQL sink。
+ * 摘要以项目为作用域，随 PSI 修改失效；建立摘要时读取的文件与摘要一起保存，命中时计入 MoFileDependencies。相互递归的方法 (调用图上的强连通分量) 一起迭代到不动点后一次写入；
+ * 嵌套建立摘要的深度与单次查询建立的摘要数有上限，超出时被调方法的返回值视为 UNKNOWN。
+ *
+ * 摘要包括：
+ * (1) 每个参数是否流向返回值
+ * (2) 每个参数是否到达 SQL 执行接口 (PolyadicExpressionSQLi 在 MoSinkCatalog 中登记的 sink)，首次查询时才计算
+ * (3) 任意表达式在其所在位置的污点
+ */
+public final class MoMethodSummary {
+
+    public static final long UNKNOWN = 1L << 63;
+    private static final int MAX_PARAMETERS = 63;
+    /** 嵌套建立摘要的最大深度 */
+    private static final int MAX_DEPTH = 16;
+    /** 一次顶层查询中最多建立的摘要数 */
+    private static final int MAX_BUILDS = 256;
+    /** 强连通分量求不动点的最大轮数 */
+    private static final int MAX_ITERATIONS = 16;
+
+    /** 登记 SQL 执行接口的规则 */
+    public static final String SQL_SINK_RULE = "PolyadicExpressionSQLi";
+
+    private static final Key<CachedValue<Map<PsiMethod, MoMethodSummary>>> SUMMARIES_KEY = Key.create("MomoSec.MethodSummaries");
+    private static final ThreadLocal<BuildState> buildState = ThreadLocal.withInitial(BuildState::new);
+    // 当前线程正在计算 sink 污点的摘要及其暂定值
+    private static final ThreadLocal<Map<MoMethodSummary, Long>> pendingSinkTaints = ThreadLocal.withInitial(HashMap::new);
+
+    private static final Set<String> STRING_TYPES = new HashSet<>(Arrays.asList(
+            "java.lang.String", "java.lang.StringBuilder", "java.lang.StringBuffer"));
+    private static final Set<String> PROPAGATING_METHODS = new HashSet<>(Arrays.asList(
+            "append", "insert", "toString", "concat", "trim", "substring", "toLowerCase", "toUpperCase",
+            "replace", "intern", "valueOf", "format", "join", "copyValueOf"));
+
+    @Nullable
+    private final PsiMethod method;
+    private Map<PsiVariable, VariableDefs> defs = new HashMap<>();
+    private final List<PsiVariable> variables = new ArrayList<>();
+    private final List<Definition> definitions = new ArrayList<>();
+    private final List<PsiExpression> returnValues = new ArrayList<>();
+    private final List<PsiMethodCallExpression> calls = new ArrayList<>();
+    private long returnTaint = 0;
+
+    // 建立摘要时的 DFS 序号
+    private int buildIndex = -1;
+    private boolean recursive = false;
+    // 所在强连通分量的全部摘要，sink 污点按分量一起计算
+    private List<MoMethodSummary> component = Collections.singletonList(this);
+    private volatile boolean sinkTaintComputed = false;
+    private long sinkTaint = 0;
+    // 建立摘要、计算 sink 污点时读取的文件，命中时计入 MoFileDependencies
+    private Set<PsiFile> files = Collections.emptySet();
+    private Set<PsiFile> sinkFiles = Collections.emptySet();
+
+    private MoMethodSummary(@Nullable PsiMethod method) {
+        this.method = method;
+    }
+
+    /**
+     * @param method PsiMethod
+     * @return 无方法体，或超出建立摘要的深度 / 数量上限时返回 null
+     */
+    @Nullable
+    public static MoMethodSummary getSummary(@NotNull PsiMethod method) {
+        if (method.getBody() == null || method instanceof PsiCompiledElement) {
+            return null;
+        }
+        Map<PsiMethod, MoMethodSummary> summaries = getSummaries(method.getProject());
+        MoMethodSummary summary = summaries.get(method);
+        if (summary != null) {
+            MoFileDependencies.replay(summary.files);
+            return summary;
+        }
+        BuildState state = buildState.get();
+        summary = state.building.get(method);
+        if (summary != null) {
+            // 递归调用：调用方与 method 属于同一强连通分量，先返回暂定的摘要
+            state.linkTo(summary);
+            return summary;
+        }
+        if (state.frozen || state.stack.size() >= MAX_DEPTH || state.builds >= MAX_BUILDS) {
+            return null;
+        }
+        return build(method, state, summaries);
+    }
+
+    /**
+     * 表达式在其所在位置的污点
+     * @param expression PsiExpression
+     * @return long
+     */
+    public static long getTaint(@NotNull PsiExpression expression) {
+        PsiMethod method = MoExpressionUtils.getParentOfMethod(expression);
+        MoMethodSummary summary = method != null ? getSummary(method) : null;
+        if (summary == null) {
+            // 不在方法内，或超出建立摘要的上限
+            return new MoMethodSummary(method).evaluate(expression);
+        }
+        return summary.evaluate(expression);
+    }
+
+    /**
+     * 表达式在其所在位置是否只由常量构成
+     * @param expression PsiExpression
+     * @return boolean
+     */
+    public static boolean isConstant(@NotNull PsiExpression expression) {
+        return getTaint(expression) == 0;
+    }
+
+    /**
+     * 局部变量在 offset 之前的全部定义，按结束位置升序：
+     * 变量本身 (代表其初始值)、对变量的赋值 (包括 "+=" 等复合赋值)、以变量为起点的 append / insert 调用
+     * @param variable PsiLocalVariable
+     * @param offset 文本位置
+     * @return List<PsiElement>
+     */
+    @NotNull
+    public static List<PsiElement> getDefinitions(@NotNull PsiLocalVariable variable, int offset) {
+        PsiMethod method = MoExpressionUtils.getParentOfMethod(variable);
+        MoMethodSummary summary = method != null ? getSummary(method) : null;
+        if (summary == null) {
+            if (method == null || method.getBody() == null) {
+                // 初始化块等不在方法内的局部变量
+                return variable.getInitializer() != null ? Collections.singletonList(variable) : Collections.emptyList();
+            }
+            // 超出建立摘要的上限时只收集定义，不求值
+            summary = new MoMethodSummary(method);
+            summary.collect();
+        }
+        List<PsiElement> elements = new ArrayList<>();
+        for (Definition definition : summary.definitions) {
+            if (definition.end > offset) {
+                break;
+            }
+            if (definition.variable == variable) {
+                elements.add(definition.element);
+            }
+        }
+        return elements;
+    }
+
+    public int getParameterCount() {
+        return method != null ? method.getParameterList().getParametersCount() : 0;
+    }
+
+    /**
+     * @param index 参数下标
+     * @return 该参数是否流向返回值
+     */
+    public boolean flowsToReturn(int index) {
+        return hasParameter(returnTaint, index);
+    }
+
+    /**
+     * 返回值的污点，包括无法确定的来源 (UNKNOWN)
+     */
+    public long getReturnTaint() {
+        return returnTaint;
+    }
+
+    /**
+     * @param index 参数下标
+     * @return 该参数是否到达 SQL 执行接口
+     */
+    public boolean reachesSqlSink(int index) {
+        return hasParameter(getSinkTaint(), index);
+    }
+
+    private static boolean hasParameter(long taint, int index) {
+        return index >= 0 && index < MAX_PARAMETERS && (taint & (1L << index)) != 0;
+    }
+
+    @NotNull
+    private static Map<PsiMethod, MoMethodSummary> getSummaries(@NotNull Project project) {
+        return CachedValuesManager.getManager(project).getCachedValue(project, SUMMARIES_KEY, () ->
+                CachedValueProvider.Result.create(new ConcurrentHashMap<>(), PsiModificationTracker.MODIFICATION_COUNT), false);
+    }
+
+    /**
+     * 以 Tarjan 算法在建立摘要的同时找出强连通分量：method 不在环上时直接写入；
+     * 在环上时等待分量中最早开始建立的方法 (根) 完成，由根对整个分量求不动点后一起写入
+     */
+    @NotNull
+    private static MoMethodSummary build(@NotNull PsiMethod method, @NotNull BuildState state,
+                                         @NotNull Map<PsiMethod, MoMethodSummary> summaries) {
+        // 只计顶层的建立，嵌套建立的耗时已包含在内
+        long start = state.stack.isEmpty() ? MomoSecMetrics.startOperation() : 0L;
+        MoMethodSummary summary = new MoMethodSummary(method);
+        Frame frame = new Frame(summary, state.counter++);
+        summary.buildIndex = frame.index;
+        state.stack.add(frame);
+        state.building.put(method, summary);
+        state.builds++;
+        boolean completed = false;
+        try {
+            MoFileDependencies.Capture capture = MoFileDependencies.capture();
+            try {
+                summary.collect();
+                summary.solve();
+            } finally {
+                capture.close();
+            }
+            summary.files = capture.getFiles();
+            if (frame.lowLink < frame.index) {
+                Frame caller = state.stack.get(state.stack.size() - 2);
+                caller.lowLink = Math.min(caller.lowLink, frame.lowLink);
+                state.waiting.add(summary);
+            } else {
+                completeComponent(summary, state, summaries);
+            }
+            completed = true;
+            return summary;
+        } finally {
+            state.stack.remove(state.stack.size() - 1);
+            if (!completed) {
+                state.discard(frame.index);
+            }
+            if (state.stack.isEmpty()) {
+                state.reset();
+                MomoSecMetrics.endOperation(MomoSecMetrics.Operation.METHOD_SUMMARY, start);
+            }
+        }
+    }
+
+    private static void completeComponent(@NotNull MoMethodSummary root, @NotNull BuildState state,
+                                          @NotNull Map<PsiMethod, MoMethodSummary> summaries) {
+        List<MoMethodSummary> component = new ArrayList<>();
+        component.add(root);
+        while (!state.waiting.isEmpty() && state.waiting.get(state.waiting.size() - 1).buildIndex > root.buildIndex) {
+            component.add(state.waiting.remove(state.waiting.size() - 1));
+        }
+        if (component.size() > 1 || root.recursive) {
+            // 分量内的摘要都已建立过一次，迭代时不再建立新的摘要，保证各轮求值使用相同的被调方法
+            state.frozen = true;
+            try {
+                solveComponent(component);
+            } finally {
+                state.frozen = false;
+            }
+        }
+        List<MoMethodSummary> members = component.size() > 1 ? Collections.unmodifiableList(component) : root.component;
+        for (MoMethodSummary member : component) {
+            member.component = members;
+            member.recursive = member.recursive || component.size() > 1;
+            // 分量内其他方法都在根的建立过程中建立，根读取的文件包括整个分量的依赖
+            member.files = root.files;
+            state.building.remove(member.method);
+            summaries.put(member.method, member);
+        }
+    }
+
+    /**
+     * 返回值污点只增不减，迭代到不再变化为止；超出 MAX_ITERATIONS 时视为 UNKNOWN
+     */
+    private static void solveComponent(@NotNull List<MoMethodSummary> component) {
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (MoMethodSummary member : component) {
+                long before = member.returnTaint;
+                member.solve();
+                changed |= member.returnTaint != before;
+            }
+            if (!changed) {
+                return ;
+            }
+        }
+        for (MoMethodSummary member : component) {
+            member.returnTaint |= UNKNOWN;
+        }
+    }
+
+    /**
+     * 一次遍历方法体，收集变量、定义、返回值与方法调用
+     */
+    private void collect() {
+        PsiMethod method = Objects.requireNonNull(this.method);
+        method.accept(new JavaRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitLocalVariable(PsiLocalVariable variable) {
+                super.visitLocalVariable(variable);
+                variables.add(variable);
+                if (variable.getInitializer() != null) {
+                    definitions.add(new Definition(variable, variable, variable.getInitializer()));
+                }
+            }
+
+            @Override
+            public void visitForeachStatement(PsiForeachStatement statement) {
+                super.visitForeachStatement(statement);
+                variables.add(statement.getIterationParameter());
+                if (statement.getIteratedValue() != null) {
+                    definitions.add(new Definition(statement.getIterationParameter(), statement.getIteratedValue(), statement.getIteratedValue()));
+                }
+            }
+
+            @Override
+            public void visitAssignmentExpression(PsiAssignmentExpression expression) {
+                super.visitAssignmentExpression(expression);
+                PsiVariable variable = resolveVariable(expression.getLExpression());
+                if (variable != null && expression.getRExpression() != null) {
+                    definitions.add(new Definition(variable, expression, expression.getRExpression()));
+                }
+            }
+
+            @Override
+            public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+                super.visitMethodCallExpression(expression);
+                String name = expression.getMethodExpression().getReferenceName();
+                if ("append".equals(name) || "insert".equals(name)) {
+                    // sb.append(a).append(b) 整条调用链都是对 sb 的定义
+                    PsiExpression qualifier = expression.getMethodExpression().getQualifierExpression();
+                    while (qualifier instanceof PsiMethodCallExpression) {
+                        qualifier = ((PsiMethodCallExpression) qualifier).getMethodExpression().getQualifierExpression();
+                    }
+                    PsiVariable variable = resolveVariable(qualifier);
+                    if (variable != null) {
+                        definitions.add(new Definition(variable, expression, expression));
+                    }
+                }
+                calls.add(expression);
+            }
+
+            @Override
+            public void visitReturnStatement(PsiReturnStatement statement) {
+                super.visitReturnStatement(statement);
+                if (statement.getReturnValue() != null &&
+                    PsiTreeUtil.getParentOfType(statement, PsiMethod.class, PsiLambdaExpression.class) == method) {
+                    returnValues.add(statement.getReturnValue());
+                }
+            }
+
+            @Override
+            public void visitClass(PsiClass aClass) {
+                // 匿名类 / 局部类属于其他方法
+            }
+        });
+        // 按结束位置求值，引用点之前的定义都已求值完毕
+        definitions.sort(Comparator.<Definition>comparingInt(d -> d.end).thenComparingInt(d -> -d.start));
+    }
+
+    /**
+     * 以被调方法当前的摘要对全部定义与返回值求值
+     */
+    private void solve() {
+        PsiMethod method = Objects.requireNonNull(this.method);
+        Map<PsiVariable, VariableDefs> defs = new HashMap<>();
+        PsiParameter[] parameters = method.getParameterList().getParameters();
+        for (int i = 0; i < parameters.length; i++) {
+            defs.put(parameters[i], new VariableDefs(i < MAX_PARAMETERS ? 1L << i : UNKNOWN));
+        }
+        for (PsiVariable variable : variables) {
+            defs.put(variable, new VariableDefs(0));
+        }
+        this.defs = defs;
+
+        for (Definition definition : definitions) {
+            VariableDefs variableDefs = defs.get(definition.variable);
+            if (variableDefs != null) {
+                variableDefs.add(definition.end, evaluate(definition.value));
+            }
+        }
+
+        long taint = 0;
+        for (PsiExpression returnValue : returnValues) {
+            taint |= evaluate(returnValue);
+        }
+        returnTaint = taint;
+    }
+
+    /**
+     * 到达 SQL sink 的参数污点，首次查询时与所在强连通分量的其他摘要一起计算
+     */
+    private long getSinkTaint() {
+        if (sinkTaintComputed) {
+            MoFileDependencies.replay(sinkFiles);
+            return sinkTaint;
+        }
+        Map<MoMethodSummary, Long> pending = pendingSinkTaints.get();
+        Long taint = pending.get(this);
+        if (taint != null) {
+            // 分量内的递归，或被深度上限截断的环
+            return taint;
+        }
+        if (pending.size() >= MAX_BUILDS) {
+            return 0;
+        }
+        computeSinkTaint(component);
+        return sinkTaint;
+    }
+
+    private static void computeSinkTaint(@NotNull List<MoMethodSummary> component) {
+        Map<MoMethodSummary, Long> pending = pendingSinkTaints.get();
+        for (MoMethodSummary member : component) {
+            pending.put(member, 0L);
+        }
+        MoFileDependencies.Capture capture = MoFileDependencies.capture();
+        try {
+            boolean cyclic = component.size() > 1 || component.get(0).recursive;
+            for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+                boolean changed = false;
+                for (MoMethodSummary member : component) {
+                    long before = pending.get(member);
+                    long taint = before;
+                    for (PsiMethodCallExpression call : member.calls) {
+                        taint |= member.getSinkTaint(call);
+                    }
+                    if (taint != before) {
+                        pending.put(member, taint);
+                        changed = true;
+                    }
+                }
+                if (!cyclic || !changed) {
+                    break;
+                }
+            }
+            for (MoMethodSummary member : component) {
+                member.sinkTaint = pending.get(member);
+                member.sinkFiles = capture.getFiles();
+                member.sinkTaintComputed = true;
+            }
+        } finally {
+            capture.close();
+            for (MoMethodSummary member : component) {
+                pending.remove(member);
+            }
+        }
+    }
+
+    /**
+     * 调用点到达 SQL sink 的污点：直接调用 sink 的 SQL 参数，或被调方法会把参数传入 sink
+     */
+    private long getSinkTaint(@NotNull PsiMethodCallExpression call) {
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        if (args.length == 0) {
+            return 0;
+        }
+        if (MomoSecEngine.getSinkCatalog().match(call, SQL_SINK_RULE) != null) {
+            return evaluate(args[0]);
+        }
+        if (evaluateAll(args) == 0) {
+            // 实参均为常量时无需解析被调方法
+            return 0;
+        }
+        MoMethodSummary callee = getCalleeSummary(call);
+        if (callee == null) {
+            return 0;
+        }
+        long taint = 0;
+        for (int i = 0; i < args.length && i < callee.getParameterCount(); i++) {
+            if (callee.reachesSqlSink(i)) {
+                taint |= evaluate(args[i]);
+            }
+        }
+        return taint;
+    }
+
+    /**
+     * 表达式在其所在位置的污点
+     */
+    private long evaluate(@Nullable PsiExpression expression) {
+        expression = PsiUtil.skipParenthesizedExprDown(expression);
+        if (expression == null ||
+            expression instanceof PsiLiteralExpression ||
+            TypeConversionUtil.isPrimitiveAndNotNull(expression.getType())) {
+            return 0;
+        }
+
+        if (expression instanceof PsiPolyadicExpression) {
+            long taint = 0;
+            for (PsiExpression operand : ((PsiPolyadicExpression) expression).getOperands()) {
+                taint |= evaluate(operand);
+            }
+            return taint;
+        }
+        if (expression instanceof PsiConditionalExpression) {
+            return evaluate(((PsiConditionalExpression) expression).getThenExpression()) |
+                   evaluate(((PsiConditionalExpression) expression).getElseExpression());
+        }
+        if (expression instanceof PsiAssignmentExpression) {
+            PsiAssignmentExpression assignment = (PsiAssignmentExpression) expression;
+            long taint = evaluate(assignment.getRExpression());
+            return JavaTokenType.EQ.equals(assignment.getOperationTokenType()) ? taint : taint | evaluate(assignment.getLExpression());
+        }
+        if (expression instanceof PsiTypeCastExpression) {
+            return evaluate(((PsiTypeCastExpression) expression).getOperand());
+        }
+        if (expression instanceof PsiArrayAccessExpression) {
+            return evaluate(((PsiArrayAccessExpression) expression).getArrayExpression());
+        }
+        if (expression instanceof PsiReferenceExpression) {
+            return evaluateReference((PsiReferenceExpression) expression);
+        }
+        if (expression instanceof PsiNewExpression) {
+            PsiExpressionList argumentList = ((PsiNewExpression) expression).getArgumentList();
+            PsiType type = expression.getType();
+            if (argumentList == null || type == null || !STRING_TYPES.contains(type.getCanonicalText())) {
+                return UNKNOWN;
+            }
+            return evaluateAll(argumentList.getExpressions());
+        }
+        if (expression instanceof PsiMethodCallExpression) {
+            return evaluateCall((PsiMethodCallExpression) expression);
+        }
+        return UNKNOWN;
+    }
+
+    private long evaluateAll(@NotNull PsiExpression[] expressions) {
+        long taint = 0;
+        for (PsiExpression expression : expressions) {
+            taint |= evaluate(expression);
+        }
+        return taint;
+    }
+
+    private long evaluateReference(@NotNull PsiReferenceExpression reference) {
+        PsiElement resolved = MoResolveCache.resolve(reference);
+        if (resolved instanceof PsiField) {
+            return isConstantField((PsiField) resolved) ? 0 : UNKNOWN;
+        }
+        if (!(resolved instanceof PsiVariable)) {
+            return UNKNOWN;
+        }
+        VariableDefs variableDefs = defs.get(resolved);
+        if (variableDefs == null && resolved instanceof PsiLocalVariable) {
+            // 匿名类 / 局部类中引用外层方法的局部变量
+            PsiMethod owner = MoExpressionUtils.getParentOfMethod(resolved);
+            MoMethodSummary ownerSummary = owner != null && owner != method ? getSummary(owner) : null;
+            variableDefs = ownerSummary != null ? ownerSummary.defs.get(resolved) : null;
+        }
+        if (variableDefs == null) {
+            // catch 参数、lambda 参数等
+            return UNKNOWN;
+        }
+        return variableDefs.taintBefore(reference.getTextOffset());
+    }
+
+    /**
+     * 枚举常量，或初始值为编译期常量的 static final field
+     */
+    private static boolean isConstantField(@NotNull PsiField field) {
+        MoFileDependencies.visit(field);
+        if (field instanceof PsiEnumConstant) {
+            return true;
+        }
+        return field.hasModifierProperty(PsiModifier.STATIC) &&
+               field.hasModifierProperty(PsiModifier.FINAL) &&
+               field.computeConstantValue() != null;
+    }
+
+    private long evaluateCall(@NotNull PsiMethodCallExpression call) {
+        PsiReferenceExpression methodExpression = call.getMethodExpression();
+        PsiExpression qualifier = methodExpression.getQualifierExpression();
+        PsiType qualifierType = qualifier != null ? qualifier.getType() : null;
+        String name = methodExpression.getReferenceName();
+        if (PROPAGATING_METHODS.contains(name)) {
+            if (qualifier != null && qualifierType != null && STRING_TYPES.contains(qualifierType.getCanonicalText())) {
+                return evaluate(qualifier) | evaluateAll(call.getArgumentList().getExpressions());
+            }
+            if (qualifier instanceof PsiReferenceExpression && "String".equals(((PsiReferenceExpression) qualifier).getReferenceName())) {
+                // String.valueOf / String.format / String.join
+                return evaluateAll(call.getArgumentList().getExpressions());
+            }
+        }
+
+        MoMethodSummary callee = getCalleeSummary(call);
+        if (callee == null) {
+            return UNKNOWN;
+        }
+        long taint = callee.returnTaint & UNKNOWN;
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        for (int i = 0; i < args.length && i < callee.getParameterCount(); i++) {
+            if (callee.flowsToReturn(i)) {
+                taint |= evaluate(args[i]);
+            }
+        }
+        return taint;
+    }
+
+    @Nullable
+    private static MoMethodSummary getCalleeSummary(@NotNull PsiMethodCallExpression call) {
+        long start = MomoSecMetrics.startOperation();
+        PsiMethod callee;
+        try {
+            callee = call.resolveMethod();
+        } finally {
+            MomoSecMetrics.endOperation(MomoSecMetrics.Operation.RESOLVE, start);
+        }
+        if (callee == null || callee.isVarArgs()) {
+            return null;
+        }
+        MoFileDependencies.visit(callee);
+        return getSummary(callee);
+    }
+
+    @Nullable
+    private static PsiVariable resolveVariable(@Nullable PsiExpression expression) {
+        expression = PsiUtil.skipParenthesizedExprDown(expression);
+        if (!(expression instanceof PsiReferenceExpression) ||
+            ((PsiReferenceExpression) expression).getQualifierExpression() != null) {
+            return null;
+        }
+        PsiElement resolved = MoResolveCache.resolve((PsiReferenceExpression) expression);
+        return resolved instanceof PsiLocalVariable || resolved instanceof PsiParameter ? (PsiVariable) resolved : null;
+    }
+
+    /**
+     * 变量的全部定义，按结束位置升序；taints[k] 为前 k+1 个定义与初始污点的并集
+     */
+    private static final class VariableDefs {
+        private final long initial;
+        private int[] ends = new int[2];
+        private long[] taints = new long[2];
+        private int size = 0;
+
+        VariableDefs(long initial) {
+            this.initial = initial;
+        }
+
+        void add(int end, long taint) {
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, size * 2);
+                taints = Arrays.copyOf(taints, size * 2);
+            }
+            ends[size] = end;
+            taints[size] = (size > 0 ? taints[size - 1] : initial) | taint;
+            size++;
+        }
+
+        long taintBefore(int offset) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] <= offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low > 0 ? taints[low - 1] : initial;
+        }
+    }
+
+    private static final class Definition {
+        final PsiVariable variable;
+        final PsiElement element;
+        final int start;
+        final int end;
+        final PsiExpression value;
+
+        Definition(@NotNull PsiVariable variable, @NotNull PsiElement element, @NotNull PsiExpression value) {
+            this.variable = variable;
+            this.element = element;
+            this.start = element.getTextRange().getStartOffset();
+            this.end = element.getTextRange().getEndOffset();
+            this.value = value;
+        }
+    }
+
+    /**
+     * 正在建立的摘要在 DFS 中的序号与能到达的最小序号
+     */
+    private static final class Frame {
+        final MoMethodSummary summary;
+        final int index;
+        int lowLink;
+
+        Frame(@NotNull MoMethodSummary summary, int index) {
+            this.summary = summary;
+            this.index = index;
+            this.lowLink = index;
+        }
+    }
+
+    /**
+     * 当前线程建立摘要的状态
+     */
+    private static class BuildState {
+        final List<Frame> stack = new ArrayList<>();
+        // 正在建立，或已建立一次、等待所在强连通分量完成的摘要
+        final Map<PsiMethod, MoMethodSummary> building = new HashMap<>();
+        // 等待所在强连通分量完成的摘要，按完成顺序
+        final List<MoMethodSummary> waiting = new ArrayList<>();
+        int counter = 0;
+        int builds = 0;
+        boolean frozen = false;
+
+        void linkTo(@NotNull MoMethodSummary target) {
+            if (stack.isEmpty()) {
+                return ;
+            }
+            Frame top = stack.get(stack.size() - 1);
+            top.lowLink = Math.min(top.lowLink, target.buildIndex);
+            if (top.summary == target) {
+                target.recursive = true;
+            }
+        }
+
+        /**
+         * 建立被取消时丢弃序号不小于 index 的暂定摘要
+         */
+        void discard(int index) {
+            building.values().removeIf(summary -> summary.buildIndex >= index);
+            waiting.removeIf(summary -> summary.buildIndex >= index);
+        }
+
+        void reset() {
+            building.clear();
+            waiting.clear();
+            counter = 0;
+            builds = 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.utils;
+
+import com.immomo.momosec.metrics.MomoSecMetrics;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 文件级的调用目标解析缓存
+ *
+ * 以 PsiFile 为作用域，随 PSI 修改失效。
+ * 同一个方法调用 / new表达式在所有规则间只 resolve 一次，结果为所属类的 FQN 与方法名。
+ * 其余引用由 resolve(PsiReference) 解析，不缓存，只计入 MomoSecMetrics.Operation.RESOLVE。
+ */
+public class MoResolveCache {
+
+    private static final Key<CachedValue<MoResolveCache>> RESOLVE_CACHE_KEY = Key.create("MomoSec.ResolveCache");
+
+    private final ConcurrentMap<PsiCallExpression, CallTarget> targets = new ConcurrentHashMap<>();
+
+    public static final class CallTarget {
+        static final CallTarget UNRESOLVED = new CallTarget(null, null);
+
+        private final String ownerQualifiedName;
+        private final String methodName;
+
+        CallTarget(@Nullable String ownerQualifiedName, @Nullable String methodName) {
+            this.ownerQualifiedName = ownerQualifiedName;
+            this.methodName = methodName;
+        }
+
+        /**
+         * 方法调用: resolve 到的方法所属类的 FQN
+         * new表达式: 类引用的 FQN
+         */
+        @Nullable
+        public String getOwnerQualifiedName() {
+            return ownerQualifiedName;
+        }
+
+        /**
+         * 方法调用: resolve 到的方法名
+         * new表达式: 类引用的 short name
+         */
+        @Nullable
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public boolean isResolved() {
+            return ownerQualifiedName != null;
+        }
+    }
+
+    @NotNull
+    public static CallTarget getCallTarget(@NotNull PsiMethodCallExpression methodCall) {
+        MoResolveCache cache = getInstance(methodCall);
+        if (cache == null) {
+            return resolve(methodCall);
+        }
+        return cache.targets.computeIfAbsent(methodCall, k -> resolve(methodCall));
+    }
+
+    @NotNull
+    public static CallTarget getCallTarget(@NotNull PsiNewExpression newExpression) {
+        MoResolveCache cache = getInstance(newExpression);
+        if (cache == null) {
+            return resolve(newExpression);
+        }
+        return cache.targets.computeIfAbsent(newExpression, k -> resolve(newExpression));
+    }
+
+    /**
+     * 解析引用并计入 RESOLVE 计数
+     * @param reference 引用，可为 null
+     * @return 引用目标，无法解析或 reference 为 null 时返回 null
+     */
+    @Nullable
+    public static PsiElement resolve(@Nullable PsiReference reference) {
+        if (reference == null) {
+            return null;
+        }
+        long start = MomoSecMetrics.startOperation();
+        try {
+            return reference.resolve();
+        } finally {
+            MomoSecMetrics.endOperation(MomoSecMetrics.Operation.RESOLVE, start);
+        }
+    }
+
+    @NotNull
+    private static CallTarget resolve(@NotNull PsiMethodCallExpression methodCall) {
+        long start = MomoSecMetrics.startOperation();
+        PsiMethod method;
+        try {
+            method = methodCall.resolveMethod();
+        } finally {
+            MomoSecMetrics.endOperation(MomoSecMetrics.Operation.RESOLVE, start);
+        }
+        if (method == null) { return CallTarget.UNRESOLVED; }
+
+        PsiClass containingClass = method.getContainingClass();
+        if (containingClass == null) { return CallTarget.UNRESOLVED; }
+
+        return new CallTarget(containingClass.getQualifiedName(), method.getName());
+    }
+
+    @NotNull
+    private static CallTarget resolve(@NotNull PsiNewExpression newExpression) {
+        PsiJavaCodeReferenceElement classReference = newExpression.getClassReference();
+        if (classReference == null) { return CallTarget.UNRESOLVED; }
+
+        long start = MomoSecMetrics.startOperation();
+        try {
+            return new CallTarget(classReference.getQualifiedName(), classReference.getReferenceName());
+        } finally {
+            MomoSecMetrics.endOperation(MomoSecMetrics.Operation.RESOLVE, start);
+        }
+    }
+
+    @Nullable
+    private static MoResolveCache getInstance(@NotNull PsiElement element) {
+        PsiFile file = element.getContainingFile();
+        if (file == null) {
+            return null;
+        }
+        return CachedValuesManager.getCachedValue(file, RESOLVE_CACHE_KEY, () ->
+                CachedValueProvider.Result.create(new MoResolveCache(), PsiModificationTracker.MODIFICATION_COUNT));
+    }
+}
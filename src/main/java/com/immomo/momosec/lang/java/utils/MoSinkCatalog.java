@@ -0,0 +1,304 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.utils;
+
+import com.intellij.psi.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * 规则关心的 sink / source 目录
+ *
+ * 各规则把 (ownerFQN, methodName)、构造类 FQN、注解 FQN 登记到同一个不可变目录中，
+ * 目录按 short name 建立哈希索引：
+ * (1) 名字不命中的调用点直接跳过，不触发 resolve
+ * (2) O(1) 得到调用点的候选规则
+ * (3) 名字命中后，再用 MoResolveCache 中的解析结果比对 FQN
+ */
+public final class MoSinkCatalog {
+
+    public enum SinkKind {
+        METHOD_CALL,
+        NEW_EXPRESSION,
+        ANNOTATION
+    }
+
+    public static final class Sink {
+        private final SinkKind kind;
+        private final String ruleId;
+        private final String ownerQualifiedName;
+        private final String name;
+        private final String tag;
+
+        private Sink(SinkKind kind, String ruleId, String ownerQualifiedName, String name, String tag) {
+            this.kind = kind;
+            this.ruleId = ruleId;
+            this.ownerQualifiedName = ownerQualifiedName;
+            this.name = name;
+            this.tag = tag;
+        }
+
+        @NotNull
+        public SinkKind getKind() {
+            return kind;
+        }
+
+        @NotNull
+        public String getRuleId() {
+            return ruleId;
+        }
+
+        /**
+         * 方法所属类、构造类或注解的 FQN
+         */
+        @NotNull
+        public String getOwnerQualifiedName() {
+            return ownerQualifiedName;
+        }
+
+        /**
+         * 方法名，或构造类/注解的 short name
+         */
+        @NotNull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 规则登记时附带的标记，用于区分同一规则下的不同 sink
+         */
+        @Nullable
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private static final class Candidates {
+        static final Candidates NONE = new Candidates(Collections.emptyList());
+
+        private final List<Sink> sinks;
+        private final Set<String> ruleIds;
+
+        Candidates(List<Sink> sinks) {
+            this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+            Set<String> ids = new HashSet<>();
+            for (Sink sink : sinks) {
+                ids.add(sink.ruleId);
+            }
+            this.ruleIds = Collections.unmodifiableSet(ids);
+        }
+    }
+
+    private final Map<SinkKind, Map<String, Candidates>> index;
+    private final Map<String, Set<String>> namesByRule;
+
+    private MoSinkCatalog(Map<SinkKind, Map<String, Candidates>> index, Map<String, Set<String>> namesByRule) {
+        this.index = index;
+        this.namesByRule = namesByRule;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 按 short name 取候选 sink
+     * @param kind SinkKind
+     * @param name 方法名 / 类名 / 注解名
+     * @return List
+     */
+    @NotNull
+    public List<Sink> getCandidates(@NotNull SinkKind kind, @Nullable String name) {
+        return getCandidateEntry(kind, name).sinks;
+    }
+
+    /**
+     * 按 short name 取候选规则
+     * @param kind SinkKind
+     * @param name 方法名 / 类名 / 注解名
+     * @return Set
+     */
+    @NotNull
+    public Set<String> getCandidateRuleIds(@NotNull SinkKind kind, @Nullable String name) {
+        return getCandidateEntry(kind, name).ruleIds;
+    }
+
+    /**
+     * 规则登记过的全部 short name
+     * @param ruleId String
+     * @return Set | null (规则未登记 sink)
+     */
+    @Nullable
+    public Set<String> getNames(@NotNull String ruleId) {
+        return namesByRule.get(ruleId);
+    }
+
+    @Nullable
+    public Sink match(@NotNull PsiMethodCallExpression methodCall, @NotNull String ruleId) {
+        List<Sink> candidates = getCandidates(SinkKind.METHOD_CALL, methodCall.getMethodExpression().getReferenceName());
+        if (!hasRule(candidates, ruleId)) {
+            return null;
+        }
+        return findOwner(candidates, ruleId, MoResolveCache.getCallTarget(methodCall).getOwnerQualifiedName());
+    }
+
+    @Nullable
+    public Sink match(@NotNull PsiNewExpression newExpression, @NotNull String ruleId) {
+        PsiJavaCodeReferenceElement classReference = newExpression.getClassReference();
+        if (classReference == null) {
+            return null;
+        }
+        List<Sink> candidates = getCandidates(SinkKind.NEW_EXPRESSION, classReference.getReferenceName());
+        if (!hasRule(candidates, ruleId)) {
+            return null;
+        }
+        return findOwner(candidates, ruleId, MoResolveCache.getCallTarget(newExpression).getOwnerQualifiedName());
+    }
+
+    @Nullable
+    public Sink match(@NotNull PsiAnnotation annotation, @NotNull String ruleId) {
+        PsiJavaCodeReferenceElement nameReference = annotation.getNameReferenceElement();
+        if (nameReference == null) {
+            return null;
+        }
+        List<Sink> candidates = getCandidates(SinkKind.ANNOTATION, nameReference.getReferenceName());
+        if (!hasRule(candidates, ruleId)) {
+            return null;
+        }
+        return findOwner(candidates, ruleId, annotation.getQualifiedName());
+    }
+
+    @NotNull
+    private Candidates getCandidateEntry(@NotNull SinkKind kind, @Nullable String name) {
+        if (name == null) {
+            return Candidates.NONE;
+        }
+        Candidates candidates = index.get(kind).get(name);
+        return candidates != null ? candidates : Candidates.NONE;
+    }
+
+    private static boolean hasRule(@NotNull List<Sink> candidates, @NotNull String ruleId) {
+        for (int i = 0, l = candidates.size(); i < l; i++) {
+            if (candidates.get(i).ruleId.equals(ruleId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static Sink findOwner(@NotNull List<Sink> candidates, @NotNull String ruleId, @Nullable String ownerQualifiedName) {
+        if (ownerQualifiedName == null) {
+            return null;
+        }
+        for (int i = 0, l = candidates.size(); i < l; i++) {
+            Sink sink = candidates.get(i);
+            if (sink.ruleId.equals(ruleId) && sink.ownerQualifiedName.equals(ownerQualifiedName)) {
+                return sink;
+            }
+        }
+        return null;
+    }
+
+    public static final class Builder {
+        private final List<Sink> sinks = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * 以 ruleId 登记 sink
+         * @param ruleId 规则 short name
+         * @return Registrar
+         */
+        @NotNull
+        public Registrar forRule(@NotNull String ruleId) {
+            return new Registrar(this, ruleId);
+        }
+
+        @NotNull
+        public MoSinkCatalog build() {
+            Map<SinkKind, Map<String, List<Sink>>> grouped = new EnumMap<>(SinkKind.class);
+            Map<String, Set<String>> names = new HashMap<>();
+            for (Sink sink : sinks) {
+                grouped.computeIfAbsent(sink.kind, k -> new HashMap<>())
+                        .computeIfAbsent(sink.name, k -> new ArrayList<>())
+                        .add(sink);
+                names.computeIfAbsent(sink.ruleId, k -> new HashSet<>()).add(sink.name);
+            }
+
+            Map<SinkKind, Map<String, Candidates>> index = new EnumMap<>(SinkKind.class);
+            for (SinkKind kind : SinkKind.values()) {
+                Map<String, Candidates> byName = new HashMap<>();
+                Map<String, List<Sink>> group = grouped.get(kind);
+                if (group != null) {
+                    group.forEach((name, list) -> byName.put(name, new Candidates(list)));
+                }
+                index.put(kind, Collections.unmodifiableMap(byName));
+            }
+            names.replaceAll((ruleId, set) -> Collections.unmodifiableSet(set));
+            return new MoSinkCatalog(Collections.unmodifiableMap(index), Collections.unmodifiableMap(names));
+        }
+
+        private void add(SinkKind kind, String ruleId, String ownerQualifiedName, String name, String tag) {
+            sinks.add(new Sink(kind, ruleId, ownerQualifiedName, name, tag));
+        }
+    }
+
+    public static final class Registrar {
+        private final Builder builder;
+        private final String ruleId;
+
+        private Registrar(Builder builder, String ruleId) {
+            this.builder = builder;
+            this.ruleId = ruleId;
+        }
+
+        @NotNull
+        public Registrar method(@NotNull String ownerQualifiedName, @NotNull String methodName) {
+            return method(ownerQualifiedName, methodName, null);
+        }
+
+        @NotNull
+        public Registrar method(@NotNull String ownerQualifiedName, @NotNull String methodName, @Nullable String tag) {
+            builder.add(SinkKind.METHOD_CALL, ruleId, ownerQualifiedName, methodName, tag);
+            return this;
+        }
+
+        @NotNull
+        public Registrar constructor(@NotNull String classQualifiedName) {
+            return constructor(classQualifiedName, null);
+        }
+
+        @NotNull
+        public Registrar constructor(@NotNull String classQualifiedName, @Nullable String tag) {
+            builder.add(SinkKind.NEW_EXPRESSION, ruleId, classQualifiedName, shortName(classQualifiedName), tag);
+            return this;
+        }
+
+        @NotNull
+        public Registrar annotation(@NotNull String annotationQualifiedName) {
+            builder.add(SinkKind.ANNOTATION, ruleId, annotationQualifiedName, shortName(annotationQualifiedName), null);
+            return this;
+        }
+
+        private static String shortName(String qualifiedName) {
+            return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.utils;
+
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiField;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 字符串拼接的一个组成部分，由 MoExpressionUtils.deconStringConcat 产生
+ *
+ * (1) CONSTANT         只被常量赋值/拼接过的局部变量，以变量名作为常量文本
+ * (2) FIELD_REFERENCE  初始值不是文本的 field，以引用文本作为常量文本
+ * (3) EXPRESSION       其他表达式 (字面量、field 的文本初始值、变量、方法调用等)，由规则自行判断
+ *
+ * 常量文本直接保存为字符串，不再为其合成 PsiLiteralExpression。
+ */
+public final class StringConcatPart {
+
+    public enum Kind {
+        CONSTANT,
+        FIELD_REFERENCE,
+        EXPRESSION
+    }
+
+    private final Kind kind;
+    private final PsiExpression expression;
+    private final String constantText;
+    private final PsiField field;
+
+    private StringConcatPart(@NotNull Kind kind, @NotNull PsiExpression expression, @Nullable String constantText, @Nullable PsiField field) {
+        this.kind = kind;
+        this.expression = expression;
+        this.constantText = constantText;
+        this.field = field;
+    }
+
+    @NotNull
+    public static StringConcatPart constant(@NotNull PsiExpression operand, @NotNull String text) {
+        return new StringConcatPart(Kind.CONSTANT, operand, text, null);
+    }
+
+    @NotNull
+    public static StringConcatPart fieldReference(@NotNull PsiExpression operand, @NotNull PsiField field, @NotNull String text) {
+        return new StringConcatPart(Kind.FIELD_REFERENCE, operand, text, field);
+    }
+
+    @NotNull
+    public static StringConcatPart expression(@NotNull PsiExpression expression) {
+        return new StringConcatPart(Kind.EXPRESSION, expression, null, null);
+    }
+
+    @NotNull
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return CONSTANT / FIELD_REFERENCE 时为拼接中的操作数，EXPRESSION 时为待分析的表达式
+     */
+    @NotNull
+    public PsiExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return CONSTANT / FIELD_REFERENCE 的常量文本，EXPRESSION 时为 null
+     */
+    @Nullable
+    public String getConstantText() {
+        return constantText;
+    }
+
+    /**
+     * @return FIELD_REFERENCE 引用的 field，其他为 null
+     */
+    @Nullable
+    public PsiField getField() {
+        return field;
+    }
+
+    public boolean isConstant() {
+        return kind != Kind.EXPRESSION;
+    }
+}
@@ -17,22 +17,23 @@ package com.immomo.momosec.lang.xml.rule.momosecurity;
 
 import com.immomo.momosec.lang.InspectionBundle;
 import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
-import com.immomo.momosec.utils.SQLi;
+import com.immomo.momosec.utils.SQLLexer;
 import com.immomo.momosec.utils.Str;
 import com.intellij.codeInspection.*;
 import com.intellij.lang.ASTFactory;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.xml.*;
 import com.intellij.xml.util.XmlUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.*;
-import java.util.regex.Matcher;
-
-import static com.immomo.momosec.utils.SQLi.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * 1004: Mybatis XML SQL注入漏洞
@@ -51,6 +52,11 @@ public class MybatisXmlSQLi extends MomoBaseLocalInspectionTool {
     @NotNull
     @Override
     public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
+        // 非 Mapper 的 XML (pom、Spring 配置、日志配置等) 不必逐个访问文本节点
+        if (!isMybatisMapper(holder.getFile())) {
+            return PsiElementVisitor.EMPTY_VISITOR;
+        }
+
         return new XmlElementVisitor() {
             @Override
             public void visitXmlText(XmlText text) {
@@ -60,32 +66,45 @@ public class MybatisXmlSQLi extends MomoBaseLocalInspectionTool {
                     return ;
                 }
 
-                XmlDocument document = XmlUtil.getContainingFile(text).getDocument();
-                if ( document == null ) { return ; }
-                String dtd = XmlUtil.getDtdUri(document);
-                if (dtd == null || !(dtd.contains("mybatis.org") && dtd.contains("mapper.dtd"))) { return ; }
-
                 String _text = text.getValue();
                 if (_text.isEmpty() || !_text.contains("${")) { return ; }
 
-                Matcher m = dollarVarPattern.matcher(_text);
-                int offset = 0;
-                while (m.find(offset)) {
-                    String prefix = _text.substring(0, m.start());
-                    String var    = m.group(1);
-                    String suffix = _text.substring(m.end());
-                    if (!ignorePosition(prefix, var, suffix) && SQLi.hasVulOnSQLJoinStr(prefix, var, suffix)) {
+                for (SQLLexer.Hole hole : SQLLexer.lexDollarVars(_text)) {
+                    if (!ignorePosition(hole) && hole.isVulnerable()) {
                         holder.registerProblem(text, MESSAGE, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, mybatisXmlSQLiQuickFix);
                         break;
                     }
-                    offset = m.end();
                 }
             }
         };
     }
 
-    private static boolean ignorePosition(String prefix, String var, String suffix) {
-        return MybatisXmlSQLi.ignoreVarName.contains(var) || var.startsWith("ew.");
+    /**
+     * 判断文件是否为 Mybatis Mapper，即 DOCTYPE 为 mybatis.org 的 mapper.dtd，结果按文件缓存至文件修改
+     * @param file PsiFile
+     * @return boolean
+     */
+    public static boolean isMybatisMapper(@NotNull PsiFile file) {
+        if (!(file instanceof XmlFile)) {
+            return false;
+        }
+        XmlFile xmlFile = (XmlFile)file;
+        return CachedValuesManager.getCachedValue(xmlFile, () ->
+                CachedValueProvider.Result.create(computeIsMybatisMapper(xmlFile), xmlFile));
+    }
+
+    private static boolean computeIsMybatisMapper(@NotNull XmlFile file) {
+        XmlDocument document = file.getDocument();
+        if (document == null) {
+            return false;
+        }
+        String dtd = XmlUtil.getDtdUri(document);
+        return dtd != null && dtd.contains("mybatis.org") && dtd.contains("mapper.dtd");
+    }
+
+    private static boolean ignorePosition(SQLLexer.Hole hole) {
+        String var = hole.getVar();
+        return var != null && (MybatisXmlSQLi.ignoreVarName.contains(var) || var.startsWith("ew."));
     }
 
     public static class MybatisXmlSQLiQuickFix implements LocalQuickFix {
@@ -103,18 +122,16 @@ public class MybatisXmlSQLi extends MomoBaseLocalInspectionTool {
 
         private void fixXmlText(XmlText xmlText, int offset) {
             String v = xmlText.getValue();
-            Matcher m = dollarVarPattern.matcher(v);
-            while(m.find(offset)) {
-                String prefix = v.substring(0, m.start());
-                String suffix = v.substring(m.end());
-                String var    = m.group(1);
-
-                if (ignorePosition(prefix, var, suffix) || !SQLi.hasVulOnSQLJoinStr(prefix, var, suffix)) {
-                    offset = m.end();
+            for (SQLLexer.Hole hole : SQLLexer.lexDollarVars(v)) {
+                if (hole.getStart() < offset || ignorePosition(hole) || !hole.isVulnerable()) {
                     continue;
                 }
 
-                if (whereInEndPattern.matcher(prefix).find()) {
+                String prefix = v.substring(0, hole.getStart());
+                String suffix = v.substring(hole.getEnd());
+                String var    = hole.getVar();
+
+                if (hole.getContext() == SQLLexer.Context.IN_LIST) {
                     // where in 型
                     if (Str.rtrim(prefix).endsWith("(") && Str.ltrim(suffix).startsWith(")")) {
                         prefix = Str.rtrim(prefix);
@@ -137,7 +154,7 @@ public class MybatisXmlSQLi extends MomoBaseLocalInspectionTool {
                         xmlText.setValue(prefix + lastWhiteSpace.getText());
 
                         // 2.向后添加foreach标签块
-                        XmlTag foreach = createForeachXmlTag(m.group(1), parent, lastWhiteSpace);
+                        XmlTag foreach = createForeachXmlTag(var, parent, lastWhiteSpace);
                         parent.addAfter(foreach, xmlText);
 
                         // 3. 补齐尾部文本
@@ -159,11 +176,11 @@ public class MybatisXmlSQLi extends MomoBaseLocalInspectionTool {
                             fixXmlText((XmlText)xmlTagChildren[xmlTagChildren.length - 1], 0);
                         }
                     } else {
-                        fixXmlText(xmlText, m.end());
+                        fixXmlText(xmlText, hole.getEnd());
                     }
-                } else if (likeEndPatterh.matcher(prefix).find()) {
+                } else if (hole.getContext() == SQLLexer.Context.LIKE_PATTERN) {
                     // like 型
-                    String concat = " CONCAT('%', " + m.group().replace('$', '#') + ", '%') ";
+                    String concat = " CONCAT('%', #{" + var + "}, '%') ";
                     prefix = StringUtils.stripEnd(prefix, "'\"% \n\r");
                     suffix = StringUtils.stripStart(suffix, "'\"% ");
 
@@ -171,12 +188,14 @@ public class MybatisXmlSQLi extends MomoBaseLocalInspectionTool {
                     xmlText.insertText(concat + suffix, prefix.length());
                     fixXmlText(xmlText, prefix.length() + concat.length());
                 } else {
-                    if (prefix.trim().endsWith("'") || prefix.trim().endsWith("\"")) {
-                        prefix = Str.rtrim(prefix).substring(0, prefix.length()-1);
-                        suffix = Str.ltrim(suffix).substring(1);
+                    if (hole.getQuoteStart() != -1) {
+                        // '${var}' 去掉引号
+                        prefix = v.substring(0, hole.getQuoteStart());
+                        suffix = v.substring(hole.getQuoteEnd());
                     }
-                    xmlText.setValue(prefix + "#{" + m.group(1) + "}" + suffix);
-                    fixXmlText(xmlText, prefix.length() + m.group().length());
+                    String hashtag = "#{" + var + "}";
+                    xmlText.setValue(prefix + hashtag + suffix);
+                    fixXmlText(xmlText, prefix.length() + hashtag.length());
                 }
                 break;
             }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.metrics;
+
+import com.google.gson.stream.JsonWriter;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 规则级性能计数
+ *
+ * 按规则统计 visitor 回调次数、resolve 次数、方法摘要 (MoMethodSummary) 建立次数、正则分析次数、上报问题数与累计耗时。
+ * 默认关闭，可通过 -Dmomosec.metrics=true、MomoSec Metrics 工具窗口或 momosec-scan --metrics 开启。
+ * 同一个 visitor 包装也为 MomoSecWatchdog 记录单个文件内各规则、各操作的耗时。
+ *
+ * 计数与 watchdog 均关闭时 wrap 直接返回原 visitor，startOperation 只读取一次 volatile 变量，不产生额外开销；
+ * 开关在下一次构建 visitor (即下一次高亮/扫描) 时生效。
+ */
+public final class MomoSecMetrics {
+    public static final String ENABLED_PROPERTY = "momosec.metrics";
+
+    /**
+     * 规则回调中需要单独计时的操作
+     */
+    public enum Operation {
+        RESOLVE,
+        /** 顶层的方法摘要建立，包括其间嵌套建立的被调方法摘要 */
+        METHOD_SUMMARY,
+        /** RegexDos 的正则分析与动态验证 */
+        REGEX
+    }
+
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private static final ConcurrentMap<String, RuleMetrics> rules = new ConcurrentHashMap<>();
+    // 当前线程正在执行回调的 visitor，用于把操作耗时归到规则与文件上
+    private static final ThreadLocal<MeteredVisitor> current = new ThreadLocal<>();
+
+    private MomoSecMetrics() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        MomoSecMetrics.enabled = enabled;
+    }
+
+    public static void reset() {
+        rules.clear();
+    }
+
+    /**
+     * 计数开启时，返回统计 ruleId 回调的 visitor
+     * @param ruleId 规则 short name
+     * @param visitor 规则 visitor
+     * @param holder 规则写入问题的 ProblemsHolder
+     * @return PsiElementVisitor
+     */
+    @NotNull
+    public static PsiElementVisitor wrap(@NotNull String ruleId, @NotNull PsiElementVisitor visitor, @NotNull ProblemsHolder holder) {
+        return wrap(ruleId, visitor, holder, null);
+    }
+
+    /**
+     * 计数开启或 record 非空时，返回统计 ruleId 回调的 visitor
+     * @param ruleId 规则 short name
+     * @param visitor 规则 visitor
+     * @param holder 规则写入问题的 ProblemsHolder
+     * @param record 当前文件的 watchdog 记录，null 表示不记录
+     * @return PsiElementVisitor
+     */
+    @NotNull
+    public static PsiElementVisitor wrap(@NotNull String ruleId, @NotNull PsiElementVisitor visitor, @NotNull ProblemsHolder holder,
+                                         @Nullable MomoSecWatchdog.FileRecord record) {
+        if (visitor == PsiElementVisitor.EMPTY_VISITOR || visitor instanceof MeteredVisitor) {
+            return visitor;
+        }
+        RuleMetrics metrics = enabled ? rules.computeIfAbsent(ruleId, RuleMetrics::new) : null;
+        if (metrics == null && record == null) {
+            return visitor;
+        }
+        return new MeteredVisitor(metrics, record, record != null ? record.getRuleNanos(ruleId) : null, visitor, holder);
+    }
+
+    /**
+     * 取被 wrap 的原 visitor
+     * @param visitor PsiElementVisitor
+     * @return PsiElementVisitor
+     */
+    @NotNull
+    public static PsiElementVisitor unwrap(@NotNull PsiElementVisitor visitor) {
+        return visitor instanceof MeteredVisitor ? ((MeteredVisitor)visitor).delegate : visitor;
+    }
+
+    /**
+     * 操作开始，与 endOperation 成对使用
+     * <pre>
+     * long start = MomoSecMetrics.startOperation();
+     * try { ... } finally { MomoSecMetrics.endOperation(Operation.RESOLVE, start); }
+     * </pre>
+     * @return 开始时间，不在被统计的回调中时为 0
+     */
+    public static long startOperation() {
+        if (!enabled && !MomoSecWatchdog.isEnabled()) {
+            return 0L;
+        }
+        return current.get() != null ? System.nanoTime() : 0L;
+    }
+
+    public static void endOperation(@NotNull Operation operation, long start) {
+        if (start == 0L) {
+            return ;
+        }
+        MeteredVisitor visitor = current.get();
+        if (visitor == null) {
+            return ;
+        }
+        if (visitor.metrics != null) {
+            visitor.metrics.operations[operation.ordinal()].increment();
+        }
+        if (visitor.record != null) {
+            visitor.record.addOperationNanos(operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 当前计数快照，按累计耗时降序
+     * @return List
+     */
+    @NotNull
+    public static List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>(rules.size());
+        for (RuleMetrics metrics : rules.values()) {
+            snapshots.add(new Snapshot(metrics));
+        }
+        snapshots.sort(Comparator.comparingLong(Snapshot::getNanos).reversed().thenComparing(Snapshot::getRuleId));
+        return snapshots;
+    }
+
+    /**
+     * 以 JSON 输出当前计数
+     * {"rules": [{"ruleId": "...", "visits": 0, "resolves": 0, "methodSummaryBuilds": 0, "regexes": 0, "problems": 0, "nanos": 0}, ...]}
+     * @param out Writer
+     * @throws IOException 写入失败
+     */
+    public static void writeJson(@NotNull Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("rules").beginArray();
+        for (Snapshot snapshot : snapshot()) {
+            json.beginObject();
+            json.name("ruleId").value(snapshot.getRuleId());
+            json.name("visits").value(snapshot.getVisits());
+            json.name("resolves").value(snapshot.getResolves());
+            json.name("methodSummaryBuilds").value(snapshot.getMethodSummaryBuilds());
+            json.name("regexes").value(snapshot.getRegexes());
+            json.name("problems").value(snapshot.getProblems());
+            json.name("nanos").value(snapshot.getNanos());
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    private static final class RuleMetrics {
+        private final String ruleId;
+        private final LongAdder visits = new LongAdder();
+        private final LongAdder[] operations = new LongAdder[Operation.values().length];
+        private final LongAdder problems = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private RuleMetrics(String ruleId) {
+            this.ruleId = ruleId;
+            for (int i = 0; i < operations.length; i++) {
+                operations[i] = new LongAdder();
+            }
+        }
+    }
+
+    public static final class Snapshot {
+        private final String ruleId;
+        private final long visits;
+        private final long resolves;
+        private final long methodSummaryBuilds;
+        private final long regexes;
+        private final long problems;
+        private final long nanos;
+
+        private Snapshot(RuleMetrics metrics) {
+            this.ruleId = metrics.ruleId;
+            this.visits = metrics.visits.sum();
+            this.resolves = metrics.operations[Operation.RESOLVE.ordinal()].sum();
+            this.methodSummaryBuilds = metrics.operations[Operation.METHOD_SUMMARY.ordinal()].sum();
+            this.regexes = metrics.operations[Operation.REGEX.ordinal()].sum();
+            this.problems = metrics.problems.sum();
+            this.nanos = metrics.nanos.sum();
+        }
+
+        @NotNull
+        public String getRuleId() {
+            return ruleId;
+        }
+
+        public long getVisits() {
+            return visits;
+        }
+
+        public long getResolves() {
+            return resolves;
+        }
+
+        public long getMethodSummaryBuilds() {
+            return methodSummaryBuilds;
+        }
+
+        public long getRegexes() {
+            return regexes;
+        }
+
+        public long getProblems() {
+            return problems;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * 统计回调的 visitor，节点经 element.accept 交给原 visitor 分发到对应的 visitXxx
+     */
+    private static final class MeteredVisitor extends PsiElementVisitor {
+        private final RuleMetrics metrics;
+        private final MomoSecWatchdog.FileRecord record;
+        private final LongAdder ruleNanos;
+        private final PsiElementVisitor delegate;
+        private final ProblemsHolder holder;
+
+        private MeteredVisitor(@Nullable RuleMetrics metrics, @Nullable MomoSecWatchdog.FileRecord record, @Nullable LongAdder ruleNanos,
+                               @NotNull PsiElementVisitor delegate, @NotNull ProblemsHolder holder) {
+            this.metrics = metrics;
+            this.record = record;
+            this.ruleNanos = ruleNanos;
+            this.delegate = delegate;
+            this.holder = holder;
+        }
+
+        @Override
+        public void visitElement(PsiElement element) {
+            MeteredVisitor previous = current.get();
+            current.set(this);
+            int problemCount = metrics != null ? holder.getResultCount() : 0;
+            long start = System.nanoTime();
+            try {
+                element.accept(delegate);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                if (metrics != null) {
+                    metrics.nanos.add(elapsed);
+                    metrics.visits.increment();
+                    metrics.problems.add(holder.getResultCount() - problemCount);
+                }
+                if (ruleNanos != null) {
+                    ruleNanos.add(elapsed);
+                }
+                current.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.metrics;
+
+import com.immomo.momosec.lang.InspectionBundle;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.ui.table.JBTable;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MomoSec Metrics 工具窗口
+ *
+ * 展示 MomoSecMetrics 的规则计数，提供开关、清零与 JSON 导出
+ */
+public class MomoSecMetricsToolWindowFactory implements ToolWindowFactory, DumbAware {
+    private static final int REFRESH_INTERVAL_MS = 2000;
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        MetricsTableModel model = new MetricsTableModel();
+
+        JBCheckBox enabled = new JBCheckBox(InspectionBundle.message("momosec.metrics.enabled"), MomoSecMetrics.isEnabled());
+        enabled.addActionListener(e -> {
+            MomoSecMetrics.setEnabled(enabled.isSelected());
+            // 重新高亮，使开关对已打开的文件生效
+            DaemonCodeAnalyzer.getInstance(project).restart();
+        });
+
+        JButton reset = new JButton(InspectionBundle.message("momosec.metrics.reset"));
+        reset.addActionListener(e -> {
+            MomoSecMetrics.reset();
+            model.refresh();
+        });
+
+        JButton export = new JButton(InspectionBundle.message("momosec.metrics.export"));
+        export.addActionListener(e -> exportJson(project));
+
+        JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        toolbar.add(enabled);
+        toolbar.add(reset);
+        toolbar.add(export);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(toolbar, BorderLayout.NORTH);
+        panel.add(new JBScrollPane(new JBTable(model)), BorderLayout.CENTER);
+
+        Timer timer = new Timer(REFRESH_INTERVAL_MS, e -> {
+            enabled.setSelected(MomoSecMetrics.isEnabled());
+            if (panel.isShowing()) {
+                model.refresh();
+            }
+        });
+        timer.start();
+
+        Content content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false);
+        content.setDisposer(timer::stop);
+        toolWindow.getContentManager().addContent(content);
+    }
+
+    private static void exportJson(@NotNull Project project) {
+        String title = InspectionBundle.message("momosec.metrics.export");
+        VirtualFileWrapper target = FileChooserFactory.getInstance()
+                .createSaveFileDialog(new FileSaverDescriptor(title, "", "json"), project)
+                .save(null, "momosec-metrics.json");
+        if (target == null) {
+            return ;
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(target.getFile()), StandardCharsets.UTF_8)) {
+            MomoSecMetrics.writeJson(out);
+        } catch (IOException ex) {
+            Messages.showErrorDialog(project, ex.getMessage(), title);
+        }
+    }
+
+    private static class MetricsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {
+                "Rule", "Visits", "Resolves", "MethodSummaryBuilds", "Regexes", "Problems", "Time (ms)"
+        };
+
+        private List<MomoSecMetrics.Snapshot> rows = Collections.emptyList();
+
+        void refresh() {
+            rows = MomoSecMetrics.snapshot();
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? String.class : Long.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            MomoSecMetrics.Snapshot snapshot = rows.get(row);
+            switch (column) {
+                case 0:  return snapshot.getRuleId();
+                case 1:  return snapshot.getVisits();
+                case 2:  return snapshot.getResolves();
+                case 3:  return snapshot.getMethodSummaryBuilds();
+                case 4:  return snapshot.getRegexes();
+                case 5:  return snapshot.getProblems();
+                default: return snapshot.getNanos() / 1_000_000;
+            }
+        }
+    }
+}
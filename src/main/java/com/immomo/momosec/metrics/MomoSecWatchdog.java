@@ -0,0 +1,309 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.metrics;
+
+import com.immomo.momosec.lang.MomoBaseLocalInspectionTool;
+import com.intellij.codeInsight.daemon.HighlightDisplayKey;
+import com.intellij.codeInspection.LocalInspectionToolSession;
+import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.InspectionToolWrapper;
+import com.intellij.codeInspection.ex.LocalInspectionToolWrapper;
+import com.intellij.lang.Language;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * 慢文件 watchdog
+ *
+ * 单个文件上 MomoSec 规则回调的累计耗时超过预算时，向 {idea log dir}/momosec-watchdog.log 记录
+ * 文件路径、大小、最慢的三条规则以及耗时最多的操作 (resolve / 方法摘要 / 正则)。
+ * MomoSecEngine 开启时另记录其分发遍历的耗时，以及被接管规则在 inspectionFinished 中等待该遍历的累计时间。
+ *
+ * 默认关闭，由 -Dmomosec.watchdog.budget.ms 指定预算 (如 200) 后开启，不大于 0 时关闭。
+ * 关闭时不为文件建立记录，规则 visitor 不被包装。
+ * 日志按 1 MB 滚动，保留 5 个文件。
+ *
+ * 一次高亮中各规则共享同一个 LocalInspectionToolSession，记录挂在 session 上。
+ * 规则并行执行，记录建立时按当前 Inspection Profile 取得文件上启用的 MomoSec 规则数，
+ * 每条规则结束 (inspectionFinished) 或因 visitor 为空被跳过时计数减一，减到 0 时判断一次是否超出预算。
+ * 高亮使用的 profile 与当前 profile 不同时计数可能对不上，此时不记录该文件。
+ */
+public final class MomoSecWatchdog {
+    private static final Logger LOG = Logger.getInstance(MomoSecWatchdog.class);
+
+    public static final String BUDGET_PROPERTY = "momosec.watchdog.budget.ms";
+    public static final String LOG_FILE_NAME = "momosec-watchdog.log";
+    private static final long DEFAULT_BUDGET_MS = 0;
+    private static final int LOG_LIMIT_BYTES = 1024 * 1024;
+    private static final int LOG_COUNT = 5;
+    private static final int TOP_RULES = 3;
+
+    private static final long budgetNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET_MS));
+
+    private static final Key<FileRecord> RECORD_KEY = Key.create("MomoSec.WatchdogRecord");
+
+    private static volatile java.util.logging.Logger watchdogLogger = null;
+
+    private MomoSecWatchdog() {}
+
+    public static boolean isEnabled() {
+        return budgetNanos > 0;
+    }
+
+    /**
+     * 取 session 对应文件的记录，watchdog 关闭时返回 null
+     * @param session LocalInspectionToolSession
+     * @return FileRecord
+     */
+    @Nullable
+    public static FileRecord getRecord(@NotNull LocalInspectionToolSession session) {
+        if (!isEnabled()) {
+            return null;
+        }
+        FileRecord record = session.getUserData(RECORD_KEY);
+        if (record == null) {
+            PsiFile file = session.getFile();
+            record = session.putUserDataIfAbsent(RECORD_KEY, new FileRecord(file, countRules(file)));
+        }
+        return record;
+    }
+
+    /**
+     * 规则在 session 上结束
+     * @param session LocalInspectionToolSession
+     */
+    public static void inspectionFinished(@NotNull LocalInspectionToolSession session) {
+        FileRecord record = getRecord(session);
+        if (record != null && record.remainingRules.decrementAndGet() == 0) {
+            check(record);
+        }
+    }
+
+    /**
+     * 规则的 visitor 为空，不会被调用 inspectionStarted / inspectionFinished
+     * @param session LocalInspectionToolSession
+     */
+    public static void inspectionSkipped(@NotNull LocalInspectionToolSession session) {
+        inspectionFinished(session);
+    }
+
+    /**
+     * 文件上启用的 MomoSec 规则数 (含 MomoSecEngine)
+     */
+    private static int countRules(@NotNull PsiFile file) {
+        InspectionProfileImpl profile = InspectionProjectProfileManager.getInstance(file.getProject()).getCurrentProfile();
+        int count = 0;
+        for (InspectionToolWrapper<?, ?> wrapper : profile.getInspectionTools(file)) {
+            if (!(wrapper instanceof LocalInspectionToolWrapper) || !isApplicable(wrapper, file)) {
+                continue;
+            }
+            HighlightDisplayKey key = HighlightDisplayKey.find(wrapper.getShortName());
+            if (key != null && profile.isToolEnabled(key, file) && wrapper.getTool() instanceof MomoBaseLocalInspectionTool) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isApplicable(@NotNull InspectionToolWrapper<?, ?> wrapper, @NotNull PsiFile file) {
+        String languageId = wrapper.getLanguage();
+        Language language = languageId != null ? Language.findLanguageByID(languageId) : null;
+        if (language == null) {
+            return true;
+        }
+        for (Language fileLanguage : file.getViewProvider().getLanguages()) {
+            if (fileLanguage.isKindOf(language)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void check(@NotNull FileRecord record) {
+        long total = record.getTotalNanos();
+        if (total <= budgetNanos) {
+            return ;
+        }
+        java.util.logging.Logger logger = getWatchdogLogger();
+        if (logger != null) {
+            logger.info(record.format(total));
+        }
+    }
+
+    @Nullable
+    private static java.util.logging.Logger getWatchdogLogger() {
+        if (watchdogLogger == null) {
+            synchronized (MomoSecWatchdog.class) {
+                if (watchdogLogger == null) {
+                    watchdogLogger = createWatchdogLogger();
+                }
+            }
+        }
+        return watchdogLogger;
+    }
+
+    @Nullable
+    private static java.util.logging.Logger createWatchdogLogger() {
+        java.util.logging.Logger logger = java.util.logging.Logger.getLogger("momosec.watchdog");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        try {
+            String pattern = new File(PathManager.getLogPath(), LOG_FILE_NAME).getPath() + ".%g";
+            FileHandler handler = new FileHandler(pattern, LOG_LIMIT_BYTES, LOG_COUNT, true);
+            handler.setEncoding("UTF-8");
+            handler.setFormatter(new LineFormatter());
+            logger.addHandler(handler);
+        } catch (IOException e) {
+            LOG.warn("Failed to open MomoSec watchdog log", e);
+        }
+        return logger;
+    }
+
+    /**
+     * 单个文件一次分析的耗时记录
+     */
+    public static final class FileRecord {
+        private final PsiFile file;
+        private final ConcurrentMap<String, LongAdder> ruleNanos = new ConcurrentHashMap<>();
+        private final LongAdder[] operationNanos = new LongAdder[MomoSecMetrics.Operation.values().length];
+        private final LongAdder engineWalkNanos = new LongAdder();
+        private final LongAdder engineWaitNanos = new LongAdder();
+        private final AtomicInteger remainingRules;
+
+        FileRecord(@NotNull PsiFile file, int ruleCount) {
+            this.file = file;
+            this.remainingRules = new AtomicInteger(ruleCount);
+            for (int i = 0; i < operationNanos.length; i++) {
+                operationNanos[i] = new LongAdder();
+            }
+        }
+
+        @NotNull
+        LongAdder getRuleNanos(@NotNull String ruleId) {
+            return ruleNanos.computeIfAbsent(ruleId, k -> new LongAdder());
+        }
+
+        void addOperationNanos(@NotNull MomoSecMetrics.Operation operation, long nanos) {
+            operationNanos[operation.ordinal()].add(nanos);
+        }
+
+        /**
+         * MomoSecEngine 执行一次分发遍历的耗时
+         * @param nanos long
+         */
+        public void addEngineWalkNanos(long nanos) {
+            engineWalkNanos.add(nanos);
+        }
+
+        /**
+         * 被接管的规则等待 MomoSecEngine 分发遍历结束的时间
+         * @param nanos long
+         */
+        public void addEngineWaitNanos(long nanos) {
+            engineWaitNanos.add(nanos);
+        }
+
+        long getTotalNanos() {
+            long total = 0;
+            for (LongAdder nanos : ruleNanos.values()) {
+                total += nanos.sum();
+            }
+            return total;
+        }
+
+        /**
+         * path=... size=... total=...ms top=[RuleA 120ms, RuleB 40ms, RuleC 3ms] dominant=METHOD_SUMMARY 95ms [engine=walk 130ms wait 900ms]
+         */
+        @NotNull
+        String format(long totalNanos) {
+            List<Map.Entry<String, Long>> rules = new ArrayList<>();
+            for (Map.Entry<String, LongAdder> entry : ruleNanos.entrySet()) {
+                rules.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()));
+            }
+            rules.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+            StringBuilder sb = new StringBuilder();
+            VirtualFile virtualFile = file.getVirtualFile();
+            sb.append("path=").append(virtualFile != null ? virtualFile.getPath() : file.getName());
+            sb.append(" size=").append(file.getTextLength());
+            sb.append(" total=").append(toMillis(totalNanos)).append("ms");
+
+            sb.append(" top=[");
+            for (int i = 0; i < rules.size() && i < TOP_RULES; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(rules.get(i).getKey()).append(' ').append(toMillis(rules.get(i).getValue())).append("ms");
+            }
+            sb.append("]");
+
+            MomoSecMetrics.Operation dominant = null;
+            long dominantNanos = 0;
+            for (MomoSecMetrics.Operation operation : MomoSecMetrics.Operation.values()) {
+                long nanos = operationNanos[operation.ordinal()].sum();
+                if (nanos > dominantNanos) {
+                    dominant = operation;
+                    dominantNanos = nanos;
+                }
+            }
+            sb.append(" dominant=");
+            if (dominant != null) {
+                sb.append(dominant).append(' ').append(toMillis(dominantNanos)).append("ms");
+            } else {
+                sb.append("NONE");
+            }
+
+            long walkNanos = engineWalkNanos.sum();
+            if (walkNanos > 0) {
+                sb.append(" engine=walk ").append(toMillis(walkNanos)).append("ms");
+                sb.append(" wait ").append(toMillis(engineWaitNanos.sum())).append("ms");
+            }
+            return sb.toString();
+        }
+
+        private static long toMillis(long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+
+    private static class LineFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS").format(new Date(record.getMillis()))
+                    + " " + record.getMessage() + System.lineSeparator();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 流式 MurmurHash3 x86 32-bit
+ *
+ * 结果与 commons-codec 1.13 的 MurmurHash3.hash32(String) 完全一致，包括：
+ * (1) 默认 seed 104729
+ * (2) 尾部 1~3 字节未做 0xff 掩码 (commons-codec 的已知缺陷，签名需保持兼容)
+ * (3) 按 UTF-8 编码，孤立的代理字符编码为 '?'，与 String#getBytes(UTF_8) 相同
+ *
+ * 字符逐个编码并入 hash，不生成中间字符串与 byte[]。
+ */
+public final class Murmur3Hasher {
+    public static final int DEFAULT_SEED = 104729;
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+    private static final int R1 = 15;
+    private static final int R2 = 13;
+    private static final int M = 5;
+    private static final int N = 0xe6546b64;
+
+    private int hash;
+    // 未满 4 字节的块，小端序
+    private int block = 0;
+    private int blockLength = 0;
+    private int length = 0;
+    // 等待配对的高位代理字符，0 表示没有
+    private char pendingHighSurrogate = 0;
+
+    public Murmur3Hasher() {
+        this(DEFAULT_SEED);
+    }
+
+    public Murmur3Hasher(int seed) {
+        this.hash = seed;
+    }
+
+    /**
+     * 追加字符串，null 按 "null" 处理 (与 String.format("%s") 一致)
+     */
+    @NotNull
+    public Murmur3Hasher update(@Nullable CharSequence s) {
+        if (s == null) {
+            return update("null", 0, 4);
+        }
+        return update(s, 0, s.length());
+    }
+
+    @NotNull
+    public Murmur3Hasher update(@NotNull CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            update(s.charAt(i));
+        }
+        return this;
+    }
+
+    @NotNull
+    public Murmur3Hasher update(char c) {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                updateByte(0xf0 | (cp >>> 18));
+                updateByte(0x80 | ((cp >>> 12) & 0x3f));
+                updateByte(0x80 | ((cp >>> 6) & 0x3f));
+                updateByte(0x80 | (cp & 0x3f));
+                return this;
+            }
+            updateByte('?');
+        }
+
+        if (c < 0x80) {
+            updateByte(c);
+        } else if (c < 0x800) {
+            updateByte(0xc0 | (c >>> 6));
+            updateByte(0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            updateByte('?');
+        } else {
+            updateByte(0xe0 | (c >>> 12));
+            updateByte(0x80 | ((c >>> 6) & 0x3f));
+            updateByte(0x80 | (c & 0x3f));
+        }
+        return this;
+    }
+
+    private void updateByte(int b) {
+        block |= (b & 0xff) << (blockLength << 3);
+        length++;
+        if (++blockLength == 4) {
+            int k = block;
+            k *= C1;
+            k = Integer.rotateLeft(k, R1);
+            k *= C2;
+            hash ^= k;
+            hash = Integer.rotateLeft(hash, R2) * M + N;
+            block = 0;
+            blockLength = 0;
+        }
+    }
+
+    /**
+     * 结束计算，调用后实例不应再使用
+     * @return hash
+     */
+    public int finish() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            updateByte('?');
+        }
+
+        int h = hash;
+        if (blockLength > 0) {
+            // 与 commons-codec 1.13 一致: 尾部字节按有符号 byte 参与运算
+            int k = 0;
+            switch (blockLength) {
+                case 3:
+                    k ^= ((byte)(block >>> 16)) << 16;
+                case 2:
+                    k ^= ((byte)(block >>> 8)) << 8;
+                case 1:
+                    k ^= (byte)block;
+                    k *= C1;
+                    k = Integer.rotateLeft(k, R1);
+                    k *= C2;
+                    h ^= k;
+            }
+        }
+
+        h ^= length;
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return h;
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SQL 模板词法分析
+ *
+ * 从头到尾扫描一次 SQL 模板，为其中每个拼接点 (${var}、%s、非常量的拼接表达式) 给出：
+ * (1) 是否有SQL注入风险，与 SQLi.hasVulOnSQLJoinStr 对拼接点前后内容的判断一致
+ * (2) 所处的语法位置 Context，供一键修复选择修复方式
+ *
+ * 拼接点自身的文本 (如 "${id}"、" ? ") 视为模板内容参与分词，与原先截取前缀再判断的方式保持一致。
+ */
+public final class SQLLexer {
+
+    /**
+     * 拼接点所处的语法位置
+     */
+    public enum Context {
+        // 表名、列名等标识符，如 select ${field} from ${table}
+        IDENTIFIER,
+        // 比较运算符之后或 values 中的值，如 where id = ${id}
+        VALUE,
+        // in 之后的列表，如 where id in (${ids})
+        IN_LIST,
+        // like 之后引号内的匹配串，如 like '%${name}%'
+        LIKE_PATTERN,
+        // order by 之后，如 order by ${field}
+        ORDER_BY,
+        // limit / offset 之后，如 limit ${size}
+        LIMIT,
+        // 其他引号内的字符串，如 where name = '${name}'
+        QUOTED
+    }
+
+    /**
+     * 拼接点
+     */
+    public static final class Hole {
+        private final int start;
+        private final int end;
+        private final String var;
+        private final Context context;
+        private final boolean vulnerable;
+        private final int quoteStart;
+        private final int quoteEnd;
+
+        private Hole(int start, int end, @Nullable String var, @NotNull Context context, boolean vulnerable,
+                     int quoteStart, int quoteEnd) {
+            this.start = start;
+            this.end = end;
+            this.var = var;
+            this.context = context;
+            this.vulnerable = vulnerable;
+            this.quoteStart = quoteStart;
+            this.quoteEnd = quoteEnd;
+        }
+
+        /**
+         * @return 拼接点在模板中的起始位置
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return 拼接点在模板中的结束位置 (不含)
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return ${var} 中的变量名，其他拼接点为 null
+         */
+        @Nullable
+        public String getVar() {
+            return var;
+        }
+
+        @NotNull
+        public Context getContext() {
+            return context;
+        }
+
+        public boolean isVulnerable() {
+            return vulnerable;
+        }
+
+        /**
+         * @return 拼接点被一对引号完整包裹 (如 '${name}') 时为左引号的位置，否则为 -1
+         */
+        public int getQuoteStart() {
+            return quoteStart;
+        }
+
+        /**
+         * @return 拼接点被一对引号完整包裹时为右引号之后的位置，否则为 -1
+         */
+        public int getQuoteEnd() {
+            return quoteEnd;
+        }
+
+        @Override
+        public String toString() {
+            return "Hole{" + start + ", " + end + ", " + var + ", " + context + ", " + vulnerable + "}";
+        }
+    }
+
+    /**
+     * 由常量片段与拼接点组装的 SQL 模板
+     */
+    public static final class Template {
+        private final StringBuilder text = new StringBuilder();
+        private int[] bounds = new int[8];
+        private int count = 0;
+
+        @NotNull
+        public Template append(@NotNull CharSequence s) {
+            text.append(s);
+            return this;
+        }
+
+        @NotNull
+        public Template append(@NotNull CharSequence s, int start, int end) {
+            text.append(s, start, end);
+            return this;
+        }
+
+        /**
+         * 追加拼接点
+         * @param holeText 拼接点在模板中的文本
+         * @return Template
+         */
+        @NotNull
+        public Template appendHole(@NotNull CharSequence holeText) {
+            if (count * 2 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count * 2] = text.length();
+            text.append(holeText);
+            bounds[count * 2 + 1] = text.length();
+            count++;
+            return this;
+        }
+
+        public int length() {
+            return text.length();
+        }
+
+        public int getHoleCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+    private static final String[] DECISIVE_KEYWORDS = {
+            "where", "set", "values", "from", "into", "join", "select", "update"
+    };
+    private static final String[] CLAUSE_RESET_KEYWORDS = {
+            "select", "from", "where", "set", "join", "on", "and", "or", "group", "having",
+            "union", "into", "update", "delete", "insert"
+    };
+
+    private static final int CLAUSE_NONE = 0;
+    private static final int CLAUSE_ORDER = 1;      // 已读到 order，等待 by
+    private static final int CLAUSE_ORDER_BY = 2;
+    private static final int CLAUSE_LIMIT = 3;
+    private static final int CLAUSE_VALUES = 4;
+
+    private SQLLexer() {}
+
+    /**
+     * 以 ${var} 为拼接点分析 Mybatis SQL，判断风险时考虑拼接点之后的内容 (如 where ${field} = 1)
+     * @param sql CharSequence
+     * @return List
+     */
+    @NotNull
+    public static List<Hole> lexDollarVars(@NotNull CharSequence sql) {
+        return lex(sql, SQLi.dollarVarPattern, true, true);
+    }
+
+    /**
+     * 以 %s 为拼接点分析格式化字符串，判断风险时不考虑拼接点之后的内容
+     * @param sql CharSequence
+     * @return List
+     */
+    @NotNull
+    public static List<Hole> lexPlaceholders(@NotNull CharSequence sql) {
+        return lex(sql, SQLi.placeholderPattern, false, false);
+    }
+
+    /**
+     * 分析组装好的模板，判断风险时不考虑拼接点之后的内容
+     * @param template Template
+     * @return List
+     */
+    @NotNull
+    public static List<Hole> lex(@NotNull Template template) {
+        return lex(template.text, template.bounds, null, template.count, false);
+    }
+
+    /**
+     * @param holes List
+     * @return 是否存在有风险的拼接点
+     */
+    public static boolean hasVulnerableHole(@NotNull List<Hole> holes) {
+        for (Hole hole : holes) {
+            if (hole.isVulnerable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static List<Hole> lex(@NotNull CharSequence sql, @NotNull Pattern holePattern, boolean withVar, boolean checkSuffix) {
+        Matcher m = holePattern.matcher(sql);
+        int[] bounds = new int[8];
+        String[] vars = new String[4];
+        int count = 0;
+        while (m.find()) {
+            if (count == vars.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                vars = Arrays.copyOf(vars, vars.length * 2);
+            }
+            bounds[count * 2] = m.start();
+            bounds[count * 2 + 1] = m.end();
+            vars[count] = withVar ? m.group(1) : null;
+            count++;
+        }
+        return lex(sql, bounds, vars, count, checkSuffix);
+    }
+
+    @NotNull
+    private static List<Hole> lex(@NotNull CharSequence text, @NotNull int[] bounds, @Nullable String[] vars, int count, boolean checkSuffix) {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<Hole> holes = new ArrayList<>(count);
+        Scanner scanner = new Scanner(text);
+        int h = 0;
+        for (int i = 0, l = text.length(); h < count; i++) {
+            while (h < count && bounds[h * 2] == i) {
+                holes.add(scanner.hole(bounds[h * 2], bounds[h * 2 + 1], vars != null ? vars[h] : null, checkSuffix));
+                h++;
+            }
+            if (i >= l) {
+                break;
+            }
+            scanner.next(i);
+        }
+        return holes;
+    }
+
+    /**
+     * 单向扫描的状态
+     *
+     * 分词与 SQLi.hasVulOnSQLJoinStr 一致：以空白、'|'、'(' 分隔，去掉两端 <= ' ' 的字符；
+     * 判断风险的关键字区分大小写，判断语法位置的关键字不区分大小写
+     */
+    private static final class Scanner {
+        private final CharSequence text;
+
+        // 当前未结束 token 的起始位置
+        private int tokenStart = -1;
+
+        // 最近一个非空 token
+        private int lastStart = -1;
+        private int lastEnd = -1;
+        // 最近一个可判定风险的关键字
+        private String keyword = null;
+        private int clause = CLAUSE_NONE;
+
+        // 所在引号，0 表示不在引号内
+        private char quote = 0;
+        private int quoteStart = -1;
+        private boolean quoteAfterLike = false;
+        private boolean escaped = false;
+
+        // trim 的结果
+        private int trimStart;
+        private int trimEnd;
+
+        private Scanner(@NotNull CharSequence text) {
+            this.text = text;
+        }
+
+        private void next(int i) {
+            char c = text.charAt(i);
+
+            if (quote != 0) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                quoteStart = i;
+                quoteAfterLike = pendingToken(i)
+                        ? equalsIgnoreCase(trimStart, trimEnd, "like")
+                        : lastStart != -1 && equalsIgnoreCase(lastStart, lastEnd, "like");
+            }
+
+            if (isTokenSeparator(c)) {
+                if (tokenStart != -1) {
+                    if (trim(tokenStart, i)) {
+                        lastStart = trimStart;
+                        lastEnd = trimEnd;
+                        String kw = decisiveKeyword(lastStart, lastEnd);
+                        if (kw != null) {
+                            keyword = kw;
+                        }
+                        clause = clauseAfter(clause, lastStart, lastEnd);
+                    }
+                    tokenStart = -1;
+                }
+            } else if (tokenStart == -1) {
+                tokenStart = i;
+            }
+        }
+
+        @NotNull
+        private Hole hole(int start, int end, @Nullable String var, boolean checkSuffix) {
+            // 拼接点之前未结束的 token 视为最后一个 token
+            int ls = lastStart;
+            int le = lastEnd;
+            String kw = keyword;
+            int cl = clause;
+            if (pendingToken(start)) {
+                ls = trimStart;
+                le = trimEnd;
+                String k = decisiveKeyword(ls, le);
+                if (k != null) {
+                    kw = k;
+                }
+                cl = clauseAfter(cl, ls, le);
+            }
+
+            boolean vulnerable;
+            if (ls == -1 || text.charAt(le - 1) == '=' || kw == null || "values".equals(kw)) {
+                vulnerable = true;
+            } else if ("where".equals(kw) || "set".equals(kw)) {
+                if (checkSuffix) {
+                    int first = nonBlank(end);
+                    char c = first != -1 ? text.charAt(first) : 0;
+                    vulnerable = !(c == '=' || c == '>' || c == '<');
+                } else {
+                    vulnerable = true;
+                }
+            } else {
+                vulnerable = false;
+            }
+
+            Context context = context(start, ls, le, cl);
+            int qs = -1;
+            int qe = -1;
+            if (context == Context.QUOTED) {
+                int close = nonBlank(end);
+                if (close != -1 && text.charAt(close) == quote && nonBlank(quoteStart + 1) == start) {
+                    qs = quoteStart;
+                    qe = close + 1;
+                }
+            }
+            return new Hole(start, end, var, context, vulnerable, qs, qe);
+        }
+
+        @NotNull
+        private Context context(int start, int ls, int le, int cl) {
+            if (quote != 0) {
+                if (quoteAfterLike) {
+                    int from = quoteStart + 1;
+                    if (start == from || (start == from + 1 && text.charAt(from) == '%')) {
+                        return Context.LIKE_PATTERN;
+                    }
+                }
+                return Context.QUOTED;
+            }
+            if (ls == -1) {
+                return Context.IDENTIFIER;
+            }
+            if (equalsIgnoreCase(ls, le, "in")) {
+                return Context.IN_LIST;
+            }
+            char last = text.charAt(le - 1);
+            if (last == '=' || last == '>' || last == '<' ||
+                equalsIgnoreCase(ls, le, "like") ||
+                equalsIgnoreCase(ls, le, "between")
+            ) {
+                return Context.VALUE;
+            }
+            switch (cl) {
+                case CLAUSE_ORDER_BY:
+                    return Context.ORDER_BY;
+                case CLAUSE_LIMIT:
+                    return Context.LIMIT;
+                case CLAUSE_VALUES:
+                    return Context.VALUE;
+                default:
+                    return Context.IDENTIFIER;
+            }
+        }
+
+        private int clauseAfter(int clause, int start, int end) {
+            if (equalsIgnoreCase(start, end, "order")) {
+                return CLAUSE_ORDER;
+            }
+            if (equalsIgnoreCase(start, end, "by")) {
+                return clause == CLAUSE_ORDER ? CLAUSE_ORDER_BY : CLAUSE_NONE;
+            }
+            if (equalsIgnoreCase(start, end, "limit") || equalsIgnoreCase(start, end, "offset")) {
+                return CLAUSE_LIMIT;
+            }
+            if (equalsIgnoreCase(start, end, "values")) {
+                return CLAUSE_VALUES;
+            }
+            for (String reset : CLAUSE_RESET_KEYWORDS) {
+                if (equalsIgnoreCase(start, end, reset)) {
+                    return CLAUSE_NONE;
+                }
+            }
+            return clause == CLAUSE_ORDER ? CLAUSE_NONE : clause;
+        }
+
+        /**
+         * 未结束的 token [tokenStart, end) 去掉两端空白后非空时，范围写入 trimStart / trimEnd
+         */
+        private boolean pendingToken(int end) {
+            return tokenStart != -1 && tokenStart < end && trim(tokenStart, end);
+        }
+
+        private boolean trim(int start, int end) {
+            while (start < end && text.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            trimStart = start;
+            trimEnd = end;
+            return start < end;
+        }
+
+        @Nullable
+        private String decisiveKeyword(int start, int end) {
+            for (String kw : DECISIVE_KEYWORDS) {
+                if (equals(start, end, kw, false)) {
+                    return kw;
+                }
+            }
+            return null;
+        }
+
+        private boolean equalsIgnoreCase(int start, int end, @NotNull String keyword) {
+            return equals(start, end, keyword, true);
+        }
+
+        private boolean equals(int start, int end, @NotNull String keyword, boolean ignoreCase) {
+            if (end - start != keyword.length()) {
+                return false;
+            }
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = text.charAt(start + i);
+                if (ignoreCase && c >= 'A' && c <= 'Z') {
+                    c = (char)(c + ('a' - 'A'));
+                }
+                if (c != keyword.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return start 之后第一个 > ' ' 的字符位置，没有时返回 -1
+         */
+        private int nonBlank(int start) {
+            for (int i = start, l = text.length(); i < l; i++) {
+                if (text.charAt(i) > ' ') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 等价于正则 [\s|(]
+     */
+    private static boolean isTokenSeparator(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+            case '|':
+            case '(':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -18,40 +18,133 @@ package com.immomo.momosec.utils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Arrays;
-import java.util.List;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class SQLi {
 
-    public static final Pattern whereInEndPattern          = Pattern.compile("(where|and|or)\\s+\\S+?\\s+in\\s*\\(?\\s*$", Pattern.CASE_INSENSITIVE);
-    public static final Pattern likeEndPatterh             = Pattern.compile("\\S+?\\s+like\\s+('|\")%?$", Pattern.CASE_INSENSITIVE);
-
     public static final Pattern placeholderPattern         = Pattern.compile("%(\\d\\$\\d{0,5})?s", Pattern.CASE_INSENSITIVE);
     public static final Pattern dollarVarPattern           = Pattern.compile("\\$\\{(\\S+?)\\}");
 
 
+    private static final String[] DML_VERBS = { "select", "delete", "update", "insert" };
+    private static final String[] CLAUSE_KEYWORDS = { "from", "into", "set" };
+
     /**
-     * 判断SQL拼接点的字符串集合是否有SQL注入风险
-     * @param SQLJoinStrList List<String>
+     * 判断字符串是否为SQL语句
+     *
+     * 与正则 ^\s*(select|delete|update|insert)\s+.*?(from|into|set)\s+.*?where.* (CASE_INSENSITIVE, find)
+     * 的结果一致，但只向前扫描一次：首个单词不是 DML 动词时立即返回，之后只在动词之后的一行内寻找关键字，不回溯。
+     *
+     * 与正则一致，'.' 不跨越行结束符 (\n \r \u0085 \u2028 \u2029)，\s 只包含 [ \t\n\x0B\f\r]，大小写只对 ASCII 字母生效
+     *
+     * @param str CharSequence
      * @return boolean
      */
-    public static boolean hasVulOnSQLJoinStrList(@NotNull List<List<String>> SQLJoinStrList) {
-        for(List<String> sqlJoinStr : SQLJoinStrList) {
-            if (sqlJoinStr.size() < 2 || sqlJoinStr.size() > 3) {
+    public static boolean isSqlStatement(@NotNull CharSequence str) {
+        int n = str.length();
+        int p = skipWhitespace(str, 0);
+        if (keywordAt(str, p, DML_VERBS) == 0) {
+            return false;
+        }
+        // 四个动词均为 6 个字符
+        int e = p + 6;
+        if (e >= n || !isWhitespace(str.charAt(e))) {
+            return false;
+        }
+
+        // .*? 不跨行，from / into / set 只能出现在动词之后第一个非空白字符所在的行
+        int whereFrom = -1;
+        for (int k = skipWhitespace(str, e); k < n && !isLineTerminator(str.charAt(k)); k++) {
+            if (whereFrom != -1 && k >= whereFrom && regionMatchesIgnoreCase(str, k, "where")) {
+                return true;
+            }
+            int len = keywordAt(str, k, CLAUSE_KEYWORDS);
+            if (len == 0 || k + len >= n || !isWhitespace(str.charAt(k + len))) {
                 continue;
             }
-            if (sqlJoinStr.size() == 2 && hasVulOnSQLJoinStr(sqlJoinStr.get(0), sqlJoinStr.get(1), null)) {
+            int r = skipWhitespace(str, k + len);
+            if (containsLineTerminator(str, k + len, r)) {
+                // 关键字后的空白跨行，之后本行只剩空白，where 只能出现在 r 所在的行
+                return containsWhereInLine(str, r);
+            }
+            if (whereFrom == -1) {
+                // 同一行内更靠后的关键字给出的范围都包含在其中
+                whereFrom = r;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsWhereInLine(@NotNull CharSequence str, int start) {
+        for (int i = start, n = str.length(); i < n && !isLineTerminator(str.charAt(i)); i++) {
+            if (regionMatchesIgnoreCase(str, i, "where")) {
                 return true;
             }
-            if (sqlJoinStr.size() == 3 && hasVulOnSQLJoinStr(sqlJoinStr.get(0), sqlJoinStr.get(1), sqlJoinStr.get(2))) {
+        }
+        return false;
+    }
+
+    /**
+     * @return str[offset, ) 以 keywords 中某个关键字开头时返回其长度，否则返回 0
+     */
+    private static int keywordAt(@NotNull CharSequence str, int offset, @NotNull String[] keywords) {
+        for (String keyword : keywords) {
+            if (regionMatchesIgnoreCase(str, offset, keyword)) {
+                return keyword.length();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 只对 ASCII 字母忽略大小写，与未指定 UNICODE_CASE 的正则一致
+     */
+    private static boolean regionMatchesIgnoreCase(@NotNull CharSequence str, int offset, @NotNull String lowerKeyword) {
+        if (offset + lowerKeyword.length() > str.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerKeyword.length(); i++) {
+            char c = str.charAt(offset + i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char)(c + ('a' - 'A'));
+            }
+            if (c != lowerKeyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(@NotNull CharSequence str, int offset) {
+        while (offset < str.length() && isWhitespace(str.charAt(offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private static boolean containsLineTerminator(@NotNull CharSequence str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isLineTerminator(str.charAt(i))) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * 等价于正则 \s
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * 正则 '.' 不匹配的字符
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
     /**
      * 判断SQL拼接点的字符串是否有SQL注入风险
      * @param prefix String
@@ -59,53 +152,125 @@ public class SQLi {
      * @param suffix String
      * @return boolean
      */
-    public static boolean hasVulOnSQLJoinStr(@NotNull String prefix, @Nullable String var, @Nullable String suffix) {
-        List<String> fragments = Arrays.stream(prefix.split("[\\s|(]+"))
-                .map(String::trim)
-                .filter(item -> !item.isEmpty())
-                .collect(Collectors.toList());
-        int seg_size = fragments.size();
-        if (seg_size == 0 ||
-            fragments.get(seg_size - 1).trim().endsWith("=") ||
-            fragments.get(seg_size - 1).trim().endsWith(">=") ||
-            fragments.get(seg_size - 1).trim().endsWith("<=")
-        ) {
-            return true;
-        }
+    public static boolean hasVulOnSQLJoinStr(@NotNull CharSequence prefix, @Nullable CharSequence var, @Nullable CharSequence suffix) {
+        return hasVulOnSQLJoinStr(prefix, prefix.length(), suffix, 0);
+    }
+
+    /**
+     * 判断SQL拼接点是否有SQL注入风险
+     *
+     * 从拼接点向前逐个扫描 token (以空白、'|'、'(' 分隔)，遇到可判定的关键字即返回，不分配内存，
+     * 耗时只与拼接点到该关键字的距离有关
+     *
+     * @param text 拼接点之前的内容为 text[0, prefixEnd)
+     * @param prefixEnd int
+     * @param suffix 拼接点之后的内容为 suffix[suffixStart, )，null 表示没有
+     * @param suffixStart int
+     * @return boolean
+     */
+    public static boolean hasVulOnSQLJoinStr(@NotNull CharSequence text, int prefixEnd, @Nullable CharSequence suffix, int suffixStart) {
+        boolean isLastToken = true;
+        int i = prefixEnd;
+        while (i > 0) {
+            while (i > 0 && isTokenSeparator(text.charAt(i - 1))) {
+                i--;
+            }
+            int end = i;
+            while (i > 0 && !isTokenSeparator(text.charAt(i - 1))) {
+                i--;
+            }
+            int start = i;
+
+            // 与 String.trim 一致，去掉两端 <= ' ' 的字符
+            while (start < end && text.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                continue;
+            }
 
-        for(int i = seg_size - 1; i >= 0; i--) {
-            String frag = fragments.get(i);
-            if (frag.equals("limit") ||
-                frag.equals("by") ||
-                frag.equals("having")
+            if (isLastToken) {
+                // 拼接点紧跟在 =、>=、<= 之后
+                if (text.charAt(end - 1) == '=') {
+                    return true;
+                }
+                isLastToken = false;
+            }
+
+            if (isToken(text, start, end, "limit") ||
+                isToken(text, start, end, "by") ||
+                isToken(text, start, end, "having")
             ) {
                 continue;
             }
 
-            if (frag.equals("where") || frag.equals("set")) {
-                if (suffix != null && (
-                    suffix.trim().startsWith("=") ||
-                    suffix.trim().startsWith(">") ||
-                    suffix.trim().startsWith("<")
-                )) {
-                    return false;
+            if (isToken(text, start, end, "where") || isToken(text, start, end, "set")) {
+                if (suffix != null) {
+                    char first = firstNonBlank(suffix, suffixStart);
+                    if (first == '=' || first == '>' || first == '<') {
+                        return false;
+                    }
                 }
                 return true;
             }
 
-            if (frag.equals("values")) {
+            if (isToken(text, start, end, "values")) {
                 return true;
             }
 
-            if (frag.equals("from") ||
-                frag.equals("into") ||
-                frag.equals("join") ||
-                frag.equals("select") ||
-                frag.equals("update")
+            if (isToken(text, start, end, "from") ||
+                isToken(text, start, end, "into") ||
+                isToken(text, start, end, "join") ||
+                isToken(text, start, end, "select") ||
+                isToken(text, start, end, "update")
             ) {
                 return false;
             }
         }
         return true;
     }
+
+    /**
+     * 等价于正则 [\s|(]
+     */
+    private static boolean isTokenSeparator(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+            case '|':
+            case '(':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isToken(@NotNull CharSequence text, int start, int end, @NotNull String keyword) {
+        if (end - start != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (text.charAt(start + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char firstNonBlank(@NotNull CharSequence s, int start) {
+        for (int i = start, l = s.length(); i < l; i++) {
+            char c = s.charAt(i);
+            if (c > ' ') {
+                return c;
+            }
+        }
+        return 0;
+    }
 }
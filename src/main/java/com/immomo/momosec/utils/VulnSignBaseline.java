@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 漏洞签名基线
+ *
+ * 已接受的漏洞签名(MomoBaseLocalInspectionTool#getVulnSign)以有序 int 数组保存:
+ * [int magic][int version][int count][int sign]...
+ *
+ * 读取时整个文件以只读方式内存映射，查询为 IntBuffer 上的二分查找，不做装箱也不拷贝到堆上。
+ * 实例不可变，可在多线程中同时查询。
+ */
+public final class VulnSignBaseline {
+    private static final int MAGIC = 0x4d53424c;  // MSBL
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 3;
+
+    public static final VulnSignBaseline EMPTY = new VulnSignBaseline(IntBuffer.allocate(0));
+
+    private final IntBuffer signs;
+
+    private VulnSignBaseline(IntBuffer signs) {
+        this.signs = signs;
+    }
+
+    /**
+     * 由签名构建基线，签名会被排序、去重
+     * @param signs int[]
+     * @return VulnSignBaseline
+     */
+    @NotNull
+    public static VulnSignBaseline of(@NotNull int[] signs) {
+        return new VulnSignBaseline(IntBuffer.wrap(sortedUnique(signs)));
+    }
+
+    /**
+     * 内存映射方式加载基线文件，文件不存在时返回 EMPTY
+     * @param path 基线文件
+     * @return VulnSignBaseline
+     * @throws IOException 文件格式不符或读取失败
+     */
+    @NotNull
+    public static VulnSignBaseline load(@NotNull Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return EMPTY;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_INTS * 4 || size % 4 != 0) {
+                throw new IOException("Invalid MomoSec baseline: " + path);
+            }
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asIntBuffer();
+            if (ints.get(0) != MAGIC || ints.get(1) != VERSION || ints.get(2) != ints.limit() - HEADER_INTS) {
+                throw new IOException("Invalid MomoSec baseline: " + path);
+            }
+            ints.position(HEADER_INTS);
+            return new VulnSignBaseline(ints.slice());
+        }
+    }
+
+    /**
+     * 写入基线文件，签名会被排序、去重
+     * @param path 基线文件
+     * @param signs int[]
+     */
+    public static void write(@NotNull Path path, @NotNull int[] signs) throws IOException {
+        int[] sorted = sortedUnique(signs);
+        ByteBuffer buffer = ByteBuffer.allocate((HEADER_INTS + sorted.length) * 4);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sorted.length);
+        buffer.asIntBuffer().put(sorted);
+        buffer.rewind();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public boolean contains(int sign) {
+        int low = 0;
+        int high = signs.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int v = signs.get(mid);
+            if (v < sign) {
+                low = mid + 1;
+            } else if (v > sign) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return signs.limit();
+    }
+
+    public boolean isEmpty() {
+        return signs.limit() == 0;
+    }
+
+    private static int[] sortedUnique(int[] signs) {
+        int[] sorted = signs.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import java.util.Arrays;
+
+/**
+ * 不可变的字符集合，以升序、互不相交、不相邻的闭区间 [lo, hi] 表示，字符取值为 code point
+ */
+public final class CharRanges {
+
+    public static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    public static final CharRanges EMPTY = new CharRanges(new int[0]);
+    public static final CharRanges ALL = new CharRanges(new int[]{0, MAX_CODE_POINT});
+
+    public static final CharRanges DIGIT = range('0', '9');
+    public static final CharRanges WORD = of('a', 'z', 'A', 'Z', '0', '9', '_', '_');
+    public static final CharRanges SPACE = of(' ', ' ', '\t', '\r', 0x0B, 0x0C);
+    public static final CharRanges HORIZONTAL_SPACE = of(' ', ' ', '\t', '\t', 0xA0, 0xA0, 0x1680, 0x1680, 0x180E, 0x180E,
+            0x2000, 0x200A, 0x202F, 0x202F, 0x205F, 0x205F, 0x3000, 0x3000);
+    public static final CharRanges VERTICAL_SPACE = of('\n', '\r', 0x85, 0x85, 0x2028, 0x2029);
+    public static final CharRanges LINE_TERMINATOR = of('\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029);
+
+    // 每两个元素为一个区间
+    private final int[] bounds;
+
+    private CharRanges(int[] bounds) {
+        this.bounds = bounds;
+    }
+
+    public static CharRanges single(int c) {
+        return new CharRanges(new int[]{c, c});
+    }
+
+    public static CharRanges range(int lo, int hi) {
+        if (lo > hi) {
+            return EMPTY;
+        }
+        return new CharRanges(new int[]{lo, hi});
+    }
+
+    /**
+     * @param bounds lo0, hi0, lo1, hi1 ... 可无序、可重叠
+     * @return CharRanges
+     */
+    public static CharRanges of(int... bounds) {
+        CharRanges result = EMPTY;
+        for (int i = 0; i + 1 < bounds.length; i += 2) {
+            result = result.union(range(bounds[i], bounds[i + 1]));
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return bounds.length == 0;
+    }
+
+    public boolean contains(int c) {
+        int low = 0;
+        int high = bounds.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (c < bounds[mid * 2]) {
+                high = mid - 1;
+            } else if (c > bounds[mid * 2 + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 集合中最小的字符，空集合时为 -1
+     */
+    public int first() {
+        return bounds.length == 0 ? -1 : bounds[0];
+    }
+
+    /**
+     * 取一个便于阅读的代表字符：优先可打印 ASCII，其次最小字符
+     * @return int，空集合时为 -1
+     */
+    public int sample() {
+        for (int i = 0; i < bounds.length; i += 2) {
+            if (bounds[i + 1] >= 0x21 && bounds[i] <= 0x7E) {
+                return Math.max(bounds[i], 0x21);
+            }
+        }
+        for (int i = 0; i < bounds.length; i += 2) {
+            if (bounds[i + 1] >= 0x20 && bounds[i] <= 0x20) {
+                return 0x20;
+            }
+        }
+        return first();
+    }
+
+    public CharRanges union(CharRanges other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        int[] merged = new int[bounds.length + other.bounds.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < bounds.length || j < other.bounds.length) {
+            int lo;
+            int hi;
+            if (j >= other.bounds.length || (i < bounds.length && bounds[i] <= other.bounds[j])) {
+                lo = bounds[i];
+                hi = bounds[i + 1];
+                i += 2;
+            } else {
+                lo = other.bounds[j];
+                hi = other.bounds[j + 1];
+                j += 2;
+            }
+            if (n > 0 && lo <= merged[n - 1] + 1) {
+                merged[n - 1] = Math.max(merged[n - 1], hi);
+            } else {
+                merged[n++] = lo;
+                merged[n++] = hi;
+            }
+        }
+        return new CharRanges(Arrays.copyOf(merged, n));
+    }
+
+    public CharRanges intersect(CharRanges other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        int[] result = new int[bounds.length + other.bounds.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < bounds.length && j < other.bounds.length) {
+            int lo = Math.max(bounds[i], other.bounds[j]);
+            int hi = Math.min(bounds[i + 1], other.bounds[j + 1]);
+            if (lo <= hi) {
+                result[n++] = lo;
+                result[n++] = hi;
+            }
+            if (bounds[i + 1] < other.bounds[j + 1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return n == 0 ? EMPTY : new CharRanges(Arrays.copyOf(result, n));
+    }
+
+    public boolean intersects(CharRanges other) {
+        int i = 0;
+        int j = 0;
+        while (i < bounds.length && j < other.bounds.length) {
+            if (Math.max(bounds[i], other.bounds[j]) <= Math.min(bounds[i + 1], other.bounds[j + 1])) {
+                return true;
+            }
+            if (bounds[i + 1] < other.bounds[j + 1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return false;
+    }
+
+    public CharRanges complement() {
+        int[] result = new int[bounds.length + 2];
+        int n = 0;
+        int next = 0;
+        for (int i = 0; i < bounds.length; i += 2) {
+            if (bounds[i] > next) {
+                result[n++] = next;
+                result[n++] = bounds[i] - 1;
+            }
+            next = bounds[i + 1] + 1;
+        }
+        if (next <= MAX_CODE_POINT) {
+            result[n++] = next;
+            result[n++] = MAX_CODE_POINT;
+        }
+        return n == 0 ? EMPTY : new CharRanges(Arrays.copyOf(result, n));
+    }
+
+    public CharRanges subtract(CharRanges other) {
+        return intersect(other.complement());
+    }
+
+    /**
+     * 加入 ASCII 字母的另一种大小写
+     * @return CharRanges
+     */
+    public CharRanges caseInsensitive() {
+        CharRanges result = this;
+        CharRanges lower = intersect(range('a', 'z'));
+        CharRanges upper = intersect(range('A', 'Z'));
+        for (int i = 0; i < lower.bounds.length; i += 2) {
+            result = result.union(range(lower.bounds[i] - 32, lower.bounds[i + 1] - 32));
+        }
+        for (int i = 0; i < upper.bounds.length; i += 2) {
+            result = result.union(range(upper.bounds[i] + 32, upper.bounds[i + 1] + 32));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CharRanges && Arrays.equals(bounds, ((CharRanges) o).bounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bounds);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < bounds.length; i += 2) {
+            appendChar(sb, bounds[i]);
+            if (bounds[i + 1] != bounds[i]) {
+                sb.append('-');
+                appendChar(sb, bounds[i + 1]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void appendChar(StringBuilder sb, int c) {
+        if (c >= 0x21 && c <= 0x7E) {
+            if ("\\[]-^".indexOf(c) >= 0) {
+                sb.append('\\');
+            }
+            sb.append((char) c);
+        } else {
+            sb.append(String.format("\\x{%X}", c));
+        }
+    }
+}
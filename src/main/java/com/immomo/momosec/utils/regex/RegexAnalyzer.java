@@ -0,0 +1,675 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 正则表达式的回溯复杂度分析 (ReDoS)
+ *
+ * 在 RegexAutomaton 的自乘积 A×A 上判断指数级歧义 (EDA)：
+ * 若某个强连通分量同时包含对角状态 (q, q) 与非对角状态 (p, p')，或包含一条由平行转移产生的对角边，
+ * 则存在从 q 出发回到 q 且标签相同的两条不同路径，重复该回路 n 次得到 2^n 种匹配方式。
+ * 乘积状态数为位置数的平方，整体为多项式时间。
+ *
+ * 无指数级歧义时，在三元乘积 A×A×A 上判断多项式级歧义 (IDA)：
+ * 对分属不同强连通分量的循环状态 p、q，若存在同一输入 w 使 p→p、p→q、q→q 同时成立，
+ * 则输入 w^n 在 p、q 之间有 n 种切分方式。这样的 (p, q) 首尾相连组成的最长链有 k 条边时，
+ * 回溯次数为 O(n^(k+1))，即多项式次数为 k + 1。
+ *
+ * MatchMode.FIND 对应 Matcher.find / replaceAll / split 等在每个起点尝试匹配的用法：
+ * 未以 ^ 开头的正则前面补一个隐含的 [\s\S]*?，且链的末端必须是不能直接匹配成功的状态。
+ *
+ * 同一独占区域内的两个不同位置不会被回溯同时尝试，不计入乘积。
+ */
+public final class RegexAnalyzer {
+
+    /** 乘积图中允许检查的转移数，超过后结论为 UNKNOWN */
+    static final int MAX_PRODUCT_EDGES = 4_000_000;
+
+    public enum Complexity {
+        SAFE,
+        POLYNOMIAL,
+        EXPONENTIAL,
+        /** 正则无法解析或超出分析规模 */
+        UNKNOWN
+    }
+
+    public enum MatchMode {
+        /** Pattern.matches / String.matches，整个输入必须匹配 */
+        FULL,
+        /** Matcher.find 等，在输入的每个位置尝试匹配 */
+        FIND
+    }
+
+    public static final class Result {
+        static final Result SAFE = new Result(Complexity.SAFE, 0, "", Collections.emptyList());
+        static final Result UNKNOWN = new Result(Complexity.UNKNOWN, 0, "", Collections.emptyList());
+
+        private final Complexity complexity;
+        private final int degree;
+        private final String prefix;
+        private final List<String> pumps;
+
+        Result(Complexity complexity, int degree, String prefix, List<String> pumps) {
+            this.complexity = complexity;
+            this.degree = degree;
+            this.prefix = prefix;
+            this.pumps = Collections.unmodifiableList(pumps);
+        }
+
+        public Complexity getComplexity() {
+            return complexity;
+        }
+
+        /**
+         * @return POLYNOMIAL 时为多项式次数 (&gt;= 2)，其他为 0
+         */
+        public int getDegree() {
+            return degree;
+        }
+
+        /**
+         * @return 到达歧义回路的输入前缀，无歧义时为空串
+         */
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * @return 可被多种方式匹配的回路输入，重复 n 次即可触发回溯；无歧义时为空串
+         */
+        public String getPump() {
+            return pumps.isEmpty() ? "" : pumps.get(0);
+        }
+
+        /**
+         * 攻击输入为 prefix + pumps[0]^n + pumps[1]^n + ...
+         * EXPONENTIAL 时只有一段，POLYNOMIAL 时每条链边一段
+         * @return List
+         */
+        public List<String> getPumps() {
+            return pumps;
+        }
+
+        @Override
+        public String toString() {
+            return complexity + (degree > 0 ? "(" + degree + ")" : "") +
+                    (pumps.isEmpty() ? "" : " prefix=" + prefix + " pumps=" + pumps);
+        }
+    }
+
+    private final RegexAutomaton automaton;
+    private final int n;
+    private int edgeBudget = MAX_PRODUCT_EDGES;
+    private int tripleBudget = MAX_PRODUCT_EDGES;
+    /** 乘积状态所属的强连通分量，未到达的为 -1 */
+    private int[] component;
+
+    private RegexAnalyzer(RegexAutomaton automaton) {
+        this.automaton = automaton;
+        this.n = automaton.getStateCount();
+    }
+
+    public static Result analyze(String pattern) {
+        return analyze(pattern, 0, MatchMode.FULL);
+    }
+
+    /**
+     * @param pattern 正则
+     * @param flags   java.util.regex.Pattern 的 flag
+     * @param mode    匹配方式
+     * @return Result
+     */
+    public static Result analyze(String pattern, int flags, MatchMode mode) {
+        RegexNode root;
+        try {
+            root = RegexParser.parse(pattern, flags);
+        } catch (PatternSyntaxException e) {
+            return Result.UNKNOWN;
+        }
+        return analyze(root, mode);
+    }
+
+    public static Result analyze(RegexNode root, MatchMode mode) {
+        Result result = checkExponential(root);
+        if (result.getComplexity() != Complexity.SAFE) {
+            return result;
+        }
+        RegexNode target = root;
+        if (mode == MatchMode.FIND && !isAnchoredAtStart(root)) {
+            List<RegexNode> items = new ArrayList<>();
+            items.add(new RegexNode.Repeat(new RegexNode.CharClass(CharRanges.ALL), 0, RegexNode.Repeat.UNBOUNDED, RegexNode.Repeat.Mode.LAZY));
+            items.add(root);
+            target = new RegexNode.Sequence(items);
+        }
+        RegexAutomaton automaton = RegexAutomaton.build(target, mode == MatchMode.FIND);
+        if (automaton == null) {
+            return Result.UNKNOWN;
+        }
+        return new RegexAnalyzer(automaton).checkPolynomial(mode == MatchMode.FIND);
+    }
+
+    /**
+     * 只判断指数级歧义
+     * @param root 语法树
+     * @return Result，结论为 SAFE / EXPONENTIAL / UNKNOWN
+     */
+    public static Result checkExponential(RegexNode root) {
+        RegexAutomaton automaton = RegexAutomaton.build(root);
+        if (automaton == null) {
+            return Result.UNKNOWN;
+        }
+        return new RegexAnalyzer(automaton).checkExponential();
+    }
+
+    private static boolean isAnchoredAtStart(RegexNode node) {
+        if (node instanceof RegexNode.Assertion) {
+            RegexNode.Assertion.Kind kind = ((RegexNode.Assertion) node).getKind();
+            return kind == RegexNode.Assertion.Kind.INPUT_START || kind == RegexNode.Assertion.Kind.LINE_START;
+        }
+        if (node instanceof RegexNode.Group) {
+            return isAnchoredAtStart(((RegexNode.Group) node).getBody());
+        }
+        if (node instanceof RegexNode.Sequence) {
+            for (RegexNode item : ((RegexNode.Sequence) node).getItems()) {
+                if (isAnchoredAtStart(item)) {
+                    return true;
+                }
+                if (!(item instanceof RegexNode.Assertion) && !(item instanceof RegexNode.Empty)) {
+                    return false;
+                }
+            }
+            return false;
+        }
+        if (node instanceof RegexNode.Alternation) {
+            for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                if (!isAnchoredAtStart(alternative)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private Result checkExponential() {
+        // 只考虑无序对 (p, q), p <= q
+        component = new int[n * n];
+        Arrays.fill(component, -1);
+        List<int[]> multipleEdges = new ArrayList<>();
+        if (!tarjan(multipleEdges)) {
+            return Result.UNKNOWN;
+        }
+
+        int componentCount = 0;
+        for (int c : component) {
+            componentCount = Math.max(componentCount, c + 1);
+        }
+        int[] diagonal = new int[componentCount];
+        int[] nonDiagonal = new int[componentCount];
+        Arrays.fill(diagonal, -1);
+        Arrays.fill(nonDiagonal, -1);
+        for (int node = 0; node < component.length; node++) {
+            int c = component[node];
+            if (c < 0) {
+                continue;
+            }
+            if (node / n == node % n) {
+                diagonal[c] = node;
+            } else {
+                nonDiagonal[c] = node;
+            }
+        }
+        for (int c = 0; c < componentCount; c++) {
+            if (diagonal[c] >= 0 && nonDiagonal[c] >= 0) {
+                return witness(diagonal[c], nonDiagonal[c], null);
+            }
+        }
+        for (int[] edge : multipleEdges) {
+            if (component[edge[0]] == component[edge[1]]) {
+                return witness(edge[0], -1, edge);
+            }
+        }
+        return Result.SAFE;
+    }
+
+    /**
+     * 乘积状态 node = p * n + q 的后继，结果写入 out
+     * @return 后继个数，超出转移预算时返回 -1
+     */
+    private int successors(int node, int[] out, List<int[]> multipleEdges) {
+        int p = node / n;
+        int q = node % n;
+        int[] ps = automaton.getSuccessors(p);
+        int[] qs = automaton.getSuccessors(q);
+        int count = 0;
+        for (int i = 0; i < ps.length; i++) {
+            int start = p == q ? i : 0;
+            for (int j = start; j < qs.length; j++) {
+                if (--edgeBudget < 0) {
+                    return -1;
+                }
+                int p2 = ps[i];
+                int q2 = qs[j];
+                if (p2 != q2) {
+                    int region = automaton.getRegion(p2);
+                    if (region != 0 && region == automaton.getRegion(q2)) {
+                        continue;
+                    }
+                    if (!automaton.getLabel(p2).intersects(automaton.getLabel(q2))) {
+                        continue;
+                    }
+                } else if (multipleEdges != null && p == q && automaton.isMultiple(p, i) &&
+                           (automaton.getRegion(p) == 0 || automaton.getRegion(p) != automaton.getRegion(p2))) {
+                    multipleEdges.add(new int[]{node, p2 * n + p2});
+                }
+                out[count++] = Math.min(p2, q2) * n + Math.max(p2, q2);
+            }
+        }
+        return count;
+    }
+
+    private int[] newSuccessorBuffer() {
+        int max = 0;
+        for (int p = 0; p < n; p++) {
+            max = Math.max(max, automaton.getSuccessors(p).length);
+        }
+        return new int[max * max];
+    }
+
+    /**
+     * 从 (0, 0) 出发的迭代式 Tarjan 强连通分量
+     * @return 超出转移预算时返回 false
+     */
+    private boolean tarjan(List<int[]> multipleEdges) {
+        int[] index = new int[n * n];
+        int[] lowLink = new int[n * n];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[n * n];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        ArrayDeque<int[]> callStack = new ArrayDeque<>();
+        int[] buffer = newSuccessorBuffer();
+        int nextIndex = 0;
+        int nextComponent = 0;
+
+        index[0] = lowLink[0] = nextIndex++;
+        stack.push(0);
+        onStack[0] = true;
+        int count = successors(0, buffer, multipleEdges);
+        if (count < 0) {
+            return false;
+        }
+        callStack.push(new int[]{0, 0, count});
+        List<int[]> frames = new ArrayList<>();
+        frames.add(Arrays.copyOf(buffer, count));
+
+        while (!callStack.isEmpty()) {
+            int[] frame = callStack.peek();
+            int node = frame[0];
+            int[] targets = frames.get(frames.size() - 1);
+            if (frame[1] < frame[2]) {
+                int next = targets[frame[1]++];
+                if (index[next] < 0) {
+                    index[next] = lowLink[next] = nextIndex++;
+                    stack.push(next);
+                    onStack[next] = true;
+                    count = successors(next, buffer, multipleEdges);
+                    if (count < 0) {
+                        return false;
+                    }
+                    callStack.push(new int[]{next, 0, count});
+                    frames.add(Arrays.copyOf(buffer, count));
+                } else if (onStack[next]) {
+                    lowLink[node] = Math.min(lowLink[node], index[next]);
+                }
+                continue;
+            }
+            callStack.pop();
+            frames.remove(frames.size() - 1);
+            if (lowLink[node] == index[node]) {
+                int member;
+                do {
+                    member = stack.pop();
+                    onStack[member] = false;
+                    component[member] = nextComponent;
+                } while (member != node);
+                nextComponent++;
+            }
+            if (!callStack.isEmpty()) {
+                int parent = callStack.peek()[0];
+                lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 构造触发歧义的输入：prefix 到达对角状态，pump 为经过非对角状态 (或平行转移) 回到该对角状态的回路
+     */
+    private Result witness(int diagonalNode, int nonDiagonalNode, int[] multipleEdge) {
+        String prefix = prefixTo(diagonalNode / n);
+        StringBuilder pump = new StringBuilder();
+        int c = component[diagonalNode];
+        if (multipleEdge == null) {
+            pump.append(pathString(diagonalNode, nonDiagonalNode, c));
+            pump.append(pathString(nonDiagonalNode, diagonalNode, c));
+        } else {
+            pump.append(pathString(diagonalNode, multipleEdge[0], c));
+            pump.appendCodePoint(automaton.getLabel(multipleEdge[1] / n).sample());
+            pump.append(pathString(multipleEdge[1], diagonalNode, c));
+        }
+        return new Result(Complexity.EXPONENTIAL, 0, prefix, Collections.singletonList(pump.toString()));
+    }
+
+    /**
+     * 乘积图上 from 到 to 的最短路径的输入
+     * @param restrict 限定在该强连通分量内，-1 表示不限定
+     */
+    private String pathString(int from, int to, int restrict) {
+        if (from == to) {
+            return "";
+        }
+        int[] parent = new int[n * n];
+        Arrays.fill(parent, -1);
+        parent[from] = from;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(from);
+        int[] buffer = newSuccessorBuffer();
+        edgeBudget = Integer.MAX_VALUE;
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            int count = successors(node, buffer, null);
+            for (int i = 0; i < count; i++) {
+                int next = buffer[i];
+                if (parent[next] >= 0 || (restrict >= 0 && component[next] != restrict)) {
+                    continue;
+                }
+                parent[next] = node;
+                if (next == to) {
+                    return reconstruct(parent, from, to);
+                }
+                queue.add(next);
+            }
+        }
+        return "";
+    }
+
+    private String reconstruct(int[] parent, int from, int to) {
+        List<Integer> path = new ArrayList<>();
+        for (int node = to; node != from; node = parent[node]) {
+            path.add(node);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = path.size() - 1; i >= 0; i--) {
+            int node = path.get(i);
+            CharRanges chars = automaton.getLabel(node / n).intersect(automaton.getLabel(node % n));
+            sb.appendCodePoint(chars.sample());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 自动机上从初始状态到 state 的最短输入
+     */
+    private String prefixTo(int state) {
+        int[] parent = new int[n];
+        Arrays.fill(parent, -1);
+        parent[0] = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty() && parent[state] < 0) {
+            int p = queue.poll();
+            for (int next : automaton.getSuccessors(p)) {
+                if (parent[next] < 0) {
+                    parent[next] = p;
+                    queue.add(next);
+                }
+            }
+        }
+        if (parent[state] < 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int p = state; p != 0; p = parent[p]) {
+            sb.appendCodePoint(automaton.getLabel(p).sample());
+        }
+        return sb.reverse().toString();
+    }
+
+    private Result checkPolynomial(boolean requireFailure) {
+        int[] scc = stateComponents();
+        BitSet[] reach = reachability();
+        List<Integer> loops = new ArrayList<>();
+        int[] componentSize = new int[n];
+        for (int p = 0; p < n; p++) {
+            if (scc[p] >= 0) {
+                componentSize[scc[p]]++;
+            }
+        }
+        for (int p = 1; p < n; p++) {
+            if (scc[p] >= 0 && (componentSize[scc[p]] > 1 || hasSelfLoop(p))) {
+                loops.add(p);
+            }
+        }
+        // Tarjan 先完成汇点所在的分量，按分量编号升序处理即可保证后继链已计算
+        loops.sort(Comparator.comparingInt(p -> scc[p]));
+
+        int[] best = new int[n];
+        int[] next = new int[n];
+        String[] words = new String[n];
+        Arrays.fill(best, -1);
+        Arrays.fill(next, -1);
+        boolean exhausted = false;
+        for (int i = 0; i < loops.size() && !exhausted; i++) {
+            int p = loops.get(i);
+            best[p] = requireFailure && automaton.isAccepting(p) ? -1 : 0;
+            for (int j = 0; j < i; j++) {
+                int q = loops.get(j);
+                if (best[q] < 0 || best[q] + 1 <= best[p] || scc[q] == scc[p] || !reach[p].get(q)) {
+                    continue;
+                }
+                int region = automaton.getRegion(p);
+                if (region != 0 && region == automaton.getRegion(q)) {
+                    continue;
+                }
+                String word = ambiguousWord(p, q, scc, reach);
+                if (tripleBudget < 0) {
+                    exhausted = true;
+                    break;
+                }
+                if (word != null) {
+                    best[p] = best[q] + 1;
+                    next[p] = q;
+                    words[p] = word;
+                }
+            }
+        }
+
+        int start = -1;
+        for (int p : loops) {
+            if (best[p] >= 1 && (start < 0 || best[p] > best[start])) {
+                start = p;
+            }
+        }
+        if (start < 0) {
+            return exhausted ? Result.UNKNOWN : Result.SAFE;
+        }
+        List<String> pumps = new ArrayList<>();
+        for (int p = start; next[p] >= 0; p = next[p]) {
+            pumps.add(words[p]);
+        }
+        return new Result(Complexity.POLYNOMIAL, best[start] + 1, prefixTo(start), pumps);
+    }
+
+    private boolean hasSelfLoop(int p) {
+        for (int q : automaton.getSuccessors(p)) {
+            if (q == p) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 三元乘积上从 (p, p, q) 到 (p, q, q) 的最短输入：第一分量停留在 p 的分量内，
+     * 第三分量停留在 q 的分量内，第二分量必须仍能到达 q
+     * @return 输入，不存在时返回 null
+     */
+    private String ambiguousWord(int p, int q, int[] scc, BitSet[] reach) {
+        long start = encode(p, p, q);
+        long goal = encode(p, q, q);
+        Map<Long, Long> parent = new HashMap<>();
+        parent.put(start, start);
+        ArrayDeque<Long> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            long node = queue.poll();
+            int a = (int) (node / n / n);
+            int b = (int) (node / n % n);
+            int c = (int) (node % n);
+            for (int a2 : automaton.getSuccessors(a)) {
+                if (scc[a2] != scc[p]) {
+                    continue;
+                }
+                CharRanges la = automaton.getLabel(a2);
+                for (int b2 : automaton.getSuccessors(b)) {
+                    if (!reach[b2].get(q) || !la.intersects(automaton.getLabel(b2))) {
+                        continue;
+                    }
+                    CharRanges lab = la.intersect(automaton.getLabel(b2));
+                    for (int c2 : automaton.getSuccessors(c)) {
+                        if (--tripleBudget < 0) {
+                            return null;
+                        }
+                        if (scc[c2] != scc[q] || !lab.intersects(automaton.getLabel(c2))) {
+                            continue;
+                        }
+                        long key = encode(a2, b2, c2);
+                        if (parent.containsKey(key)) {
+                            continue;
+                        }
+                        parent.put(key, node);
+                        if (key == goal) {
+                            return tripleWord(parent, start, goal);
+                        }
+                        queue.add(key);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private long encode(int a, int b, int c) {
+        return ((long) a * n + b) * n + c;
+    }
+
+    private String tripleWord(Map<Long, Long> parent, long start, long goal) {
+        StringBuilder sb = new StringBuilder();
+        for (long node = goal; node != start; node = parent.get(node)) {
+            int a = (int) (node / n / n);
+            int b = (int) (node / n % n);
+            int c = (int) (node % n);
+            sb.appendCodePoint(automaton.getLabel(a).intersect(automaton.getLabel(b)).intersect(automaton.getLabel(c)).sample());
+        }
+        return sb.reverse().toString();
+    }
+
+    /**
+     * @return 每个状态从自身出发可到达的状态 (含自身)
+     */
+    private BitSet[] reachability() {
+        BitSet[] reach = new BitSet[n];
+        for (int p = 0; p < n; p++) {
+            BitSet visited = new BitSet(n);
+            visited.set(p);
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            queue.add(p);
+            while (!queue.isEmpty()) {
+                for (int next : automaton.getSuccessors(queue.poll())) {
+                    if (!visited.get(next)) {
+                        visited.set(next);
+                        queue.add(next);
+                    }
+                }
+            }
+            reach[p] = visited;
+        }
+        return reach;
+    }
+
+    /**
+     * 自动机状态的强连通分量，编号按完成顺序 (汇点分量在前)，初始状态不可达的为 -1
+     */
+    private int[] stateComponents() {
+        int[] scc = new int[n];
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(scc, -1);
+        Arrays.fill(index, -1);
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        ArrayDeque<int[]> callStack = new ArrayDeque<>();
+        int nextIndex = 0;
+        int nextComponent = 0;
+        index[0] = lowLink[0] = nextIndex++;
+        stack.push(0);
+        onStack[0] = true;
+        callStack.push(new int[]{0, 0});
+        while (!callStack.isEmpty()) {
+            int[] frame = callStack.peek();
+            int p = frame[0];
+            int[] targets = automaton.getSuccessors(p);
+            if (frame[1] < targets.length) {
+                int q = targets[frame[1]++];
+                if (index[q] < 0) {
+                    index[q] = lowLink[q] = nextIndex++;
+                    stack.push(q);
+                    onStack[q] = true;
+                    callStack.push(new int[]{q, 0});
+                } else if (onStack[q]) {
+                    lowLink[p] = Math.min(lowLink[p], index[q]);
+                }
+                continue;
+            }
+            callStack.pop();
+            if (lowLink[p] == index[p]) {
+                int member;
+                do {
+                    member = stack.pop();
+                    onStack[member] = false;
+                    scc[member] = nextComponent;
+                } while (member != p);
+                nextComponent++;
+            }
+            if (!callStack.isEmpty()) {
+                int parent = callStack.peek()[0];
+                lowLink[parent] = Math.min(lowLink[parent], lowLink[p]);
+            }
+        }
+        return scc;
+    }
+}
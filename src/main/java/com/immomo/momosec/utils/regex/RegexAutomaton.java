@@ -0,0 +1,338 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 由语法树构造的无 ε 转移的位置自动机 (Glushkov automaton)
+ *
+ * 状态 0 为初始状态，状态 i (i &gt;= 1) 对应语法树中第 i 个 CharClass 出现的位置，
+ * 进入状态 i 的所有转移都以该位置的字符集合为标签。
+ *
+ * 与教科书构造的区别在于 follow 关系记录了重数：同一对位置之间若存在多条结构上不同的 ε 路径
+ * (如 (a+)+ 中内外两层循环都产生 a→a)，回溯引擎会分别尝试，因此视为两条平行的转移。
+ * 这正是嵌套量词产生歧义的来源，普通 Glushkov 构造会将其合并而丢失。
+ *
+ * 近似:
+ * (1) X{n,m} 中必须出现的拷贝数超过 MAX_COPIES 时按 MAX_COPIES 计；可选拷贝数超过 MAX_COPIES 时改为 X*
+ * (2) 反向引用按被引用分组的一份拷贝构造，自引用按空串处理
+ * (3) 锚点与环视按空串处理，anchorEnds 时结尾锚点除外
+ * (4) 独占分组与占有量词内的位置标记所属区域，回溯不会再次进入已退出的区域
+ */
+public final class RegexAutomaton {
+
+    public static final int MAX_POSITIONS = 500;
+    static final int MAX_COPIES = 10;
+
+    private final CharRanges[] labels;
+    private final int[] regions;
+    private final int[][] successors;
+    private final boolean[][] multiple;
+    private final boolean[] accepting;
+
+    private RegexAutomaton(CharRanges[] labels, int[] regions, int[][] successors, boolean[][] multiple, boolean[] accepting) {
+        this.labels = labels;
+        this.regions = regions;
+        this.successors = successors;
+        this.multiple = multiple;
+        this.accepting = accepting;
+    }
+
+    public static RegexAutomaton build(RegexNode root) {
+        return build(root, false);
+    }
+
+    /**
+     * @param root       语法树
+     * @param anchorEnds 为 true 时 $ \z 等结尾锚点按不可匹配的位置构造，锚点之前的位置不再是接受状态；
+     *                   用于 find 语义下区分 "匹配可以提前成功" 与 "必须到达输入末尾"
+     * @return RegexAutomaton，位置数超过 MAX_POSITIONS 时返回 null
+     */
+    public static RegexAutomaton build(RegexNode root, boolean anchorEnds) {
+        Builder builder = new Builder(anchorEnds);
+        Fragment fragment;
+        try {
+            fragment = builder.build(root);
+        } catch (TooLargeException e) {
+            return null;
+        }
+        return builder.finish(fragment);
+    }
+
+    public int getStateCount() {
+        return labels.length;
+    }
+
+    /**
+     * @param state 状态，0 为初始状态
+     * @return 进入该状态的转移标签，初始状态为 null
+     */
+    public CharRanges getLabel(int state) {
+        return labels[state];
+    }
+
+    /**
+     * @return 所属独占区域编号，不在独占区域内时为 0
+     */
+    public int getRegion(int state) {
+        return regions[state];
+    }
+
+    public int[] getSuccessors(int state) {
+        return successors[state];
+    }
+
+    /**
+     * @return getSuccessors(state)[index] 这条转移是否有多条平行路径
+     */
+    public boolean isMultiple(int state, int index) {
+        return multiple[state][index];
+    }
+
+    public boolean isAccepting(int state) {
+        return accepting[state];
+    }
+
+    private static final class TooLargeException extends RuntimeException {
+        TooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class Fragment {
+        static final Fragment EMPTY = new Fragment(true, new ArrayList<>(), new ArrayList<>());
+
+        final boolean nullable;
+        final List<Integer> first;
+        final List<Integer> last;
+
+        Fragment(boolean nullable, List<Integer> first, List<Integer> last) {
+            this.nullable = nullable;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    private static final class Builder {
+        private final List<CharRanges> labels = new ArrayList<>();
+        private final List<Integer> regions = new ArrayList<>();
+        private final List<Map<Integer, Integer>> follow = new ArrayList<>();
+        private final Set<RegexNode.Group> building = new HashSet<>();
+        private final boolean anchorEnds;
+        private int nextRegion = 1;
+
+        Builder(boolean anchorEnds) {
+            this.anchorEnds = anchorEnds;
+            newState(null);
+        }
+
+        private int newState(CharRanges label) {
+            if (labels.size() > MAX_POSITIONS) {
+                throw new TooLargeException();
+            }
+            labels.add(label);
+            regions.add(0);
+            follow.add(new LinkedHashMap<>());
+            return labels.size() - 1;
+        }
+
+        private void link(List<Integer> from, List<Integer> to) {
+            for (int p : from) {
+                Map<Integer, Integer> targets = follow.get(p);
+                for (int q : to) {
+                    targets.merge(q, 1, (a, b) -> Math.min(a + b, 2));
+                }
+            }
+        }
+
+        Fragment build(RegexNode node) {
+            if (node instanceof RegexNode.CharClass) {
+                int p = newState(((RegexNode.CharClass) node).getChars());
+                List<Integer> positions = new ArrayList<>();
+                positions.add(p);
+                return new Fragment(false, positions, positions);
+            }
+            if (node instanceof RegexNode.Sequence) {
+                Fragment result = Fragment.EMPTY;
+                for (RegexNode item : ((RegexNode.Sequence) node).getItems()) {
+                    result = concat(result, build(item));
+                }
+                return result;
+            }
+            if (node instanceof RegexNode.Alternation) {
+                boolean nullable = false;
+                List<Integer> first = new ArrayList<>();
+                List<Integer> last = new ArrayList<>();
+                for (RegexNode alternative : ((RegexNode.Alternation) node).getAlternatives()) {
+                    Fragment fragment = build(alternative);
+                    nullable |= fragment.nullable;
+                    first.addAll(fragment.first);
+                    last.addAll(fragment.last);
+                }
+                return new Fragment(nullable, first, last);
+            }
+            if (node instanceof RegexNode.Group) {
+                RegexNode.Group group = (RegexNode.Group) node;
+                int start = labels.size();
+                building.add(group);
+                Fragment fragment = build(group.getBody());
+                building.remove(group);
+                if (group.isAtomic()) {
+                    markRegion(start);
+                }
+                return fragment;
+            }
+            if (node instanceof RegexNode.Repeat) {
+                RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+                int start = labels.size();
+                Fragment fragment = repeat(repeat);
+                if (repeat.getMode() == RegexNode.Repeat.Mode.POSSESSIVE) {
+                    markRegion(start);
+                }
+                return fragment;
+            }
+            if (node instanceof RegexNode.Backreference) {
+                RegexNode.Group group = ((RegexNode.Backreference) node).getGroup();
+                if (group == null || building.contains(group)) {
+                    return Fragment.EMPTY;
+                }
+                building.add(group);
+                Fragment fragment = build(group.getBody());
+                building.remove(group);
+                return fragment;
+            }
+            if (anchorEnds && node instanceof RegexNode.Assertion) {
+                RegexNode.Assertion.Kind kind = ((RegexNode.Assertion) node).getKind();
+                if (kind == RegexNode.Assertion.Kind.INPUT_END || kind == RegexNode.Assertion.Kind.LINE_END) {
+                    return build(new RegexNode.CharClass(CharRanges.EMPTY));
+                }
+            }
+            // Empty / Assertion
+            return Fragment.EMPTY;
+        }
+
+        private Fragment repeat(RegexNode.Repeat repeat) {
+            RegexNode body = repeat.getBody();
+            int min = repeat.getMin();
+            int optional = repeat.isUnbounded() ? -1 : repeat.getMax() - min;
+            if (min > MAX_COPIES) {
+                min = MAX_COPIES;
+            }
+            if (optional > MAX_COPIES) {
+                optional = -1;
+            }
+            Fragment result = Fragment.EMPTY;
+            if (optional < 0) {
+                // X{n,} 构造为 X{n-1} X+，X* 与 X+ 的循环只出现在最后一份拷贝上
+                for (int i = 1; i < min; i++) {
+                    result = concat(result, build(body));
+                }
+                Fragment loop = build(body);
+                link(loop.last, loop.first);
+                return concat(result, min == 0 ? optional(loop) : loop);
+            }
+            for (int i = 0; i < min; i++) {
+                result = concat(result, build(body));
+            }
+            return concat(result, nestedOptional(body, optional));
+        }
+
+        /**
+         * 构造 (X(X(X)?)?)? 形式的 k 份可选拷贝，避免 X?X?X? 带来的虚假歧义
+         */
+        private Fragment nestedOptional(RegexNode body, int k) {
+            if (k == 0) {
+                return Fragment.EMPTY;
+            }
+            Fragment head = build(body);
+            return optional(concat(head, nestedOptional(body, k - 1)));
+        }
+
+        private static Fragment optional(Fragment fragment) {
+            return fragment.nullable ? fragment : new Fragment(true, fragment.first, fragment.last);
+        }
+
+        private Fragment concat(Fragment left, Fragment right) {
+            if (left == Fragment.EMPTY) {
+                return right;
+            }
+            if (right == Fragment.EMPTY) {
+                return left;
+            }
+            link(left.last, right.first);
+            List<Integer> first = new ArrayList<>(left.first);
+            if (left.nullable) {
+                first.addAll(right.first);
+            }
+            List<Integer> last = new ArrayList<>(right.last);
+            if (right.nullable) {
+                last.addAll(left.last);
+            }
+            return new Fragment(left.nullable && right.nullable, first, last);
+        }
+
+        /**
+         * 将 [start, 当前) 的位置划入新的独占区域，嵌套时外层覆盖内层
+         */
+        private void markRegion(int start) {
+            int region = nextRegion++;
+            for (int i = start; i < regions.size(); i++) {
+                regions.set(i, region);
+            }
+        }
+
+        RegexAutomaton finish(Fragment root) {
+            for (int p : root.first) {
+                follow.get(0).put(p, 1);
+            }
+            int n = labels.size();
+            CharRanges[] labelArray = labels.toArray(new CharRanges[0]);
+            int[] regionArray = new int[n];
+            int[][] successorArray = new int[n][];
+            boolean[][] multipleArray = new boolean[n][];
+            boolean[] acceptingArray = new boolean[n];
+            for (int p = 0; p < n; p++) {
+                regionArray[p] = regions.get(p);
+                List<Integer> targets = new ArrayList<>();
+                List<Boolean> multiples = new ArrayList<>();
+                for (Map.Entry<Integer, Integer> entry : follow.get(p).entrySet()) {
+                    // 标签为空集的转移永远不会发生
+                    if (!labelArray[entry.getKey()].isEmpty()) {
+                        targets.add(entry.getKey());
+                        multiples.add(entry.getValue() > 1);
+                    }
+                }
+                successorArray[p] = new int[targets.size()];
+                multipleArray[p] = new boolean[targets.size()];
+                for (int i = 0; i < targets.size(); i++) {
+                    successorArray[p][i] = targets.get(i);
+                    multipleArray[p][i] = multiples.get(i);
+                }
+            }
+            for (int p : root.last) {
+                acceptingArray[p] = true;
+            }
+            acceptingArray[0] = root.nullable;
+            return new RegexAutomaton(labelArray, regionArray, successorArray, multipleArray, acceptingArray);
+        }
+    }
+}
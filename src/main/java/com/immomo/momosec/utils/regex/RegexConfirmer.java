@@ -0,0 +1,269 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * ReDoS 的动态验证
+ *
+ * 由 RegexAnalyzer 给出的歧义证据构造攻击输入 prefix + pump^n + suffix，suffix 使匹配失败从而迫使引擎回溯；
+ * 以倍增的 n 在本地用 java.util.regex 执行匹配，输入包装为统计 charAt 次数的 CharSequence，次数即匹配步数；
+ * 步数超过预算时中止匹配。由最后两次测量拟合增长指数，超线性增长 (指数不小于 MIN_EXPONENT) 即视为验证成功。
+ *
+ * 同一正则在不同 JDK 上的表现可能不同，如 JDK 9 起对部分嵌套循环做了记忆化，指数级回溯退化为多项式级，
+ * 因此以实测增长而非静态结论判定。
+ *
+ * 匹配在调用线程上执行，每 CHECK_INTERVAL 步调用一次 checkCanceled，由调用方决定如何取消 (如 ProgressManager.checkCanceled)。
+ */
+public final class RegexConfirmer {
+
+    public static final long DEFAULT_BUDGET = 5_000_000L;
+    static final int CHECK_INTERVAL = 4096;
+    static final int MAX_INPUT_LENGTH = 100_000;
+    static final double MIN_EXPONENT = 1.5;
+    static final long MIN_STEPS = 100_000L;
+
+    private static final String[] SUFFIX_CANDIDATES = { "!", "\0", "\n", " ", "a", "0", "!\n" };
+
+    public static final class Confirmation {
+        static final Confirmation UNCONFIRMED = new Confirmation(false, false, 0, Collections.emptyList());
+
+        private final boolean confirmed;
+        private final boolean exceeded;
+        private final double exponent;
+        private final List<long[]> growth;
+
+        Confirmation(boolean confirmed, boolean exceeded, double exponent, List<long[]> growth) {
+            this.confirmed = confirmed;
+            this.exceeded = exceeded;
+            this.exponent = exponent;
+            this.growth = Collections.unmodifiableList(growth);
+        }
+        public boolean isConfirmed() {
+            return confirmed;
+        }
+
+        /**
+         * @return 最后一次匹配是否超出步数预算，此时 getSteps 与 getExponent 均为下界
+         */
+        public boolean isExceeded() {
+            return exceeded;
+        }
+
+        /**
+         * @return 拟合出的增长指数，步数约为 length^exponent
+         */
+        public double getExponent() {
+            return exponent;
+        }
+
+        /**
+         * @return 最后一次测量的输入长度
+         */
+        public int getInputLength() {
+            return growth.isEmpty() ? 0 : (int) growth.get(growth.size() - 1)[0];
+        }
+
+        /**
+         * @return 最后一次测量的步数
+         */
+        public long getSteps() {
+            return growth.isEmpty() ? 0 : growth.get(growth.size() - 1)[1];
+        }
+
+        /**
+         * @return 增长曲线，每项为 {输入长度, 步数}
+         */
+        public List<long[]> getGrowth() {
+            return growth;
+        }
+    }
+
+    private RegexConfirmer() {
+    }
+
+    /**
+     * @param regex         正则
+     * @param flags         java.util.regex.Pattern 的 flag
+     * @param mode          匹配方式
+     * @param result        RegexAnalyzer 对同一正则的分析结果
+     * @param budget        单次匹配允许的最大步数
+     * @param checkCanceled 周期性调用，可抛出异常以取消
+     * @return Confirmation
+     */
+    public static Confirmation confirm(String regex, int flags, RegexAnalyzer.MatchMode mode, RegexAnalyzer.Result result,
+                                       long budget, Runnable checkCanceled) {
+        if (result.getPumps().isEmpty()) {
+            return Confirmation.UNCONFIRMED;
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex, flags);
+        } catch (PatternSyntaxException e) {
+            return Confirmation.UNCONFIRMED;
+        }
+        String suffix = findFailingSuffix(pattern, mode, result, budget, checkCanceled);
+        if (suffix == null) {
+            return Confirmation.UNCONFIRMED;
+        }
+
+        List<long[]> growth = new ArrayList<>();
+        boolean exceeded = false;
+        for (int n = 8; !exceeded; n *= 2) {
+            String input = attack(result, n, suffix);
+            if (input.length() > MAX_INPUT_LENGTH) {
+                break;
+            }
+            StepCountingCharSequence counting = new StepCountingCharSequence(input, budget, checkCanceled);
+            Boolean outcome = run(pattern, mode, counting);
+            if (outcome == null) {
+                break;
+            }
+            exceeded = outcome;
+            growth.add(new long[]{input.length(), counting.getSteps()});
+        }
+        return evaluate(growth, exceeded);
+    }
+
+    /**
+     * 超出预算的测量只给出步数下界，拟合时优先使用最后两次完整的测量
+     */
+    private static Confirmation evaluate(List<long[]> growth, boolean exceeded) {
+        int complete = exceeded ? growth.size() - 1 : growth.size();
+        if (complete == 0 && exceeded) {
+            // 最短的攻击输入即超出预算
+            long[] first = growth.get(0);
+            return new Confirmation(true, true, Math.log(first[1]) / Math.log(first[0]), growth);
+        }
+        if (growth.size() < 2) {
+            return new Confirmation(false, exceeded, 0, growth);
+        }
+        long[] before = growth.get(complete >= 2 ? complete - 2 : 0);
+        long[] last = growth.get(complete >= 2 ? complete - 1 : 1);
+        double exponent = Math.log((double) last[1] / before[1]) / Math.log((double) last[0] / before[0]);
+        boolean confirmed = exponent >= MIN_EXPONENT && (exceeded || last[1] >= MIN_STEPS);
+        return new Confirmation(confirmed, exceeded, exponent, growth);
+    }
+
+    /**
+     * 在较小的 n 下选出使匹配失败的后缀
+     */
+    private static String findFailingSuffix(Pattern pattern, RegexAnalyzer.MatchMode mode, RegexAnalyzer.Result result,
+                                            long budget, Runnable checkCanceled) {
+        for (String suffix : SUFFIX_CANDIDATES) {
+            StepCountingCharSequence counting = new StepCountingCharSequence(attack(result, 2, suffix), budget, checkCanceled);
+            try {
+                Matcher matcher = pattern.matcher(counting);
+                if (!(mode == RegexAnalyzer.MatchMode.FULL ? matcher.matches() : matcher.find())) {
+                    return suffix;
+                }
+            } catch (BudgetExceededException e) {
+                return suffix;
+            } catch (StackOverflowError e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 是否超出步数预算，栈溢出时返回 null
+     */
+    private static Boolean run(Pattern pattern, RegexAnalyzer.MatchMode mode, StepCountingCharSequence input) {
+        try {
+            Matcher matcher = pattern.matcher(input);
+            if (mode == RegexAnalyzer.MatchMode.FULL) {
+                matcher.matches();
+            } else {
+                matcher.find();
+            }
+            return false;
+        } catch (BudgetExceededException e) {
+            return true;
+        } catch (StackOverflowError e) {
+            // 递归过深与回溯无关，本次测量无效
+            return null;
+        }
+    }
+
+    static String attack(RegexAnalyzer.Result result, int n, String suffix) {
+        StringBuilder sb = new StringBuilder(result.getPrefix());
+        for (String pump : result.getPumps()) {
+            for (int i = 0; i < n && sb.length() <= MAX_INPUT_LENGTH; i++) {
+                sb.append(pump);
+            }
+        }
+        return sb.append(suffix).toString();
+    }
+
+    private static final class BudgetExceededException extends RuntimeException {
+        BudgetExceededException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 统计 charAt 次数的 CharSequence，java.util.regex 对输入的每次读取都经过 charAt
+     */
+    static final class StepCountingCharSequence implements CharSequence {
+        private final String text;
+        private final long budget;
+        private final Runnable checkCanceled;
+        private long steps;
+
+        StepCountingCharSequence(String text, long budget, Runnable checkCanceled) {
+            this.text = text;
+            this.budget = budget;
+            this.checkCanceled = checkCanceled;
+        }
+
+        long getSteps() {
+            return steps;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++steps > budget) {
+                throw new BudgetExceededException();
+            }
+            if (steps % CHECK_INTERVAL == 0 && checkCanceled != null) {
+                checkCanceled.run();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
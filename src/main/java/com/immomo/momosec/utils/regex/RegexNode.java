@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 正则表达式语法树，由 RegexParser 产生
+ *
+ * 大小写不敏感等 flag 在解析时已折算进 CharClass 的字符集合，语法树本身不再携带 flag。
+ */
+public abstract class RegexNode {
+
+    private RegexNode() {
+    }
+
+    /**
+     * 匹配单个字符，如 a / [a-z] / \d / .
+     */
+    public static final class CharClass extends RegexNode {
+        private final CharRanges chars;
+
+        public CharClass(CharRanges chars) {
+            this.chars = chars;
+        }
+
+        public CharRanges getChars() {
+            return chars;
+        }
+
+        @Override
+        public String toString() {
+            return chars.toString();
+        }
+    }
+
+    /**
+     * 空串
+     */
+    public static final class Empty extends RegexNode {
+        public static final Empty INSTANCE = new Empty();
+
+        private Empty() {
+        }
+
+        @Override
+        public String toString() {
+            return "()";
+        }
+    }
+
+    public static final class Sequence extends RegexNode {
+        private final List<RegexNode> items;
+
+        public Sequence(List<RegexNode> items) {
+            this.items = Collections.unmodifiableList(items);
+        }
+
+        public List<RegexNode> getItems() {
+            return items;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (RegexNode item : items) {
+                sb.append(item);
+            }
+            return sb.toString();
+        }
+    }
+
+    public static final class Alternation extends RegexNode {
+        private final List<RegexNode> alternatives;
+
+        public Alternation(List<RegexNode> alternatives) {
+            this.alternatives = Collections.unmodifiableList(alternatives);
+        }
+
+        public List<RegexNode> getAlternatives() {
+            return alternatives;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(?:");
+            for (int i = 0; i < alternatives.size(); i++) {
+                sb.append(i == 0 ? "" : "|").append(alternatives.get(i));
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    /**
+     * 分组，index 为捕获组序号，非捕获组为 -1；atomic 表示独占分组 (?&gt;X)
+     */
+    public static final class Group extends RegexNode {
+        private final RegexNode body;
+        private final int index;
+        private final String name;
+        private final boolean atomic;
+
+        public Group(RegexNode body, int index, String name, boolean atomic) {
+            this.body = body;
+            this.index = index;
+            this.name = name;
+            this.atomic = atomic;
+        }
+
+        public RegexNode getBody() {
+            return body;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isAtomic() {
+            return atomic;
+        }
+
+        public boolean isCapturing() {
+            return index > 0;
+        }
+
+        @Override
+        public String toString() {
+            return (atomic ? "(?>" : isCapturing() ? "(" : "(?:") + body + ")";
+        }
+    }
+
+    public static final class Repeat extends RegexNode {
+        public static final int UNBOUNDED = -1;
+
+        public enum Mode {
+            GREEDY,
+            LAZY,
+            POSSESSIVE
+        }
+
+        private final RegexNode body;
+        private final int min;
+        private final int max;
+        private final Mode mode;
+
+        public Repeat(RegexNode body, int min, int max, Mode mode) {
+            this.body = body;
+            this.min = min;
+            this.max = max;
+            this.mode = mode;
+        }
+
+        public RegexNode getBody() {
+            return body;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        /**
+         * @return 最大重复次数，无上限时为 UNBOUNDED
+         */
+        public int getMax() {
+            return max;
+        }
+
+        public boolean isUnbounded() {
+            return max == UNBOUNDED;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        @Override
+        public String toString() {
+            String suffix = mode == Mode.LAZY ? "?" : mode == Mode.POSSESSIVE ? "+" : "";
+            return body + "{" + min + "," + (max == UNBOUNDED ? "" : String.valueOf(max)) + "}" + suffix;
+        }
+    }
+
+    /**
+     * 零宽断言，锚点与环视均不消耗字符；环视的 body 保留以备单独分析
+     */
+    public static final class Assertion extends RegexNode {
+        public enum Kind {
+            LINE_START,
+            LINE_END,
+            INPUT_START,
+            INPUT_END,
+            WORD_BOUNDARY,
+            NOT_WORD_BOUNDARY,
+            LOOKAHEAD,
+            NEGATIVE_LOOKAHEAD,
+            LOOKBEHIND,
+            NEGATIVE_LOOKBEHIND
+        }
+
+        private final Kind kind;
+        private final RegexNode body;
+
+        public Assertion(Kind kind, RegexNode body) {
+            this.kind = kind;
+            this.body = body;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return 环视的内容，锚点为 null
+         */
+        public RegexNode getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return body == null ? "<" + kind + ">" : "<" + kind + ":" + body + ">";
+        }
+    }
+
+    /**
+     * 反向引用，语言上近似为被引用分组的一份拷贝；引用的分组在解析结束后回填
+     */
+    public static final class Backreference extends RegexNode {
+        private final int index;
+        private final String name;
+        private Group group;
+
+        public Backreference(int index, String name) {
+            this.index = index;
+            this.name = name;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return 被引用的分组，引用不存在的分组时为 null
+         */
+        public Group getGroup() {
+            return group;
+        }
+
+        void setGroup(Group group) {
+            this.group = group;
+        }
+
+        @Override
+        public String toString() {
+            return name != null ? "\\k<" + name + ">" : "\\" + index;
+        }
+    }
+}
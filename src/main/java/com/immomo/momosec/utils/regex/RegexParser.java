@@ -0,0 +1,747 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * java.util.regex 方言的正则解析器
+ *
+ * 支持: 选择、捕获/命名/非捕获/独占分组、环视、内联 flag (?idmsux-idmsux) 与 (?i:X)、
+ * 贪婪/懒惰/占有量词、字符类 (范围、取反、嵌套、&amp;&amp; 交集)、预定义类与 \p{..}、
+ * \x \0 \c 及 Unicode 等转义、\Q..\E、反向引用 \n 与 \k&lt;name&gt;、锚点。
+ *
+ * 与 Pattern.compile 的差异:
+ * (1) 大小写不敏感只折算 ASCII 字母
+ * (2) \p{..} 中的 Unicode 类别以少量代表性区间近似，未知属性近似为全部非 ASCII 字符
+ * (3) \X 近似为任意单个字符
+ * 这些近似只影响字符集合的精度，不影响语法树的结构。
+ */
+public class RegexParser {
+
+    private static final CharRanges LETTER = CharRanges.of('a', 'z', 'A', 'Z', 0xC0, 0x24F, 0x370, 0x4FF, 0x4E00, 0x9FFF);
+    private static final CharRanges NUMBER = CharRanges.of('0', '9', 0x660, 0x669, 0xFF10, 0xFF19);
+    private static final CharRanges PUNCT = CharRanges.of('!', '/', ':', '@', '[', '`', '{', '~');
+
+    private final String pattern;
+    private int pos;
+    private int flags;
+    private int groupCount;
+    private final Map<Integer, RegexNode.Group> groups = new HashMap<>();
+    private final Map<String, RegexNode.Group> namedGroups = new HashMap<>();
+    private final List<RegexNode.Backreference> backreferences = new ArrayList<>();
+
+    private RegexParser(String pattern, int flags) {
+        this.pattern = pattern;
+        this.flags = flags;
+    }
+
+    public static RegexNode parse(String pattern) {
+        return parse(pattern, 0);
+    }
+
+    /**
+     * @param pattern 正则
+     * @param flags   Pattern.CASE_INSENSITIVE 等 java.util.regex.Pattern 的 flag
+     * @return RegexNode
+     * @throws PatternSyntaxException 语法错误
+     */
+    public static RegexNode parse(String pattern, int flags) {
+        RegexParser parser = new RegexParser(pattern, flags);
+        if ((flags & Pattern.LITERAL) != 0) {
+            return parser.literal(pattern);
+        }
+        RegexNode root = parser.parseAlternation();
+        if (parser.pos < pattern.length()) {
+            throw parser.error("Unmatched closing ')'");
+        }
+        for (RegexNode.Backreference ref : parser.backreferences) {
+            ref.setGroup(ref.getName() != null ? parser.namedGroups.get(ref.getName()) : parser.groups.get(ref.getIndex()));
+        }
+        return root;
+    }
+
+    private RegexNode parseAlternation() {
+        List<RegexNode> alternatives = new ArrayList<>();
+        alternatives.add(parseSequence());
+        while (peek() == '|') {
+            pos++;
+            alternatives.add(parseSequence());
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : new RegexNode.Alternation(alternatives);
+    }
+
+    private RegexNode parseSequence() {
+        List<RegexNode> items = new ArrayList<>();
+        int c;
+        while ((c = peek()) != -1 && c != '|' && c != ')') {
+            RegexNode atom = parseAtom();
+            if (atom == null) {
+                continue;
+            }
+            items.add(parseQuantifiers(atom));
+        }
+        if (items.isEmpty()) {
+            return RegexNode.Empty.INSTANCE;
+        }
+        return items.size() == 1 ? items.get(0) : new RegexNode.Sequence(items);
+    }
+
+    private RegexNode parseQuantifiers(RegexNode atom) {
+        while (true) {
+            int c = peek();
+            int min;
+            int max;
+            if (c == '*') {
+                pos++;
+                min = 0;
+                max = RegexNode.Repeat.UNBOUNDED;
+            } else if (c == '+') {
+                pos++;
+                min = 1;
+                max = RegexNode.Repeat.UNBOUNDED;
+            } else if (c == '?') {
+                pos++;
+                min = 0;
+                max = 1;
+            } else if (c == '{') {
+                int start = pos++;
+                min = parseNumber();
+                if (min < 0) {
+                    pos = start;
+                    throw error("Illegal repetition");
+                }
+                max = min;
+                if (pos < pattern.length() && pattern.charAt(pos) == ',') {
+                    pos++;
+                    max = parseNumber();
+                    if (max < 0) {
+                        max = RegexNode.Repeat.UNBOUNDED;
+                    } else if (max < min) {
+                        throw error("Illegal repetition range");
+                    }
+                }
+                if (pos >= pattern.length() || pattern.charAt(pos) != '}') {
+                    throw error("Unclosed counted closure");
+                }
+                pos++;
+            } else {
+                return atom;
+            }
+            RegexNode.Repeat.Mode mode = RegexNode.Repeat.Mode.GREEDY;
+            if (pos < pattern.length() && pattern.charAt(pos) == '?') {
+                pos++;
+                mode = RegexNode.Repeat.Mode.LAZY;
+            } else if (pos < pattern.length() && pattern.charAt(pos) == '+') {
+                pos++;
+                mode = RegexNode.Repeat.Mode.POSSESSIVE;
+            }
+            atom = new RegexNode.Repeat(atom, min, max, mode);
+        }
+    }
+
+    /**
+     * @return 原子；内联 flag (?i) 等不产生节点时返回 null
+     */
+    private RegexNode parseAtom() {
+        int c = peek();
+        switch (c) {
+            case '(':
+                pos++;
+                return parseGroup();
+            case '[':
+                pos++;
+                return new RegexNode.CharClass(parseClass());
+            case '.':
+                pos++;
+                if (has(Pattern.DOTALL)) {
+                    return new RegexNode.CharClass(CharRanges.ALL);
+                }
+                return new RegexNode.CharClass(has(Pattern.UNIX_LINES) ?
+                        CharRanges.single('\n').complement() : CharRanges.LINE_TERMINATOR.complement());
+            case '^':
+                pos++;
+                return new RegexNode.Assertion(has(Pattern.MULTILINE) ?
+                        RegexNode.Assertion.Kind.LINE_START : RegexNode.Assertion.Kind.INPUT_START, null);
+            case '$':
+                pos++;
+                return new RegexNode.Assertion(has(Pattern.MULTILINE) ?
+                        RegexNode.Assertion.Kind.LINE_END : RegexNode.Assertion.Kind.INPUT_END, null);
+            case '\\':
+                pos++;
+                return parseEscape();
+            case '*':
+            case '+':
+            case '?':
+                throw error("Dangling meta character '" + (char) c + "'");
+            case '{':
+                throw error("Illegal repetition");
+            default:
+                pos += Character.charCount(c);
+                return charNode(c);
+        }
+    }
+
+    private RegexNode parseGroup() {
+        int savedFlags = flags;
+        RegexNode result;
+        if (pos < pattern.length() && pattern.charAt(pos) == '?') {
+            pos++;
+            int c = pos < pattern.length() ? pattern.charAt(pos) : -1;
+            if (c == ':') {
+                pos++;
+                result = new RegexNode.Group(parseAlternation(), -1, null, false);
+            } else if (c == '>') {
+                pos++;
+                result = new RegexNode.Group(parseAlternation(), -1, null, true);
+            } else if (c == '=' || c == '!') {
+                pos++;
+                result = new RegexNode.Assertion(c == '=' ?
+                        RegexNode.Assertion.Kind.LOOKAHEAD : RegexNode.Assertion.Kind.NEGATIVE_LOOKAHEAD, parseAlternation());
+            } else if (c == '<' && pos + 1 < pattern.length() &&
+                       (pattern.charAt(pos + 1) == '=' || pattern.charAt(pos + 1) == '!')) {
+                boolean positive = pattern.charAt(pos + 1) == '=';
+                pos += 2;
+                result = new RegexNode.Assertion(positive ?
+                        RegexNode.Assertion.Kind.LOOKBEHIND : RegexNode.Assertion.Kind.NEGATIVE_LOOKBEHIND, parseAlternation());
+            } else if (c == '<') {
+                pos++;
+                String name = parseGroupName();
+                if (namedGroups.containsKey(name)) {
+                    throw error("Named capturing group <" + name + "> is already defined");
+                }
+                result = capturingGroup(name);
+            } else {
+                if (parseInlineFlags()) {
+                    // (?i) 作用到所在分组结束，不恢复 flag
+                    return null;
+                }
+                result = new RegexNode.Group(parseAlternation(), -1, null, false);
+            }
+        } else {
+            result = capturingGroup(null);
+        }
+        flags = savedFlags;
+        if (peek() != ')') {
+            throw error("Unclosed group");
+        }
+        pos++;
+        return result;
+    }
+
+    private RegexNode capturingGroup(String name) {
+        int index = ++groupCount;
+        if (name != null) {
+            // 先登记名字再解析内容，使 (?<a>x\k<a>) 这类自引用能通过检查
+            namedGroups.put(name, null);
+        }
+        RegexNode.Group group = new RegexNode.Group(parseAlternation(), index, name, false);
+        groups.put(index, group);
+        if (name != null) {
+            namedGroups.put(name, group);
+        }
+        return group;
+    }
+
+    private String parseGroupName() {
+        int start = pos;
+        while (pos < pattern.length() && Character.isLetterOrDigit(pattern.charAt(pos)) && pattern.charAt(pos) < 0x80) {
+            pos++;
+        }
+        if (pos == start || !Character.isLetter(pattern.charAt(start)) || pos >= pattern.length() || pattern.charAt(pos) != '>') {
+            throw error("Bad named group");
+        }
+        String name = pattern.substring(start, pos);
+        pos++;
+        return name;
+    }
+
+    /**
+     * 解析 (?idmsuxU-idmsuxU) 或 (?idmsuxU-idmsuxU: 的 flag 部分
+     * @return true 为 (?flags) 形式且已消耗右括号；false 为 (?flags:X) 形式，已消耗冒号
+     */
+    private boolean parseInlineFlags() {
+        boolean enable = true;
+        while (pos < pattern.length()) {
+            char c = pattern.charAt(pos++);
+            int flag;
+            switch (c) {
+                case 'i': flag = Pattern.CASE_INSENSITIVE; break;
+                case 'd': flag = Pattern.UNIX_LINES; break;
+                case 'm': flag = Pattern.MULTILINE; break;
+                case 's': flag = Pattern.DOTALL; break;
+                case 'u': flag = Pattern.UNICODE_CASE; break;
+                case 'x': flag = Pattern.COMMENTS; break;
+                case 'U': flag = Pattern.UNICODE_CHARACTER_CLASS; break;
+                case '-':
+                    enable = false;
+                    continue;
+                case ')':
+                    return true;
+                case ':':
+                    return false;
+                default:
+                    pos--;
+                    throw error("Unknown inline modifier");
+            }
+            flags = enable ? flags | flag : flags & ~flag;
+        }
+        throw error("Unknown inline modifier");
+    }
+
+    private RegexNode parseEscape() {
+        if (pos >= pattern.length()) {
+            throw error("Unexpected internal error");
+        }
+        int c = pattern.codePointAt(pos);
+        switch (c) {
+            case 'b':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.WORD_BOUNDARY, null);
+            case 'B':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.NOT_WORD_BOUNDARY, null);
+            case 'A':
+            case 'G':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.INPUT_START, null);
+            case 'Z':
+            case 'z':
+                pos++;
+                return new RegexNode.Assertion(RegexNode.Assertion.Kind.INPUT_END, null);
+            case 'R': {
+                pos++;
+                List<RegexNode> crlf = new ArrayList<>();
+                crlf.add(new RegexNode.CharClass(CharRanges.single('\r')));
+                crlf.add(new RegexNode.CharClass(CharRanges.single('\n')));
+                List<RegexNode> alternatives = new ArrayList<>();
+                alternatives.add(new RegexNode.Sequence(crlf));
+                alternatives.add(new RegexNode.CharClass(CharRanges.VERTICAL_SPACE));
+                return new RegexNode.Group(new RegexNode.Alternation(alternatives), -1, null, true);
+            }
+            case 'X':
+                pos++;
+                return new RegexNode.CharClass(CharRanges.ALL);
+            case 'Q': {
+                pos++;
+                int end = pattern.indexOf("\\E", pos);
+                String quoted = pattern.substring(pos, end < 0 ? pattern.length() : end);
+                pos = end < 0 ? pattern.length() : end + 2;
+                return quoted.isEmpty() ? null : literal(quoted);
+            }
+            case 'k': {
+                pos++;
+                if (pos >= pattern.length() || pattern.charAt(pos) != '<') {
+                    throw error("\\k is not followed by '<' for named capturing group");
+                }
+                pos++;
+                String name = parseGroupName();
+                if (!namedGroups.containsKey(name)) {
+                    throw error("named capturing group <" + name + "> does not exist");
+                }
+                return backreference(0, name);
+            }
+            default:
+                break;
+        }
+        if (c >= '1' && c <= '9') {
+            pos++;
+            int index = c - '0';
+            while (pos < pattern.length()) {
+                char next = pattern.charAt(pos);
+                if (next < '0' || next > '9' || index * 10 + (next - '0') > groupCount) {
+                    break;
+                }
+                index = index * 10 + (next - '0');
+                pos++;
+            }
+            return backreference(index, null);
+        }
+        CharRanges chars = parseClassEscape();
+        return new RegexNode.CharClass(chars);
+    }
+
+    private RegexNode backreference(int index, String name) {
+        RegexNode.Backreference ref = new RegexNode.Backreference(index, name);
+        backreferences.add(ref);
+        return ref;
+    }
+
+    /**
+     * 解析表示字符集合的转义，字符类内外通用；调用时 pos 指向反斜杠之后
+     */
+    private CharRanges parseClassEscape() {
+        int c = pattern.codePointAt(pos);
+        pos += Character.charCount(c);
+        switch (c) {
+            case 'd': return CharRanges.DIGIT;
+            case 'D': return CharRanges.DIGIT.complement();
+            case 'w': return CharRanges.WORD;
+            case 'W': return CharRanges.WORD.complement();
+            case 's': return CharRanges.SPACE;
+            case 'S': return CharRanges.SPACE.complement();
+            case 'h': return CharRanges.HORIZONTAL_SPACE;
+            case 'H': return CharRanges.HORIZONTAL_SPACE.complement();
+            case 'v': return CharRanges.VERTICAL_SPACE;
+            case 'V': return CharRanges.VERTICAL_SPACE.complement();
+            case 'p':
+            case 'P': {
+                CharRanges property = parseProperty();
+                return fold(c == 'P' ? property.complement() : property);
+            }
+            default:
+                pos -= Character.charCount(c);
+                return fold(CharRanges.single(parseEscapedChar()));
+        }
+    }
+
+    /**
+     * 解析转义的单个字符，调用时 pos 指向反斜杠之后
+     */
+    private int parseEscapedChar() {
+        int c = pattern.codePointAt(pos);
+        pos += Character.charCount(c);
+        switch (c) {
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 'f': return '\f';
+            case 'a': return 0x07;
+            case 'e': return 0x1B;
+            case '0': {
+                int value = 0;
+                int digits = 0;
+                while (pos < pattern.length() && digits < 3) {
+                    char next = pattern.charAt(pos);
+                    if (next < '0' || next > '7' || (digits == 2 && value > 037)) {
+                        break;
+                    }
+                    value = value * 8 + (next - '0');
+                    digits++;
+                    pos++;
+                }
+                if (digits == 0) {
+                    throw error("Illegal octal escape sequence");
+                }
+                return value;
+            }
+            case 'x': {
+                if (pos < pattern.length() && pattern.charAt(pos) == '{') {
+                    int end = pattern.indexOf('}', pos);
+                    if (end < 0) {
+                        throw error("Unclosed hexadecimal escape sequence");
+                    }
+                    int value = parseHex(pattern.substring(pos + 1, end));
+                    pos = end + 1;
+                    return value;
+                }
+                return parseHexDigits(2);
+            }
+            case 'u':
+                return parseHexDigits(4);
+            case 'c':
+                if (pos >= pattern.length()) {
+                    throw error("Illegal control escape sequence");
+                }
+                return pattern.charAt(pos++) ^ 64;
+            default:
+                if (c < 0x80 && Character.isLetterOrDigit(c)) {
+                    pos -= Character.charCount(c);
+                    throw error("Illegal/unsupported escape sequence");
+                }
+                return c;
+        }
+    }
+
+    private int parseHexDigits(int count) {
+        if (pos + count > pattern.length()) {
+            throw error("Illegal hexadecimal escape sequence");
+        }
+        int value = parseHex(pattern.substring(pos, pos + count));
+        pos += count;
+        return value;
+    }
+
+    private int parseHex(String digits) {
+        if (digits.isEmpty()) {
+            throw error("Illegal hexadecimal escape sequence");
+        }
+        int value = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = Character.digit(digits.charAt(i), 16);
+            if (digit < 0 || value > CharRanges.MAX_CODE_POINT) {
+                throw error("Illegal hexadecimal escape sequence");
+            }
+            value = value * 16 + digit;
+        }
+        if (value > CharRanges.MAX_CODE_POINT) {
+            throw error("Hexadecimal codepoint is too big");
+        }
+        return value;
+    }
+
+    private CharRanges parseProperty() {
+        String name;
+        if (pos < pattern.length() && pattern.charAt(pos) == '{') {
+            int end = pattern.indexOf('}', pos);
+            if (end < 0) {
+                throw error("Unclosed character family");
+            }
+            name = pattern.substring(pos + 1, end);
+            pos = end + 1;
+        } else if (pos < pattern.length()) {
+            name = pattern.substring(pos, pos + 1);
+            pos++;
+        } else {
+            throw error("Illegal character family");
+        }
+        if (name.isEmpty()) {
+            throw error("Empty character family");
+        }
+        return property(name);
+    }
+
+    private static CharRanges property(String name) {
+        String n = name;
+        int eq = n.indexOf('=');
+        if (eq >= 0) {
+            n = n.substring(eq + 1);
+        } else if (n.startsWith("Is")) {
+            n = n.substring(2);
+        }
+        switch (n) {
+            case "Lower":
+            case "javaLowerCase":
+            case "Ll":
+            case "Lowercase":
+                return CharRanges.of('a', 'z', 0xDF, 0xF6, 0xF8, 0xFF);
+            case "Upper":
+            case "javaUpperCase":
+            case "Lu":
+            case "Uppercase":
+                return CharRanges.of('A', 'Z', 0xC0, 0xD6, 0xD8, 0xDE);
+            case "ASCII":
+            case "InBasicLatin":
+            case "BasicLatin":
+                return CharRanges.range(0, 0x7F);
+            case "Alpha":
+                return CharRanges.of('a', 'z', 'A', 'Z');
+            case "Digit":
+                return CharRanges.DIGIT;
+            case "Alnum":
+                return CharRanges.of('a', 'z', 'A', 'Z', '0', '9');
+            case "Punct":
+                return PUNCT;
+            case "Graph":
+                return CharRanges.range(0x21, 0x7E);
+            case "Print":
+                return CharRanges.range(0x20, 0x7E);
+            case "Blank":
+                return CharRanges.of(' ', ' ', '\t', '\t');
+            case "Cntrl":
+                return CharRanges.of(0, 0x1F, 0x7F, 0x7F);
+            case "XDigit":
+                return CharRanges.of('0', '9', 'a', 'f', 'A', 'F');
+            case "Space":
+                return CharRanges.SPACE;
+            case "L":
+            case "Letter":
+            case "Alphabetic":
+            case "javaLetter":
+            case "javaAlphabetic":
+            case "Lo":
+            case "Lt":
+            case "Lm":
+            case "Latin":
+                return LETTER;
+            case "Han":
+                return CharRanges.range(0x4E00, 0x9FFF);
+            case "N":
+            case "Nd":
+            case "javaDigit":
+                return NUMBER;
+            case "javaLetterOrDigit":
+                return LETTER.union(NUMBER);
+            case "P":
+            case "Punctuation":
+                return PUNCT.union(CharRanges.of(0x2010, 0x2027, 0x3001, 0x3003, 0xFF01, 0xFF0F));
+            case "Z":
+            case "Zs":
+                return CharRanges.of(' ', ' ', 0xA0, 0xA0, 0x2000, 0x200A, 0x3000, 0x3000);
+            case "javaWhitespace":
+            case "White_Space":
+            case "WhiteSpace":
+            case "javaSpaceChar":
+                return CharRanges.SPACE.union(CharRanges.of(0x1C, 0x1F, 0x2000, 0x200A, 0x2028, 0x2029, 0x3000, 0x3000));
+            default:
+                return CharRanges.range(0x80, CharRanges.MAX_CODE_POINT);
+        }
+    }
+
+    /**
+     * 解析字符类，调用时 pos 指向 '[' 之后，返回时已消耗对应的 ']'
+     */
+    private CharRanges parseClass() {
+        boolean negated = false;
+        if (pos < pattern.length() && pattern.charAt(pos) == '^') {
+            pos++;
+            negated = true;
+        }
+        CharRanges result = parseClassItems(true);
+        return negated ? result.complement() : result;
+    }
+
+    private CharRanges parseClassItems(boolean first) {
+        CharRanges result = CharRanges.EMPTY;
+        while (true) {
+            int c = peek();
+            if (c == -1) {
+                throw error("Unclosed character class");
+            }
+            if (c == ']' && !first) {
+                pos++;
+                return result;
+            }
+            first = false;
+            if (c == '[') {
+                pos++;
+                result = result.union(parseClass());
+                continue;
+            }
+            if (c == '&' && pattern.startsWith("&&", pos)) {
+                pos += 2;
+                // 右侧一直延续到本层的 ']'
+                CharRanges right = parseClassItems(false);
+                return result.intersect(right);
+            }
+            int lo;
+            if (c == '\\') {
+                pos++;
+                if (pos >= pattern.length()) {
+                    throw error("Unclosed character class");
+                }
+                char escaped = pattern.charAt(pos);
+                if (escaped == 'Q') {
+                    pos++;
+                    int end = pattern.indexOf("\\E", pos);
+                    String quoted = pattern.substring(pos, end < 0 ? pattern.length() : end);
+                    pos = end < 0 ? pattern.length() : end + 2;
+                    for (int i = 0; i < quoted.length(); ) {
+                        int q = quoted.codePointAt(i);
+                        result = result.union(fold(CharRanges.single(q)));
+                        i += Character.charCount(q);
+                    }
+                    continue;
+                }
+                if ("dDwWsShHvVpP".indexOf(escaped) >= 0) {
+                    result = result.union(parseClassEscape());
+                    continue;
+                }
+                lo = parseEscapedChar();
+            } else {
+                pos += Character.charCount(c);
+                lo = c;
+            }
+            int dash = peek();
+            if (dash == '-' && pos + 1 < pattern.length() && pattern.charAt(pos + 1) != ']' && pattern.charAt(pos + 1) != '[') {
+                pos++;
+                int hi = peek();
+                if (hi == '\\') {
+                    pos++;
+                    hi = parseEscapedChar();
+                } else {
+                    pos += Character.charCount(hi);
+                }
+                if (hi < lo) {
+                    throw error("Illegal character range");
+                }
+                result = result.union(fold(CharRanges.range(lo, hi)));
+            } else {
+                result = result.union(fold(CharRanges.single(lo)));
+            }
+        }
+    }
+
+    private RegexNode literal(String text) {
+        List<RegexNode> items = new ArrayList<>();
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            items.add(charNode(c));
+            i += Character.charCount(c);
+        }
+        if (items.isEmpty()) {
+            return RegexNode.Empty.INSTANCE;
+        }
+        return items.size() == 1 ? items.get(0) : new RegexNode.Sequence(items);
+    }
+
+    private RegexNode charNode(int c) {
+        return new RegexNode.CharClass(fold(CharRanges.single(c)));
+    }
+
+    private CharRanges fold(CharRanges chars) {
+        return has(Pattern.CASE_INSENSITIVE) ? chars.caseInsensitive() : chars;
+    }
+
+    private boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    private int parseNumber() {
+        int start = pos;
+        long value = 0;
+        while (pos < pattern.length() && pattern.charAt(pos) >= '0' && pattern.charAt(pos) <= '9') {
+            value = Math.min(value * 10 + (pattern.charAt(pos) - '0'), Integer.MAX_VALUE);
+            pos++;
+        }
+        return pos == start ? -1 : (int) value;
+    }
+
+    /**
+     * 查看下一个有效字符，COMMENTS 模式下跳过空白与 # 注释
+     * @return code point，结束时为 -1
+     */
+    private int peek() {
+        if (has(Pattern.COMMENTS)) {
+            skipComments();
+        }
+        return pos < pattern.length() ? pattern.codePointAt(pos) : -1;
+    }
+
+    private void skipComments() {
+        while (pos < pattern.length()) {
+            char c = pattern.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '#') {
+                while (pos < pattern.length() && pattern.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private PatternSyntaxException error(String description) {
+        return new PatternSyntaxException(description, pattern, pos);
+    }
+}
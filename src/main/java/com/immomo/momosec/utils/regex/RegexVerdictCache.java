@@ -0,0 +1,263 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 正则分析结论的 LRU 缓存
+ *
+ * 同一正则 (如邮箱、手机号、URL 校验) 常在大量类中重复出现，按正则而非调用点缓存结论，
+ * 歧义分析与动态验证对每个不同的正则只执行一次。
+ *
+ * key = ANALYZER_VERSION + 匹配方式 + 语法树的规范形式。语法树已折叠 (?i)、COMMENTS、DOTALL 等 flag
+ * 与等价的字符集写法，因此 "(?i)a" 与 "[Aa]" 共享同一条目；分析或验证算法变化时递增 ANALYZER_VERSION 使旧条目失效。
+ * 动态验证使用首个写入条目的原始正则执行，仅在 \p{..} 等被近似的写法上可能与其他同 key 的正则有差异。
+ *
+ * 按访问顺序淘汰，容量满时移除最久未访问的条目。export / importEntries 以单行文本保存条目，供持久化使用。
+ * 分析与验证在锁外执行，并发访问同一个未缓存的正则时可能重复计算，结论相同。
+ */
+public final class RegexVerdictCache {
+
+    public static final int ANALYZER_VERSION = 1;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final String SEPARATOR = " ";
+    private static final String NONE = "-";
+
+    public static final class Verdict {
+        private final RegexAnalyzer.Result result;
+        private final RegexConfirmer.Confirmation confirmation;
+
+        public Verdict(RegexAnalyzer.Result result, RegexConfirmer.Confirmation confirmation) {
+            this.result = result;
+            this.confirmation = confirmation;
+        }
+
+        public RegexAnalyzer.Result getResult() {
+            return result;
+        }
+
+        /**
+         * @return 动态验证结果，尚未验证时为 null
+         */
+        public RegexConfirmer.Confirmation getConfirmation() {
+            return confirmation;
+        }
+
+        public Verdict withConfirmation(RegexConfirmer.Confirmation confirmation) {
+            return new Verdict(result, confirmation);
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Verdict> entries;
+    private long hits;
+    private long misses;
+
+    public RegexVerdictCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RegexVerdictCache(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.entries = new LinkedHashMap<String, Verdict>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Verdict> eldest) {
+                return size() > RegexVerdictCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param root 语法树
+     * @param mode 匹配方式
+     * @return 缓存 key
+     */
+    public static String key(RegexNode root, RegexAnalyzer.MatchMode mode) {
+        return ANALYZER_VERSION + SEPARATOR + mode.name() + SEPARATOR + root;
+    }
+
+    /**
+     * 取正则的分析结论，未缓存时分析并写入；无法解析的正则不缓存
+     */
+    public Verdict analyze(String pattern, int flags, RegexAnalyzer.MatchMode mode) {
+        RegexNode root;
+        try {
+            root = RegexParser.parse(pattern, flags);
+        } catch (PatternSyntaxException e) {
+            return new Verdict(RegexAnalyzer.Result.UNKNOWN, null);
+        }
+        String key = key(root, mode);
+        Verdict verdict = get(key);
+        if (verdict == null) {
+            verdict = new Verdict(RegexAnalyzer.analyze(root, mode), null);
+            put(key, verdict);
+        }
+        return verdict;
+    }
+
+    /**
+     * 取正则的动态验证结果，未验证过时以 RegexConfirmer 验证并写入；被 checkCanceled 取消时不写入
+     */
+    public RegexConfirmer.Confirmation confirm(String pattern, int flags, RegexAnalyzer.MatchMode mode,
+                                               long budget, Runnable checkCanceled) {
+        RegexNode root;
+        try {
+            root = RegexParser.parse(pattern, flags);
+        } catch (PatternSyntaxException e) {
+            return RegexConfirmer.Confirmation.UNCONFIRMED;
+        }
+        String key = key(root, mode);
+        Verdict verdict = get(key);
+        if (verdict == null) {
+            verdict = new Verdict(RegexAnalyzer.analyze(root, mode), null);
+        } else if (verdict.getConfirmation() != null) {
+            return verdict.getConfirmation();
+        }
+        RegexConfirmer.Confirmation confirmation = RegexConfirmer.confirm(pattern, flags, mode, verdict.getResult(), budget, checkCanceled);
+        put(key, verdict.withConfirmation(confirmation));
+        return confirmation;
+    }
+
+    public synchronized Verdict get(String key) {
+        Verdict verdict = entries.get(key);
+        if (verdict != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return verdict;
+    }
+
+    public synchronized void put(String key, Verdict verdict) {
+        entries.put(key, verdict);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return 所有条目，由最久未访问到最近访问排列，每条为一行文本
+     */
+    public synchronized List<String> export() {
+        List<String> lines = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Verdict> entry : entries.entrySet()) {
+            lines.add(encode(entry.getKey(), entry.getValue()));
+        }
+        return lines;
+    }
+
+    /**
+     * 按顺序载入 export 得到的条目，格式错误或 ANALYZER_VERSION 不同的条目被忽略
+     */
+    public synchronized void importEntries(List<String> lines) {
+        String prefix = ANALYZER_VERSION + SEPARATOR;
+        for (String line : lines) {
+            String[] fields = line.split(SEPARATOR, -1);
+            try {
+                String key = decodeString(fields[0]);
+                if (key.startsWith(prefix)) {
+                    entries.put(key, decodeVerdict(fields));
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 字段: key complexity degree prefix pumpCount pump... confirmation，字符串字段以 Base64 编码以容纳任意字符
+     */
+    private static String encode(String key, Verdict verdict) {
+        RegexAnalyzer.Result result = verdict.getResult();
+        StringBuilder sb = new StringBuilder(encodeString(key))
+                .append(SEPARATOR).append(result.getComplexity().name())
+                .append(SEPARATOR).append(result.getDegree())
+                .append(SEPARATOR).append(encodeString(result.getPrefix()))
+                .append(SEPARATOR).append(result.getPumps().size());
+        for (String pump : result.getPumps()) {
+            sb.append(SEPARATOR).append(encodeString(pump));
+        }
+        RegexConfirmer.Confirmation confirmation = verdict.getConfirmation();
+        sb.append(SEPARATOR);
+        if (confirmation == null) {
+            sb.append(NONE);
+        } else {
+            // 只保留最后一次测量
+            sb.append(confirmation.isConfirmed()).append(',')
+                    .append(confirmation.isExceeded()).append(',')
+                    .append(confirmation.getExponent()).append(',')
+                    .append(confirmation.getInputLength()).append(',')
+                    .append(confirmation.getSteps());
+        }
+        return sb.toString();
+    }
+
+    private static Verdict decodeVerdict(String[] fields) {
+        RegexAnalyzer.Complexity complexity = RegexAnalyzer.Complexity.valueOf(fields[1]);
+        int degree = Integer.parseInt(fields[2]);
+        String prefix = decodeString(fields[3]);
+        int pumpCount = Integer.parseInt(fields[4]);
+        List<String> pumps = new ArrayList<>(pumpCount);
+        for (int i = 0; i < pumpCount; i++) {
+            pumps.add(decodeString(fields[5 + i]));
+        }
+        RegexAnalyzer.Result result = new RegexAnalyzer.Result(complexity, degree, prefix, pumps);
+
+        String encoded = fields[5 + pumpCount];
+        if (NONE.equals(encoded)) {
+            return new Verdict(result, null);
+        }
+        String[] parts = encoded.split(",");
+        List<long[]> growth = parts[3].equals("0")
+                ? Collections.emptyList()
+                : Collections.singletonList(new long[]{Long.parseLong(parts[3]), Long.parseLong(parts[4])});
+        RegexConfirmer.Confirmation confirmation = new RegexConfirmer.Confirmation(
+                Boolean.parseBoolean(parts[0]), Boolean.parseBoolean(parts[1]), Double.parseDouble(parts[2]), growth);
+        return new Verdict(result, confirmation);
+    }
+
+    private static String encodeString(String s) {
+        return Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeString(String s) {
+        return new String(Base64.getDecoder().decode(s), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.batch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+public class MomoSecScanCacheTest {
+
+    private static final byte[] RULES = "rules".getBytes(StandardCharsets.UTF_8);
+
+    private static MomoSecScanCache.Key key(MomoSecScanCache cache, String content) {
+        return cache.key(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<MomoSecFinding> findings(int sign) {
+        return Collections.singletonList(new MomoSecFinding("Rule", "error", "message " + sign, "", 1, 2, 3, 4, sign));
+    }
+
+    private static void put(Path dir, String... contents) throws IOException {
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            for (String content : contents) {
+                cache.put(key(cache, content), findings(content.hashCode()));
+            }
+            cache.commit();
+        }
+    }
+
+    private static Path findFile(Path dir, String prefix) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path path : stream) {
+                return path;
+            }
+        }
+        throw new AssertionError(prefix);
+    }
+
+    @Test
+    public void replay() throws IOException {
+        Path dir = Files.createTempDirectory("momosec-cache");
+        put(dir, "a", "b");
+
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            List<MomoSecFinding> findings = cache.get(key(cache, "a"), "A.java");
+            Assert.assertNotNull(findings);
+            Assert.assertEquals(1, findings.size());
+            Assert.assertEquals("message " + "a".hashCode(), findings.get(0).getMessage());
+            Assert.assertEquals("A.java", findings.get(0).getPath());
+            Assert.assertEquals("a".hashCode(), findings.get(0).getVulnSign());
+            Assert.assertNull(cache.get(key(cache, "c"), "C.java"));
+            Assert.assertEquals(1, cache.getHits());
+            Assert.assertEquals(1, cache.getMisses());
+        }
+
+        // 规则摘要不同时不命中
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, "other".getBytes(StandardCharsets.UTF_8))) {
+            Assert.assertNull(cache.get(key(cache, "a"), "A.java"));
+        }
+    }
+
+    /**
+     * 未 commit 的扫描不修改索引；commit 时保留未访问的条目
+     */
+    @Test
+    public void keepUntouchedEntries() throws IOException {
+        Path dir = Files.createTempDirectory("momosec-cache");
+        put(dir, "a", "b");
+
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            Assert.assertNotNull(cache.get(key(cache, "a"), "A.java"));
+            cache.put(key(cache, "c"), findings(3));
+        }
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            Assert.assertNotNull(cache.get(key(cache, "b"), "B.java"));
+            Assert.assertNull(cache.get(key(cache, "c"), "C.java"));
+            cache.commit();
+        }
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            Assert.assertNotNull(cache.get(key(cache, "a"), "A.java"));
+            Assert.assertNotNull(cache.get(key(cache, "b"), "B.java"));
+        }
+    }
+
+    @Test
+    public void expireIdleEntries() throws IOException {
+        Path dir = Files.createTempDirectory("momosec-cache");
+        put(dir, "a", "b");
+        for (int i = 0; i < MomoSecScanCache.MAX_IDLE_GENERATIONS; i++) {
+            try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+                Assert.assertNotNull(cache.get(key(cache, "a"), "A.java"));
+                cache.commit();
+            }
+        }
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            Assert.assertNotNull(cache.get(key(cache, "a"), "A.java"));
+            Assert.assertNull(cache.get(key(cache, "b"), "B.java"));
+        }
+    }
+
+    @Test
+    public void corruptRecordIsMiss() throws IOException {
+        Path dir = Files.createTempDirectory("momosec-cache");
+        put(dir, "a");
+
+        Path data = findFile(dir, "results-");
+        byte[] bytes = Files.readAllBytes(data);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(data, bytes);
+
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            Assert.assertNull(cache.get(key(cache, "a"), "A.java"));
+            Assert.assertEquals(1, cache.getMisses());
+            cache.put(key(cache, "a"), findings(1));
+            cache.commit();
+        }
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            List<MomoSecFinding> findings = cache.get(key(cache, "a"), "A.java");
+            Assert.assertNotNull(findings);
+            Assert.assertEquals(1, findings.get(0).getVulnSign());
+        }
+    }
+
+    /**
+     * 新一代索引写出不完整 (如进程在写索引时退出) 时，使用上一代索引及其数据文件
+     */
+    @Test
+    public void incompleteIndexFallsBack() throws IOException {
+        Path dir = Files.createTempDirectory("momosec-cache");
+        put(dir, "a");
+
+        Path index = findFile(dir, "index-");
+        byte[] bytes = Files.readAllBytes(index);
+        Files.write(dir.resolve("index-99.dat"), java.util.Arrays.copyOf(bytes, bytes.length - 3));
+
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            Assert.assertNotNull(cache.get(key(cache, "a"), "A.java"));
+            cache.commit();
+        }
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            Assert.assertNotNull(cache.get(key(cache, "a"), "A.java"));
+        }
+    }
+
+    /**
+     * 失效数据过半时压缩，压缩后记录仍可读取
+     */
+    @Test
+    public void compact() throws IOException {
+        Path dir = Files.createTempDirectory("momosec-cache");
+        for (int i = 0; i < 4; i++) {
+            try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+                cache.put(key(cache, "a"), findings(i));
+                cache.commit();
+            }
+        }
+        long size = Files.size(findFile(dir, "results-"));
+        try (MomoSecScanCache cache = MomoSecScanCache.open(dir, RULES)) {
+            List<MomoSecFinding> findings = cache.get(key(cache, "a"), "A.java");
+            Assert.assertNotNull(findings);
+            Assert.assertEquals(3, findings.get(0).getVulnSign());
+        }
+        Assert.assertTrue(size < 4 * 40);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.batch;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+
+public class SarifWriterTest {
+
+    @Test
+    public void artifactLocation() throws IOException {
+        String outside = new File("/outside/Foo.java").getAbsolutePath();
+        StringWriter out = new StringWriter();
+        try (SarifWriter writer = new SarifWriter(out, "1.0", Collections.singletonMap("Rule", "Rule"), "file:///project/")) {
+            writer.write(new MomoSecFinding("Rule", "error", "m", "src/Foo.java", 1, 1, 1, 2, 1));
+            writer.write(new MomoSecFinding("Rule", "note", "m", outside, 1, 1, 1, 2, 2));
+        }
+
+        JsonArray results = new JsonParser().parse(out.toString()).getAsJsonObject()
+                .getAsJsonArray("runs").get(0).getAsJsonObject()
+                .getAsJsonArray("results");
+        JsonObject relative = getArtifactLocation(results, 0);
+        Assert.assertEquals("src/Foo.java", relative.get("uri").getAsString());
+        Assert.assertEquals("%SRCROOT%", relative.get("uriBaseId").getAsString());
+
+        JsonObject absolute = getArtifactLocation(results, 1);
+        Assert.assertEquals(new File(outside).toURI().toASCIIString(), absolute.get("uri").getAsString());
+        Assert.assertFalse(absolute.has("uriBaseId"));
+        Assert.assertEquals("note", results.get(1).getAsJsonObject().get("level").getAsString());
+    }
+
+    @Test
+    public void encodePath() throws URISyntaxException {
+        Assert.assertEquals("src/Foo.java", SarifWriter.encodePath("src/Foo.java"));
+        Assert.assertEquals("src/my%20dir/a%23b%25c.java", SarifWriter.encodePath("src/my dir/a#b%c.java"));
+        Assert.assertEquals("src/%E4%B8%AD%E6%96%87.java", SarifWriter.encodePath("src/\u4e2d\u6587.java"));
+        String encoded = SarifWriter.encodePath("src/my dir/a#b%c\u4e2d.java");
+        Assert.assertEquals("src/my dir/a#b%c\u4e2d.java", new URI(encoded).getPath());
+    }
+
+    private static JsonObject getArtifactLocation(JsonArray results, int index) {
+        return results.get(index).getAsJsonObject()
+                .getAsJsonArray("locations").get(0).getAsJsonObject()
+                .getAsJsonObject("physicalLocation")
+                .getAsJsonObject("artifactLocation");
+    }
+}
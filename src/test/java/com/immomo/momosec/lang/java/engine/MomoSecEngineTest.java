@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.engine;
+
+import com.immomo.momosec.lang.java.MomoJavaCodeInsightFixtureTestCase;
+import com.immomo.momosec.lang.java.rule.momosecurity.PolyadicExpressionSQLi;
+import com.immomo.momosec.lang.java.rule.momosecurity.XMLDecoderUnserialize;
+
+public class MomoSecEngineTest extends MomoJavaCodeInsightFixtureTestCase {
+
+    String prefix = "rule/momosecurity/";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myFixture.enableInspections(new MomoSecEngine());
+    }
+
+    public void testDispatchByClassName() {
+        myFixture.copyFileToProject(prefix + "XMLDecoderUnserialize/stub/XMLDecoder.java");
+        doTest(new XMLDecoderUnserialize(), prefix + "XMLDecoderUnserialize/Vuln.java");
+    }
+
+    public void testDispatchByNodeKind() {
+        myFixture.copyFileToProject(prefix + "PolyadicExpressionSQLi/stub/StringUtils.java");
+        doTest(new PolyadicExpressionSQLi(), prefix + "PolyadicExpressionSQLi/Vuln.java");
+    }
+
+    /**
+     * 分发结果以规则自身的 id 上报，按规则 id 抑制
+     */
+    public void testSuppressByRuleId() {
+        myFixture.copyFileToProject(prefix + "XMLDecoderUnserialize/stub/XMLDecoder.java");
+        doTest(new XMLDecoderUnserialize(), "engine/SuppressByRule.java");
+    }
+}
@@ -36,4 +36,12 @@ public class PolyadicExpressionSQLiTest extends MomoJavaCodeInsightFixtureTestCa
         doTest(checker, "rule/momosecurity/PolyadicExpressionSQLi/LiteralStrNotVul.java");
     }
 
+    public void testSinkDrivenMode() {
+        myFixture.copyFileToProject("rule/momosecurity/PolyadicExpressionSQLi/stub/Statement.java");
+        myFixture.copyFileToProject("rule/momosecurity/PolyadicExpressionSQLi/stub/JdbcTemplate.java");
+        PolyadicExpressionSQLi sinkDrivenChecker = new PolyadicExpressionSQLi();
+        sinkDrivenChecker.sinkDrivenMode = true;
+        doTest(sinkDrivenChecker, "rule/momosecurity/PolyadicExpressionSQLi/SinkDriven.java");
+    }
+
 }
@@ -31,6 +31,38 @@ public class RegexDosTest extends MomoJavaCodeInsightFixtureTestCase {
         doTest(new RegexDos(), "rule/momosecurity/RegexDos/Vuln.java");
     }
 
+    public void testPolynomial() {
+        myFixture.copyFileToProject("rule/momosecurity/RegexDos/stub/Pattern.java");
+        RegexDos inspection = new RegexDos();
+        inspection.polynomialAsWeakWarning = false;
+        doTest(inspection, "rule/momosecurity/RegexDos/Polynomial.java");
+    }
+
+    public void testQuadratic() {
+        myFixture.copyFileToProject("rule/momosecurity/RegexDos/stub/Pattern.java");
+        RegexDos inspection = new RegexDos();
+        inspection.reportQuadratic = true;
+        inspection.polynomialAsWeakWarning = false;
+        doTest(inspection, "rule/momosecurity/RegexDos/Quadratic.java");
+    }
+
+    public void testSinksAndConstantFolding() {
+        String[] stubs = { "validation/Pattern.java", "RequestMapping.java", "GetMapping.java", "Splitter.java",
+                "Predicates.java", "RegExUtils.java", "StringUtils.java" };
+        for (String stub : stubs) {
+            myFixture.copyFileToProject("rule/momosecurity/RegexDos/stub/" + stub);
+        }
+        doTest(new RegexDos(), "rule/momosecurity/RegexDos/Sinks.java");
+    }
+
+    public void testConfirmDynamically() {
+        myFixture.copyFileToProject("rule/momosecurity/RegexDos/stub/Pattern.java");
+        RegexDos inspection = new RegexDos();
+        inspection.reportQuadratic = true;
+        inspection.confirmDynamically = true;
+        doTest(inspection, "rule/momosecurity/RegexDos/Confirm.java");
+    }
+
     public void testReplaceWithRE2JQuickFix() {
         Project project = myFixture.getProject();
         PsiMethodCallExpression compileMethodCall = (PsiMethodCallExpression) JavaPsiFacade.getElementFactory(project)
@@ -103,6 +103,53 @@ public class MoExpressionUtilsTest extends MomoJavaCodeInsightFixtureTestCase {
                         ((PsiExpressionStatement) statements[2]).getExpression()));
     }
 
+    public void testGetTextOnFieldCycle() {
+        PsiJavaFile file = (PsiJavaFile)myFixture.configureByText("Cycle.java", "" +
+                "class Cycle {" +
+                "  static String A = B + \"a\";" +
+                "  static String B = A + \"b\";" +
+                "  static String C = \"select * from \" + B;" +
+                "  String foo() { return C + A; }" +
+                "}");
+        PsiClass aClass = file.getClasses()[0];
+
+        PsiExpression a = aClass.getFields()[0].getInitializer();
+        PsiExpression c = aClass.getFields()[2].getInitializer();
+        assert a != null && c != null;
+        Assert.assertEquals("Baba", MoExpressionUtils.getText(a));
+        Assert.assertEquals("select * from Bab", MoExpressionUtils.getText(c));
+        Assert.assertEquals("select * from Bab", MoExpressionUtils.getText(c));
+
+        PsiReturnStatement returnStatement = (PsiReturnStatement)aClass.getMethods()[0].getBody().getStatements()[0];
+        List<StringConcatPart> parts = MoExpressionUtils.deconStringConcat((PsiPolyadicExpression)returnStatement.getReturnValue());
+        // 环上再次遇到的 field 不再展开，其初始值作为普通表达式
+        Assert.assertEquals(7, parts.size());
+        Assert.assertEquals("A + \"b\"", parts.get(1).getExpression().getText());
+        Assert.assertEquals("B + \"a\"", parts.get(4).getExpression().getText());
+    }
+
+    public void testGetConstantString() {
+        PsiJavaFile file = (PsiJavaFile)myFixture.configureByText("Constants.java", "" +
+                "class Constants {" +
+                "  static final String WORD = \"(\\\\w+\";" +
+                "  static final String SPACE = \"\\\\s?)\";" +
+                "  static final String REGEX = \"^\" + WORD + SPACE + \"*$\";" +
+                "  static final String NUM = 1 + 2 + \"x\" + 'y' + 3;" +
+                "  static final String CYCLE = CYCLE2 + \"a\";" +
+                "  static final String CYCLE2 = CYCLE + \"b\";" +
+                "  static String mutable = \"a\";" +
+                "  static final String PARTIAL = \"a\" + mutable;" +
+                "}");
+        PsiField[] fields = file.getClasses()[0].getFields();
+
+        Assert.assertEquals("^(\\w+\\s?)*$", MoExpressionUtils.getConstantString(fields[2].getInitializer()));
+        Assert.assertEquals("3xy3", MoExpressionUtils.getConstantString(fields[3].getInitializer()));
+        Assert.assertNull(MoExpressionUtils.getConstantString(fields[4].getInitializer()));
+        // getText 以 field 名代替无法折叠的部分，getConstantString 返回 null
+        Assert.assertNull(MoExpressionUtils.getConstantString(fields[7].getInitializer()));
+        Assert.assertEquals("aa", MoExpressionUtils.getText(fields[7].getInitializer()));
+    }
+
     public void testDeconPolyadicExpression() {
         String testFile = "utils/MoExpressionUtils/TestDeconPolyadicExpression.java";
         String actual;
@@ -154,11 +201,14 @@ public class MoExpressionUtilsTest extends MomoJavaCodeInsightFixtureTestCase {
         PsiLocalVariable sqlLocalVariable = (PsiLocalVariable)sqlDeclaration.getDeclaredElements()[0];
 
         assert sqlLocalVariable.getInitializer() instanceof PsiPolyadicExpression;
-        List<PsiExpression> derefExps = MoExpressionUtils.deconPolyadicExpression((PsiPolyadicExpression)sqlLocalVariable.getInitializer());
+        List<StringConcatPart> parts = MoExpressionUtils.deconStringConcat((PsiPolyadicExpression)sqlLocalVariable.getInitializer());
 
-        return StringUtils.join(derefExps.stream().map(item -> {
-            if (item instanceof PsiLiteralExpression) {
-                return ((PsiLiteralExpression)item).getValue();
+        return StringUtils.join(parts.stream().map(item -> {
+            if (item.isConstant()) {
+                return item.getConstantText();
+            }
+            if (item.getExpression() instanceof PsiLiteralExpression) {
+                return ((PsiLiteralExpression)item.getExpression()).getValue();
             }
             return "<not Literal>";
         }).collect(Collectors.toList()), "");
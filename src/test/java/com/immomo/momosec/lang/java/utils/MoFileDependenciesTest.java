@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.utils;
+
+import com.immomo.momosec.lang.java.MomoJavaCodeInsightFixtureTestCase;
+import com.intellij.psi.*;
+import org.junit.Assert;
+
+public class MoFileDependenciesTest extends MomoJavaCodeInsightFixtureTestCase {
+
+    /**
+     * 其他文件先折叠并缓存了 X.f 时，分析 X 命中缓存仍记录 X.f 对 B 的依赖
+     */
+    public void testReplayCachedFieldFold() {
+        myFixture.addFileToProject("B.java", "class B { static final String CONST = \"b\"; }");
+        PsiJavaFile x = (PsiJavaFile) myFixture.addFileToProject("X.java", "" +
+                "class X {\n" +
+                "  static final String f = B.CONST;\n" +
+                "  String g() { return f + \"x\"; }\n" +
+                "}");
+        PsiJavaFile y = (PsiJavaFile) myFixture.addFileToProject("Y.java", "" +
+                "class Y {\n" +
+                "  String h() { return X.f; }\n" +
+                "}");
+
+        try (MoFileDependencies.Recorder recorder = MoFileDependencies.start(y)) {
+            Assert.assertEquals("b", MoExpressionUtils.getConstantString(getReturnValue(y, "h")));
+            Assert.assertTrue(recorder.dependsOnOtherFiles());
+        }
+        try (MoFileDependencies.Recorder recorder = MoFileDependencies.start(x)) {
+            Assert.assertEquals("bx", MoExpressionUtils.getConstantString(getReturnValue(x, "g")));
+            Assert.assertTrue(recorder.dependsOnOtherFiles());
+        }
+    }
+
+    /**
+     * 方法摘要同样记录建立时读取的文件：X.m1 -> X.m2 -> B.m3
+     */
+    public void testReplayCachedSummary() {
+        myFixture.addFileToProject("B.java", "class B { static String m3(String s) { return s; } }");
+        PsiJavaFile x = (PsiJavaFile) myFixture.addFileToProject("X.java", "" +
+                "class X {\n" +
+                "  static String m1(String s) { return m2(s); }\n" +
+                "  static String m2(String s) { return B.m3(s); }\n" +
+                "}");
+        PsiJavaFile y = (PsiJavaFile) myFixture.addFileToProject("Y.java", "" +
+                "class Y {\n" +
+                "  String h(String s) { return X.m1(s); }\n" +
+                "}");
+
+        try (MoFileDependencies.Recorder recorder = MoFileDependencies.start(y)) {
+            Assert.assertEquals(1L, MoMethodSummary.getTaint(getReturnValue(y, "h")));
+            Assert.assertTrue(recorder.dependsOnOtherFiles());
+        }
+        PsiMethod m1 = x.getClasses()[0].findMethodsByName("m1", false)[0];
+        try (MoFileDependencies.Recorder recorder = MoFileDependencies.start(x)) {
+            MoMethodSummary summary = MoMethodSummary.getSummary(m1);
+            assert summary != null;
+            Assert.assertTrue(summary.flowsToReturn(0));
+            Assert.assertTrue(recorder.dependsOnOtherFiles());
+        }
+
+        PsiJavaFile z = (PsiJavaFile) myFixture.addFileToProject("Z.java", "" +
+                "class Z {\n" +
+                "  String z() { return \"z\"; }\n" +
+                "}");
+        try (MoFileDependencies.Recorder recorder = MoFileDependencies.start(z)) {
+            Assert.assertEquals(0L, MoMethodSummary.getTaint(getReturnValue(z, "z")));
+            Assert.assertFalse(recorder.dependsOnOtherFiles());
+        }
+    }
+
+    private static PsiExpression getReturnValue(PsiJavaFile file, String methodName) {
+        PsiMethod method = file.getClasses()[0].findMethodsByName(methodName, false)[0];
+        assert method.getBody() != null;
+        return ((PsiReturnStatement) method.getBody().getStatements()[0]).getReturnValue();
+    }
+}
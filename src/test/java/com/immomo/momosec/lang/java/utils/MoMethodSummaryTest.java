@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.lang.java.utils;
+
+import com.immomo.momosec.lang.java.MomoJavaCodeInsightFixtureTestCase;
+import com.intellij.psi.*;
+import org.junit.Assert;
+
+import java.util.List;
+
+public class MoMethodSummaryTest extends MomoJavaCodeInsightFixtureTestCase {
+
+    public void testSummary() {
+        myFixture.addClass("package java.sql; public interface Statement { boolean execute(String sql); }");
+        PsiJavaFile file = (PsiJavaFile)myFixture.configureByText("Dao.java", "" +
+                "import java.sql.Statement;\n" +
+                "class Dao {\n" +
+                "  Statement statement;\n" +
+                "  String where(String name, int limit) {\n" +
+                "    StringBuilder sb = new StringBuilder(\" where name = \");\n" +
+                "    sb.append(name).append(\" limit \").append(limit);\n" +
+                "    return sb.toString();\n" +
+                "  }\n" +
+                "  void run(String sql) {\n" +
+                "    statement.execute(sql);\n" +
+                "  }\n" +
+                "  void query(String table, String name) {\n" +
+                "    String sql = \"select * from \";\n" +
+                "    sql += \"t\";\n" +
+                "    String head = sql;\n" +
+                "    sql = sql + where(name, 10);\n" +
+                "    run(sql);\n" +
+                "  }\n" +
+                "  String self(String a) {\n" +
+                "    return a == null ? self(a) : \"x\";\n" +
+                "  }\n" +
+                "}");
+        PsiClass aClass = file.getClasses()[0];
+        PsiMethod where = aClass.findMethodsByName("where", false)[0];
+        PsiMethod run = aClass.findMethodsByName("run", false)[0];
+        PsiMethod query = aClass.findMethodsByName("query", false)[0];
+        PsiMethod self = aClass.findMethodsByName("self", false)[0];
+
+        MoMethodSummary whereSummary = MoMethodSummary.getSummary(where);
+        assert whereSummary != null;
+        Assert.assertTrue(whereSummary.flowsToReturn(0));
+        Assert.assertFalse(whereSummary.flowsToReturn(1));
+        Assert.assertEquals(0, whereSummary.getReturnTaint() & MoMethodSummary.UNKNOWN);
+
+        MoMethodSummary runSummary = MoMethodSummary.getSummary(run);
+        assert runSummary != null;
+        Assert.assertTrue(runSummary.reachesSqlSink(0));
+
+        MoMethodSummary querySummary = MoMethodSummary.getSummary(query);
+        assert querySummary != null;
+        Assert.assertFalse(querySummary.reachesSqlSink(0));
+        Assert.assertTrue(querySummary.reachesSqlSink(1));
+
+        PsiStatement[] statements = query.getBody().getStatements();
+        PsiLocalVariable head = (PsiLocalVariable)((PsiDeclarationStatement) statements[2]).getDeclaredElements()[0];
+        Assert.assertTrue(MoMethodSummary.isConstant(head.getInitializer()));
+        PsiExpression runArg = ((PsiMethodCallExpression)((PsiExpressionStatement) statements[4]).getExpression()).getArgumentList().getExpressions()[0];
+        Assert.assertEquals(1L << 1, MoMethodSummary.getTaint(runArg));
+
+        PsiLocalVariable sql = (PsiLocalVariable)((PsiDeclarationStatement) statements[0]).getDeclaredElements()[0];
+        List<PsiElement> definitions = MoMethodSummary.getDefinitions(sql, runArg.getTextOffset());
+        Assert.assertEquals(3, definitions.size());
+        Assert.assertSame(sql, definitions.get(0));
+        Assert.assertEquals(JavaTokenType.PLUSEQ, ((PsiAssignmentExpression) definitions.get(1)).getOperationTokenType());
+        Assert.assertEquals(1, MoMethodSummary.getDefinitions(sql, statements[1].getTextOffset()).size());
+
+        // 递归调用迭代到不动点：self 只可能返回 "x"
+        MoMethodSummary selfSummary = MoMethodSummary.getSummary(self);
+        assert selfSummary != null;
+        Assert.assertFalse(selfSummary.flowsToReturn(0));
+        Assert.assertEquals(0, selfSummary.getReturnTaint());
+    }
+
+    public void testFieldTaint() {
+        PsiJavaFile file = (PsiJavaFile)myFixture.configureByText("User.java", "" +
+                "class User {\n" +
+                "  static final String TABLE = \"t_\" + \"user\";\n" +
+                "  static String prefix = \"t_\";\n" +
+                "  final String owner = System.getProperty(\"user.name\");\n" +
+                "  private String name;\n" +
+                "  enum Type { OPEN }\n" +
+                "  String getName() { return name; }\n" +
+                "  String getTable() { return TABLE; }\n" +
+                "  void foo() {\n" +
+                "    String a = TABLE;\n" +
+                "    String b = prefix;\n" +
+                "    String c = owner;\n" +
+                "    String d = getName();\n" +
+                "    String e = getTable();\n" +
+                "    String f = \"\" + Type.OPEN;\n" +
+                "  }\n" +
+                "}");
+        PsiClass aClass = file.getClasses()[0];
+        PsiMethod foo = aClass.findMethodsByName("foo", false)[0];
+        PsiStatement[] statements = foo.getBody().getStatements();
+        boolean[] expected = { true, false, false, false, true, true };
+        for (int i = 0; i < expected.length; i++) {
+            PsiLocalVariable variable = (PsiLocalVariable)((PsiDeclarationStatement) statements[i]).getDeclaredElements()[0];
+            Assert.assertEquals(variable.getName(), expected[i], MoMethodSummary.isConstant(variable.getInitializer()));
+        }
+    }
+
+    /**
+     * 相互递归的方法作为一个强连通分量一起求值
+     */
+    public void testMutualRecursion() {
+        myFixture.addClass("package java.sql; public interface Statement { boolean execute(String sql); }");
+        PsiJavaFile file = (PsiJavaFile)myFixture.configureByText("Walk.java", "" +
+                "import java.sql.Statement;\n" +
+                "class Walk {\n" +
+                "  Statement statement;\n" +
+                "  String even(String s, int n) {\n" +
+                "    return n == 0 ? s : odd(s + \"e\", n - 1);\n" +
+                "  }\n" +
+                "  String odd(String s, int n) {\n" +
+                "    if (n == 0) { statement.execute(s); }\n" +
+                "    return even(s, n - 1);\n" +
+                "  }\n" +
+                "}");
+        PsiClass aClass = file.getClasses()[0];
+        PsiMethod even = aClass.findMethodsByName("even", false)[0];
+        PsiMethod odd = aClass.findMethodsByName("odd", false)[0];
+
+        MoMethodSummary evenSummary = MoMethodSummary.getSummary(even);
+        MoMethodSummary oddSummary = MoMethodSummary.getSummary(odd);
+        assert evenSummary != null && oddSummary != null;
+        Assert.assertSame(oddSummary, MoMethodSummary.getSummary(odd));
+        Assert.assertTrue(evenSummary.flowsToReturn(0));
+        Assert.assertTrue(oddSummary.flowsToReturn(0));
+        Assert.assertEquals(0, oddSummary.getReturnTaint() & MoMethodSummary.UNKNOWN);
+        Assert.assertTrue(evenSummary.reachesSqlSink(0));
+        Assert.assertTrue(oddSummary.reachesSqlSink(0));
+        Assert.assertFalse(evenSummary.reachesSqlSink(1));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.metrics;
+
+import com.immomo.momosec.lang.java.MomoJavaCodeInsightFixtureTestCase;
+import com.immomo.momosec.lang.java.rule.momosecurity.PolyadicExpressionSQLi;
+import com.immomo.momosec.lang.java.rule.momosecurity.XMLDecoderUnserialize;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.psi.JavaElementVisitor;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class MomoSecMetricsTest extends MomoJavaCodeInsightFixtureTestCase {
+
+    String prefix = "rule/momosecurity/XMLDecoderUnserialize/";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MomoSecMetrics.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            MomoSecMetrics.setEnabled(false);
+            MomoSecMetrics.reset();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testWrapWhenDisabled() {
+        PsiFile file = myFixture.configureByText("Foo.java", "class Foo {}");
+        ProblemsHolder holder = new ProblemsHolder(InspectionManager.getInstance(getProject()), file, false);
+        PsiElementVisitor visitor = new JavaElementVisitor() {};
+
+        MomoSecMetrics.setEnabled(false);
+        Assert.assertSame(visitor, MomoSecMetrics.wrap("Foo", visitor, holder));
+        Assert.assertEquals(0L, MomoSecMetrics.startOperation());
+
+        MomoSecMetrics.setEnabled(true);
+        PsiElementVisitor wrapped = MomoSecMetrics.wrap("Foo", visitor, holder);
+        Assert.assertNotSame(visitor, wrapped);
+        Assert.assertSame(visitor, MomoSecMetrics.unwrap(wrapped));
+        // 不在被统计的回调中
+        Assert.assertEquals(0L, MomoSecMetrics.startOperation());
+    }
+
+    /**
+     * 多次高亮的计数按规则累加
+     */
+    public void testAggregate() throws IOException {
+        MomoSecMetrics.setEnabled(true);
+        myFixture.copyFileToProject(prefix + "stub/XMLDecoder.java");
+        doTest(new XMLDecoderUnserialize(), prefix + "Vuln.java");
+
+        MomoSecMetrics.Snapshot first = find("XMLDecoderUnserialize");
+        Assert.assertNotNull(first);
+        Assert.assertTrue(first.getVisits() > 0);
+        Assert.assertTrue(first.getResolves() > 0);
+        Assert.assertEquals(1, first.getProblems());
+
+        DaemonCodeAnalyzer.getInstance(getProject()).restart();
+        myFixture.testHighlightingAllFiles(true, false, false, prefix + "Vuln.java");
+        MomoSecMetrics.Snapshot second = find("XMLDecoderUnserialize");
+        Assert.assertNotNull(second);
+        Assert.assertTrue(second.getVisits() >= 2 * first.getVisits());
+        Assert.assertEquals(2, second.getProblems());
+        Assert.assertTrue(second.getNanos() >= first.getNanos());
+
+        StringWriter out = new StringWriter();
+        MomoSecMetrics.writeJson(out);
+        Assert.assertTrue(out.toString().contains("\"ruleId\": \"XMLDecoderUnserialize\""));
+        Assert.assertTrue(out.toString().contains("\"methodSummaryBuilds\""));
+
+        MomoSecMetrics.reset();
+        Assert.assertNull(find("XMLDecoderUnserialize"));
+    }
+
+    public void testMethodSummaryBuilds() {
+        MomoSecMetrics.setEnabled(true);
+        myFixture.copyFileToProject("rule/momosecurity/PolyadicExpressionSQLi/stub/StringUtils.java");
+        doTest(new PolyadicExpressionSQLi(), "rule/momosecurity/PolyadicExpressionSQLi/Vuln.java");
+
+        MomoSecMetrics.Snapshot snapshot = find("PolyadicExpressionSQLi");
+        Assert.assertNotNull(snapshot);
+        Assert.assertTrue(snapshot.getMethodSummaryBuilds() > 0);
+    }
+
+    private static MomoSecMetrics.Snapshot find(String ruleId) {
+        for (MomoSecMetrics.Snapshot snapshot : MomoSecMetrics.snapshot()) {
+            if (snapshot.getRuleId().equals(ruleId)) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+}
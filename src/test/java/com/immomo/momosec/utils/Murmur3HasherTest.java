@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class Murmur3HasherTest {
+
+    @Test
+    public void main() {
+        String[] samples = new String[] {
+                "",
+                "a",
+                "ab",
+                "abc",
+                "abcd",
+                "null|",
+                "com.foo.Bar void foo(java.lang.String one, int two)|new XMLDecoder(in)",
+                "中文|éÿ\u0080",
+                "😀|emoji",
+                "unpaired \ud83d|",
+                "\ude00 low first",
+                "tail \ud83d",
+        };
+        for (String s : samples) {
+            Assert.assertEquals(s, MurmurHash3.hash32(s), new Murmur3Hasher().update(s).finish());
+        }
+    }
+
+    @Test
+    public void split() {
+        String fqname = "com.foo.Bar java.lang.String get(java.lang.String 名)";
+        String text = "\"select * from t where id = \" + 😀";
+        Assert.assertEquals(
+                MurmurHash3.hash32(String.format("%s|%s", fqname, text)),
+                new Murmur3Hasher().update(fqname).update('|').update(text).finish()
+        );
+        Assert.assertEquals(
+                MurmurHash3.hash32(String.format("%s|%s", null, text)),
+                new Murmur3Hasher().update((CharSequence)null).update('|').update(text).finish()
+        );
+        // 代理对跨越两次 update
+        Assert.assertEquals(
+                MurmurHash3.hash32("a😀b"),
+                new Murmur3Hasher().update("a\ud83d").update("\ude00b").finish()
+        );
+    }
+
+    @Test
+    public void random() {
+        Random random = new Random(104729);
+        for (int i = 0; i < 20000; i++) {
+            char[] chars = new char[random.nextInt(40)];
+            for (int j = 0; j < chars.length; j++) {
+                switch (random.nextInt(4)) {
+                    case 0:  chars[j] = (char)random.nextInt(0x80); break;
+                    case 1:  chars[j] = (char)(0x80 + random.nextInt(0x780)); break;
+                    case 2:  chars[j] = (char)(0xd800 + random.nextInt(0x800)); break;
+                    default: chars[j] = (char)random.nextInt(0x10000); break;
+                }
+            }
+            String s = new String(chars);
+            Assert.assertEquals(s, MurmurHash3.hash32(s), new Murmur3Hasher().update(s).finish());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.immomo.momosec.utils.SQLLexer.Context.*;
+
+public class SQLLexerTest {
+
+    @Test
+    public void context() {
+        Assert.assertEquals(IDENTIFIER,   single("select ${field} from table"));
+        Assert.assertEquals(IDENTIFIER,   single("select * from ${table}"));
+        Assert.assertEquals(IDENTIFIER,   single("select * from table where ${field} = 1"));
+        Assert.assertEquals(VALUE,        single("select * from table where id = ${id}"));
+        Assert.assertEquals(VALUE,        single("select * from table where id>=${id}"));
+        Assert.assertEquals(VALUE,        single("insert into table(id, name) values(1, ${name})"));
+        Assert.assertEquals(IN_LIST,      single("select * from table where id in ${ids}"));
+        Assert.assertEquals(IN_LIST,      single("select * from table where id IN ( ${ids} )"));
+        Assert.assertEquals(IN_LIST,      single("select * from table where id not in(${ids})"));
+        Assert.assertEquals(LIKE_PATTERN, single("select * from table where name like '%${name}%'"));
+        Assert.assertEquals(LIKE_PATTERN, single("select * from table where name LIKE\n    \"${name}%\""));
+        Assert.assertEquals(QUOTED,       single("select * from table where name like 'a${name}%'"));
+        Assert.assertEquals(QUOTED,       single("select * from table where name = '${name}'"));
+        Assert.assertEquals(QUOTED,       single("select * from table where name = 'it\\'s ${name}'"));
+        Assert.assertEquals(ORDER_BY,     single("select * from table order by ${field}"));
+        Assert.assertEquals(ORDER_BY,     single("select * from table ORDER BY id, ${field}"));
+        Assert.assertEquals(IDENTIFIER,   single("select * from table group by ${field}"));
+        Assert.assertEquals(LIMIT,        single("select * from table limit ${size}"));
+        Assert.assertEquals(LIMIT,        single("select * from table limit 10 offset ${offset}"));
+
+        List<SQLLexer.Hole> holes = SQLLexer.lexDollarVars("select ${a} from t where id = '${b}' order by ${c} limit ${d}");
+        Assert.assertEquals(4, holes.size());
+        Assert.assertEquals("a", holes.get(0).getVar());
+        Assert.assertEquals(IDENTIFIER, holes.get(0).getContext());
+        Assert.assertEquals(QUOTED, holes.get(1).getContext());
+        Assert.assertEquals(ORDER_BY, holes.get(2).getContext());
+        Assert.assertEquals(LIMIT, holes.get(3).getContext());
+
+        String sql = "where a = ' ${a} ' and b = '${b}x' and c = \"${c}'";
+        holes = SQLLexer.lexDollarVars(sql);
+        Assert.assertEquals(sql.indexOf('\''), holes.get(0).getQuoteStart());
+        Assert.assertEquals(sql.indexOf(" and b"), holes.get(0).getQuoteEnd());
+        Assert.assertEquals(-1, holes.get(1).getQuoteStart());
+        Assert.assertEquals(-1, holes.get(2).getQuoteEnd());
+    }
+
+    @Test
+    public void template() {
+        SQLLexer.Template template = new SQLLexer.Template()
+                .append("select * from ").appendHole(" ? ")
+                .append(" where id = ").appendHole(" ? ");
+        List<SQLLexer.Hole> holes = SQLLexer.lex(template);
+        Assert.assertEquals(2, holes.size());
+        Assert.assertFalse(holes.get(0).isVulnerable());
+        Assert.assertTrue(holes.get(1).isVulnerable());
+        Assert.assertEquals(VALUE, holes.get(1).getContext());
+        Assert.assertEquals(" ? ", template.toString().substring(holes.get(1).getStart(), holes.get(1).getEnd()));
+
+        holes = SQLLexer.lexPlaceholders("select * from %s where id = %1$2s");
+        Assert.assertEquals(2, holes.size());
+        Assert.assertNull(holes.get(1).getVar());
+        Assert.assertFalse(holes.get(0).isVulnerable());
+        Assert.assertTrue(holes.get(1).isVulnerable());
+    }
+
+    /**
+     * 与逐个拼接点截取前后内容、调用 SQLi.hasVulOnSQLJoinStr 的判断结果一致
+     */
+    @Test
+    public void sameAsJoinStr() {
+        String[] words = { "select", "from", "where", "set", "values", "into", "join", "update", "limit", "by",
+                "having", "order", "group", "in", "like", "id", "=", ">=", "<=", "name=", "(", ")", "|", ",",
+                " ", "\t", "\n", "\u0001", "WHERE", "'", "\"", "%", "\\", "${v}", "%s" };
+        Random random = new Random(104729);
+        for (int i = 0; i < 50000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(16); j > 0; j--) {
+                sb.append(words[random.nextInt(words.length)]);
+                if (random.nextBoolean()) {
+                    sb.append(' ');
+                }
+            }
+            String text = sb.toString();
+
+            List<SQLLexer.Hole> holes = SQLLexer.lexDollarVars(text);
+            for (SQLLexer.Hole hole : holes) {
+                Assert.assertEquals(text + "@" + hole.getStart(),
+                        SQLi.hasVulOnSQLJoinStr(text.substring(0, hole.getStart()), hole.getVar(), text.substring(hole.getEnd())),
+                        hole.isVulnerable());
+            }
+
+            holes = SQLLexer.lexPlaceholders(text);
+            for (SQLLexer.Hole hole : holes) {
+                Assert.assertEquals(text + "@" + hole.getStart(),
+                        SQLi.hasVulOnSQLJoinStr(text.substring(0, hole.getStart()), null, null),
+                        hole.isVulnerable());
+            }
+        }
+    }
+
+    private static SQLLexer.Context single(String sql) {
+        List<SQLLexer.Hole> holes = SQLLexer.lexDollarVars(sql);
+        Assert.assertEquals(sql, 1, holes.size());
+        return holes.get(0).getContext();
+    }
+}
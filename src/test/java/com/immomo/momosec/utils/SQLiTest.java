@@ -18,7 +18,12 @@ package com.immomo.momosec.utils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class SQLiTest {
 
@@ -54,6 +59,100 @@ public class SQLiTest {
 
     }
 
+    @Test
+    public void reverseScan() {
+        String[] words = { "select", "from", "where", "set", "values", "into", "join", "update", "limit", "by",
+                "having", "order", "group", "id", "=", ">=", "<=", "name=", "(", ")", "|", ",", " ", "\t", "\n",
+                "\u0001", "WHERE", "'", "${v}" };
+        String[] suffixes = { null, "", " = 1", ">2", "  <3", ") > 0", "\u0001=", "abc" };
+        Random random = new Random(104729);
+        for (int i = 0; i < 50000; i++) {
+            StringBuilder prefix = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) {
+                prefix.append(words[random.nextInt(words.length)]);
+                if (random.nextBoolean()) {
+                    prefix.append(' ');
+                }
+            }
+            String suffix = suffixes[random.nextInt(suffixes.length)];
+            Assert.assertEquals(prefix + "|" + suffix,
+                    splitCheck(prefix.toString(), suffix), SQLi.hasVulOnSQLJoinStr(prefix, "var", suffix));
+
+            // 拼接点位于整段内容中间
+            String text = prefix + "${var}" + (suffix != null ? suffix : "");
+            Assert.assertEquals(splitCheck(prefix.toString(), suffix),
+                    SQLi.hasVulOnSQLJoinStr(text, prefix.length(), suffix != null ? text : null, prefix.length() + 6));
+        }
+    }
+
+    @Test
+    public void isSqlStatement() {
+        Assert.assertTrue( SQLi.isSqlStatement("select * from table where id = 1"));
+        Assert.assertTrue( SQLi.isSqlStatement("  UPDATE table SET name = 'a' WHERE id = 1"));
+        Assert.assertTrue( SQLi.isSqlStatement("insert into\ntable where"));
+        Assert.assertFalse(SQLi.isSqlStatement("insert into table\nwhere"));
+        Assert.assertTrue( SQLi.isSqlStatement("delete\nfrom table where"));
+        Assert.assertFalse(SQLi.isSqlStatement("select * from table"));
+        Assert.assertFalse(SQLi.isSqlStatement("selected rows from table where id = 1"));
+        Assert.assertFalse(SQLi.isSqlStatement("select a\nfrom table where id = 1"));
+        Assert.assertFalse(SQLi.isSqlStatement("select * from table\u0085 where id = 1"));
+        Assert.assertFalse(SQLi.isSqlStatement("log: select * from table where id = 1"));
+
+        String[] words = { "select", "SeLeCt", "delete", "update", "INSERT", "from", "FROM", "into", "set", "offset",
+                "where", "WHERE", "wher", "x", "İ", " ", "  ", "\t", "\n", "\r", "\u000B", "\u0085", "\u2028" };
+        Random random = new Random(104729);
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder sb = new StringBuilder();
+            if (random.nextBoolean()) {
+                sb.append(words[random.nextInt(5)]).append(' ');
+            }
+            for (int j = random.nextInt(12); j > 0; j--) {
+                sb.append(words[random.nextInt(words.length)]);
+                if (random.nextBoolean()) {
+                    sb.append(' ');
+                }
+            }
+            String str = sb.toString();
+            Assert.assertEquals(str, sqlPattern.matcher(str).find(), SQLi.isSqlStatement(str));
+        }
+    }
+
+    /**
+     * 原 BaseSQLi 中的正则，用于对照
+     */
+    private static final Pattern sqlPattern =
+            Pattern.compile("^\\s*(select|delete|update|insert)\\s+.*?(from|into|set)\\s+.*?where.*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * 原基于 split 的实现，用于对照
+     */
+    private static boolean splitCheck(String prefix, String suffix) {
+        List<String> fragments = Arrays.stream(prefix.split("[\\s|(]+"))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .collect(Collectors.toList());
+        int seg_size = fragments.size();
+        if (seg_size == 0 || fragments.get(seg_size - 1).endsWith("=")) {
+            return true;
+        }
+        for(int i = seg_size - 1; i >= 0; i--) {
+            String frag = fragments.get(i);
+            if (frag.equals("limit") || frag.equals("by") || frag.equals("having")) {
+                continue;
+            }
+            if (frag.equals("where") || frag.equals("set")) {
+                return suffix == null || !(suffix.trim().startsWith("=") || suffix.trim().startsWith(">") || suffix.trim().startsWith("<"));
+            }
+            if (frag.equals("values")) {
+                return true;
+            }
+            if (frag.equals("from") || frag.equals("into") || frag.equals("join") || frag.equals("select") || frag.equals("update")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean check(String prefix, String var, String suffix){
         return SQLi.hasVulOnSQLJoinStr(prefix, var, suffix);
     }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class VulnSignBaselineTest {
+
+    @Test
+    public void main() throws IOException {
+        int[] signs = new int[]{ 7, -3, Integer.MIN_VALUE, 42, 7, Integer.MAX_VALUE, 0 };
+
+        Path dir = Files.createTempDirectory("momosec-baseline");
+        Path path = dir.resolve(".momosec-baseline");
+        VulnSignBaseline.write(path, signs);
+
+        VulnSignBaseline baseline = VulnSignBaseline.load(path);
+        Assert.assertEquals(6, baseline.size());
+        for (int sign : signs) {
+            Assert.assertTrue(baseline.contains(sign));
+        }
+        Assert.assertFalse(baseline.contains(1));
+        Assert.assertFalse(baseline.contains(-4));
+        Assert.assertFalse(baseline.contains(Integer.MAX_VALUE - 1));
+
+        Assert.assertTrue(VulnSignBaseline.load(dir.resolve("not-exists")).isEmpty());
+        Assert.assertFalse(VulnSignBaseline.EMPTY.contains(0));
+    }
+
+    @Test
+    public void randomSigns() {
+        Random random = new Random(104729);
+        int[] signs = new int[10000];
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < signs.length; i++) {
+            signs[i] = random.nextInt();
+            expected.add(signs[i]);
+        }
+
+        VulnSignBaseline baseline = VulnSignBaseline.of(signs);
+        Assert.assertEquals(expected.size(), baseline.size());
+        for (int i = 0; i < 100000; i++) {
+            int sign = i < signs.length ? signs[i] : random.nextInt();
+            Assert.assertEquals(expected.contains(sign), baseline.contains(sign));
+        }
+    }
+}
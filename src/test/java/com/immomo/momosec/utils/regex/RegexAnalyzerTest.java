@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.immomo.momosec.utils.regex.RegexAnalyzer.Complexity.*;
+
+public class RegexAnalyzerTest {
+
+    @Test
+    public void parse() {
+        Assert.assertEquals("[a]", RegexParser.parse("a").toString());
+        Assert.assertEquals("[A-Za-z]{1,}", RegexParser.parse("(?i)[a-z]+").toString());
+        Assert.assertEquals("(?:[a-z]{1,}(?:[Aa]))[b]", RegexParser.parse("(?:[a-z]+(?i:a))b").toString());
+        Assert.assertEquals("[b-df-hj-np-tv-z]", RegexParser.parse("[a-z&&[^aeiou]]").toString());
+        Assert.assertEquals("[\\-a]", RegexParser.parse("[a-]").toString());
+        Assert.assertEquals("[A][+][\\x{1B}]", RegexParser.parse("\\x41\\u002B\\e").toString());
+        Assert.assertEquals("[a][.][*]", RegexParser.parse("a\\Q.*\\E").toString());
+        Assert.assertEquals("[a][b]", RegexParser.parse("a b # comment", Pattern.COMMENTS).toString());
+
+        RegexNode node = RegexParser.parse("(?<year>\\d{4})-\\k<year>");
+        RegexNode.Backreference ref = (RegexNode.Backreference) ((RegexNode.Sequence) node).getItems().get(2);
+        Assert.assertEquals(1, ref.getGroup().getIndex());
+        Assert.assertEquals("year", ref.getGroup().getName());
+
+        String[] invalid = { "(a", "a)", "*a", "a{", "a{2,1}", "[a", "[b-a]", "\\k<x>", "\\y", "(?<1a>b)" };
+        for (String pattern : invalid) {
+            try {
+                RegexParser.parse(pattern);
+                Assert.fail(pattern);
+            } catch (PatternSyntaxException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void exponential() {
+        String[] patterns = {
+                "([a-z]+)*",
+                "^(a+)+$",
+                "(a|aa)+",
+                "(a|a)*b",
+                "^(\\w+\\s?)*$",
+                "(\\d+)+\\.",
+                "^(([a-z])+.)+[A-Z]([a-z])+$",
+                "^(([a-zA-Z0-9]+)*)+$",
+                "(x+x+)+y",
+                "(a*)*",
+                "(?i)(a|A)+$",
+                "(\\w|\\d)+$",
+                "((ab)*|(ab)*)+c",
+                "(a+){2,}",
+                "(.*a){2,}x",
+        };
+        for (String pattern : patterns) {
+            RegexAnalyzer.Result result = RegexAnalyzer.analyze(pattern);
+            Assert.assertEquals(pattern, EXPONENTIAL, result.getComplexity());
+            Assert.assertFalse(pattern, result.getPump().isEmpty());
+        }
+    }
+
+    @Test
+    public void safe() {
+        String[] patterns = {
+                "13\\d{9}",
+                "^[a-zA-Z0-9_.+-]+@[a-zA-Z0-9-]+\\.[a-zA-Z0-9-.]+$",
+                "^(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$",
+                "^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$",
+                "^[a-z0-9-]+(\\.[a-z0-9-]+)*\\.(com|cn|net|org)$",
+                "(a+b)*",
+                "(ab|a)*",
+                "(?>a+)+",
+                "(a|a)*+b",
+                "a*+b",
+                "(a?)*",
+                "\\s*,\\s*",
+                "<script[^>]*>.*?</script>",
+                "(.*a){12}",
+                "[^\\s\\S]+",
+        };
+        for (String pattern : patterns) {
+            Assert.assertNotEquals(pattern, EXPONENTIAL, RegexAnalyzer.analyze(pattern).getComplexity());
+        }
+        Assert.assertEquals(UNKNOWN, RegexAnalyzer.analyze("(a").getComplexity());
+        Assert.assertEquals(UNKNOWN, RegexAnalyzer.analyze("((a{10}){10}){10}").getComplexity());
+    }
+
+    @Test
+    public void polynomial() {
+        Object[][] cases = {
+                { "\\s*foo\\s*$", RegexAnalyzer.MatchMode.FIND, 2 },
+                { "\\s+$", RegexAnalyzer.MatchMode.FIND, 2 },
+                { "^\\s+$", RegexAnalyzer.MatchMode.FIND, 0 },
+                { ".*.*=.*", RegexAnalyzer.MatchMode.FULL, 3 },
+                { ".*.*", RegexAnalyzer.MatchMode.FULL, 2 },
+                { ".*.*", RegexAnalyzer.MatchMode.FIND, 0 },
+                { "(.*a){3}", RegexAnalyzer.MatchMode.FULL, 3 },
+                // 必须出现的拷贝数按 MAX_COPIES 截断
+                { "(.*a){12}", RegexAnalyzer.MatchMode.FULL, RegexAutomaton.MAX_COPIES },
+                { "a*b*", RegexAnalyzer.MatchMode.FULL, 0 },
+                { "\\d+\\.\\d+", RegexAnalyzer.MatchMode.FULL, 0 },
+                { "^\\d+\\.?\\d+$", RegexAnalyzer.MatchMode.FULL, 2 },
+                { "\\s*,\\s*", RegexAnalyzer.MatchMode.FIND, 2 },
+                { "[a-z]+@[a-z]+", RegexAnalyzer.MatchMode.FULL, 0 },
+                { "(?>\\s*)x", RegexAnalyzer.MatchMode.FULL, 0 },
+        };
+        for (Object[] c : cases) {
+            String pattern = (String) c[0];
+            RegexAnalyzer.Result result = RegexAnalyzer.analyze(pattern, 0, (RegexAnalyzer.MatchMode) c[1]);
+            int degree = (Integer) c[2];
+            Assert.assertEquals(pattern, degree == 0 ? SAFE : POLYNOMIAL, result.getComplexity());
+            Assert.assertEquals(pattern, degree, result.getDegree());
+            Assert.assertEquals(pattern, Math.max(degree - 1, 0), result.getPumps().size());
+        }
+        Assert.assertEquals(EXPONENTIAL, RegexAnalyzer.analyze("(a+)+$", 0, RegexAnalyzer.MatchMode.FIND).getComplexity());
+    }
+
+    /**
+     * 由 prefix + pump * n 构成的输入可被正则以多种方式匹配
+     */
+    @Test
+    public void witness() {
+        RegexAnalyzer.Result result = RegexAnalyzer.analyze("^x(\\w+\\s?)*$");
+        Assert.assertTrue(result.getPrefix().startsWith("x"));
+        StringBuilder input = new StringBuilder(result.getPrefix());
+        for (int i = 0; i < 4; i++) {
+            input.append(result.getPump());
+        }
+        Assert.assertTrue(Pattern.matches("^x(\\w+\\s?)*$", input));
+    }
+}
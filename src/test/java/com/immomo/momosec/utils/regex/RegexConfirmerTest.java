@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static com.immomo.momosec.utils.regex.RegexAnalyzer.MatchMode.FIND;
+import static com.immomo.momosec.utils.regex.RegexAnalyzer.MatchMode.FULL;
+
+public class RegexConfirmerTest {
+
+    private static RegexConfirmer.Confirmation confirm(String pattern, RegexAnalyzer.MatchMode mode) {
+        RegexAnalyzer.Result result = RegexAnalyzer.analyze(pattern, 0, mode);
+        return RegexConfirmer.confirm(pattern, 0, mode, result, RegexConfirmer.DEFAULT_BUDGET, null);
+    }
+
+    @Test
+    public void confirmed() {
+        Object[][] cases = {
+                { "^(\\w+\\s?)*$", FULL },
+                { "(\\d+)+\\.", FIND },
+                { "\\s*foo\\s*$", FIND },
+                { ".*=.*=.*", FULL },
+        };
+        for (Object[] c : cases) {
+            RegexConfirmer.Confirmation confirmation = confirm((String) c[0], (RegexAnalyzer.MatchMode) c[1]);
+            Assert.assertTrue((String) c[0], confirmation.isConfirmed());
+            Assert.assertTrue((String) c[0], confirmation.getExponent() >= RegexConfirmer.MIN_EXPONENT);
+            Assert.assertTrue((String) c[0], confirmation.getGrowth().size() >= 2);
+        }
+    }
+
+    /**
+     * (a|a)* 静态分析报出，但 find 总能在起始位置以空串成功，回溯不会发生
+     */
+    @Test
+    public void unconfirmed() {
+        Assert.assertFalse(confirm("(a|a)*", FIND).isConfirmed());
+        Assert.assertFalse(confirm("a*b*", FULL).isConfirmed());
+    }
+
+    @Test
+    public void cancel() {
+        RegexAnalyzer.Result result = RegexAnalyzer.analyze(".*=.*=.*");
+        try {
+            RegexConfirmer.confirm(".*=.*=.*", 0, FULL, result, RegexConfirmer.DEFAULT_BUDGET, () -> {
+                throw new CancellationException();
+            });
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+}
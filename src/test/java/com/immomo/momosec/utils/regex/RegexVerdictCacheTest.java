@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 momosecurity.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.immomo.momosec.utils.regex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.immomo.momosec.utils.regex.RegexAnalyzer.MatchMode.FIND;
+import static com.immomo.momosec.utils.regex.RegexAnalyzer.MatchMode.FULL;
+
+public class RegexVerdictCacheTest {
+
+    /**
+     * 写法不同但语法树相同的正则共享同一条目，匹配方式不同时分别缓存
+     */
+    @Test
+    public void normalizedKey() {
+        RegexVerdictCache cache = new RegexVerdictCache();
+        RegexVerdictCache.Verdict verdict = cache.analyze("(?i)(a|aa)+", 0, FULL);
+        Assert.assertEquals(RegexAnalyzer.Complexity.EXPONENTIAL, verdict.getResult().getComplexity());
+        Assert.assertSame(verdict, cache.analyze("([aA]|[Aa][aA])+", 0, FULL));
+        Assert.assertSame(verdict, cache.analyze("(a|aa)+", Pattern.CASE_INSENSITIVE, FULL));
+        Assert.assertSame(verdict, cache.analyze("( a | a a )+ # comment", Pattern.COMMENTS | Pattern.CASE_INSENSITIVE, FULL));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(3, cache.getHits());
+
+        cache.analyze("(a|aa)+", 0, FULL);
+        cache.analyze("(a|aa)+", 0, FIND);
+        Assert.assertEquals(3, cache.size());
+
+        // 无法解析的正则不缓存
+        Assert.assertEquals(RegexAnalyzer.Complexity.UNKNOWN, cache.analyze("(a", 0, FULL).getResult().getComplexity());
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void lru() {
+        RegexVerdictCache cache = new RegexVerdictCache(2);
+        cache.analyze("a", 0, FULL);
+        cache.analyze("b", 0, FULL);
+        cache.analyze("a", 0, FULL);
+        cache.analyze("c", 0, FULL);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.get(RegexVerdictCache.key(RegexParser.parse("a"), FULL)));
+        Assert.assertNull(cache.get(RegexVerdictCache.key(RegexParser.parse("b"), FULL)));
+    }
+
+    @Test
+    public void confirmOnce() {
+        RegexVerdictCache cache = new RegexVerdictCache();
+        RegexConfirmer.Confirmation confirmation = cache.confirm(".*=.*=.*", 0, FULL, RegexConfirmer.DEFAULT_BUDGET, null);
+        Assert.assertTrue(confirmation.isConfirmed());
+        Assert.assertSame(confirmation, cache.confirm(".*=.*=.*", 0, FULL, RegexConfirmer.DEFAULT_BUDGET, () -> {
+            throw new AssertionError("should not run again");
+        }));
+        Assert.assertSame(confirmation, cache.analyze(".*=.*=.*", 0, FULL).getConfirmation());
+    }
+
+    @Test
+    public void exportAndImport() {
+        RegexVerdictCache cache = new RegexVerdictCache();
+        cache.analyze("^(\\w+\\s?)*$", 0, FULL);
+        cache.analyze("a\\x00b\\n c", 0, FIND);
+        cache.confirm("\\s*foo\\s*$", 0, FIND, RegexConfirmer.DEFAULT_BUDGET, null);
+        List<String> lines = cache.export();
+        Assert.assertEquals(3, lines.size());
+
+        RegexVerdictCache restored = new RegexVerdictCache();
+        restored.importEntries(lines);
+        Assert.assertEquals(lines, restored.export());
+
+        RegexAnalyzer.Result expected = cache.analyze("^(\\w+\\s?)*$", 0, FULL).getResult();
+        RegexAnalyzer.Result actual = restored.analyze("^(\\w+\\s?)*$", 0, FULL).getResult();
+        Assert.assertEquals(expected.getComplexity(), actual.getComplexity());
+        Assert.assertEquals(expected.getPrefix(), actual.getPrefix());
+        Assert.assertEquals(expected.getPumps(), actual.getPumps());
+
+        RegexConfirmer.Confirmation confirmation = restored.analyze("\\s*foo\\s*$", 0, FIND).getConfirmation();
+        Assert.assertNotNull(confirmation);
+        Assert.assertTrue(confirmation.isConfirmed());
+        Assert.assertEquals(cache.analyze("\\s*foo\\s*$", 0, FIND).getConfirmation().getSteps(), confirmation.getSteps());
+
+        // 版本不同或格式错误的条目被忽略
+        RegexVerdictCache other = new RegexVerdictCache();
+        other.importEntries(Collections.singletonList("MCBGVUxMIGE= SAFE 0  0 -"));
+        other.importEntries(Collections.singletonList("broken"));
+        Assert.assertEquals(0, other.size());
+    }
+}
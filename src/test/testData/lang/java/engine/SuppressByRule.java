@@ -0,0 +1,18 @@
+import java.beans.XMLDecoder;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.FileNotFoundException;
+
+public class SuppressByRule {
+    public void foo() throws FileNotFoundException {
+        InputStream in = new FileInputStream("foo");
+        <error descr="MomoSec: 发现 XMLDecoder 反序列化风险">new XMLDecoder(in)</error>;
+        //noinspection XMLDecoderUnserialize
+        new XMLDecoder(in);
+    }
+
+    @SuppressWarnings("XMLDecoderUnserialize")
+    public void bar() throws FileNotFoundException {
+        new XMLDecoder(new FileInputStream("bar"));
+    }
+}
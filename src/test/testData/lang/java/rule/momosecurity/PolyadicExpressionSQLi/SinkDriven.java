@@ -0,0 +1,58 @@
+import java.sql.Statement;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class SinkDriven {
+
+    private Statement statement;
+    private JdbcTemplate jdbcTemplate;
+
+    void log(String msg) {}
+
+    void bar(String id, String name, boolean byName) {
+        String notExecuted = "select * from table0 where id = " + id;
+        log("select * from table_log where id = " + id);
+
+        String sql = <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">"select * from table1 where id = " + id</error>;
+        statement.execute(sql);
+
+        statement.executeUpdate(<error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">"delete from table2 where id = " + id</error>);
+
+        String query = "select * from table3";
+        if (byName) {
+            query = <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">"select * from table3 where name = '" + name + "'"</error>;
+        }
+        jdbcTemplate.queryForList(query);
+
+        String other = byName ? <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">"select * from table4 where name = " + name</error> : "select * from table4";
+        String alias = other;
+        jdbcTemplate.queryForList(alias);
+        jdbcTemplate.queryForList(other);
+
+        String safe = "select * from table5 where id = " + 1;
+        statement.execute(safe);
+    }
+
+    void plusEq(String name) {
+        String sql = "select * from table6 where status = 1";
+        if (name != null) {
+            <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">sql += " and name = '" + name + "'"</error>;
+        }
+        statement.execute(sql);
+
+        String count = "select count(*) from table6 where status = 1";
+        count += " and deleted = 0";
+        statement.execute(count);
+    }
+
+    void builder(String name, int limit) {
+        StringBuilder sb = new StringBuilder("select * from table7 where status = 1");
+        <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">sb.append(" and name = '").append(name)</error>.append("'");
+        sb.append(" limit ").append(limit);
+        jdbcTemplate.queryForList(sb.toString());
+
+        StringBuffer safe = new StringBuffer();
+        safe.append("select * from table8 where id = ").append(limit);
+        String query = safe.toString();
+        statement.execute(query);
+    }
+}
@@ -15,6 +15,16 @@ public class Vuln {
         return "";
     }
 
+    private static final String STATUS_COLUMN = "status";
+
+    static class User {
+        private String name;
+
+        String getName() {
+            return name;
+        }
+    }
+
     enum STATUS {
         ;
         public static String getUnique() {
@@ -44,8 +54,23 @@ public class Vuln {
 
         String sql10 = "select * from table where id = " + STATUS.getUnique();
 
+        String sql11 = <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">"select * from table3 where name = " + ("'" + id + "'")</error>;
+
+        int total = 1 + 2;
+
         LOG.debug("select * from table_log where id = " + id);
+        LOG.debug("query: " + ("select * from table_log where id = " + id));
         this.log("select * from table_log where id = " + id);
 
     }
+
+    void bar2(User user) {
+        String name = user.getName();
+        String sql12 = <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">"select * from table5 where name = '" + name + "'"</error>;
+
+        String column = STATUS_COLUMN;
+        String sql13 = "select * from table6 where " + column + " = 1";
+
+        String sql14 = <error descr="MomoSec: 疑似多项式拼接SQL注入漏洞">"select * from table7 where name = " + ("'" + (name + "'"))</error>;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package org.springframework.jdbc.core;
+
+import java.util.List;
+import java.util.Map;
+
+public class JdbcTemplate {
+    public List<Map<String, Object>> queryForList(String sql) { return null; }
+}
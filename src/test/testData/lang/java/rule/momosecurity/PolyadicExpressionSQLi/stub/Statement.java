@@ -0,0 +1,6 @@
+package java.sql;
+
+public interface Statement {
+    boolean execute(String sql);
+    int executeUpdate(String sql);
+}
@@ -0,0 +1,13 @@
+import java.util.regex.Pattern;
+
+public class Confirm {
+
+    void foo(String input) {
+        // 测得的步数与 JDK 版本相关，不校验 descr
+        Pattern.compile(<error>"\\s*foo\\s*$"</error>);
+
+        Pattern.matches(<error>".*=.*=.*"</error>, input);
+
+        Pattern.compile("(a|a)*"); // weak warning, unconfirmed
+    }
+}
@@ -0,0 +1,23 @@
+import java.util.regex.Pattern;
+
+public class Polynomial {
+
+    void foo(String input) {
+        // 平方级默认不报告
+        Pattern.compile("\\s*foo\\s*$"); // no warning
+        Pattern.compile("[a-z]+@[a-z]+"); // no warning
+        Pattern.compile("(\\d+)-(\\d+)"); // no warning
+        Pattern.compile("<[^>]*>"); // no warning
+        Pattern.compile("\\s*,\\s*"); // no warning
+        Pattern.compile("(\\w+)=(\\w+)"); // no warning
+        Pattern.compile("\\$\\{(\\S+?)\\}"); // no warning
+
+        Pattern.compile("^\\s*foo$"); // no warning
+
+        Pattern.matches(<error descr="MomoSec: 发现regexDos风险，多项式级回溯 O(n^3)">".*=.*=.*"</error>, input);
+
+        Pattern.matches(".*", input); // no warning
+
+        Pattern.matches(<error descr="MomoSec: 发现regexDos风险">"(a|aa)+"</error>, input);
+    }
+}
@@ -0,0 +1,12 @@
+import java.util.regex.Pattern;
+
+public class Quadratic {
+
+    void foo(String input) {
+        Pattern.compile(<error descr="MomoSec: 发现regexDos风险，多项式级回溯 O(n^2)">"\\s*foo\\s*$"</error>);
+
+        Pattern.matches("\\s*foo\\s*$", input); // no warning
+
+        Pattern.matches(<error descr="MomoSec: 发现regexDos风险，多项式级回溯 O(n^3)">".*=.*=.*"</error>, input);
+    }
+}
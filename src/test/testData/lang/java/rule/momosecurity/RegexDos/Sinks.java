@@ -0,0 +1,54 @@
+import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
+import org.apache.commons.lang3.RegExUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import javax.validation.constraints.Pattern;
+
+class Regexes {
+    static final String SEPARATOR = "(,|,,)+;";
+    static final String LETTERS = "[a-z]+";
+}
+
+@RequestMapping(<error descr="MomoSec: 发现regexDos风险">"/{tenant:(\\w|\\d)+}"</error>)
+public class Sinks {
+
+    private static final String WORD = "(\\w+";
+    private static final String EXPONENTIAL = "^" + WORD + "\\s?)*$";
+
+    @Pattern(regexp = <error descr="MomoSec: 发现regexDos风险">EXPONENTIAL</error>)
+    private String name;
+
+    @Pattern(regexp = "^" + Regexes.LETTERS + "$", flags = Pattern.Flag.CASE_INSENSITIVE) // no warning
+    private String code;
+
+    @GetMapping(path = {"/files/{name:[a-z]+}", <error descr="MomoSec: 发现regexDos风险">"/users/{id:(\\d+)+x}/{year:\\d{4}}"</error>})
+    void mapping() {
+    }
+
+    void foo(String input) {
+        input.matches(<error descr="MomoSec: 发现regexDos风险">EXPONENTIAL</error>);
+
+        input.replaceAll(<error descr="MomoSec: 发现regexDos风险">"(a|aa)+$"</error>, "");
+
+        input.replaceFirst(Regexes.LETTERS, ""); // no warning
+
+        input.split(<error descr="MomoSec: 发现regexDos风险">Regexes.SEPARATOR</error>);
+
+        input.split(","); // no warning
+
+        Splitter.onPattern(<error descr="MomoSec: 发现regexDos风险">"(\\d+)+\\."</error>);
+
+        Predicates.containsPattern(<error descr="MomoSec: 发现regexDos风险">"(\\w|\\d)+" + "$"</error>);
+
+        RegExUtils.replaceAll(input, <error descr="MomoSec: 发现regexDos风险">EXPONENTIAL</error>, "");
+
+        RegExUtils.removeFirst(input, Regexes.LETTERS); // no warning
+
+        StringUtils.replacePattern(input, <error descr="MomoSec: 发现regexDos风险">"(.|\\s)*x"</error>, "");
+
+        StringUtils.removePattern(input, "[a-z]+"); // no warning
+    }
+}
@@ -0,0 +1,8 @@
+package com.google.common.base;
+
+public final class Predicates {
+
+    public static Object containsPattern(String pattern) {
+        return null;
+    }
+}
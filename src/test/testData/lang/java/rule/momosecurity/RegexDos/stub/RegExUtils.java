@@ -0,0 +1,12 @@
+package org.apache.commons.lang3;
+
+public class RegExUtils {
+
+    public static String replaceAll(String text, String regex, String replacement) {
+        return text;
+    }
+
+    public static String removeFirst(String text, String regex) {
+        return text;
+    }
+}
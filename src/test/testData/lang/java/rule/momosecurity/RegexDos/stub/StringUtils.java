@@ -0,0 +1,12 @@
+package org.apache.commons.lang3;
+
+public class StringUtils {
+
+    public static String replacePattern(String source, String regex, String replacement) {
+        return source;
+    }
+
+    public static String removePattern(String source, String regex) {
+        return source;
+    }
+}
@@ -0,0 +1,26 @@
+package javax.validation.constraints;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Pattern {
+    String regexp();
+
+    Flag[] flags() default {};
+
+    String message() default "";
+
+    enum Flag {
+        UNIX_LINES,
+        CASE_INSENSITIVE,
+        COMMENTS,
+        MULTILINE,
+        DOTALL,
+        UNICODE_CASE,
+        CANON_EQ
+    }
+}